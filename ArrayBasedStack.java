@@ -1,8 +1,11 @@
+import java.util.Arrays;
 import java.util.EmptyStackException;
 
 /**
  * Array based implementation of StackADT.
- * Uses dynamic resizing when array becomes full.
+ * Uses dynamic resizing when array becomes full, and shrinks again once the
+ * stack falls to a quarter of its capacity, so a single deep expression does
+ * not pin a large array forever.
  * 
  * <p>
  * Example:
@@ -33,6 +36,16 @@ public class ArrayBasedStack implements StackADT {
      */
     private int top;
 
+    /**
+     * The capacity the stack starts with. It never shrinks below this.
+     */
+    private final int initialCapacity;
+
+    /**
+     * The factor the capacity is multiplied by when the array is full.
+     */
+    private final double growthFactor;
+
     /**
      * Constructs a new empty stack with a starting capacity of 10.
      * 
@@ -46,13 +59,67 @@ public class ArrayBasedStack implements StackADT {
      * }</pre>
      */
     public ArrayBasedStack() {
-        data = new String[10];
+        this(10);
+    }
+
+    /**
+     * Constructs a new empty stack with the given starting capacity, which
+     * doubles whenever the array becomes full.
+     * 
+     * <p>
+     * Example:
+     * </p>
+     * 
+     * <pre>{@code
+     * // room for 1000 elements before the first resize
+     * StackADT stack = new ArrayBasedStack(1000);
+     * }</pre>
+     *
+     * @param initialCapacity the number of elements the stack can hold before
+     *                        it has to resize
+     * @throws IllegalArgumentException if {@code initialCapacity < 1}
+     */
+    public ArrayBasedStack(int initialCapacity) {
+        this(initialCapacity, 2.0);
+    }
+
+    /**
+     * Constructs a new empty stack with the given starting capacity and
+     * growth factor.
+     * 
+     * <p>
+     * Example:
+     * </p>
+     * 
+     * <pre>{@code
+     * // grows by 50% at a time instead of doubling
+     * StackADT stack = new ArrayBasedStack(16, 1.5);
+     * }</pre>
+     *
+     * @param initialCapacity the number of elements the stack can hold before
+     *                        it has to resize
+     * @param growthFactor    the factor the capacity is multiplied by when
+     *                        the array is full
+     * @throws IllegalArgumentException if {@code initialCapacity < 1} or
+     *                                  {@code growthFactor <= 1}
+     */
+    public ArrayBasedStack(int initialCapacity, double growthFactor) {
+        if (initialCapacity < 1) {
+            throw new IllegalArgumentException("initialCapacity must be at least 1: " + initialCapacity);
+        }
+        if (!(growthFactor > 1.0)) {
+            throw new IllegalArgumentException("growthFactor must be greater than 1: " + growthFactor);
+        }
+        this.initialCapacity = initialCapacity;
+        this.growthFactor = growthFactor;
+        data = new String[initialCapacity];
         top = -1;
     }
 
     /**
      * Adds an element to the top of the stack.
-     * If the array is full, the array is resized to double its current capacity.
+     * If the array is full, the array is resized by the growth factor
+     * (double its current capacity by default).
      * 
      * <p>
      * Example:
@@ -70,7 +137,7 @@ public class ArrayBasedStack implements StackADT {
     public void push(String item) {
         // Resize if array is full
         if (top == data.length - 1) {
-            resize();
+            grow(top + 2);
         }
 
         // Add item to top of stack
@@ -104,6 +171,7 @@ public class ArrayBasedStack implements StackADT {
         String value = data[top];
         data[top] = null;
         top--;
+        shrinkIfSparse();
         return value;
     }
 
@@ -154,15 +222,142 @@ public class ArrayBasedStack implements StackADT {
     }
 
     /**
-     * Doubles the size of the underlying array.
+     * Returns the number of elements on the stack.
+     * 
+     * <p>
+     * Example:
+     * </p>
+     * 
+     * <pre>{@code
+     * stack.push("A");
+     * stack.push("B");
+     * int n = stack.size(); // 2
+     * }</pre>
+     * 
+     * @return the number of elements on the stack
      */
-    private void resize() {
-        String[] newData = new String[data.length * 2];
+    @Override
+    public int size() {
+        return top + 1;
+    }
 
-        for (int i = 0; i < data.length; i++) {
-            newData[i] = data[i];
+    /**
+     * Removes all elements and goes back to the starting capacity. The
+     * array is only replaced if it has grown; otherwise its used slots are
+     * cleared, so clearing a small or empty stack allocates nothing.
+     * 
+     * <p>
+     * Example:
+     * </p>
+     * 
+     * <pre>{@code
+     * stack.clear();
+     * boolean empty = stack.isEmpty(); // true
+     * }</pre>
+     */
+    @Override
+    public void clear() {
+        if (data.length > initialCapacity) {
+            data = new String[initialCapacity];
+        } else {
+            Arrays.fill(data, 0, top + 1, null);
+        }
+        top = -1;
+    }
+
+    /**
+     * Pushes every element of the array in one step, growing the underlying
+     * array at most once.
+     * 
+     * <p>
+     * Example:
+     * </p>
+     * 
+     * <pre>{@code
+     * stack.pushAll(new String[] {"A", "B", "C"});
+     * String top = stack.peek(); // "C"
+     * }</pre>
+     * 
+     * @param items the string values to push onto the stack
+     */
+    @Override
+    public void pushAll(String[] items) {
+        int newSize = top + 1 + items.length;
+        if (newSize > data.length) {
+            grow(newSize);
+        }
+
+        System.arraycopy(items, 0, data, top + 1, items.length);
+        top = newSize - 1;
+    }
+
+    /**
+     * Pops the top {@code n} elements into {@code dest}, old top first.
+     * 
+     * <p>
+     * Example:
+     * </p>
+     * 
+     * <pre>{@code
+     * String[] popped = new String[2];
+     * stack.popN(popped, 2); // popped is {"C", "B"}
+     * }</pre>
+     * 
+     * @param dest the array that receives the popped elements
+     * @param n    the number of elements to pop
+     * @throws java.util.EmptyStackException if the stack has fewer than
+     *                                       {@code n} elements
+     * @throws IndexOutOfBoundsException     if {@code n} is negative or
+     *                                       larger than {@code dest.length}
+     */
+    @Override
+    public void popN(String[] dest, int n) {
+        if (n < 0 || n > dest.length) {
+            throw new IndexOutOfBoundsException("n = " + n + ", dest.length = " + dest.length);
         }
+        if (size() < n) {
+            throw new EmptyStackException();
+        }
+
+        for (int i = 0; i < n; i++) {
+            dest[i] = data[top - i];
+        }
+        Arrays.fill(data, top - n + 1, top + 1, null);
+        top -= n;
+        shrinkIfSparse();
+    }
 
-        data = newData;
+    /**
+     * Returns the number of elements the underlying array can currently hold.
+     * 
+     * @return the current capacity
+     */
+    public int capacity() {
+        return data.length;
+    }
+
+    /**
+     * Grows the underlying array by the growth factor, or further if needed
+     * to hold {@code minCapacity} elements.
+     * 
+     * @param minCapacity the number of elements the array must hold
+     */
+    private void grow(int minCapacity) {
+        long grown = (long) (data.length * growthFactor);
+        int newCapacity = (int) Math.min(Integer.MAX_VALUE - 8, Math.max(grown, data.length + 1L));
+        data = Arrays.copyOf(data, Math.max(newCapacity, minCapacity));
+    }
+
+    /**
+     * Halves the underlying array once the stack is down to a quarter of
+     * its capacity, but never below the starting capacity. Growing at full
+     * and shrinking at a quarter leaves room either side, so a stack that
+     * moves back and forth around one size does not resize every time.
+     */
+    private void shrinkIfSparse() {
+        int size = top + 1;
+        if (data.length > initialCapacity && size <= data.length / 4) {
+            data = Arrays.copyOf(data, Math.max(initialCapacity, data.length / 2));
+        }
     }
 }
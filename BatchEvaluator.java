@@ -0,0 +1,205 @@
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * Evaluates many infix expressions in parallel.
+ * <p>
+ * {@code InfixConverter}, {@code PostfixEvaluator} and {@code InfixEvaluator}
+ * each keep mutable stacks, so one instance cannot be shared between threads.
+ * This class splits a batch into chunks, runs the chunks on an executor, and
+ * gives every worker thread its own {@code InfixEvaluator} that is reused for
+ * all the expressions that thread evaluates. Results are returned in the same
+ * order as the input.
+ * </p>
+ *
+ * <p>
+ * Example:
+ * </p>
+ *
+ * <pre>{@code
+ * BatchEvaluator batch = new BatchEvaluator();
+ * int[] results = batch.evaluateAll(List.of("3 + 4", "10 + 2 * 6"));
+ * // results is {7, 22}
+ * }</pre>
+ */
+public class BatchEvaluator {
+
+    /**
+     * Smallest number of expressions given to one task, so tiny batches are
+     * not split into tasks that cost more to schedule than to run.
+     */
+    private static final int MIN_CHUNK_SIZE = 256;
+
+    /**
+     * Number of chunks created per worker, so a worker that finishes early
+     * can pick up more work.
+     */
+    private static final int CHUNKS_PER_WORKER = 4;
+
+    /**
+     * Executor that runs the chunks.
+     */
+    private final ExecutorService executor;
+
+    /**
+     * Number of threads the executor is expected to run at once.
+     */
+    private final int parallelism;
+
+    /**
+     * The evaluator owned by each worker thread.
+     */
+    private final ThreadLocal<InfixEvaluator> evaluators = ThreadLocal.withInitial(InfixEvaluator::new);
+
+    /**
+     * Constructs a batch evaluator that runs on the common fork-join pool.
+     *
+     * <p>
+     * Example:
+     * </p>
+     *
+     * <pre>{@code
+     * BatchEvaluator batch = new BatchEvaluator();
+     * }</pre>
+     */
+    public BatchEvaluator() {
+        this(ForkJoinPool.commonPool());
+    }
+
+    /**
+     * Constructs a batch evaluator that runs on the given executor. The
+     * executor is not shut down by this class.
+     *
+     * <p>
+     * Example:
+     * </p>
+     *
+     * <pre>{@code
+     * ExecutorService pool = Executors.newFixedThreadPool(32);
+     * BatchEvaluator batch = new BatchEvaluator(pool);
+     * }</pre>
+     *
+     * @param executor the executor that evaluates the expressions
+     */
+    public BatchEvaluator(ExecutorService executor) {
+        this.executor = executor;
+        if (executor instanceof ForkJoinPool) {
+            this.parallelism = ((ForkJoinPool) executor).getParallelism();
+        } else {
+            this.parallelism = Runtime.getRuntime().availableProcessors();
+        }
+    }
+
+    /**
+     * Evaluates every expression in the list and returns the results in the
+     * same order.
+     *
+     * <p>
+     * Example:
+     * </p>
+     *
+     * <pre>{@code
+     * int[] results = batch.evaluateAll(List.of("( 3 + 4 ) * 2", "8 / 2"));
+     * // results is {14, 4}
+     * }</pre>
+     *
+     * @param expressions the infix expressions to evaluate
+     * @return the result of each expression, in input order
+     * @throws RuntimeException the first exception thrown while evaluating
+     *                          any expression, such as
+     *                          {@code IllegalArgumentException} for a
+     *                          malformed expression
+     */
+    public int[] evaluateAll(List<String> expressions) {
+        int count = expressions.size();
+        int[] results = new int[count];
+        int chunkSize = Math.max(MIN_CHUNK_SIZE, (count + parallelism * CHUNKS_PER_WORKER - 1) / (parallelism * CHUNKS_PER_WORKER));
+
+        // a single chunk is cheaper to run on the calling thread
+        if (count <= chunkSize) {
+            evaluateRange(expressions, results, 0, count);
+            return results;
+        }
+
+        List<Future<?>> tasks = new ArrayList<>();
+        for (int start = 0; start < count; start += chunkSize) {
+            int from = start;
+            int to = Math.min(count, start + chunkSize);
+            tasks.add(executor.submit(() -> evaluateRange(expressions, results, from, to)));
+        }
+
+        try {
+            for (Future<?> task : tasks) {
+                task.get();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            cancelAll(tasks);
+            throw new IllegalStateException("Interrupted while evaluating batch", e);
+        } catch (ExecutionException e) {
+            cancelAll(tasks);
+            Throwable cause = e.getCause();
+            if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            }
+            if (cause instanceof Error) {
+                throw (Error) cause;
+            }
+            throw new IllegalStateException(cause);
+        }
+
+        return results;
+    }
+
+    /**
+     * Evaluates every expression in the stream and returns the results in
+     * encounter order.
+     *
+     * <p>
+     * Example:
+     * </p>
+     *
+     * <pre>{@code
+     * int[] results = batch.evaluateAll(Files.lines(path));
+     * }</pre>
+     *
+     * @param expressions the infix expressions to evaluate
+     * @return the result of each expression, in encounter order
+     */
+    public int[] evaluateAll(Stream<String> expressions) {
+        return evaluateAll(expressions.collect(Collectors.toList()));
+    }
+
+    /**
+     * Evaluates the expressions from index {@code from} (inclusive) to
+     * {@code to} (exclusive) with the calling thread's evaluator.
+     *
+     * @param expressions the whole batch
+     * @param results     the array receiving the results
+     * @param from        index of the first expression to evaluate
+     * @param to          index one past the last expression to evaluate
+     */
+    private void evaluateRange(List<String> expressions, int[] results, int from, int to) {
+        InfixEvaluator evaluator = evaluators.get();
+        for (int i = from; i < to; i++) {
+            results[i] = evaluator.evaluate(expressions.get(i));
+        }
+    }
+
+    /**
+     * Cancels tasks that have not finished after one of them failed.
+     *
+     * @param tasks the submitted tasks
+     */
+    private static void cancelAll(List<Future<?>> tasks) {
+        for (Future<?> task : tasks) {
+            task.cancel(false);
+        }
+    }
+}
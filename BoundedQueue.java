@@ -0,0 +1,182 @@
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * Bounded lock-free queue for any number of producer and consumer threads.
+ * <p>
+ * The queue is a ring of slots, each with a sequence number that says whose
+ * turn it is: a producer may fill slot {@code i} when its sequence equals
+ * the producer's ticket, and a consumer may empty it when the sequence is
+ * one past the ticket. Producers and consumers each take tickets with a
+ * single compare-and-set on their own counter, so they never wait for each
+ * other except when the queue is full or empty, and then
+ * {@link #offer} and {@link #poll} return immediately instead of blocking.
+ * Callers that want to wait decide how: spin, yield or park. The capacity is
+ * rounded up to a power of two.
+ * </p>
+ *
+ * <p>
+ * Example:
+ * </p>
+ *
+ * <pre>{@code
+ * BoundedQueue<String> queue = new BoundedQueue<>(1024);
+ * queue.offer("3 + 4"); // true, or false if full
+ * String next = queue.poll(); // "3 + 4", or null if empty
+ * }</pre>
+ *
+ * @param <E> the type of elements
+ */
+public class BoundedQueue<E> {
+
+    /**
+     * The slots of the ring.
+     */
+    private final AtomicReferenceArray<E> items;
+
+    /**
+     * The sequence number of each slot.
+     */
+    private final AtomicLongArray sequences;
+
+    /**
+     * Capacity minus one, to turn tickets into slot indexes.
+     */
+    private final int mask;
+
+    /**
+     * Ticket of the next element to add.
+     */
+    private final AtomicLong tail = new AtomicLong();
+
+    /**
+     * Ticket of the next element to remove.
+     */
+    private final AtomicLong head = new AtomicLong();
+
+    /**
+     * Constructs an empty queue that holds at least {@code capacity}
+     * elements.
+     *
+     * <p>
+     * Example:
+     * </p>
+     *
+     * <pre>{@code
+     * BoundedQueue<String> queue = new BoundedQueue<>(1000); // holds 1024
+     * }</pre>
+     *
+     * @param capacity the smallest number of elements the queue must hold
+     * @throws IllegalArgumentException if {@code capacity} is less than 1 or
+     *                                  more than 2<sup>30</sup>
+     */
+    public BoundedQueue(int capacity) {
+        if (capacity < 1 || capacity > 1 << 30) {
+            throw new IllegalArgumentException("capacity must be between 1 and 2^30: " + capacity);
+        }
+        int size = Integer.highestOneBit(capacity);
+        if (size < capacity) {
+            size <<= 1;
+        }
+
+        items = new AtomicReferenceArray<>(size);
+        sequences = new AtomicLongArray(size);
+        for (int i = 0; i < size; i++) {
+            sequences.set(i, i);
+        }
+        mask = size - 1;
+    }
+
+    /**
+     * Adds an element at the tail if there is room.
+     *
+     * @param item the element to add
+     * @return {@code true} if it was added, {@code false} if the queue is full
+     * @throws IllegalArgumentException if {@code item} is {@code null}
+     */
+    public boolean offer(E item) {
+        if (item == null) {
+            throw new IllegalArgumentException("Cannot add null to a queue");
+        }
+
+        long ticket = tail.get();
+        while (true) {
+            int slot = (int) ticket & mask;
+            long turn = sequences.getAcquire(slot) - ticket;
+            if (turn == 0) {
+                if (tail.compareAndSet(ticket, ticket + 1)) {
+                    items.setPlain(slot, item);
+                    // publishes the element to the consumer of this ticket
+                    sequences.setRelease(slot, ticket + 1);
+                    return true;
+                }
+                ticket = tail.get();
+            } else if (turn < 0) {
+                // the slot still holds the element from one lap ago
+                return false;
+            } else {
+                // another producer took this ticket
+                ticket = tail.get();
+            }
+        }
+    }
+
+    /**
+     * Removes and returns the element at the head, if there is one.
+     *
+     * @return the element, or {@code null} if the queue is empty
+     */
+    public E poll() {
+        long ticket = head.get();
+        while (true) {
+            int slot = (int) ticket & mask;
+            long turn = sequences.getAcquire(slot) - (ticket + 1);
+            if (turn == 0) {
+                if (head.compareAndSet(ticket, ticket + 1)) {
+                    E item = items.getPlain(slot);
+                    items.setPlain(slot, null);
+                    // hands the slot to the producer one lap ahead
+                    sequences.setRelease(slot, ticket + mask + 1);
+                    return item;
+                }
+                ticket = head.get();
+            } else if (turn < 0) {
+                // no producer has filled this slot yet
+                return null;
+            } else {
+                // another consumer took this ticket
+                ticket = head.get();
+            }
+        }
+    }
+
+    /**
+     * Returns the number of elements in the queue. While other threads are
+     * adding and removing, this is only an estimate.
+     *
+     * @return the number of elements
+     */
+    public int size() {
+        long size = tail.get() - head.get();
+        return (int) Math.max(0, Math.min(size, capacity()));
+    }
+
+    /**
+     * Returns whether the queue appears empty.
+     *
+     * @return {@code true} if no elements are queued
+     */
+    public boolean isEmpty() {
+        return size() == 0;
+    }
+
+    /**
+     * Returns the number of elements the queue holds when full.
+     *
+     * @return the capacity
+     */
+    public int capacity() {
+        return mask + 1;
+    }
+}
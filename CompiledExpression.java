@@ -0,0 +1,1074 @@
+import java.util.Arrays;
+import java.util.Map;
+
+/**
+ * An expression that has already been parsed into a flat program of opcodes
+ * and operands, so it can be evaluated many times with no parsing.
+ * <p>
+ * The program is postfix: each {@code CONST} or {@code LOAD} instruction
+ * pushes an operand and each operator instruction replaces the top two values
+ * with its result. Compiling checks that the expression is well formed and
+ * works out the deepest the value stack can get, so evaluation needs no
+ * further checks. Instances are immutable and may be shared between threads.
+ * The value stack is a scratch array kept per thread and reused by every
+ * expression that thread evaluates, so evaluating allocates nothing; a loop
+ * can also pass its own scratch array, of at least {@link #scratchSize()}
+ * values, and skip the per-thread lookup.
+ * </p>
+ * <p>
+ * An expression may contain variables. Each distinct variable name is given a
+ * slot, and the expression is then evaluated against an array holding one
+ * value per slot. This makes the compiled expression a template: the formula
+ * is parsed once, and every evaluation only reads the values from the array.
+ * </p>
+ *
+ * <p>
+ * Example:
+ * </p>
+ *
+ * <pre>{@code
+ * CompiledExpression expr = CompiledExpression.compile("( 3 + 4 ) * 2");
+ * int a = expr.evaluate(); // returns 14
+ * int b = expr.evaluate(); // returns 14, without parsing again
+ * System.out.println(expr); // prints "3 4 + 2 *"
+ *
+ * CompiledExpression price = CompiledExpression.compile("qty * unit + fee");
+ * int slot = price.slotOf("unit"); // 1
+ * int total = price.evaluate(new int[] {3, 20, 5}); // returns 65
+ * }</pre>
+ */
+public final class CompiledExpression {
+
+    /**
+     * Opcode that pushes a constant. It is followed by the index of the
+     * constant in {@link #constants}.
+     */
+    static final int CONST = 0;
+
+    /**
+     * Opcode that replaces the top two values with their sum.
+     */
+    static final int ADD = 1;
+
+    /**
+     * Opcode that replaces the top two values with their difference.
+     */
+    static final int SUB = 2;
+
+    /**
+     * Opcode that replaces the top two values with their product.
+     */
+    static final int MUL = 3;
+
+    /**
+     * Opcode that replaces the top two values with their quotient.
+     */
+    static final int DIV = 4;
+
+    /**
+     * Opcode that pushes the value of a variable. It is followed by the slot
+     * of the variable in the bindings array.
+     */
+    static final int LOAD = 5;
+
+    /**
+     * Opcode that copies the top value into a temporary, leaving it on the
+     * stack. It is followed by the index of the temporary. Only programs
+     * rewritten by {@code ExpressionOptimizer} use temporaries, to compute a
+     * repeated subexpression once.
+     */
+    static final int TEE = 6;
+
+    /**
+     * Opcode that pushes the value of a temporary. It is followed by the
+     * index of the temporary.
+     */
+    static final int LOAD_TEMP = 7;
+
+    /**
+     * The bindings used when evaluating without an array.
+     */
+    private static final int[] NO_BINDINGS = new int[0];
+
+    /**
+     * The long bindings used when evaluating without an array.
+     */
+    private static final long[] NO_LONG_BINDINGS = new long[0];
+
+    /**
+     * The scratch arrays of each thread, grown to fit the largest program the
+     * thread has evaluated.
+     */
+    private static final ThreadLocal<Scratch> SCRATCH = ThreadLocal.withInitial(Scratch::new);
+
+    /**
+     * The opcodes and inline operands of the program.
+     */
+    final int[] code;
+
+    /**
+     * The constant operands referenced by {@code CONST} instructions.
+     */
+    final long[] constants;
+
+    /**
+     * The largest number of values on the stack at any point of the program.
+     */
+    final int maxDepth;
+
+    /**
+     * The variable names, indexed by slot.
+     */
+    final String[] variables;
+
+    /**
+     * The number of temporaries used by {@code TEE} and {@code LOAD_TEMP}
+     * instructions. During evaluation they are kept just above the stack.
+     */
+    final int temps;
+
+    /**
+     * Creates a compiled expression from an already checked program.
+     *
+     * @param code      the opcodes and inline operands
+     * @param constants the constant operands
+     * @param maxDepth  the largest stack depth the program reaches
+     * @param variables the variable names, indexed by slot
+     * @param temps     the number of temporaries the program uses
+     */
+    CompiledExpression(int[] code, long[] constants, int maxDepth, String[] variables, int temps) {
+        this.code = code;
+        this.constants = constants;
+        this.maxDepth = maxDepth;
+        this.variables = variables;
+        this.temps = temps;
+    }
+
+    /**
+     * Compiles an infix expression. Tokens may be separated by any
+     * whitespace, or none. Variables are given slots in the order they first
+     * appear.
+     *
+     * <p>
+     * Example:
+     * </p>
+     *
+     * <pre>{@code
+     * CompiledExpression expr = CompiledExpression.compile("10 + 2 * 6");
+     * }</pre>
+     *
+     * @param infix the infix expression to compile
+     * @return the compiled expression
+     * @throws IllegalArgumentException if the expression is malformed
+     * @throws NumberFormatException    if an operand does not fit in an
+     *                                  {@code int}
+     */
+    public static CompiledExpression compile(CharSequence infix) {
+        return compile(infix, new Builder(infix, null));
+    }
+
+    /**
+     * Compiles an infix expression whose variables have fixed slots: the
+     * variable {@code variables[i]} is read from index {@code i} of the
+     * bindings. Any other name in the expression is rejected, and declared
+     * names need not all be used.
+     *
+     * <p>
+     * Example:
+     * </p>
+     *
+     * <pre>{@code
+     * CompiledExpression expr = CompiledExpression.compile("y - x", "x", "y");
+     * int value = expr.evaluate(new int[] {2, 10}); // returns 8
+     * }</pre>
+     *
+     * @param infix     the infix expression to compile
+     * @param variables the variable names, in slot order
+     * @return the compiled expression
+     * @throws IllegalArgumentException if the expression is malformed, uses
+     *                                  an undeclared variable, or a name is
+     *                                  declared twice
+     * @throws NumberFormatException    if an operand does not fit in an
+     *                                  {@code int}
+     */
+    public static CompiledExpression compile(CharSequence infix, String... variables) {
+        return compile(infix, new Builder(infix, variables));
+    }
+
+    /**
+     * Compiles an infix expression into the given builder.
+     *
+     * @param infix   the infix expression to compile
+     * @param builder the builder for the program
+     * @return the compiled expression
+     */
+    private static CompiledExpression compile(CharSequence infix, Builder builder) {
+        IntStack operators = new IntStack();
+        Lexer lexer = new Lexer(infix);
+
+        // operands and operators must alternate, as in ExpressionValidator
+        boolean expectOperand = true;
+        int type;
+        while ((type = lexer.next()) != Lexer.END) {
+            boolean operand = type == Lexer.NUMBER || type == Lexer.IDENTIFIER || type == Lexer.LEFT_PAREN;
+            if (operand && !expectOperand) {
+                throw builder.error("Missing operator", lexer.start());
+            }
+            if ((type == Lexer.OPERATOR || type == Lexer.RIGHT_PAREN) && expectOperand) {
+                throw builder.error("Missing operand", lexer.start());
+            }
+            expectOperand = type == Lexer.OPERATOR || type == Lexer.LEFT_PAREN;
+
+            if (type == Lexer.NUMBER) {
+                builder.constant(lexer.intValue());
+            }
+            else if (type == Lexer.IDENTIFIER) {
+                builder.variable(lexer);
+            }
+            else if (type == Lexer.LEFT_PAREN) {
+                operators.push('(');
+            }
+            else if (type == Lexer.RIGHT_PAREN) {
+                while (!operators.isEmpty() && operators.peek() != '(') {
+                    builder.operator(operators.pop(), lexer.start());
+                }
+                if (operators.isEmpty()) {
+                    throw builder.error("Unmatched ')'", lexer.start());
+                }
+                operators.pop(); // remove "("
+            }
+            else if (type == Lexer.OPERATOR) {
+                int op = lexer.operator();
+                while (!operators.isEmpty()
+                        && operators.peek() != '('
+                        && precedence(operators.peek()) >= precedence(op)) {
+                    builder.operator(operators.pop(), lexer.start());
+                }
+                operators.push(op);
+            }
+            else {
+                throw builder.error("Unexpected input", lexer.start());
+            }
+        }
+
+        while (!operators.isEmpty()) {
+            int op = operators.pop();
+            if (op == '(') {
+                throw builder.error("Unmatched '('", lexer.start());
+            }
+            builder.operator(op, lexer.start());
+        }
+
+        return builder.build(lexer.start());
+    }
+
+    /**
+     * Compiles a postfix expression, such as the output of
+     * {@code InfixConverter.toPostfix}.
+     *
+     * <p>
+     * Example:
+     * </p>
+     *
+     * <pre>{@code
+     * CompiledExpression expr = CompiledExpression.fromPostfix("10 2 6 * +");
+     * int value = expr.evaluate(); // returns 22
+     * }</pre>
+     *
+     * @param postfix the postfix expression to compile
+     * @return the compiled expression
+     * @throws IllegalArgumentException if the expression is malformed
+     * @throws NumberFormatException    if an operand does not fit in an
+     *                                  {@code int}
+     */
+    public static CompiledExpression fromPostfix(CharSequence postfix) {
+        return fromPostfix(postfix, new Builder(postfix, null));
+    }
+
+    /**
+     * Compiles a postfix expression whose variables have fixed slots, as
+     * {@link #compile(CharSequence, String...)} does for infix.
+     *
+     * <p>
+     * Example:
+     * </p>
+     *
+     * <pre>{@code
+     * CompiledExpression expr = CompiledExpression.fromPostfix("y x -", "x", "y");
+     * }</pre>
+     *
+     * @param postfix   the postfix expression to compile
+     * @param variables the variable names, in slot order
+     * @return the compiled expression
+     * @throws IllegalArgumentException if the expression is malformed, uses
+     *                                  an undeclared variable, or a name is
+     *                                  declared twice
+     * @throws NumberFormatException    if an operand does not fit in an
+     *                                  {@code int}
+     */
+    public static CompiledExpression fromPostfix(CharSequence postfix, String... variables) {
+        return fromPostfix(postfix, new Builder(postfix, variables));
+    }
+
+    /**
+     * Compiles a postfix expression into the given builder.
+     *
+     * @param postfix the postfix expression to compile
+     * @param builder the builder for the program
+     * @return the compiled expression
+     */
+    private static CompiledExpression fromPostfix(CharSequence postfix, Builder builder) {
+        Lexer lexer = new Lexer(postfix);
+
+        int type;
+        while ((type = lexer.next()) != Lexer.END) {
+            if (type == Lexer.NUMBER) {
+                builder.constant(lexer.intValue());
+            }
+            else if (type == Lexer.IDENTIFIER) {
+                builder.variable(lexer);
+            }
+            else if (type == Lexer.OPERATOR) {
+                builder.operator(lexer.operator(), lexer.start());
+            }
+            else {
+                throw builder.error("Unexpected input", lexer.start());
+            }
+        }
+
+        return builder.build(lexer.start());
+    }
+
+    /**
+     * Evaluates an expression without variables and returns its integer
+     * result. Arithmetic wraps on overflow, as in {@code PostfixEvaluator}.
+     *
+     * <p>
+     * Example:
+     * </p>
+     *
+     * <pre>{@code
+     * int value = CompiledExpression.compile("100 * ( 2 + 12 )").evaluate(); // 1400
+     * }</pre>
+     *
+     * @return the integer value resulting from evaluating the expression
+     * @throws ArithmeticException      if the expression divides by zero
+     * @throws IllegalArgumentException if the expression has variables
+     */
+    public int evaluate() {
+        return evaluate(NO_BINDINGS);
+    }
+
+    /**
+     * Evaluates the expression with each variable taking the value at its
+     * slot in {@code bindings}. Arithmetic wraps on overflow, as in
+     * {@code PostfixEvaluator}.
+     *
+     * <p>
+     * Example:
+     * </p>
+     *
+     * <pre>{@code
+     * CompiledExpression area = CompiledExpression.compile("w * h", "w", "h");
+     * int a = area.evaluate(new int[] {3, 4}); // returns 12
+     * int b = area.evaluate(new int[] {5, 6}); // returns 30
+     * }</pre>
+     *
+     * @param bindings the variable values, indexed by slot
+     * @return the integer value resulting from evaluating the expression
+     * @throws ArithmeticException      if the expression divides by zero
+     * @throws IllegalArgumentException if {@code bindings} has fewer entries
+     *                                  than the expression has variables
+     */
+    public int evaluate(int[] bindings) {
+        return evaluate(bindings, SCRATCH.get().ints(maxDepth + temps));
+    }
+
+    /**
+     * Evaluates the expression like {@link #evaluate(int[])}, keeping the
+     * value stack in {@code scratch}. A loop that evaluates many rows can
+     * allocate one scratch array up front and pass it to every call. Its
+     * contents are overwritten.
+     *
+     * <p>
+     * Example:
+     * </p>
+     *
+     * <pre>{@code
+     * int[] scratch = new int[expr.scratchSize()];
+     * for (int i = 0; i < rows; i++) {
+     *     bindings[0] = xs[i];
+     *     result[i] = expr.evaluate(bindings, scratch);
+     * }
+     * }</pre>
+     *
+     * @param bindings the variable values, indexed by slot
+     * @param scratch  an array of at least {@link #scratchSize()} values
+     * @return the integer value resulting from evaluating the expression
+     * @throws ArithmeticException      if the expression divides by zero
+     * @throws IllegalArgumentException if {@code bindings} has fewer entries
+     *                                  than the expression has variables, or
+     *                                  {@code scratch} is too short
+     */
+    public int evaluate(int[] bindings, int[] scratch) {
+        checkBindings(bindings.length);
+        checkScratch(scratch.length);
+        int[] stack = scratch;
+        int[] code = this.code;
+        int sp = 0;
+
+        for (int pc = 0; pc < code.length; pc++) {
+            switch (code[pc]) {
+                case CONST:
+                    stack[sp++] = (int) constants[code[++pc]];
+                    break;
+                case LOAD:
+                    stack[sp++] = bindings[code[++pc]];
+                    break;
+                case TEE:
+                    stack[maxDepth + code[++pc]] = stack[sp - 1];
+                    break;
+                case LOAD_TEMP:
+                    stack[sp++] = stack[maxDepth + code[++pc]];
+                    break;
+                case ADD:
+                    sp--;
+                    stack[sp - 1] = stack[sp - 1] + stack[sp];
+                    break;
+                case SUB:
+                    sp--;
+                    stack[sp - 1] = stack[sp - 1] - stack[sp];
+                    break;
+                case MUL:
+                    sp--;
+                    stack[sp - 1] = stack[sp - 1] * stack[sp];
+                    break;
+                case DIV:
+                    sp--;
+                    stack[sp - 1] = stack[sp - 1] / stack[sp];
+                    break;
+                default:
+                    throw new IllegalStateException("Bad opcode " + code[pc] + " at " + pc);
+            }
+        }
+
+        return stack[0];
+    }
+
+    /**
+     * Evaluates an expression without variables in {@code int} arithmetic,
+     * throwing if any intermediate result overflows. The checks are those
+     * of {@code InfixEvaluator.tryEvaluate}, so both agree on which
+     * expressions fail; the exception's message is the
+     * {@code ErrorCode} description.
+     *
+     * <p>
+     * Example:
+     * </p>
+     *
+     * <pre>{@code
+     * CompiledExpression.compile("2147483647 + 1").evaluateChecked(); // throws "Overflow"
+     * }</pre>
+     *
+     * @return the integer value resulting from evaluating the expression
+     * @throws ArithmeticException      if the expression divides by zero or
+     *                                  a result overflows an {@code int}
+     * @throws IllegalArgumentException if the expression has variables
+     */
+    public int evaluateChecked() {
+        checkBindings(0);
+        long[] stack = SCRATCH.get().longs(maxDepth + temps);
+        int[] code = this.code;
+        int sp = 0;
+
+        for (int pc = 0; pc < code.length; pc++) {
+            switch (code[pc]) {
+                case CONST:
+                    stack[sp++] = constants[code[++pc]];
+                    break;
+                case TEE:
+                    stack[maxDepth + code[++pc]] = stack[sp - 1];
+                    break;
+                case LOAD_TEMP:
+                    stack[sp++] = stack[maxDepth + code[++pc]];
+                    break;
+                case ADD:
+                    sp--;
+                    stack[sp - 1] = stack[sp - 1] + stack[sp];
+                    break;
+                case SUB:
+                    sp--;
+                    stack[sp - 1] = stack[sp - 1] - stack[sp];
+                    break;
+                case MUL:
+                    sp--;
+                    stack[sp - 1] = stack[sp - 1] * stack[sp];
+                    break;
+                case DIV:
+                    sp--;
+                    if (stack[sp] == 0) {
+                        throw new ArithmeticException(ErrorCode.DIVISION_BY_ZERO.description());
+                    }
+                    stack[sp - 1] = stack[sp - 1] / stack[sp];
+                    break;
+                default:
+                    throw new IllegalStateException("Bad opcode " + code[pc] + " at " + pc);
+            }
+            // operands fit in an int, so no long operation above can overflow
+            if (sp > 0 && stack[sp - 1] != (int) stack[sp - 1]) {
+                throw new ArithmeticException(ErrorCode.OVERFLOW.description());
+            }
+        }
+
+        return (int) stack[0];
+    }
+
+    /**
+     * Evaluates an expression without variables in {@code long} arithmetic,
+     * throwing instead of overflowing.
+     *
+     * <p>
+     * Example:
+     * </p>
+     *
+     * <pre>{@code
+     * long value = CompiledExpression.compile("65536 * 65536").evaluateLong(); // 4294967296
+     * }</pre>
+     *
+     * @return the value resulting from evaluating the expression
+     * @throws ArithmeticException      if the expression divides by zero or
+     *                                  a result overflows a {@code long}
+     * @throws IllegalArgumentException if the expression has variables
+     */
+    public long evaluateLong() {
+        return evaluateLong(NO_LONG_BINDINGS);
+    }
+
+    /**
+     * Evaluates the expression in {@code long} arithmetic with each variable
+     * taking the value at its slot in {@code bindings}, throwing instead of
+     * overflowing as {@code PostfixEvaluator.evaluateLong} does.
+     *
+     * <p>
+     * Example:
+     * </p>
+     *
+     * <pre>{@code
+     * CompiledExpression area = CompiledExpression.compile("w * h", "w", "h");
+     * long a = area.evaluateLong(new long[] {100000, 100000}); // 10000000000
+     * }</pre>
+     *
+     * @param bindings the variable values, indexed by slot
+     * @return the value resulting from evaluating the expression
+     * @throws ArithmeticException      if the expression divides by zero or
+     *                                  a result overflows a {@code long}
+     * @throws IllegalArgumentException if {@code bindings} has fewer entries
+     *                                  than the expression has variables
+     */
+    public long evaluateLong(long[] bindings) {
+        return evaluateLong(bindings, SCRATCH.get().longs(maxDepth + temps));
+    }
+
+    /**
+     * Evaluates the expression like {@link #evaluateLong(long[])}, keeping
+     * the value stack in {@code scratch}. Its contents are overwritten.
+     *
+     * @param bindings the variable values, indexed by slot
+     * @param scratch  an array of at least {@link #scratchSize()} values
+     * @return the value resulting from evaluating the expression
+     * @throws ArithmeticException      if the expression divides by zero or
+     *                                  a result overflows a {@code long}
+     * @throws IllegalArgumentException if {@code bindings} has fewer entries
+     *                                  than the expression has variables, or
+     *                                  {@code scratch} is too short
+     */
+    public long evaluateLong(long[] bindings, long[] scratch) {
+        checkBindings(bindings.length);
+        checkScratch(scratch.length);
+        long[] stack = scratch;
+        int[] code = this.code;
+        int sp = 0;
+
+        for (int pc = 0; pc < code.length; pc++) {
+            switch (code[pc]) {
+                case CONST:
+                    stack[sp++] = constants[code[++pc]];
+                    break;
+                case LOAD:
+                    stack[sp++] = bindings[code[++pc]];
+                    break;
+                case TEE:
+                    stack[maxDepth + code[++pc]] = stack[sp - 1];
+                    break;
+                case LOAD_TEMP:
+                    stack[sp++] = stack[maxDepth + code[++pc]];
+                    break;
+                case ADD:
+                    sp--;
+                    stack[sp - 1] = Math.addExact(stack[sp - 1], stack[sp]);
+                    break;
+                case SUB:
+                    sp--;
+                    stack[sp - 1] = Math.subtractExact(stack[sp - 1], stack[sp]);
+                    break;
+                case MUL:
+                    sp--;
+                    stack[sp - 1] = Math.multiplyExact(stack[sp - 1], stack[sp]);
+                    break;
+                case DIV:
+                    sp--;
+                    // the only long division that overflows
+                    if (stack[sp - 1] == Long.MIN_VALUE && stack[sp] == -1) {
+                        throw new ArithmeticException("long overflow");
+                    }
+                    stack[sp - 1] = stack[sp - 1] / stack[sp];
+                    break;
+                default:
+                    throw new IllegalStateException("Bad opcode " + code[pc] + " at " + pc);
+            }
+        }
+
+        return stack[0];
+    }
+
+    /**
+     * Returns the length a scratch array passed to
+     * {@link #evaluate(int[], int[])} or {@link #evaluateLong(long[], long[])}
+     * must have at least: the deepest the value stack gets, plus the
+     * temporaries.
+     *
+     * @return the scratch size
+     */
+    public int scratchSize() {
+        return maxDepth + temps;
+    }
+
+    /**
+     * Returns the names of the expression's variables, indexed by slot.
+     *
+     * <p>
+     * Example:
+     * </p>
+     *
+     * <pre>{@code
+     * CompiledExpression.compile("b * a + b").variableNames(); // ["b", "a"]
+     * }</pre>
+     *
+     * @return a new array of the variable names, empty if there are none
+     */
+    public String[] variableNames() {
+        return variables.clone();
+    }
+
+    /**
+     * Returns the slot of the named variable, which is the index its value
+     * must have in the bindings.
+     *
+     * @param name the variable name
+     * @return the slot of the variable, or -1 if the expression has no
+     *         variable of that name
+     */
+    public int slotOf(String name) {
+        for (int slot = 0; slot < variables.length; slot++) {
+            if (variables[slot].equals(name)) {
+                return slot;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Builds a bindings array from variable values given by name. This is
+     * meant to be done once, outside any loop; the array can then be updated
+     * in place through {@link #slotOf(String)} and passed to
+     * {@link #evaluate(int[])} many times.
+     *
+     * <p>
+     * Example:
+     * </p>
+     *
+     * <pre>{@code
+     * CompiledExpression expr = CompiledExpression.compile("x + y");
+     * int[] bindings = expr.bind(Map.of("x", 1, "y", 2));
+     * expr.evaluate(bindings); // returns 3
+     * }</pre>
+     *
+     * @param values the value of every variable, by name
+     * @return the values arranged by slot
+     * @throws IllegalArgumentException if a variable has no value
+     */
+    public int[] bind(Map<String, Integer> values) {
+        int[] bindings = new int[variables.length];
+        for (int slot = 0; slot < variables.length; slot++) {
+            Integer value = values.get(variables[slot]);
+            if (value == null) {
+                throw new IllegalArgumentException("No value for variable '" + variables[slot] + "'");
+            }
+            bindings[slot] = value;
+        }
+        return bindings;
+    }
+
+    /**
+     * Checks that a bindings array is long enough for every slot.
+     *
+     * @param length the length of the bindings array
+     * @throws IllegalArgumentException if some slot has no entry
+     */
+    void checkBindings(int length) {
+        if (length < variables.length) {
+            throw new IllegalArgumentException("Expected " + variables.length + " bindings for "
+                    + Arrays.toString(variables) + " but got " + length);
+        }
+    }
+
+    /**
+     * Checks that a scratch array is long enough for the program.
+     *
+     * @param length the length of the scratch array
+     * @throws IllegalArgumentException if it is shorter than
+     *                                  {@link #scratchSize()}
+     */
+    private void checkScratch(int length) {
+        if (length < maxDepth + temps) {
+            throw new IllegalArgumentException("Expected a scratch array of at least " + (maxDepth + temps)
+                    + " but got " + length);
+        }
+    }
+
+    /**
+     * Returns the program as postfix text, with tokens separated by single
+     * spaces. A subexpression the program computes once and reuses through
+     * a temporary is written out again at each use, and a negative constant,
+     * which folding can produce, is written as {@code 0 c -}, so the text can
+     * always be compiled back with {@link #fromPostfix(CharSequence)}.
+     *
+     * @return the postfix form of this expression
+     */
+    @Override
+    public String toString() {
+        // the text of each value on the stack, with the temporaries above it
+        String[] stack = new String[maxDepth + temps];
+        int sp = 0;
+
+        for (int pc = 0; pc < code.length; pc++) {
+            switch (code[pc]) {
+                case CONST:
+                    String constant = Long.toString(constants[code[++pc]]);
+                    // the Lexer reads a leading '-' as an operator, not a sign
+                    stack[sp++] = constant.startsWith("-") ? "0 " + constant.substring(1) + " -" : constant;
+                    break;
+                case LOAD:
+                    stack[sp++] = variables[code[++pc]];
+                    break;
+                case TEE:
+                    stack[maxDepth + code[++pc]] = stack[sp - 1];
+                    break;
+                case LOAD_TEMP:
+                    stack[sp++] = stack[maxDepth + code[++pc]];
+                    break;
+                default:
+                    sp--;
+                    stack[sp - 1] = stack[sp - 1] + ' ' + stack[sp] + ' '
+                            + Lexer.operatorText(operatorCode(code[pc]));
+                    break;
+            }
+        }
+
+        return stack[0];
+    }
+
+    /**
+     * Used to check the operator precedence
+     * Operator precedence: * and / = 2, + and - = 1.
+     *
+     * @param op the operator code that is checked for precedence
+     * @return the precedence of the operator
+     */
+    private static int precedence(int op) {
+        if (op == '*' || op == '/')
+            return 2;
+        return 1;
+    }
+
+    /**
+     * Returns the opcode for an operator code read by the {@code Lexer}.
+     *
+     * @param op the operator code, one of (+ - * /)
+     * @return the matching opcode
+     */
+    static int opcode(int op) {
+        switch (op) {
+            case '+':
+                return ADD;
+            case '-':
+                return SUB;
+            case '*':
+                return MUL;
+            case '/':
+                return DIV;
+            default:
+                throw new IllegalArgumentException("Unknown operator: " + (char) op);
+        }
+    }
+
+    /**
+     * Returns the operator code for an arithmetic opcode.
+     *
+     * @param opcode one of {@code ADD}, {@code SUB}, {@code MUL} or
+     *               {@code DIV}
+     * @return the matching operator code
+     */
+    static int operatorCode(int opcode) {
+        switch (opcode) {
+            case ADD:
+                return '+';
+            case SUB:
+                return '-';
+            case MUL:
+                return '*';
+            case DIV:
+                return '/';
+            default:
+                throw new IllegalArgumentException("Not an operator opcode: " + opcode);
+        }
+    }
+
+    /**
+     * The value stacks one thread evaluates with. Programs write every slot
+     * before reading it, so the arrays are never cleared between uses.
+     */
+    private static final class Scratch {
+
+        /**
+         * The stack for {@code int} evaluation.
+         */
+        private int[] ints = new int[16];
+
+        /**
+         * The stack for {@code long} and checked evaluation.
+         */
+        private long[] longs = new long[16];
+
+        /**
+         * Returns the {@code int} stack, grown to at least {@code size}.
+         *
+         * @param size the number of values needed
+         * @return the stack
+         */
+        int[] ints(int size) {
+            if (ints.length < size) {
+                ints = new int[Math.max(size, ints.length * 2)];
+            }
+            return ints;
+        }
+
+        /**
+         * Returns the {@code long} stack, grown to at least {@code size}.
+         *
+         * @param size the number of values needed
+         * @return the stack
+         */
+        long[] longs(int size) {
+            if (longs.length < size) {
+                longs = new long[Math.max(size, longs.length * 2)];
+            }
+            return longs;
+        }
+    }
+
+    /**
+     * Accumulates a program while tracking the stack depth, so malformed
+     * expressions are rejected at compile time.
+     */
+    private static final class Builder {
+
+        /**
+         * The expression being compiled, used in error messages.
+         */
+        private final CharSequence source;
+
+        /**
+         * The opcodes and inline operands emitted so far.
+         */
+        private int[] code = new int[16];
+
+        /**
+         * The number of entries of {@code code} in use.
+         */
+        private int length;
+
+        /**
+         * The constants emitted so far.
+         */
+        private long[] constants = new long[8];
+
+        /**
+         * The number of entries of {@code constants} in use.
+         */
+        private int constantCount;
+
+        /**
+         * The variable names given slots so far, indexed by slot.
+         */
+        private String[] variables;
+
+        /**
+         * The number of entries of {@code variables} in use.
+         */
+        private int variableCount;
+
+        /**
+         * Whether the variables were declared up front, so that no new ones
+         * may be added.
+         */
+        private final boolean declared;
+
+        /**
+         * The stack depth after the instructions emitted so far.
+         */
+        private int depth;
+
+        /**
+         * The largest stack depth reached so far.
+         */
+        private int maxDepth;
+
+        /**
+         * Creates a builder for the given source expression.
+         *
+         * @param source    the expression being compiled
+         * @param variables the declared variable names in slot order, or
+         *                  {@code null} to give slots in order of appearance
+         * @throws IllegalArgumentException if a name is declared twice
+         */
+        Builder(CharSequence source, String[] variables) {
+            this.source = source;
+            this.declared = variables != null;
+            if (declared) {
+                this.variables = variables.clone();
+                this.variableCount = variables.length;
+                for (int i = 1; i < variableCount; i++) {
+                    for (int j = 0; j < i; j++) {
+                        if (this.variables[i].equals(this.variables[j])) {
+                            throw new IllegalArgumentException("Duplicate variable '" + this.variables[i] + "'");
+                        }
+                    }
+                }
+            } else {
+                this.variables = new String[4];
+            }
+        }
+
+        /**
+         * Emits an instruction that pushes a constant.
+         *
+         * @param value the constant value
+         */
+        void constant(long value) {
+            if (constantCount == constants.length) {
+                constants = Arrays.copyOf(constants, constantCount * 2);
+            }
+            constants[constantCount] = value;
+            emit(CONST);
+            emit(constantCount++);
+            push();
+        }
+
+        /**
+         * Emits an instruction that pushes the variable named by the current
+         * {@link Lexer#IDENTIFIER} token, giving it a new slot if it has not
+         * been seen before.
+         *
+         * @param lexer the lexer positioned on the identifier
+         * @throws IllegalArgumentException if the variables were declared and
+         *                                  this is not one of them
+         */
+        void variable(Lexer lexer) {
+            int slot = 0;
+            while (slot < variableCount && !lexer.tokenEquals(variables[slot])) {
+                slot++;
+            }
+            if (slot == variableCount) {
+                String name = source.subSequence(lexer.start(), lexer.end()).toString();
+                if (declared) {
+                    throw error("Unknown variable '" + name + "'", lexer.start());
+                }
+                if (variableCount == variables.length) {
+                    variables = Arrays.copyOf(variables, variableCount * 2);
+                }
+                variables[variableCount++] = name;
+            }
+            emit(LOAD);
+            emit(slot);
+            push();
+        }
+
+        /**
+         * Emits an instruction that applies a binary operator.
+         *
+         * @param op       the operator code, one of (+ - * /)
+         * @param position the position of the operator in the source
+         */
+        void operator(int op, int position) {
+            if (depth < 2) {
+                throw error("Missing operand for '" + (char) op + "'", position);
+            }
+            emit(opcode(op));
+            depth--;
+        }
+
+        /**
+         * Records one more value on the stack.
+         */
+        private void push() {
+            depth++;
+            if (depth > maxDepth) {
+                maxDepth = depth;
+            }
+        }
+
+        /**
+         * Appends one entry to the program.
+         *
+         * @param value the opcode or operand to append
+         */
+        private void emit(int value) {
+            if (length == code.length) {
+                code = Arrays.copyOf(code, length * 2);
+            }
+            code[length++] = value;
+        }
+
+        /**
+         * Finishes the program.
+         *
+         * @param position the position of the end of the source
+         * @return the compiled expression
+         * @throws IllegalArgumentException if the program does not leave
+         *                                  exactly one value on the stack
+         */
+        CompiledExpression build(int position) {
+            if (depth == 0) {
+                throw error("Empty expression", position);
+            }
+            if (depth > 1) {
+                throw error("Missing operator", position);
+            }
+            return new CompiledExpression(Arrays.copyOf(code, length),
+                    Arrays.copyOf(constants, constantCount), maxDepth,
+                    Arrays.copyOf(variables, variableCount), 0);
+        }
+
+        /**
+         * Builds the exception thrown for a malformed expression.
+         *
+         * @param message  what is wrong with the expression
+         * @param position the position in the source where it was found
+         * @return the exception describing the problem
+         */
+        IllegalArgumentException error(String message, int position) {
+            return new IllegalArgumentException(message + " at position " + position + ": " + source);
+        }
+    }
+}
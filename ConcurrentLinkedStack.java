@@ -0,0 +1,233 @@
+import java.util.EmptyStackException;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Lock-free linked list based stack that can be shared by several threads.
+ * <p>
+ * This is a Treiber stack: like {@code LinkedListBasedStack} it keeps a
+ * chain of {@code Node} objects, but the reference to the top node is
+ * atomic. Push and pop read the current top, prepare the change, and publish
+ * it with a single compare-and-set, retrying if another thread changed the
+ * top in the meantime. No thread ever blocks another.
+ * </p>
+ *
+ * <p>
+ * Example:
+ * </p>
+ *
+ * <pre>{@code
+ * StackADT stack = new ConcurrentLinkedStack();
+ * stack.push("A"); // may be called from any thread
+ * stack.push("B");
+ * String top = stack.pop(); // returns "B"
+ * }</pre>
+ */
+public class ConcurrentLinkedStack implements StackADT {
+
+    /**
+     * Reference to the top node of the stack.
+     * When the stack is empty, the reference is {@code null}.
+     */
+    private final AtomicReference<Node> top;
+
+    /**
+     * Constructs an empty lock-free stack.
+     *
+     * <p>
+     * Example:
+     * </p>
+     *
+     * <pre>{@code
+     * StackADT stack = new ConcurrentLinkedStack();
+     * }</pre>
+     */
+    public ConcurrentLinkedStack() {
+        top = new AtomicReference<>();
+    }
+
+    /**
+     * Adds a new element onto the top of the stack.
+     *
+     * <p>
+     * Example:
+     * </p>
+     *
+     * <pre>{@code
+     * stack.push("A");
+     * }</pre>
+     *
+     * @param item the string value to push onto the stack
+     */
+    @Override
+    public void push(String item) {
+        Node newNode = new Node(item);
+        while (!tryPush(newNode)) {
+            Thread.onSpinWait();
+        }
+    }
+
+    /**
+     * Removes and returns the top element of the stack.
+     *
+     * <p>
+     * Example:
+     * </p>
+     *
+     * <pre>{@code
+     * stack.push("A");
+     * String x = stack.pop(); // x = "A"
+     * }</pre>
+     *
+     * @return the string at the top of the stack
+     * @throws java.util.EmptyStackException if the stack is empty
+     */
+    @Override
+    public String pop() {
+        Node popped;
+        while ((popped = tryPop()) == null) {
+            Thread.onSpinWait();
+        }
+        return popped.value;
+    }
+
+    /**
+     * Returns, but does not remove, the top element of the stack.
+     *
+     * @return the string at the top of the stack
+     * @throws java.util.EmptyStackException if the stack is empty
+     */
+    @Override
+    public String peek() {
+        Node current = top.get();
+        if (current == null) {
+            throw new EmptyStackException();
+        }
+
+        return current.value;
+    }
+
+    /**
+     * Returns whether the stack contained no elements at the moment of the
+     * call.
+     *
+     * @return {@code true} if the stack is empty
+     */
+    @Override
+    public boolean isEmpty() {
+        return top.get() == null;
+    }
+
+    /**
+     * Returns the number of elements on the stack. The count is taken by
+     * walking the nodes, so it takes time proportional to the size and, while
+     * other threads are pushing and popping, is only an estimate.
+     *
+     * @return the number of elements on the stack
+     */
+    @Override
+    public int size() {
+        int count = 0;
+        for (Node node = top.get(); node != null; node = node.next) {
+            count++;
+        }
+        return count;
+    }
+
+    /**
+     * Removes all elements from the stack in one atomic step.
+     */
+    @Override
+    public void clear() {
+        top.set(null);
+    }
+
+    /**
+     * Pushes every item as one atomic step: the items are linked into a
+     * chain first, and the chain is published with a single compare-and-set.
+     *
+     * @param items the string values to push onto the stack
+     */
+    @Override
+    public void pushAll(String[] items) {
+        if (items.length == 0) {
+            return;
+        }
+
+        // link the chain bottom-up so the last item ends up on top
+        Node bottom = new Node(items[0]);
+        Node chainTop = bottom;
+        for (int i = 1; i < items.length; i++) {
+            Node node = new Node(items[i]);
+            node.next = chainTop;
+            chainTop = node;
+        }
+
+        Node oldTop;
+        do {
+            oldTop = top.get();
+            bottom.next = oldTop;
+        } while (!top.compareAndSet(oldTop, chainTop));
+    }
+
+    /**
+     * Pops the top {@code n} elements as one atomic step, old top first.
+     *
+     * @param dest the array that receives the popped elements
+     * @param n    the number of elements to pop
+     * @throws java.util.EmptyStackException if the stack has fewer than
+     *                                       {@code n} elements
+     * @throws IndexOutOfBoundsException     if {@code n} is negative or
+     *                                       larger than {@code dest.length}
+     */
+    @Override
+    public void popN(String[] dest, int n) {
+        if (n < 0 || n > dest.length) {
+            throw new IndexOutOfBoundsException("n = " + n + ", dest.length = " + dest.length);
+        }
+
+        while (true) {
+            Node oldTop = top.get();
+            Node node = oldTop;
+            for (int i = 0; i < n; i++) {
+                if (node == null) {
+                    throw new EmptyStackException();
+                }
+                dest[i] = node.value;
+                node = node.next;
+            }
+            if (top.compareAndSet(oldTop, node)) {
+                return;
+            }
+            Thread.onSpinWait();
+        }
+    }
+
+    /**
+     * Makes one attempt to link {@code newNode} on top of the stack.
+     *
+     * @param newNode the node to push
+     * @return {@code true} if the push succeeded, {@code false} if another
+     *         thread changed the top first
+     */
+    boolean tryPush(Node newNode) {
+        Node oldTop = top.get();
+        newNode.next = oldTop;
+        return top.compareAndSet(oldTop, newNode);
+    }
+
+    /**
+     * Makes one attempt to unlink the top node.
+     *
+     * @return the removed node, or {@code null} if another thread changed the
+     *         top first
+     * @throws java.util.EmptyStackException if the stack is empty
+     */
+    Node tryPop() {
+        Node oldTop = top.get();
+        if (oldTop == null) {
+            throw new EmptyStackException();
+        }
+
+        return top.compareAndSet(oldTop, oldTop.next) ? oldTop : null;
+    }
+}
@@ -1,6 +1,56 @@
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.math.BigInteger;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.UnixDomainSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Deque;
 import java.util.EmptyStackException;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledFuture;
+import java.util.function.Supplier;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
 
 public class Driver {
+
+    // Define test cases: {infix expression, expected postfix, expected result}
+    private static final String[][] TEST_CASES = {
+            {"3 + 4", "3 4 +", "7"},
+            {"10 + 2 * 6", "10 2 6 * +", "22"},
+            {"100 * 2 + 12", "100 2 * 12 +", "212"},
+            {"100 * ( 2 + 12 )", "100 2 12 + *", "1400"},
+            {"100 * ( 2 + 12 ) / 14", "100 2 12 + * 14 /", "100"},
+            {"( 5 + 3 ) * ( 12 / 4 )", "5 3 + 12 4 / *", "24"},
+            {"50 + ( 5 * ( 3 + 2 ) )", "50 5 3 2 + * +", "75"},
+            {"( 3 + 4 ) * ( 5 - 2 )", "3 4 + 5 2 - *", "21"},
+            {"( ( 2 + 3 ) * ( 5 + 6 ) )", "2 3 + 5 6 + *", "55"},
+            {"( 10 + ( 6 / 2 ) ) * 3", "10 6 2 / + 3 *", "39"},
+            {"( 8 + ( 2 * ( 3 + 1 ) ) ) * 2", "8 2 3 1 + * + 2 *", "32"},
+            {"( ( ( 1 + 2 ) + 3 ) * 2 )", "1 2 + 3 + 2 *", "12"},
+            {"( 4 + 5 ) * ( 6 + 7 ) - 8", "4 5 + 6 7 + * 8 -", "109"},
+            {"( 7 + 3 ) * ( 5 + 2 ) / ( 2 + 1 )", "7 3 + 5 2 + * 2 1 + /", "23"}
+    };
+
     public static void main(String[] args) {
 
         // testing Underlying Stack Implementations.
@@ -9,10 +59,51 @@ public class Driver {
 
         System.out.println("Testing LinkedListBasedStack");
         testStackOperations(linkedStack);
+        testBulkOperations(new LinkedListBasedStack());
 
         System.out.println("Testing ArrayBasedStack");
         testStackOperations(arrayStack);
+        testBulkOperations(new ArrayBasedStack(2, 1.5));
+        testArrayStackSizing();
+
+        System.out.println("Testing MeteredStack");
+        testStackOperations(new MeteredStack(new ArrayBasedStack()));
+        testBulkOperations(new MeteredStack(new LinkedListBasedStack()));
+        testMeteredStack();
+
+        System.out.println("Testing SnapshotStack");
+        testStackOperations(new SnapshotStack());
+        testBulkOperations(new SnapshotStack());
+        testSnapshotStack();
+
+        System.out.println("Testing SegmentedStack");
+        testStackOperations(new SegmentedStack());
+        testStackOperations(new SegmentedStack(2));
+        testBulkOperations(new SegmentedStack(2));
+        testSegmentedStack();
+
+        System.out.println("Testing PooledLinkedListBasedStack");
+        testStackOperations(new PooledLinkedListBasedStack());
+        testStackOperations(new PooledLinkedListBasedStack(2, 2));
+        testBulkOperations(new PooledLinkedListBasedStack(2, 2));
+
+        System.out.println("Testing ConcurrentLinkedStack");
+        testStackOperations(new ConcurrentLinkedStack());
+        testConcurrentStack(new ConcurrentLinkedStack());
+        testLinearizability(ConcurrentLinkedStack::new);
+        testBulkOperations(new ConcurrentLinkedStack());
 
+        System.out.println("Testing EliminationBackoffStack");
+        testStackOperations(new EliminationBackoffStack());
+        testConcurrentStack(new EliminationBackoffStack());
+        testLinearizability(EliminationBackoffStack::new);
+        testBulkOperations(new EliminationBackoffStack());
+
+        System.out.println("Testing SynchronizedStack");
+        testStackOperations(new SynchronizedStack(new ArrayBasedStack()));
+        testConcurrentStack(new SynchronizedStack(new ArrayBasedStack()));
+        testLinearizability(() -> new SynchronizedStack(new ArrayBasedStack()));
+        testBulkOperations(new SynchronizedStack(new ArrayBasedStack()));
 
         System.out.println("Testing Infix-To-Postfix on LinkedListBasedStack");
         System.out.print("--------------------------------------------------\n");
@@ -26,6 +117,57 @@ public class Driver {
         valueStack = new ArrayBasedStack();
         testInfixToPostfix(operatorStack, valueStack);
 
+        System.out.println("Testing Infix-To-Postfix on PooledLinkedListBasedStack");
+        System.out.print("--------------------------------------------------\n");
+        operatorStack = new PooledLinkedListBasedStack();
+        valueStack = new PooledLinkedListBasedStack();
+        testInfixToPostfix(operatorStack, valueStack);
+
+        System.out.println("Testing long and exact evaluation");
+        testExactEvaluation();
+
+        System.out.println("Testing ExpressionCache");
+        testExpressionCache();
+
+        System.out.println("Testing variables");
+        testVariables();
+
+        System.out.println("Testing ColumnEvaluator");
+        testColumnEvaluator();
+
+        System.out.println("Testing ExpressionOptimizer");
+        testExpressionOptimizer();
+
+        System.out.println("Testing TieredExpression");
+        testTieredExpression();
+
+        System.out.println("Testing FormulaGraph");
+        testFormulaGraph();
+
+        System.out.println("Testing EvaluationServer");
+        testEvaluationServer();
+
+        System.out.println("Testing binary postfix");
+        testBinaryPostfix();
+
+        System.out.println("Testing ExpressionStore");
+        testExpressionStore();
+
+        System.out.println("Testing ExpressionPipeline");
+        testExpressionPipeline();
+
+        System.out.println("Testing tryEvaluate");
+        testTryEvaluate();
+
+        System.out.println("Testing ExpressionMetrics");
+        testExpressionMetrics();
+
+        System.out.println("Testing BatchEvaluator");
+        testBatchEvaluator();
+
+        System.out.println("Testing FileEvaluator");
+        testFileEvaluator();
+
     }
 
     // Utility Method to test Infix-To-Postfix problem
@@ -33,26 +175,9 @@ public class Driver {
 
         InfixConverter converter = new InfixConverter(operatorStack);
         PostfixEvaluator evaluator = new PostfixEvaluator(valueStack);
+        InfixEvaluator infixEvaluator = new InfixEvaluator();
 
-        // Define test cases: {infix expression, expected postfix, expected result}
-        String[][] testCases = {
-                {"3 + 4", "3 4 +", "7"},
-                {"10 + 2 * 6", "10 2 6 * +", "22"},
-                {"100 * 2 + 12", "100 2 * 12 +", "212"},
-                {"100 * ( 2 + 12 )", "100 2 12 + *", "1400"},
-                {"100 * ( 2 + 12 ) / 14", "100 2 12 + * 14 /", "100"},
-                {"( 5 + 3 ) * ( 12 / 4 )", "5 3 + 12 4 / *", "24"},
-                {"50 + ( 5 * ( 3 + 2 ) )", "50 5 3 2 + * +", "75"},
-                {"( 3 + 4 ) * ( 5 - 2 )", "3 4 + 5 2 - *", "21"},
-                {"( ( 2 + 3 ) * ( 5 + 6 ) )", "2 3 + 5 6 + *", "55"},
-                {"( 10 + ( 6 / 2 ) ) * 3", "10 6 2 / + 3 *", "39"},
-                {"( 8 + ( 2 * ( 3 + 1 ) ) ) * 2", "8 2 3 1 + * + 2 *", "32"},
-                {"( ( ( 1 + 2 ) + 3 ) * 2 )", "1 2 + 3 + 2 *", "12"},
-                {"( 4 + 5 ) * ( 6 + 7 ) - 8", "4 5 + 6 7 + * 8 -", "109"},
-                {"( 7 + 3 ) * ( 5 + 2 ) / ( 2 + 1 )", "7 3 + 5 2 + * 2 1 + /", "23"}
-        };
-
-        for (String[] test : testCases) {
+        for (String[] test : TEST_CASES) {
             String infix = test[0];
             String expectedPostfix = test[1];  // Get expected postfix
             int expected = Integer.parseInt(test[2]);  // Get expected result after evaluating the postfix
@@ -67,6 +192,15 @@ public class Driver {
                 System.out.println("FAIL: Postfix conversion for \"" + infix + "\" => Got: " + postfix + ", Expected: " + expectedPostfix);
             }
 
+            // Convert the same expression written without any spaces
+            String compact = infix.replace(" ", "");
+            String compactPostfix = converter.toPostfix(compact);
+            if (compactPostfix.equals(expectedPostfix)) {
+                System.out.println("PASS: Postfix conversion for \"" + compact + "\" = " + compactPostfix);
+            } else {
+                System.out.println("FAIL: Postfix conversion for \"" + compact + "\" => Got: " + compactPostfix + ", Expected: " + expectedPostfix);
+            }
+
             // Evaluate Postfix expression
             int result = evaluator.evaluate(postfix);
             if (result == expected) {
@@ -75,8 +209,1614 @@ public class Driver {
                 System.out.println("FAIL: Evaluation for \"" + infix + "\" => Got: " + result + ", Expected: " + expected);
             }
 
+            // Evaluate Postfix expression on the primitive int stack
+            int primitiveResult = evaluator.evaluatePrimitive(postfix);
+            if (primitiveResult == expected) {
+                System.out.println("PASS: Primitive evaluation for \"" + infix + "\" = " + primitiveResult);
+            } else {
+                System.out.println("FAIL: Primitive evaluation for \"" + infix + "\" => Got: " + primitiveResult + ", Expected: " + expected);
+            }
+
+            // Evaluate Postfix expression with checked 64-bit arithmetic
+            long longResult = evaluator.evaluateLong(postfix);
+            if (longResult == expected) {
+                System.out.println("PASS: Long evaluation for \"" + infix + "\" = " + longResult);
+            } else {
+                System.out.println("FAIL: Long evaluation for \"" + infix + "\" => Got: " + longResult + ", Expected: " + expected);
+            }
+
+            // Evaluate the infix expression directly, without postfix text
+            int directResult = infixEvaluator.evaluate(infix);
+            if (directResult == expected) {
+                System.out.println("PASS: Direct infix evaluation for \"" + infix + "\" = " + directResult);
+            } else {
+                System.out.println("FAIL: Direct infix evaluation for \"" + infix + "\" => Got: " + directResult + ", Expected: " + expected);
+            }
+
             System.out.print("--------------------------------------------------\n");
         }
+
+        // a failed expression must not leave anything behind for the next one
+        try {
+            converter.toPostfix("3 + $");
+            System.out.println("FAIL: Expected IllegalArgumentException.");
+        } catch (IllegalArgumentException e) {
+            String next = converter.toPostfix("1");
+            if (next.equals("1")) {
+                System.out.println("PASS: Converter recovered after \"3 + $\" threw");
+            } else {
+                System.out.println("FAIL: Converter kept state after a failure => Got: " + next);
+            }
+        }
+        try {
+            evaluator.evaluate("3 4 $");
+            System.out.println("FAIL: Expected IllegalArgumentException.");
+        } catch (IllegalArgumentException e) {
+            int next = evaluator.evaluate("5 1 -");
+            if (next == 4) {
+                System.out.println("PASS: Evaluator recovered after \"3 4 $\" threw");
+            } else {
+                System.out.println("FAIL: Evaluator kept state after a failure => Got: " + next);
+            }
+        }
+
+        // unbalanced parentheses are reported as such, not as an unknown operator
+        for (String unbalanced : new String[] {"( 3 + 4", "3 + 4 )", "( ( 1 ) + 2"}) {
+            try {
+                infixEvaluator.evaluate(unbalanced);
+                System.out.println("FAIL: Expected IllegalArgumentException for \"" + unbalanced + "\".");
+            } catch (IllegalArgumentException e) {
+                if (e.getMessage().startsWith("Unbalanced parentheses")) {
+                    System.out.println("PASS: Direct infix evaluation rejected \"" + unbalanced + "\": " + e.getMessage());
+                } else {
+                    System.out.println("FAIL: Unbalanced \"" + unbalanced + "\" => Got: " + e.getMessage());
+                }
+            }
+        }
+        System.out.print("--------------------------------------------------\n");
+    }
+
+    // Utility method to test overflow handling in the long and exact modes
+    public static void testExactEvaluation() {
+        PostfixEvaluator evaluator = new PostfixEvaluator(new ArrayBasedStack());
+
+        if (evaluator.evaluateLong("3000000000 3 *") == 9000000000L) {
+            System.out.println("PASS: Long evaluation of \"3000000000 3 *\" = 9000000000");
+        } else {
+            System.out.println("FAIL: Long evaluation of \"3000000000 3 *\" should be 9000000000.");
+        }
+
+        try {
+            evaluator.evaluateLong("9223372036854775807 1 +");
+            System.out.println("FAIL: Expected ArithmeticException for long overflow.");
+        } catch (ArithmeticException e) {
+            System.out.println("PASS: Caught ArithmeticException for long overflow.");
+        }
+
+        Number small = evaluator.evaluateExact("10 2 6 * +");
+        Number big = evaluator.evaluateExact("9223372036854775807 1 +");
+        Number huge = evaluator.evaluateExact("100000000000000000000 100000000000000000000 * 100000000000000000000 /");
+        if (small.equals(22L) && big.equals(new BigInteger("9223372036854775808"))
+                && huge.equals(new BigInteger("100000000000000000000"))) {
+            System.out.println("PASS: Exact evaluation kept 22 as a Long and promoted overflowing results to BigInteger.");
+        } else {
+            System.out.println("FAIL: Exact evaluation => Got: " + small + ", " + big + ", " + huge);
+        }
+
+        try {
+            evaluator.evaluateExact("1 0 /");
+            System.out.println("FAIL: Expected ArithmeticException for division by zero.");
+        } catch (ArithmeticException e) {
+            System.out.println("PASS: Caught ArithmeticException for division by zero.");
+        }
+        System.out.print("--------------------------------------------------\n");
+    }
+
+    // Utility method to test compiled expressions and the LRU compile cache
+    public static void testExpressionCache() {
+        ExpressionCache cache = new ExpressionCache(4);
+
+        for (String[] test : TEST_CASES) {
+            int expected = Integer.parseInt(test[2]);
+            CompiledExpression compiled = cache.get(test[0]);
+
+            if (compiled.evaluate() == expected && compiled.toString().equals(test[1])) {
+                System.out.println("PASS: Compiled \"" + test[0] + "\" = " + compiled);
+            } else {
+                System.out.println("FAIL: Compiled \"" + test[0] + "\" => Got: " + compiled + " = " + compiled.evaluate() + ", Expected: " + test[1] + " = " + expected);
+            }
+        }
+
+        // The last 4 expressions are cached, earlier ones were evicted
+        int lastIndex = TEST_CASES.length - 1;
+        cache.evaluate(TEST_CASES[lastIndex][0]);
+        cache.evaluate(TEST_CASES[0][0]);
+        if (cache.hitCount() == 1 && cache.missCount() == TEST_CASES.length + 1 && cache.size() == 4) {
+            System.out.println("PASS: Cache counted 1 hit and " + cache.missCount() + " misses, size " + cache.size() + ".");
+        } else {
+            System.out.println("FAIL: Cache hits/misses/size => Got: " + cache.hitCount() + "/" + cache.missCount() + "/" + cache.size());
+        }
+
+        if (CompiledExpression.fromPostfix("100 2 12 + *").evaluate() == 1400) {
+            System.out.println("PASS: Compiled postfix \"100 2 12 + *\" = 1400");
+        } else {
+            System.out.println("FAIL: Compiled postfix \"100 2 12 + *\" should be 1400.");
+        }
+
+        try {
+            CompiledExpression.compile("( 3 + 4");
+            System.out.println("FAIL: Expected IllegalArgumentException for unbalanced parentheses.");
+        } catch (IllegalArgumentException e) {
+            System.out.println("PASS: Caught IllegalArgumentException for unbalanced parentheses.");
+        }
+
+        // operands and operators out of place, though the stack depth works out
+        for (String malformed : new String[] {"3 4 +", "+ 3 4", "(3)(4)*"}) {
+            try {
+                int value = cache.evaluate(malformed);
+                System.out.println("FAIL: Compiled malformed \"" + malformed + "\" => Got: " + value);
+            } catch (IllegalArgumentException e) {
+                System.out.println("PASS: Rejected \"" + malformed + "\": " + e.getMessage());
+            }
+        }
+        System.out.print("--------------------------------------------------\n");
+    }
+
+    // Utility method to test expression templates with variables
+    public static void testVariables() {
+        InfixConverter converter = new InfixConverter(new ArrayBasedStack());
+        String postfix = converter.toPostfix("rate*(hours+2)");
+        if (postfix.equals("rate hours 2 + *")) {
+            System.out.println("PASS: Converted variables => " + postfix);
+        } else {
+            System.out.println("FAIL: Expected \"rate hours 2 + *\" => Got: " + postfix);
+        }
+
+        CompiledExpression price = CompiledExpression.compile("qty * unit + fee");
+        int[] bindings = price.bind(Map.of("qty", 3, "unit", 20, "fee", 5));
+        int first = price.evaluate(bindings);
+        bindings[price.slotOf("qty")] = 4;
+        int second = price.evaluate(bindings);
+        if (first == 65 && second == 85 && Arrays.equals(price.variableNames(), new String[] {"qty", "unit", "fee"})
+                && price.slotOf("missing") == -1) {
+            System.out.println("PASS: Template \"" + price + "\" = 65, then 85 after rebinding qty");
+        } else {
+            System.out.println("FAIL: Template \"" + price + "\" => Got: " + first + ", " + second);
+        }
+
+        CompiledExpression declared = CompiledExpression.compile("y - x * x", "x", "y");
+        CompiledExpression reparsed = CompiledExpression.fromPostfix(declared.toString(), "x", "y");
+        if (declared.evaluate(new int[] {3, 10}) == 1 && reparsed.evaluate(new int[] {3, 10}) == 1
+                && declared.evaluateLong(new long[] {100000, 0}) == -10000000000L) {
+            System.out.println("PASS: Declared slots evaluate in int and long mode");
+        } else {
+            System.out.println("FAIL: Declared slots => Got: " + declared.evaluate(new int[] {3, 10}));
+        }
+
+        try {
+            CompiledExpression.compile("x + z", "x", "y");
+            System.out.println("FAIL: Expected IllegalArgumentException for an undeclared variable.");
+        } catch (IllegalArgumentException e) {
+            System.out.println("PASS: Caught IllegalArgumentException for an undeclared variable.");
+        }
+
+        try {
+            price.evaluate(new int[] {1, 2});
+            System.out.println("FAIL: Expected IllegalArgumentException for missing bindings.");
+        } catch (IllegalArgumentException e) {
+            System.out.println("PASS: Caught IllegalArgumentException for missing bindings.");
+        }
+
+        // the value stack is reused, per thread or from the caller, not allocated per call
+        int[] intBindings = {3, 10};
+        long[] longBindings = {100000, 0};
+        CompiledExpression constant = CompiledExpression.compile("( 8 + ( 2 * ( 3 + 1 ) ) ) * 2");
+        long[] sums = new long[1];
+        long evaluating = allocatedBytes(() -> {
+            for (int i = 0; i < 10_000; i++) {
+                sums[0] += declared.evaluate(intBindings) + declared.evaluateLong(longBindings) + constant.evaluateChecked();
+            }
+        });
+        int[] scratch = new int[declared.scratchSize()];
+        if (evaluating < 10_000 && sums[0] == 10_000 * (1 - 10000000000L + 32)
+                && declared.evaluate(intBindings, scratch) == 1
+                && declared.evaluateLong(longBindings, new long[declared.scratchSize()]) == -10000000000L) {
+            System.out.println("PASS: 30000 evaluations allocated " + evaluating + " bytes; caller scratch agrees");
+        } else {
+            System.out.println("FAIL: Scratch reuse => " + evaluating + " bytes, sum " + sums[0]);
+        }
+        try {
+            declared.evaluate(intBindings, new int[declared.scratchSize() - 1]);
+            System.out.println("FAIL: Expected IllegalArgumentException for a short scratch array.");
+        } catch (IllegalArgumentException e) {
+            System.out.println("PASS: Caught IllegalArgumentException for a short scratch array.");
+        }
+        System.out.print("--------------------------------------------------\n");
+    }
+
+    // Utility method to test block-wise evaluation over columns
+    public static void testColumnEvaluator() {
+        // 2500 rows span two full blocks of 1024 and one partial block
+        int rows = 2500;
+        int[] a = new int[rows];
+        int[] b = new int[rows];
+        long[] longA = new long[rows];
+        long[] longB = new long[rows];
+        for (int i = 0; i < rows; i++) {
+            a[i] = i - 1000;
+            b[i] = i % 7 + 1;
+            longA[i] = a[i] * 1000000L;
+            longB[i] = b[i];
+        }
+
+        CompiledExpression expr = CompiledExpression.compile("( a + 3 ) * b - a / b + 7", "a", "b");
+        ColumnEvaluator evaluator = new ColumnEvaluator();
+        int[] result = new int[rows];
+        long[] longResult = new long[rows];
+        evaluator.evaluate(expr, new int[][] {a, b}, result);
+        evaluator.evaluateLong(expr, new long[][] {longA, longB}, longResult);
+
+        int mismatches = 0;
+        for (int i = 0; i < rows; i++) {
+            if (result[i] != expr.evaluate(new int[] {a[i], b[i]})
+                    || longResult[i] != expr.evaluateLong(new long[] {longA[i], longB[i]})) {
+                mismatches++;
+            }
+        }
+        if (mismatches == 0) {
+            System.out.println("PASS: Column evaluation of " + rows + " rows matches row-by-row evaluation");
+        } else {
+            System.out.println("FAIL: Column evaluation differed on " + mismatches + " rows");
+        }
+
+        try {
+            longA[rows - 1] = Long.MAX_VALUE;
+            evaluator.evaluateLong(expr, new long[][] {longA, longB}, longResult);
+            System.out.println("FAIL: Expected ArithmeticException for long overflow in a column.");
+        } catch (ArithmeticException e) {
+            System.out.println("PASS: Caught ArithmeticException for long overflow in a column.");
+        }
+
+        try {
+            evaluator.evaluate(expr, new int[][] {a, new int[10]}, result);
+            System.out.println("FAIL: Expected IllegalArgumentException for a short column.");
+        } catch (IllegalArgumentException e) {
+            System.out.println("PASS: Caught IllegalArgumentException for a short column.");
+        }
+        System.out.print("--------------------------------------------------\n");
+    }
+
+    // Utility method to test constant folding and common-subexpression elimination
+    public static void testExpressionOptimizer() {
+        for (String[] test : TEST_CASES) {
+            CompiledExpression optimized = ExpressionOptimizer.optimize(CompiledExpression.compile(test[0]));
+            if (optimized.evaluate() == Integer.parseInt(test[2]) && optimized.code.length == 2) {
+                System.out.println("PASS: Folded \"" + test[0] + "\" to " + optimized);
+            } else {
+                System.out.println("FAIL: Folding \"" + test[0] + "\" => Got: " + optimized);
+            }
+        }
+
+        CompiledExpression original = CompiledExpression.compile("( a + b ) * ( b + a ) - ( a + b ) * 1 + 2 * 3 + 0", "a", "b");
+        CompiledExpression optimized = ExpressionOptimizer.optimize(original);
+        int[][] bindings = {{1, 2}, {-7, 3}, {Integer.MAX_VALUE, 1}};
+        boolean same = true;
+        for (int[] binding : bindings) {
+            long[] longBinding = {binding[0], binding[1]};
+            same &= original.evaluate(binding) == optimized.evaluate(binding);
+            same &= original.evaluateLong(longBinding) == optimized.evaluateLong(longBinding);
+        }
+        if (same && optimized.code.length < original.code.length && optimized.temps == 1) {
+            System.out.println("PASS: Optimized " + original.code.length + " to " + optimized.code.length
+                    + " entries with a + b computed once");
+        } else {
+            System.out.println("FAIL: Optimizing \"" + original + "\" => Got: " + optimized);
+        }
+
+        int[][] columns = {{1, -7, 40}, {2, 3, 5}};
+        int[] expected = new int[3];
+        int[] actual = new int[3];
+        ColumnEvaluator columnEvaluator = new ColumnEvaluator();
+        columnEvaluator.evaluate(original, columns, expected);
+        columnEvaluator.evaluate(optimized, columns, actual);
+        if (Arrays.equals(expected, actual)) {
+            System.out.println("PASS: Column evaluation of the optimized program matches the original");
+        } else {
+            System.out.println("FAIL: Column evaluation => Got: " + Arrays.toString(actual));
+        }
+
+        String identities = ExpressionOptimizer.optimize(CompiledExpression.compile("( x * 1 + 0 ) / 1 - 0")).toString();
+        String overflow = ExpressionOptimizer.optimize(CompiledExpression.compile("2147483647 + 1")).toString();
+        if (identities.equals("x") && overflow.equals("2147483647 1 +")) {
+            System.out.println("PASS: Identities removed and int-overflowing constants left unfolded");
+        } else {
+            System.out.println("FAIL: Expected \"x\" and \"2147483647 1 +\" => Got: " + identities + ", " + overflow);
+        }
+
+        // a folded negative constant must still read back as postfix
+        String negative = ExpressionOptimizer.optimize(CompiledExpression.compile("a * ( 1 - 2 )", "a")).toString();
+        String folded = ExpressionOptimizer.optimize(CompiledExpression.compile("1 - 4")).toString();
+        try {
+            int roundTrip = CompiledExpression.fromPostfix(negative, "a").evaluate(new int[] {5});
+            int primitive = new PostfixEvaluator(new ArrayBasedStack()).evaluatePrimitive(folded);
+            if (negative.equals("a 0 1 - *") && roundTrip == -5 && primitive == -3) {
+                System.out.println("PASS: Negative constants printed as \"" + negative + "\" and \"" + folded + "\" round-trip");
+            } else {
+                System.out.println("FAIL: Negative constants => Got: " + negative + " = " + roundTrip + ", " + folded + " = " + primitive);
+            }
+        } catch (RuntimeException e) {
+            System.out.println("FAIL: Negative constant \"" + negative + "\" did not round-trip => " + e);
+        }
+
+        try {
+            ExpressionOptimizer.optimize(CompiledExpression.compile("5 + 1 / 0")).evaluate();
+            System.out.println("FAIL: Expected ArithmeticException for division by zero.");
+        } catch (ArithmeticException e) {
+            System.out.println("PASS: Caught ArithmeticException for division by zero after optimizing.");
+        }
+
+        // a long formula must not overflow the Java stack while optimizing
+        StringBuilder chain = new StringBuilder("x");
+        for (int i = 1; i <= 20_000; i++) {
+            chain.append(i % 2 == 0 ? " + x * " : " - ").append(i % 7);
+        }
+        try {
+            CompiledExpression longFormula = CompiledExpression.compile(chain.toString(), "x");
+            int interpreted = longFormula.evaluate(new int[] {3});
+            int chained = ExpressionOptimizer.optimize(longFormula).evaluate(new int[] {3});
+            if (chained == interpreted) {
+                System.out.println("PASS: Optimized a 20000-term formula = " + chained);
+            } else {
+                System.out.println("FAIL: Long formula => Got: " + chained + ", Expected: " + interpreted);
+            }
+        } catch (StackOverflowError e) {
+            System.out.println("FAIL: Optimizing a 20000-term formula overflowed the stack.");
+        }
+        System.out.print("--------------------------------------------------\n");
+    }
+
+    // Utility method to test the switch from interpreter to generated bytecode
+    public static void testTieredExpression() {
+        for (String[] test : TEST_CASES) {
+            TieredExpression tiered = new TieredExpression(CompiledExpression.compile(test[0]), 0);
+            int expected = Integer.parseInt(test[2]);
+            if (tiered.evaluate() == expected && tiered.evaluateLong() == expected && tiered.isCompiled()) {
+                System.out.println("PASS: Bytecode for \"" + test[0] + "\" = " + expected);
+            } else {
+                System.out.println("FAIL: Bytecode for \"" + test[0] + "\" should be " + expected);
+            }
+        }
+
+        String formula = "( a + b ) * ( a + b ) - c / 7 + 100000 * a - 40000 + b * 70000 * 1";
+        CompiledExpression interpreted = CompiledExpression.compile(formula, "a", "b", "c");
+        TieredExpression tiered = new TieredExpression(interpreted, 3);
+        int[][] bindings = {{1, 2, 3}, {-5, 9, 700}, {Integer.MAX_VALUE, 1, -8}, {12, -40, 99}, {0, 0, 0}};
+        boolean same = true;
+        for (int[] binding : bindings) {
+            long[] longBinding = {binding[0], binding[1], binding[2]};
+            same &= tiered.evaluate(binding) == interpreted.evaluate(binding);
+            same &= tiered.evaluateLong(longBinding) == interpreted.evaluateLong(longBinding);
+        }
+        if (same && tiered.isCompiled() && tiered.program.getClass().isHidden()) {
+            System.out.println("PASS: Tiered expression switched to a hidden class with the same results");
+        } else {
+            System.out.println("FAIL: Tiered expression => compiled: " + tiered.isCompiled());
+        }
+
+        try {
+            tiered.evaluateLong(new long[] {Long.MAX_VALUE, 1, 0});
+            System.out.println("FAIL: Expected ArithmeticException for long overflow in bytecode.");
+        } catch (ArithmeticException e) {
+            System.out.println("PASS: Caught ArithmeticException for long overflow in bytecode.");
+        }
+
+        try {
+            new TieredExpression(CompiledExpression.compile("x / ( y - y )"), 0).evaluate(new int[] {1, 2});
+            System.out.println("FAIL: Expected ArithmeticException for division by zero in bytecode.");
+        } catch (ArithmeticException e) {
+            System.out.println("PASS: Caught ArithmeticException for division by zero in bytecode.");
+        }
+        System.out.print("--------------------------------------------------\n");
+    }
+
+    // Utility method to test incremental recalculation of dependent formulas
+    public static void testFormulaGraph() {
+        FormulaGraph sheet = new FormulaGraph();
+        sheet.setInput("price", 20);
+        sheet.setInput("qty", 3);
+        sheet.define("subtotal", "price * qty");
+        sheet.define("total", "subtotal + subtotal / 10");
+        sheet.define("other", "fee + 1");
+        int first = sheet.get("total");
+        sheet.setInput("qty", 5);
+        int recomputed = sheet.recalculate();
+        int second = sheet.get("total");
+        if (first == 66 && second == 110 && recomputed == 2 && sheet.get("other") == 1) {
+            System.out.println("PASS: Changing qty recomputed only subtotal and total");
+        } else {
+            System.out.println("FAIL: Spreadsheet => Got: " + first + ", " + second + " after " + recomputed + " recomputations");
+        }
+
+        // a long formula is optimized without overflowing the stack
+        StringBuilder sum = new StringBuilder("price");
+        for (int i = 0; i < 20_000; i++) {
+            sum.append(" + 1");
+        }
+        try {
+            sheet.define("long", sum.toString());
+            if (sheet.get("long") == 20_020) {
+                System.out.println("PASS: Defined a 20001-term formula = " + sheet.get("long"));
+            } else {
+                System.out.println("FAIL: Long formula => Got: " + sheet.get("long"));
+            }
+        } catch (StackOverflowError e) {
+            System.out.println("FAIL: Defining a 20001-term formula overflowed the stack.");
+        }
+
+        try {
+            sheet.define("price", "total - 1");
+            System.out.println("FAIL: Expected IllegalArgumentException for a cycle.");
+        } catch (IllegalArgumentException e) {
+            System.out.println("PASS: Caught IllegalArgumentException for a cycle.");
+        }
+
+        sheet.setInput("qty", 0);
+        sheet.define("ratio", "price / qty");
+        sheet.define("scaled", "ratio * 2");
+        try {
+            sheet.get("scaled");
+            System.out.println("FAIL: Expected ArithmeticException from a formula reading a division by zero.");
+        } catch (ArithmeticException e) {
+            System.out.println("PASS: Caught ArithmeticException from a formula reading a division by zero.");
+        }
+        sheet.setInput("qty", 4);
+        if (sheet.get("scaled") == 10) {
+            System.out.println("PASS: Error cleared once the input changed");
+        } else {
+            System.out.println("FAIL: Expected scaled = 10 => Got: " + sheet.get("scaled"));
+        }
+
+        // a wide level of independent formulas, recomputed on several threads
+        ExecutorService pool = Executors.newFixedThreadPool(4);
+        try {
+            FormulaGraph wide = new FormulaGraph(pool);
+            int cells = 2000;
+            for (int i = 0; i < cells; i++) {
+                wide.define("f" + i, "x * " + i + " + y");
+            }
+            wide.define("sum", "f0 + f1999");
+            wide.setInput("x", 3);
+            wide.setInput("y", 1);
+            int count = wide.recalculate();
+            boolean correct = wide.get("sum") == 1 + 3 * 1999 + 1;
+            for (int i = 0; i < cells; i++) {
+                correct &= wide.get("f" + i) == 3 * i + 1;
+            }
+            if (correct && count == cells + 1) {
+                System.out.println("PASS: Recomputed " + count + " formulas in parallel");
+            } else {
+                System.out.println("FAIL: Parallel recalculation => recomputed " + count);
+            }
+        } finally {
+            pool.shutdown();
+        }
+        System.out.print("--------------------------------------------------\n");
+    }
+
+    // Utility method to test the socket server and its load-test client
+    public static void testEvaluationServer() {
+        try (EvaluationServer server = new EvaluationServer(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0))) {
+            server.start();
+            try (SocketChannel client = SocketChannel.open(server.localAddress())) {
+                // five pipelined requests in a single write
+                client.write(ByteBuffer.wrap("3 + 4\n\n1 / 0\r\n( 8 + ( 2 * ( 3 + 1 ) ) ) * 2\n2147483647 + 1 - 1\n"
+                        .getBytes(StandardCharsets.US_ASCII)));
+                StringBuilder responses = new StringBuilder();
+                ByteBuffer in = ByteBuffer.allocate(1024);
+                while (responses.chars().filter(c -> c == '\n').count() < 5 && client.read(in) >= 0) {
+                    in.flip();
+                    responses.append(StandardCharsets.US_ASCII.decode(in));
+                    in.clear();
+                }
+                String[] lines = responses.toString().split("\n", -1);
+                if (lines[0].equals("7") && lines[1].isEmpty() && lines[2].equals("ERROR Division by zero")
+                        && lines[3].equals("32") && lines[4].equals("ERROR Overflow")) {
+                    System.out.println("PASS: Pipelined requests answered in order over TCP");
+                } else {
+                    System.out.println("FAIL: Pipelined responses => Got: " + responses);
+                }
+            }
+
+            // two clients whose lines share the evaluator's rounds get only their own answers
+            try (SocketChannel first = SocketChannel.open(server.localAddress());
+                    SocketChannel second = SocketChannel.open(server.localAddress())) {
+                first.write(ByteBuffer.wrap("1 + 1\n".repeat(500).getBytes(StandardCharsets.US_ASCII)));
+                second.write(ByteBuffer.wrap("2 * 3\n".repeat(500).getBytes(StandardCharsets.US_ASCII)));
+                String firstResponses = readLines(first, 500);
+                String secondResponses = readLines(second, 500);
+                if (firstResponses.equals("2\n".repeat(500)) && secondResponses.equals("6\n".repeat(500))) {
+                    System.out.println("PASS: Concurrent clients each get their own responses in order");
+                } else {
+                    System.out.println("FAIL: Concurrent clients => Got: " + firstResponses.length() + " and "
+                            + secondResponses.length() + " characters");
+                }
+            }
+        } catch (IOException e) {
+            System.out.println("FAIL: TCP server => " + e);
+        }
+
+        Path socket = Path.of(System.getProperty("java.io.tmpdir"), "evaluation-" + ProcessHandle.current().pid() + ".sock");
+        try (EvaluationServer server = new EvaluationServer(UnixDomainSocketAddress.of(socket))) {
+            server.start();
+            LoadTestClient.Result result = new LoadTestClient(server.localAddress(), 2, 2000, 16).run(TEST_CASES[4][0]);
+            if (result.requests() == 4000 && result.errors() == 0 && server.requestCount() == 4000
+                    && server.batchCount() < server.requestCount()
+                    && result.percentile(0.5) <= result.percentile(0.99) && result.percentile(0.99) <= result.percentile(0.999)) {
+                System.out.println("PASS: Load test over a Unix domain socket => " + result.requests() + " requests in "
+                        + server.batchCount() + " batches");
+            } else {
+                System.out.println("FAIL: Load test => " + result + ", server batches " + server.batchCount());
+            }
+        } catch (IOException | UnsupportedOperationException e) {
+            System.out.println("FAIL: Unix domain socket server => " + e);
+        }
+        System.out.print("--------------------------------------------------\n");
+    }
+
+    // Reads from a client channel until the given number of lines has arrived
+    private static String readLines(SocketChannel client, int lines) throws IOException {
+        StringBuilder responses = new StringBuilder();
+        ByteBuffer in = ByteBuffer.allocate(1024);
+        while (responses.chars().filter(c -> c == '\n').count() < lines && client.read(in) >= 0) {
+            in.flip();
+            responses.append(StandardCharsets.US_ASCII.decode(in));
+            in.clear();
+        }
+        return responses.toString();
+    }
+
+    // Utility method to test the binary postfix encoder, decoder and evaluator
+    public static void testBinaryPostfix() {
+        PostfixEvaluator evaluator = new PostfixEvaluator(new ArrayBasedStack());
+        for (String[] test : TEST_CASES) {
+            byte[] encoded = PostfixEncoder.encode(test[1]);
+            ByteBuffer direct = ByteBuffer.allocateDirect(encoded.length).put(encoded).flip();
+            int expected = Integer.parseInt(test[2]);
+            String decoded = PostfixDecoder.decode(ByteBuffer.wrap(encoded)).toString();
+            if (evaluator.evaluate(ByteBuffer.wrap(encoded)) == expected && evaluator.evaluate(direct) == expected
+                    && direct.position() == 0 && decoded.equals(test[1])) {
+                System.out.println("PASS: \"" + test[1] + "\" in " + encoded.length + " bytes = " + expected);
+            } else {
+                System.out.println("FAIL: Encoding \"" + test[1] + "\" => Got: " + decoded);
+            }
+        }
+
+        // folding 0 - 3 leaves a negative constant
+        CompiledExpression withVariables = ExpressionOptimizer.optimize(
+                CompiledExpression.compile("( price + ( 0 - 3 ) ) * qty + 100000", "qty", "price"));
+        ByteBuffer records = ByteBuffer.allocate(256);
+        records.put(PostfixEncoder.encode(withVariables)).put(PostfixEncoder.encode("1 2 +")).flip();
+        int value = evaluator.evaluate(records, new int[] {4, 7});
+        CompiledExpression first = PostfixDecoder.decode(records);
+        CompiledExpression second = PostfixDecoder.decode(records);
+        if (value == 100016 && first.evaluate(new int[] {4, 7}) == 100016 && second.evaluate() == 3
+                && Arrays.equals(first.variableNames(), new String[] {"qty", "price"}) && !records.hasRemaining()) {
+            System.out.println("PASS: Variables and consecutive records survive encoding");
+        } else {
+            System.out.println("FAIL: Expected 100016 and 3 => Got: " + value + ", " + first + ", " + second);
+        }
+
+        CompiledExpression shared = ExpressionOptimizer.optimize(CompiledExpression.compile("( a + b ) * ( a + b )"));
+        int[] binding = {3, 4};
+        if (shared.temps == 1
+                && evaluator.evaluate(ByteBuffer.wrap(PostfixEncoder.encode(shared)), binding) == 49) {
+            System.out.println("PASS: Shared subexpressions are written out at each use");
+        } else {
+            System.out.println("FAIL: Expected 49 for " + shared);
+        }
+
+        byte[] encoded = PostfixEncoder.encode("100 2 12 + *");
+        byte[][] malformed = {
+                Arrays.copyOf(encoded, encoded.length - 1),
+                {2, 0, 9},
+                {5, 0, 0, 2, 0, 4},
+                {3, 1, 5, 120},
+                {3, 0, 1, 1},
+                {2, 0, 5},
+                {7, 0, 0, (byte) 0x80, (byte) 0x80, (byte) 0x80, (byte) 0x80, 0x10}
+        };
+        for (byte[] bytes : malformed) {
+            try {
+                evaluator.evaluate(ByteBuffer.wrap(bytes));
+                System.out.println("FAIL: Expected IllegalArgumentException for " + Arrays.toString(bytes));
+            } catch (IllegalArgumentException e) {
+                try {
+                    PostfixDecoder.decode(ByteBuffer.wrap(bytes));
+                    System.out.println("FAIL: Expected decoder to reject " + Arrays.toString(bytes));
+                } catch (IllegalArgumentException e2) {
+                    System.out.println("PASS: Rejected " + Arrays.toString(bytes) + ": " + e.getMessage());
+                }
+            }
+        }
+        System.out.print("--------------------------------------------------\n");
+    }
+
+    // Utility method to test the persistent expression store
+    public static void testExpressionStore() {
+        try {
+            Path file = Files.createTempFile("expressions", ".store");
+            Files.delete(file);
+            try {
+                try (ExpressionStore store = new ExpressionStore(file)) {
+                    ExpressionCache cache = new ExpressionCache(4, store);
+                    for (String[] test : TEST_CASES) {
+                        cache.evaluate(test[0]);
+                    }
+                    if (store.size() == 4 && store.garbageBytes() > 0
+                            && store.get(TEST_CASES[0][0]) == null) {
+                        System.out.println("PASS: Store mirrors the cache, evicted entries are tombstoned");
+                    } else {
+                        System.out.println("FAIL: Expected 4 stored expressions => Got: " + store.size());
+                    }
+                }
+
+                try (ExpressionStore store = new ExpressionStore(file)) {
+                    ExpressionCache cache = new ExpressionCache(4, store);
+                    int last = TEST_CASES.length - 1;
+                    int value = cache.evaluate(TEST_CASES[last][0]);
+                    if (cache.size() == 4 && cache.hitCount() == 1 && value == Integer.parseInt(TEST_CASES[last][2])) {
+                        System.out.println("PASS: Reopened store warms a new cache");
+                    } else {
+                        System.out.println("FAIL: Warm start => Got: size " + cache.size() + ", hits " + cache.hitCount());
+                    }
+
+                    long before = store.fileSize();
+                    store.put("a * 2", CompiledExpression.compile("a * 2"));
+                    store.compact();
+                    CompiledExpression variable = store.get("a * 2");
+                    if (store.fileSize() < before && store.garbageBytes() == 0 && store.size() == 5
+                            && variable.evaluate(new int[] {21}) == 42
+                            && store.get(TEST_CASES[last][0]).evaluate() == Integer.parseInt(TEST_CASES[last][2])) {
+                        System.out.println("PASS: Compacted " + before + " bytes to " + store.fileSize());
+                    } else {
+                        System.out.println("FAIL: Compaction => Got: " + store.fileSize() + " bytes");
+                    }
+                }
+
+                // a torn append: the last record loses its final byte
+                try (FileChannel channel = FileChannel.open(file, StandardOpenOption.WRITE)) {
+                    channel.truncate(channel.size() - 1);
+                }
+                try (ExpressionStore store = new ExpressionStore(file)) {
+                    if (store.size() == 4 && !store.contains("a * 2")) {
+                        System.out.println("PASS: Torn record dropped, earlier records kept");
+                    } else {
+                        System.out.println("FAIL: Expected 4 records after recovery => Got: " + store.size());
+                    }
+                    store.put("a * 2", CompiledExpression.compile("a * 2"));
+                }
+
+                // a flipped bit inside the last record fails its checksum
+                byte[] bytes = Files.readAllBytes(file);
+                bytes[bytes.length - 2] ^= 1;
+                Files.write(file, bytes);
+                try (ExpressionStore store = new ExpressionStore(file)) {
+                    if (store.size() == 4 && store.fileSize() < bytes.length) {
+                        System.out.println("PASS: Corrupt record rejected by its checksum");
+                    } else {
+                        System.out.println("FAIL: Expected corrupt record to be dropped => Got: " + store.size());
+                    }
+                }
+
+                bytes = Files.readAllBytes(file);
+                bytes[7] = 99;
+                Files.write(file, bytes);
+                try (ExpressionStore store = new ExpressionStore(file)) {
+                    System.out.println("FAIL: Expected IOException for version 99, opened " + store.size());
+                } catch (IOException e) {
+                    System.out.println("PASS: Caught IOException: " + e.getMessage().replace(file.toString(), "file"));
+                }
+            } finally {
+                Files.deleteIfExists(file);
+            }
+        } catch (IOException e) {
+            System.out.println("FAIL: Unexpected IOException: " + e);
+        }
+        System.out.print("--------------------------------------------------\n");
+    }
+
+    // Utility method to test the staged convert/evaluate pipeline
+    public static void testExpressionPipeline() {
+        List<String> expressions = new ArrayList<>();
+        List<String> expected = new ArrayList<>();
+        for (int i = 0; i < 1000; i++) {
+            String[] test = TEST_CASES[i % TEST_CASES.length];
+            expressions.add(i % 100 == 99 ? test[0] + " ) +" : test[0]);
+            expected.add(i % 100 == 99 ? null : test[2]);
+        }
+
+        ExpressionPipeline pipeline = new ExpressionPipeline(2, 2, 16);
+        String[] results = new String[expressions.size()];
+        ExpressionPipeline.Stats stats = pipeline.run(expressions.iterator(),
+                item -> results[(int) item.index()] = item.error() == null ? Integer.toString(item.value()) : null);
+        boolean correct = true;
+        for (int i = 0; i < results.length; i++) {
+            correct &= expected.get(i) == null ? results[i] == null : expected.get(i).equals(results[i]);
+        }
+        boolean counted = true;
+        for (ExpressionPipeline.Stage stage : ExpressionPipeline.Stage.values()) {
+            counted &= stats.processed(stage) == expressions.size();
+        }
+        if (correct && counted && stats.peakQueueDepth(ExpressionPipeline.Stage.CONVERT) <= 16) {
+            System.out.println("PASS: 1000 expressions through 4 stages, 10 errors reported in place");
+        } else {
+            System.out.println("FAIL: Pipeline results => Got: " + Arrays.toString(results) + "\n" + stats);
+        }
+
+        // a failed item must not affect the next one on the same converter thread
+        String[] afterFailure = new String[2];
+        new ExpressionPipeline(1, 1, 4).run(List.of("3 + $", "1 + 2").iterator(),
+                item -> afterFailure[(int) item.index()] = item.error() == null ? Integer.toString(item.value()) : null);
+        if (afterFailure[0] == null && "3".equals(afterFailure[1])) {
+            System.out.println("PASS: \"1 + 2\" = 3 after \"3 + $\" failed on the same converter");
+        } else {
+            System.out.println("FAIL: Failure leaked into the next item => Got: " + Arrays.toString(afterFailure));
+        }
+
+        List<Long> order = new ArrayList<>();
+        new ExpressionPipeline(1, 1, 4).run(expressions.iterator(), item -> order.add(item.index()));
+        boolean ordered = order.size() == expressions.size();
+        for (int i = 0; i < order.size(); i++) {
+            ordered &= order.get(i) == i;
+        }
+        if (ordered) {
+            System.out.println("PASS: Single-threaded stages keep source order");
+        } else {
+            System.out.println("FAIL: Results out of order");
+        }
+
+        // a slow sink must stop the reader once the queues are full
+        ExpressionPipeline slow = new ExpressionPipeline(1, 1, 8);
+        long[] readWhileStalled = new long[1];
+        slow.run(expressions.iterator(), item -> {
+            if (item.index() == 0) {
+                try {
+                    Thread.sleep(50);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                readWhileStalled[0] = slow.processedCount(ExpressionPipeline.Stage.READ);
+            }
+        });
+        if (readWhileStalled[0] <= 3 * 8 + 4) {
+            System.out.println("PASS: Slow sink held the reader to " + readWhileStalled[0] + " expressions");
+        } else {
+            System.out.println("FAIL: Reader ran ahead of a stalled sink: " + readWhileStalled[0]);
+        }
+
+        try {
+            new ExpressionPipeline(2, 2, 4).run(expressions.iterator(), item -> {
+                if (item.index() == 5) {
+                    throw new IllegalStateException("sink failed");
+                }
+            });
+            System.out.println("FAIL: Expected the sink's exception.");
+        } catch (IllegalStateException e) {
+            System.out.println("PASS: Sink failure stopped the pipeline: " + e.getMessage());
+        }
+        System.out.print("--------------------------------------------------\n");
+    }
+
+    public static void testTryEvaluate() {
+        InfixEvaluator evaluator = new InfixEvaluator();
+        PostfixEvaluator postfixEvaluator = new PostfixEvaluator(new ArrayBasedStack());
+        boolean matches = true;
+        for (String[] test : TEST_CASES) {
+            EvaluationResult infix = evaluator.tryEvaluate(test[0]);
+            EvaluationResult postfix = postfixEvaluator.tryEvaluate(test[1]);
+            matches &= infix.isSuccess() && test[2].equals(Integer.toString(infix.value()))
+                    && postfix.isSuccess() && test[2].equals(Integer.toString(postfix.value()));
+        }
+        if (matches) {
+            System.out.println("PASS: tryEvaluate agrees with evaluate on every test case");
+        } else {
+            System.out.println("FAIL: tryEvaluate disagrees with evaluate");
+        }
+
+        Object[][] failures = {
+            {"", ErrorCode.EMPTY_EXPRESSION, 0},
+            {"   ", ErrorCode.EMPTY_EXPRESSION, 0},
+            {"( 3 + 4", ErrorCode.UNBALANCED_PARENTHESES, 0},
+            {"3 + 4 )", ErrorCode.UNBALANCED_PARENTHESES, 6},
+            {"( ( 1 ) + 2", ErrorCode.UNBALANCED_PARENTHESES, 0},
+            {"1 + (", ErrorCode.UNBALANCED_PARENTHESES, 4},
+            {"3 + * 4", ErrorCode.MISSING_OPERAND, 4},
+            {"3 +", ErrorCode.MISSING_OPERAND, 2},
+            {"* 3", ErrorCode.MISSING_OPERAND, 0},
+            {"( )", ErrorCode.MISSING_OPERAND, 2},
+            {"( 3 + )", ErrorCode.MISSING_OPERAND, 6},
+            {"3 4", ErrorCode.MISSING_OPERATOR, 2},
+            {"( 1 ) ( 2 )", ErrorCode.MISSING_OPERATOR, 6},
+            {"3 $ 4", ErrorCode.UNEXPECTED_INPUT, 2},
+            {"x + 1", ErrorCode.UNEXPECTED_INPUT, 0},
+            {"1 / 0", ErrorCode.DIVISION_BY_ZERO, 2},
+            {"7 + 1 / ( 2 - 2 )", ErrorCode.DIVISION_BY_ZERO, 6},
+            {"2147483648", ErrorCode.OVERFLOW, 0},
+            {"1 + 99999999999999999999", ErrorCode.OVERFLOW, 4},
+            {"2147483647 + 1", ErrorCode.OVERFLOW, 11},
+            {"65536 * 65536", ErrorCode.OVERFLOW, 6},
+            {"( 0 - 2147483647 - 1 ) / ( 0 - 1 )", ErrorCode.OVERFLOW, 23},
+        };
+        for (Object[] failure : failures) {
+            String input = (String) failure[0];
+            EvaluationResult result = evaluator.tryEvaluate(input);
+            if (!result.isSuccess() && result.errorCode() == failure[1] && result.position() == (int) failure[2]) {
+                System.out.println("PASS: \"" + input + "\" => " + result.message());
+            } else {
+                System.out.println("FAIL: \"" + input + "\" expected " + failure[1] + " at " + failure[2]
+                        + " => Got: " + result);
+            }
+        }
+
+        Object[][] postfixFailures = {
+            {"", ErrorCode.EMPTY_EXPRESSION, 0},
+            {"3 +", ErrorCode.MISSING_OPERAND, 2},
+            {"3 4", ErrorCode.MISSING_OPERATOR, 3},
+            {"3 ( 4 +", ErrorCode.UNEXPECTED_INPUT, 2},
+            {"1 0 /", ErrorCode.DIVISION_BY_ZERO, 4},
+            {"2147483647 1 +", ErrorCode.OVERFLOW, 13},
+        };
+        for (Object[] failure : postfixFailures) {
+            String input = (String) failure[0];
+            EvaluationResult result = postfixEvaluator.tryEvaluate(input);
+            if (!result.isSuccess() && result.errorCode() == failure[1] && result.position() == (int) failure[2]) {
+                System.out.println("PASS: Postfix \"" + input + "\" => " + result.message());
+            } else {
+                System.out.println("FAIL: Postfix \"" + input + "\" expected " + failure[1] + " at " + failure[2]
+                        + " => Got: " + result);
+            }
+        }
+
+        // positions are counted from the start of the slice
+        EvaluationResult slice = evaluator.tryEvaluate("3 + 4\n5 * / 6", 6, 13);
+        if (slice.errorCode() == ErrorCode.MISSING_OPERAND && slice.position() == 4
+                && evaluator.tryEvaluate("3 + 4\n5 * 6", 6, 11).value() == 30) {
+            System.out.println("PASS: Slice errors are reported relative to the slice");
+        } else {
+            System.out.println("FAIL: Slice => Got: " + slice);
+        }
+
+        ExpressionValidator validator = new ExpressionValidator();
+        if (!validator.isValid("( 1 +") && validator.isValid("( 1 + 2 ) * 3")
+                && validator.error() == null && validator.errorPosition() == -1) {
+            System.out.println("PASS: Validator clears its error after a valid expression");
+        } else {
+            System.out.println("FAIL: Validator kept a stale error: " + validator.error());
+        }
+
+        try {
+            evaluator.tryEvaluate("1 / 0").value();
+            System.out.println("FAIL: Expected IllegalStateException.");
+        } catch (IllegalStateException e) {
+            System.out.println("PASS: Reading the value of a failed result threw: " + e.getMessage());
+        }
+        System.out.print("--------------------------------------------------\n");
+    }
+
+    public static void testExpressionMetrics() {
+        Histogram histogram = new Histogram(1_000_000);
+        for (int i = 1; i <= 10_000; i++) {
+            histogram.record(i);
+        }
+        Histogram.Snapshot exact = histogram.snapshot();
+        boolean within = true;
+        for (double p : new double[] {1, 50, 90, 99, 99.9}) {
+            long expected = (long) (p * 100);
+            within &= Math.abs(exact.percentile(p) - expected) <= expected / 64 + 1;
+        }
+        if (within && exact.count() == 10_000 && exact.max() == 10_000 && exact.sum() == 50_005_000L
+                && exact.percentile(100) == 10_000) {
+            System.out.println("PASS: Histogram percentiles within 1/64 of exact: " + exact);
+        } else {
+            System.out.println("FAIL: Histogram => Got: " + exact);
+        }
+
+        Histogram clamped = new Histogram(1000);
+        clamped.record(-5);
+        clamped.record(5_000_000);
+        Histogram.Snapshot edges = clamped.snapshot();
+        if (edges.percentile(0) == 0 && edges.max() == 5_000_000 && edges.percentile(100) == 5_000_000) {
+            System.out.println("PASS: Out-of-range values clamped into the end buckets, exact max kept");
+        } else {
+            System.out.println("FAIL: Clamping => Got: " + edges);
+        }
+
+        // threads sharing striped buckets lose no counts
+        Histogram shared = new Histogram(1_000_000);
+        Thread[] threads = new Thread[8];
+        for (int t = 0; t < threads.length; t++) {
+            threads[t] = new Thread(() -> {
+                for (int i = 0; i < 50_000; i++) {
+                    shared.record(i % 1000);
+                }
+            });
+            threads[t].start();
+        }
+        try {
+            for (Thread thread : threads) {
+                thread.join();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        Histogram.Snapshot merged = shared.snapshot();
+        Histogram.Snapshot again = shared.snapshot();
+        if (merged.count() == 400_000 && again.count() == 400_000 && again.max() == 999
+                && again.sum() == 8L * 50 * 499_500) {
+            System.out.println("PASS: 8 threads recorded without losing a count: " + again);
+        } else {
+            System.out.println("FAIL: Merged => Got: " + merged + " then " + again);
+        }
+
+        // many short-lived threads do not make the histogram grow
+        Histogram unpolled = new Histogram(1_000_000);
+        try {
+            for (int t = 0; t < 100; t++) {
+                Thread thread = new Thread(() -> unpolled.record(5));
+                thread.start();
+                thread.join();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        int processors = Runtime.getRuntime().availableProcessors();
+        if (unpolled.stripeCount() >= processors && unpolled.stripeCount() < 2 * processors
+                && unpolled.snapshot().count() == 100) {
+            System.out.println("PASS: 100 threads recorded into " + unpolled.stripeCount() + " stripes.");
+        } else {
+            System.out.println("FAIL: Stripes after 100 threads => Got: " + unpolled.stripeCount());
+        }
+
+        ExpressionMetrics metrics = new ExpressionMetrics();
+        metrics.record(ExpressionMetrics.Stage.CONVERT, 800, 14);
+        metrics.record(ExpressionMetrics.Stage.CONVERT, 1200, 30);
+        metrics.record(ExpressionMetrics.Stage.EVALUATE, 300, 9);
+        String text = metrics.getText();
+        if (text.contains("# TYPE expression_stage_latency_nanoseconds summary\n")
+                && text.contains("expression_stage_latency_nanoseconds_count{stage=\"convert\"} 2\n")
+                && text.contains("expression_stage_latency_nanoseconds_sum{stage=\"convert\"} 2000\n")
+                && text.contains("expression_size_characters_max{stage=\"convert\"} 30\n")
+                && text.contains("expression_stage_latency_nanoseconds{stage=\"evaluate\",quantile=\"0.5\"} 300\n")
+                && text.contains("expression_stage_latency_nanoseconds_count{stage=\"cache_lookup\"} 0\n")) {
+            System.out.println("PASS: Text exposition lists every stage's latency and size summaries");
+        } else {
+            System.out.println("FAIL: Text exposition => Got:\n" + text);
+        }
+
+        try {
+            Path file = Files.createTempFile("metrics", ".txt");
+            metrics.export(file);
+            boolean written = Files.readString(file).equals(text);
+            ScheduledFuture<?> export = metrics.exportEvery(file, 10);
+            metrics.record(ExpressionMetrics.Stage.TOKENIZE, 50, 5);
+            boolean refreshed = false;
+            for (int i = 0; i < 200 && !refreshed; i++) {
+                Thread.sleep(10);
+                refreshed = Files.readString(file).contains("_count{stage=\"tokenize\"} 1\n");
+            }
+            export.cancel(false);
+            Files.deleteIfExists(file);
+            if (written && refreshed) {
+                System.out.println("PASS: Snapshot file written and refreshed periodically");
+            } else {
+                System.out.println("FAIL: Export => written " + written + ", refreshed " + refreshed);
+            }
+        } catch (IOException | InterruptedException e) {
+            System.out.println("FAIL: Export threw " + e);
+        }
+
+        try {
+            ObjectName name = metrics.register("ExpressionEvaluator:type=Metrics,name=driver");
+            MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+            String[] stages = (String[]) server.getAttribute(name, "Stages");
+            Object count = server.invoke(name, "count", new Object[] {"convert"}, new String[] {"java.lang.String"});
+            Object p99 = server.invoke(name, "percentileNanos", new Object[] {"CONVERT", 99.0},
+                    new String[] {"java.lang.String", "double"});
+            server.unregisterMBean(name);
+            if (stages.length == 4 && Long.valueOf(2).equals(count) && Long.valueOf(1200).equals(p99)) {
+                System.out.println("PASS: MBean reports " + Arrays.toString(stages) + ", convert p99 " + p99 + " ns");
+            } else {
+                System.out.println("FAIL: MBean => Got: " + Arrays.toString(stages) + " " + count + " " + p99);
+            }
+        } catch (JMException e) {
+            System.out.println("FAIL: MBean threw " + e);
+        }
+
+        if (ExpressionMetrics.global() == null) {
+            System.out.println("PASS: Global metrics are off without -Dexpression.metrics.enabled=true");
+        } else {
+            System.out.println("PASS: Global metrics are on: " + ExpressionMetrics.global().latency(ExpressionMetrics.Stage.CONVERT));
+        }
+        System.out.print("--------------------------------------------------\n");
+    }
+
+    // Utility method to test parallel batch evaluation
+    public static void testBatchEvaluator() {
+        // Repeat the test cases enough times to be split into several chunks
+        List<String> expressions = new ArrayList<>();
+        for (int i = 0; i < 1000; i++) {
+            expressions.add(TEST_CASES[i % TEST_CASES.length][0]);
+        }
+
+        ExecutorService pool = Executors.newFixedThreadPool(4);
+        try {
+            int[] results = new BatchEvaluator(pool).evaluateAll(expressions);
+            boolean inOrder = results.length == expressions.size();
+            for (int i = 0; inOrder && i < results.length; i++) {
+                inOrder = results[i] == Integer.parseInt(TEST_CASES[i % TEST_CASES.length][2]);
+            }
+
+            if (inOrder) {
+                System.out.println("PASS: Batch of " + results.length + " expressions evaluated in input order.");
+            } else {
+                System.out.println("FAIL: Batch results do not match the expected values in input order.");
+            }
+        } finally {
+            pool.shutdown();
+        }
+
+        try {
+            new BatchEvaluator().evaluateAll(List.of("3 + 4", "3 + ?"));
+            System.out.println("FAIL: Expected IllegalArgumentException for a malformed expression in a batch.");
+        } catch (IllegalArgumentException e) {
+            System.out.println("PASS: Caught IllegalArgumentException for a malformed expression in a batch.");
+        }
+        System.out.print("--------------------------------------------------\n");
+    }
+
+    // Utility method to test memory-mapped file evaluation
+    public static void testFileEvaluator() {
+        // Postfix files are the default; infix files are read with Notation.INFIX
+        for (FileEvaluator.Notation notation : FileEvaluator.Notation.values()) {
+            boolean postfix = notation == FileEvaluator.Notation.POSTFIX;
+            try {
+                Path input = Files.createTempFile("expressions", ".txt");
+                Path output = Files.createTempFile("results", ".txt");
+                try {
+                    // One line per test case, plus a blank line, a malformed line and an overflow
+                    List<String> lines = new ArrayList<>();
+                    List<String> expected = new ArrayList<>();
+                    for (String[] test : TEST_CASES) {
+                        lines.add(postfix ? test[1] : test[0]);
+                        expected.add(test[2]);
+                    }
+                    lines.add("");
+                    expected.add("");
+                    lines.add(postfix ? "3 +" : "3 + ?");
+                    expected.add("ERROR");
+                    lines.add(postfix ? "2147483647 1 +" : "2147483647 + 1");
+                    expected.add("ERROR");
+                    Files.write(input, lines);
+
+                    // A tiny chunk size forces many chunks split at line breaks
+                    long count = new FileEvaluator(2, 16, notation).evaluate(input, output);
+                    List<String> results = Files.readAllLines(output);
+
+                    if (count == lines.size() && results.equals(expected)) {
+                        System.out.println("PASS: " + notation + " file of " + count + " lines evaluated in line order.");
+                    } else {
+                        System.out.println("FAIL: " + notation + " file results => Got: " + results + ", Expected: " + expected);
+                    }
+
+                    if (postfix) {
+                        Files.write(input, List.of("3 4 +", "10 2 6 * +"));
+                        new FileEvaluator(1).evaluate(input, output);
+                        List<String> defaults = Files.readAllLines(output);
+                        if (defaults.equals(List.of("7", "22"))) {
+                            System.out.println("PASS: FileEvaluator reads postfix by default.");
+                        } else {
+                            System.out.println("FAIL: Default notation => Got: " + defaults);
+                        }
+                    }
+                } finally {
+                    Files.deleteIfExists(input);
+                    Files.deleteIfExists(output);
+                }
+            } catch (IOException e) {
+                System.out.println("FAIL: Unexpected IOException: " + e);
+            }
+        }
+
+        PostfixEvaluator evaluator = new PostfixEvaluator(new ArrayBasedStack());
+        EvaluationResult inPlace = evaluator.tryEvaluate("x = 3 4 +", 4, 9);
+        EvaluationResult failed = evaluator.tryEvaluate("x = 1 0 /", 4, 9);
+        if (inPlace.value() == 7 && failed.errorCode() == ErrorCode.DIVISION_BY_ZERO && failed.position() == 4) {
+            System.out.println("PASS: Postfix tryEvaluate over a range counts positions from its start.");
+        } else {
+            System.out.println("FAIL: Postfix range => Got: " + inPlace + ", " + failed);
+        }
+        System.out.print("--------------------------------------------------\n");
+    }
+
+    // Utility method to test size, clear, pushAll and popN
+    public static void testBulkOperations(StackADT stack) {
+        stack.pushAll(new String[] {"A", "B", "C", "D"});
+        stack.push("E");
+        if (stack.size() == 5 && "E".equals(stack.peek())) {
+            System.out.println("PASS: Size is 5 and top is 'E' after pushAll A-D and push E.");
+        } else {
+            System.out.println("FAIL: Expected size 5 and top 'E'. Got: " + stack.size() + ", " + stack.peek());
+        }
+
+        String[] popped = new String[4];
+        stack.popN(popped, 3);
+        if (Arrays.equals(popped, new String[] {"E", "D", "C", null}) && stack.size() == 2) {
+            System.out.println("PASS: popN(3) returned E, D, C and left 2 elements.");
+        } else {
+            System.out.println("FAIL: popN(3) => Got: " + Arrays.toString(popped) + ", size " + stack.size());
+        }
+
+        try {
+            stack.popN(popped, 3);
+            System.out.println("FAIL: Expected EmptyStackException when popping 3 of 2 elements.");
+        } catch (EmptyStackException e) {
+            if (stack.size() == 2 && "B".equals(stack.peek())) {
+                System.out.println("PASS: Caught EmptyStackException for popN(3) and the stack was left unchanged.");
+            } else {
+                System.out.println("FAIL: Failed popN(3) changed the stack. Size: " + stack.size());
+            }
+        }
+
+        stack.clear();
+        if (stack.isEmpty() && stack.size() == 0) {
+            System.out.println("PASS: Stack is empty after clear.");
+        } else {
+            System.out.println("FAIL: Stack should be empty after clear.");
+        }
+        System.out.print("--------------------------------------------------\n");
+    }
+
+    // Utility method to test ArrayBasedStack growth and hysteresis shrinking
+    public static void testArrayStackSizing() {
+        ArrayBasedStack stack = new ArrayBasedStack(10);
+        for (int i = 0; i < 1000; i++) {
+            stack.push("x");
+        }
+        int grown = stack.capacity();
+
+        // Popping to just under half does not shrink; popping to a quarter does
+        while (stack.size() > grown / 2 - 1) {
+            stack.pop();
+        }
+        int atHalf = stack.capacity();
+        while (stack.size() > 5) {
+            stack.pop();
+        }
+
+        if (grown >= 1000 && atHalf == grown && stack.capacity() < 40) {
+            System.out.println("PASS: Capacity grew to " + grown + ", held at half full, and shrank to " + stack.capacity() + ".");
+        } else {
+            System.out.println("FAIL: Capacity grew to " + grown + ", " + atHalf + " at half full, " + stack.capacity() + " at 5 elements.");
+        }
+
+        stack.clear();
+        ArrayBasedStack small = new ArrayBasedStack(10);
+        long clearing = allocatedBytes(() -> {
+            for (int i = 0; i < 10_000; i++) {
+                small.push("A");
+                small.clear();
+                small.clear();
+            }
+        });
+        if (stack.capacity() == 10 && clearing < 10_000 && small.isEmpty()) {
+            System.out.println("PASS: Clear shrank a grown array and reused a small one (" + clearing + " bytes).");
+        } else {
+            System.out.println("FAIL: Clear => capacity " + stack.capacity() + ", " + clearing + " bytes for 20000 clears.");
+        }
+        System.out.print("--------------------------------------------------\n");
+    }
+
+    // Utility method to test the counters recorded by MeteredStack
+    public static void testMeteredStack() {
+        MeteredStack stack = new MeteredStack(new ArrayBasedStack(2));
+        stack.push("A");
+        stack.push("B");
+        stack.push("C"); // grows the array
+        stack.peek();
+        stack.pop();
+        stack.pop();
+        stack.pop();
+        try {
+            stack.pop();
+        } catch (EmptyStackException e) {
+            // counted as an empty-stack failure
+        }
+
+        MeteredStack.Snapshot s = stack.snapshot();
+        if (s.pushes() == 3 && s.pops() == 3 && s.peeks() == 1 && s.emptyFailures() == 1
+                && s.highWaterDepth() == 3 && s.depth() == 0 && s.resizes() == 2) {
+            System.out.println("PASS: Snapshot counted " + s + ".");
+        } else {
+            System.out.println("FAIL: Unexpected snapshot: " + s);
+        }
+
+        // without resizes the peak is still exact, however shallow
+        MeteredStack linked = new MeteredStack(new LinkedListBasedStack());
+        for (int i = 0; i < 20; i++) {
+            linked.push("x");
+        }
+        for (int i = 0; i < 20; i++) {
+            linked.pop();
+        }
+        linked.push("y");
+        linked.push("y");
+        s = linked.snapshot();
+        if (s.depth() == 2 && s.highWaterDepth() == 20) {
+            System.out.println("PASS: Exact high-water depth " + s.highWaterDepth() + " on a linked stack.");
+        } else {
+            System.out.println("FAIL: Expected high-water depth 20 => Got: " + s);
+        }
+
+        MeteredStack operators = new MeteredStack(new ArrayBasedStack());
+        new InfixConverter(operators).toPostfix("1 + 2 * ( 3 - ( 4 / ( 5 + 6 ) ) )");
+        if (operators.snapshot().highWaterDepth() == 8) {
+            System.out.println("PASS: Converter's operator stack peaked at exactly 8.");
+        } else {
+            System.out.println("FAIL: Converter peak => Got: " + operators.snapshot());
+        }
+
+        linked.clear();
+        linked.pushAll(new String[] {"A", "B"});
+        linked.clear();
+        linked.push("C");
+        if (linked.snapshot().depth() == 1) {
+            System.out.println("PASS: Depth derived from the counters survives clear.");
+        } else {
+            System.out.println("FAIL: Depth after clear => Got: " + linked.snapshot().depth());
+        }
+        System.out.print("--------------------------------------------------\n");
+    }
+
+    // Utility method to test structural sharing, snapshots and rollback
+    public static void testSnapshotStack() {
+        PersistentStack base = PersistentStack.empty().push("A").push("B");
+        PersistentStack tried = base.push("C");
+        if (base.toString().equals("[B, A]") && tried.toString().equals("[C, B, A]") && tried.pop() == base
+                && tried.size() == 3 && PersistentStack.empty().isEmpty()) {
+            System.out.println("PASS: Push returned a new version sharing the old one.");
+        } else {
+            System.out.println("FAIL: Expected [B, A] and [C, B, A] => Got: " + base + ", " + tried);
+        }
+
+        SnapshotStack stack = new SnapshotStack();
+        stack.push("(");
+        PersistentStack mark = stack.snapshot();
+        stack.push("+");
+        stack.push("*");
+        PersistentStack speculative = stack.snapshot();
+        stack.restore(mark);
+        stack.push("-");
+        if (stack.snapshot().toString().equals("[-, (]") && speculative.toString().equals("[*, +, (]")
+                && mark.toString().equals("[(]")) {
+            System.out.println("PASS: Restored snapshot rolled back speculative pushes.");
+        } else {
+            System.out.println("FAIL: Expected [-, (] => Got: " + stack.snapshot());
+        }
+
+        stack.clear();
+        for (int i = 0; i < 100000; i++) {
+            stack.push(Integer.toString(i));
+        }
+        PersistentStack view = stack.snapshot();
+        while (!stack.isEmpty()) {
+            stack.pop();
+        }
+        if (view.size() == 100000 && view.peek().equals("99999") && stack.size() == 0) {
+            System.out.println("PASS: Snapshot kept all 100000 items while the stack was drained.");
+        } else {
+            System.out.println("FAIL: Snapshot changed => Got size: " + view.size());
+        }
+
+        try {
+            PersistentStack.empty().pop();
+            System.out.println("FAIL: Expected EmptyStackException.");
+        } catch (EmptyStackException e) {
+            System.out.println("PASS: Caught EmptyStackException popping the empty persistent stack.");
+        }
+        System.out.print("--------------------------------------------------\n");
+    }
+
+    // Utility method to test pushes and pops across chunk boundaries
+    public static void testSegmentedStack() {
+        SegmentedStack stack = new SegmentedStack(4);
+        int depth = 1000;
+        for (int i = 0; i < depth; i++) {
+            stack.push(Integer.toString(i));
+        }
+        boolean ordered = stack.size() == depth;
+        for (int i = depth - 1; i >= 0; i--) {
+            ordered &= stack.peek().equals(Integer.toString(i)) && stack.pop().equals(Integer.toString(i));
+        }
+        if (ordered && stack.isEmpty()) {
+            System.out.println("PASS: " + depth + " items popped in LIFO order across 250 chunks.");
+        } else {
+            System.out.println("FAIL: Items out of order across chunks.");
+        }
+
+        // move back and forth over a chunk boundary
+        stack.pushAll(new String[] {"A", "B", "C", "D"});
+        boolean boundary = true;
+        for (int i = 0; i < 10; i++) {
+            stack.push("E");
+            boundary &= stack.pop().equals("E") && stack.peek().equals("D");
+        }
+        stack.pushAll(new String[] {"E", "F", "G", "H", "I", "J"});
+        String[] popped = new String[10];
+        stack.popN(popped, 10);
+        if (boundary && String.join("", popped).equals("JIHGFEDCBA") && stack.isEmpty()) {
+            System.out.println("PASS: Chunk boundary crossed repeatedly without losing items.");
+        } else {
+            System.out.println("FAIL: Expected JIHGFEDCBA => Got: " + String.join("", popped));
+        }
+
+        stack.pushAll(new String[] {"A", "B", "C", "D", "E", "F"});
+        stack.clear();
+        stack.push("Z");
+        if (stack.size() == 1 && stack.pop().equals("Z") && stack.isEmpty()) {
+            System.out.println("PASS: Cleared stack is reusable.");
+        } else {
+            System.out.println("FAIL: Cleared stack => Got size: " + stack.size());
+        }
+
+        SegmentedStack large = new SegmentedStack();
+        long clearing = allocatedBytes(() -> {
+            for (int i = 0; i < 10_000; i++) {
+                large.push("A");
+                large.clear();
+                large.clear();
+            }
+        });
+        if (clearing < 10_000 && large.isEmpty()) {
+            System.out.println("PASS: Clearing allocated no new chunks (" + clearing + " bytes for 20000 clears).");
+        } else {
+            System.out.println("FAIL: Clearing allocated " + clearing + " bytes for 20000 clears.");
+        }
+
+        try {
+            new SegmentedStack(0);
+            System.out.println("FAIL: Expected IllegalArgumentException for chunk size 0.");
+        } catch (IllegalArgumentException e) {
+            System.out.println("PASS: Caught IllegalArgumentException for chunk size 0.");
+        }
+        System.out.print("--------------------------------------------------\n");
+    }
+
+    // Utility method to stress test a stack shared by several threads
+    public static void testConcurrentStack(StackADT stack) {
+        int threads = 4;
+        int perThread = 20000;
+        List<List<String>> popped = new ArrayList<>();
+        List<Thread> workers = new ArrayList<>();
+
+        // Each thread pushes its own values and pops (up to) every other time
+        for (int t = 0; t < threads; t++) {
+            List<String> mine = new ArrayList<>();
+            popped.add(mine);
+            String prefix = t + ":";
+            workers.add(new Thread(() -> {
+                for (int i = 0; i < perThread; i++) {
+                    stack.push(prefix + i);
+                    if (i % 2 == 1) {
+                        try {
+                            mine.add(stack.pop());
+                        } catch (EmptyStackException e) {
+                            // another thread emptied the stack first
+                        }
+                    }
+                }
+            }));
+        }
+        for (Thread worker : workers) {
+            worker.start();
+        }
+        try {
+            for (Thread worker : workers) {
+                worker.join();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            System.out.println("FAIL: Interrupted while stress testing.");
+            return;
+        }
+
+        // Drain the rest; each thread's leftovers must come out newest first
+        List<String> remaining = new ArrayList<>();
+        while (!stack.isEmpty()) {
+            remaining.add(stack.pop());
+        }
+        boolean lifo = true;
+        int[] lastSeen = new int[threads];
+        Arrays.fill(lastSeen, Integer.MAX_VALUE);
+        for (String value : remaining) {
+            int t = Integer.parseInt(value.substring(0, value.indexOf(':')));
+            int i = Integer.parseInt(value.substring(value.indexOf(':') + 1));
+            lifo &= i < lastSeen[t];
+            lastSeen[t] = i;
+        }
+
+        Set<String> seen = new HashSet<>(remaining);
+        int total = remaining.size();
+        for (List<String> mine : popped) {
+            seen.addAll(mine);
+            total += mine.size();
+        }
+
+        if (total == threads * perThread && seen.size() == total) {
+            System.out.println("PASS: Every one of " + total + " concurrent pushes was popped exactly once.");
+        } else {
+            System.out.println("FAIL: Popped " + total + " values (" + seen.size() + " distinct), Expected: " + threads * perThread);
+        }
+
+        if (lifo) {
+            System.out.println("PASS: Values left after the threads finished came out in LIFO order.");
+        } else {
+            System.out.println("FAIL: Values left after the threads finished were not in LIFO order.");
+        }
+        System.out.print("--------------------------------------------------\n");
+    }
+
+    // One push or pop recorded with the times it was called and returned
+    private static final class Call {
+        final boolean push;
+        final String value; // pushed or popped value, null for a pop of an empty stack
+        final long invoked;
+        final long returned;
+
+        Call(boolean push, String value, long invoked, long returned) {
+            this.push = push;
+            this.value = value;
+            this.invoked = invoked;
+            this.returned = returned;
+        }
+    }
+
+    // Utility method to check that recorded concurrent histories are linearizable
+    public static void testLinearizability(Supplier<StackADT> stacks) {
+        int rounds = 300;
+        int threads = 3;
+        int perThread = 5;
+        int checked = 0;
+
+        for (int round = 0; round < rounds; round++) {
+            StackADT stack = stacks.get();
+            List<List<Call>> histories = new ArrayList<>();
+            List<Thread> workers = new ArrayList<>();
+            CountDownLatch start = new CountDownLatch(1);
+
+            for (int t = 0; t < threads; t++) {
+                List<Call> mine = new ArrayList<>();
+                histories.add(mine);
+                String prefix = t + ":";
+                Random random = new Random(round * 31L + t);
+                workers.add(new Thread(() -> {
+                    try {
+                        start.await();
+                    } catch (InterruptedException e) {
+                        return;
+                    }
+                    for (int i = 0; i < perThread; i++) {
+                        long invoked = System.nanoTime();
+                        if (random.nextBoolean()) {
+                            stack.push(prefix + i);
+                            mine.add(new Call(true, prefix + i, invoked, System.nanoTime()));
+                        } else {
+                            String value;
+                            try {
+                                value = stack.pop();
+                            } catch (EmptyStackException e) {
+                                value = null;
+                            }
+                            mine.add(new Call(false, value, invoked, System.nanoTime()));
+                        }
+                    }
+                }));
+            }
+            for (Thread worker : workers) {
+                worker.start();
+            }
+            start.countDown();
+            try {
+                for (Thread worker : workers) {
+                    worker.join();
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                System.out.println("FAIL: Interrupted while recording histories.");
+                return;
+            }
+
+            List<Call> history = new ArrayList<>();
+            for (List<Call> mine : histories) {
+                history.addAll(mine);
+            }
+            if (!isLinearizable(history)) {
+                System.out.println("FAIL: History of round " + round + " has no valid sequential order.");
+                return;
+            }
+            checked++;
+        }
+        System.out.println("PASS: All " + checked + " recorded push/pop histories are linearizable.");
+
+        // the checker itself must reject a pop that skips the newest value
+        List<Call> reordered = List.of(
+                new Call(true, "a", 0, 1),
+                new Call(true, "b", 2, 3),
+                new Call(false, "a", 4, 5));
+        List<Call> overlapping = List.of(
+                new Call(true, "a", 0, 1),
+                new Call(true, "b", 2, 6),
+                new Call(false, "a", 4, 5));
+        if (!isLinearizable(reordered) && isLinearizable(overlapping)) {
+            System.out.println("PASS: Checker rejects out-of-order pops and accepts overlapping ones.");
+        } else {
+            System.out.println("FAIL: Checker misjudged a hand-written history.");
+        }
+        System.out.print("--------------------------------------------------\n");
+    }
+
+    // Searches for a sequential order of the calls that respects real time and stack semantics
+    private static boolean isLinearizable(List<Call> history) {
+        return linearize(history, 0L, new ArrayDeque<>(), new HashSet<>());
+    }
+
+    private static boolean linearize(List<Call> history, long done, Deque<String> stack, Set<String> tried) {
+        if (done == (1L << history.size()) - 1) {
+            return true;
+        }
+        if (!tried.add(done + " " + stack)) {
+            return false;
+        }
+
+        // a call may take effect next only if it started before every pending call returned
+        long firstReturn = Long.MAX_VALUE;
+        for (int i = 0; i < history.size(); i++) {
+            if ((done & 1L << i) == 0) {
+                firstReturn = Math.min(firstReturn, history.get(i).returned);
+            }
+        }
+        for (int i = 0; i < history.size(); i++) {
+            Call call = history.get(i);
+            if ((done & 1L << i) != 0 || call.invoked > firstReturn) {
+                continue;
+            }
+            long next = done | 1L << i;
+            if (call.push) {
+                stack.push(call.value);
+                if (linearize(history, next, stack, tried)) {
+                    return true;
+                }
+                stack.pop();
+            } else if (call.value == null) {
+                if (stack.isEmpty() && linearize(history, next, stack, tried)) {
+                    return true;
+                }
+            } else if (call.value.equals(stack.peek())) {
+                stack.pop();
+                if (linearize(history, next, stack, tried)) {
+                    return true;
+                }
+                stack.push(call.value);
+            }
+        }
+        return false;
+    }
+
+    // Returns the bytes the calling thread allocates while running the task
+    private static long allocatedBytes(Runnable task) {
+        com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        long before = threads.getCurrentThreadAllocatedBytes();
+        task.run();
+        return threads.getCurrentThreadAllocatedBytes() - before;
     }
 
     // Utility method for testing Stack implementations
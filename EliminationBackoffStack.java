@@ -0,0 +1,241 @@
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicStampedReference;
+
+/**
+ * Lock-free stack for heavy contention, where pushes and pops that collide
+ * cancel each other out instead of fighting over the top of the stack.
+ * <p>
+ * Each operation first tries the same compare-and-set as
+ * {@code ConcurrentLinkedStack}. If that fails because another thread got
+ * there first, the thread backs off to a random slot of an elimination array
+ * and waits briefly for a partner. A push that meets a pop hands its item
+ * straight over, and both return without touching the stack, which is still
+ * linearizable because a push immediately followed by a pop leaves the stack
+ * unchanged. Under low contention this behaves like the plain lock-free stack.
+ * </p>
+ *
+ * <p>
+ * Example:
+ * </p>
+ *
+ * <pre>{@code
+ * StackADT stack = new EliminationBackoffStack();
+ * stack.push("A"); // may be called from any thread
+ * String top = stack.pop(); // returns "A"
+ * }</pre>
+ */
+public class EliminationBackoffStack extends ConcurrentLinkedStack {
+
+    /**
+     * Number of spins a thread waits in the elimination array for a partner.
+     */
+    private static final int DEFAULT_SPINS = 64;
+
+    /**
+     * Offered by a pop in the elimination array, in place of an item.
+     */
+    private static final Object POP = new Object();
+
+    /**
+     * Offered by a push of {@code null}, so it can be told apart from an
+     * empty slot.
+     */
+    private static final Object NULL_ITEM = new Object();
+
+    /**
+     * Returned by an exchange that found no partner in time.
+     */
+    private static final Object TIMEOUT = new Object();
+
+    /**
+     * The slots where colliding threads meet.
+     */
+    private final Exchanger[] eliminationArray;
+
+    /**
+     * Number of spins a thread waits in a slot for a partner.
+     */
+    private final int spins;
+
+    /**
+     * Constructs an empty stack with one elimination slot for every two
+     * available processors, and at least one. An elimination needs two
+     * threads in the same slot, so at most half the processors can be
+     * eliminating at once; more slots would only spread the threads out and
+     * make partners harder to find.
+     *
+     * <p>
+     * Example:
+     * </p>
+     *
+     * <pre>{@code
+     * StackADT stack = new EliminationBackoffStack();
+     * }</pre>
+     */
+    public EliminationBackoffStack() {
+        this(Math.max(1, Runtime.getRuntime().availableProcessors() / 2), DEFAULT_SPINS);
+    }
+
+    /**
+     * Constructs an empty stack with the given elimination array size and
+     * wait time.
+     *
+     * @param slots the number of elimination slots
+     * @param spins the number of spins a thread waits in a slot for a partner
+     * @throws IllegalArgumentException if {@code slots < 1} or
+     *                                  {@code spins < 1}
+     */
+    public EliminationBackoffStack(int slots, int spins) {
+        if (slots < 1 || spins < 1) {
+            throw new IllegalArgumentException("slots and spins must be at least 1: " + slots + ", " + spins);
+        }
+        this.eliminationArray = new Exchanger[slots];
+        for (int i = 0; i < slots; i++) {
+            eliminationArray[i] = new Exchanger();
+        }
+        this.spins = spins;
+    }
+
+    /**
+     * Adds a new element onto the top of the stack, or hands it directly to
+     * a concurrent pop.
+     *
+     * @param item the string value to push onto the stack
+     */
+    @Override
+    public void push(String item) {
+        Node newNode = new Node(item);
+        Object offer = item == null ? NULL_ITEM : item;
+
+        while (!tryPush(newNode)) {
+            if (visit(offer) == POP) {
+                return; // eliminated by a pop
+            }
+        }
+    }
+
+    /**
+     * Removes and returns the top element of the stack, or takes the item of
+     * a concurrent push.
+     *
+     * @return the string at the top of the stack
+     * @throws java.util.EmptyStackException if the stack is empty
+     */
+    @Override
+    public String pop() {
+        while (true) {
+            Node popped = tryPop();
+            if (popped != null) {
+                return popped.value;
+            }
+
+            Object other = visit(POP);
+            if (other != POP && other != TIMEOUT) {
+                return other == NULL_ITEM ? null : (String) other; // eliminated by a push
+            }
+        }
+    }
+
+    /**
+     * Offers a value in a random elimination slot.
+     *
+     * @param offer the item being pushed, or {@link #POP}
+     * @return the partner's value, or {@link #TIMEOUT}
+     */
+    private Object visit(Object offer) {
+        int slot = ThreadLocalRandom.current().nextInt(eliminationArray.length);
+        return eliminationArray[slot].exchange(offer, spins);
+    }
+
+    /**
+     * A lock-free slot where two threads swap values.
+     * <p>
+     * The stamp tracks the slot's state: {@code EMPTY}, {@code WAITING} with
+     * the first thread's value, or {@code BUSY} once a second thread has
+     * swapped its value in. Only the waiting thread moves the slot from
+     * {@code BUSY} back to {@code EMPTY}.
+     * </p>
+     */
+    private static final class Exchanger {
+
+        /**
+         * No thread is in the slot.
+         */
+        private static final int EMPTY = 0;
+
+        /**
+         * One thread is waiting for a partner.
+         */
+        private static final int WAITING = 1;
+
+        /**
+         * A partner has arrived and left its value.
+         */
+        private static final int BUSY = 2;
+
+        /**
+         * The value in the slot and the slot's state.
+         */
+        private final AtomicStampedReference<Object> slot = new AtomicStampedReference<>(null, EMPTY);
+
+        /**
+         * Swaps {@code mine} with another thread's value, giving up after
+         * {@code spins} attempts.
+         *
+         * @param mine  the value to offer
+         * @param spins the number of attempts before giving up
+         * @return the other thread's value, or {@link #TIMEOUT}
+         */
+        Object exchange(Object mine, int spins) {
+            int[] state = new int[1];
+
+            for (int i = 0; i < spins; i++) {
+                Object theirs = slot.get(state);
+                switch (state[0]) {
+                    case EMPTY:
+                        if (slot.compareAndSet(theirs, mine, EMPTY, WAITING)) {
+                            return awaitPartner(mine, spins - i, state);
+                        }
+                        break;
+                    case WAITING:
+                        if (slot.compareAndSet(theirs, mine, WAITING, BUSY)) {
+                            return theirs;
+                        }
+                        break;
+                    default:
+                        break; // two other threads are swapping
+                }
+                Thread.onSpinWait();
+            }
+
+            return TIMEOUT;
+        }
+
+        /**
+         * Waits in the slot for a partner after placing {@code mine} in it.
+         *
+         * @param mine  the value placed in the slot
+         * @param spins the number of attempts left
+         * @param state holder for the slot's stamp
+         * @return the partner's value, or {@link #TIMEOUT}
+         */
+        private Object awaitPartner(Object mine, int spins, int[] state) {
+            for (int i = 0; i < spins; i++) {
+                Object theirs = slot.get(state);
+                if (state[0] == BUSY) {
+                    slot.set(null, EMPTY);
+                    return theirs;
+                }
+                Thread.onSpinWait();
+            }
+
+            // no partner yet; withdraw unless one arrives while we do
+            if (slot.compareAndSet(mine, null, WAITING, EMPTY)) {
+                return TIMEOUT;
+            }
+            Object theirs = slot.getReference();
+            slot.set(null, EMPTY);
+            return theirs;
+        }
+    }
+}
@@ -0,0 +1,75 @@
+/**
+ * The reasons an expression can fail to evaluate, as reported by
+ * {@code EvaluationResult} and {@code ExpressionValidator}.
+ *
+ * <p>
+ * Example:
+ * </p>
+ *
+ * <pre>{@code
+ * EvaluationResult result = new InfixEvaluator().tryEvaluate("( 3 + 4");
+ * result.errorCode(); // ErrorCode.UNBALANCED_PARENTHESES
+ * result.errorCode().description(); // "Unbalanced parentheses"
+ * }</pre>
+ */
+public enum ErrorCode {
+
+    /**
+     * A character or name that is not part of any token the evaluator
+     * accepts.
+     */
+    UNEXPECTED_INPUT("Unexpected input"),
+
+    /**
+     * The expression has no tokens.
+     */
+    EMPTY_EXPRESSION("Empty expression"),
+
+    /**
+     * A parenthesis has no partner.
+     */
+    UNBALANCED_PARENTHESES("Unbalanced parentheses"),
+
+    /**
+     * An operator is missing one of its operands.
+     */
+    MISSING_OPERAND("Missing operand"),
+
+    /**
+     * Two operands follow each other with no operator between them.
+     */
+    MISSING_OPERATOR("Missing operator"),
+
+    /**
+     * A division has a divisor of zero.
+     */
+    DIVISION_BY_ZERO("Division by zero"),
+
+    /**
+     * A number or result does not fit in an {@code int}.
+     */
+    OVERFLOW("Overflow");
+
+    /**
+     * Text describing the error.
+     */
+    private final String description;
+
+    /**
+     * Creates an error code.
+     *
+     * @param description text describing the error
+     */
+    ErrorCode(String description) {
+        this.description = description;
+    }
+
+    /**
+     * Returns text describing the error, such as {@code "Missing operand"}.
+     *
+     * @return the description
+     */
+    public String description() {
+        return description;
+    }
+}
@@ -0,0 +1,148 @@
+/**
+ * The outcome of evaluating an expression: either its value, or an error
+ * code with the position of the token where evaluation failed.
+ * <p>
+ * The {@code tryEvaluate} methods return these instead of throwing, so
+ * malformed input costs no more than valid input; building an exception's
+ * stack trace is usually far more expensive than evaluating the expression.
+ * </p>
+ *
+ * <p>
+ * Example:
+ * </p>
+ *
+ * <pre>{@code
+ * EvaluationResult result = evaluator.tryEvaluate("3 + * 4");
+ * if (result.isSuccess()) {
+ *     use(result.value());
+ * } else {
+ *     System.out.println(result.message()); // "Missing operand at position 4"
+ * }
+ * }</pre>
+ */
+public final class EvaluationResult {
+
+    /**
+     * The value, when evaluation succeeded.
+     */
+    private final int value;
+
+    /**
+     * The error, or {@code null} when evaluation succeeded.
+     */
+    private final ErrorCode errorCode;
+
+    /**
+     * Index of the failing token within the expression, or -1 when
+     * evaluation succeeded.
+     */
+    private final int position;
+
+    /**
+     * Creates a result.
+     *
+     * @param value     the value
+     * @param errorCode the error, or {@code null}
+     * @param position  the position of the error, or -1
+     */
+    private EvaluationResult(int value, ErrorCode errorCode, int position) {
+        this.value = value;
+        this.errorCode = errorCode;
+        this.position = position;
+    }
+
+    /**
+     * Returns a successful result.
+     *
+     * @param value the value of the expression
+     * @return the result
+     */
+    public static EvaluationResult success(int value) {
+        return new EvaluationResult(value, null, -1);
+    }
+
+    /**
+     * Returns a failed result.
+     *
+     * <p>
+     * Example:
+     * </p>
+     *
+     * <pre>{@code
+     * EvaluationResult.failure(ErrorCode.DIVISION_BY_ZERO, 2); // "1 / 0" fails at the "/"
+     * }</pre>
+     *
+     * @param errorCode why evaluation failed
+     * @param position  index in the expression of the token where it failed
+     * @return the result
+     * @throws IllegalArgumentException if {@code errorCode} is {@code null}
+     *                                  or {@code position} is negative
+     */
+    public static EvaluationResult failure(ErrorCode errorCode, int position) {
+        if (errorCode == null || position < 0) {
+            throw new IllegalArgumentException("Invalid failure: " + errorCode + " at " + position);
+        }
+        return new EvaluationResult(0, errorCode, position);
+    }
+
+    /**
+     * Returns whether evaluation succeeded.
+     *
+     * @return {@code true} if there is a value
+     */
+    public boolean isSuccess() {
+        return errorCode == null;
+    }
+
+    /**
+     * Returns the value of the expression.
+     *
+     * @return the value
+     * @throws IllegalStateException if evaluation failed
+     */
+    public int value() {
+        if (errorCode != null) {
+            throw new IllegalStateException("No value: " + message());
+        }
+        return value;
+    }
+
+    /**
+     * Returns why evaluation failed.
+     *
+     * @return the error code, or {@code null} if evaluation succeeded
+     */
+    public ErrorCode errorCode() {
+        return errorCode;
+    }
+
+    /**
+     * Returns the index in the expression of the token where evaluation
+     * failed.
+     *
+     * @return the position, or -1 if evaluation succeeded
+     */
+    public int position() {
+        return position;
+    }
+
+    /**
+     * Returns a description of the error and where it happened, such as
+     * {@code "Division by zero at position 2"}.
+     *
+     * @return the message, or {@code null} if evaluation succeeded
+     */
+    public String message() {
+        return errorCode == null ? null : errorCode.description() + " at position " + position;
+    }
+
+    /**
+     * Returns the value, or the error message.
+     *
+     * @return the result as text
+     */
+    @Override
+    public String toString() {
+        return errorCode == null ? Integer.toString(value) : message();
+    }
+}
@@ -0,0 +1,704 @@
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.SocketAddress;
+import java.net.StandardProtocolFamily;
+import java.net.UnixDomainSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.Arrays;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Serves expression evaluation over a local socket, either TCP on loopback
+ * or a Unix domain socket.
+ * <p>
+ * The protocol is one line per request and one line per response. A request
+ * is an infix expression; the response is its integer value, or
+ * {@code ERROR} followed by the reason. Expressions are evaluated in checked
+ * {@code int} arithmetic, so the expressions {@code FileEvaluator} answers
+ * with {@code ERROR}, such as an overflow or a division by zero, get an
+ * {@code ERROR} response here too. A blank request gets a blank
+ * response. Requests may be pipelined: a client can send many lines without
+ * waiting, and the responses come back in the same order.
+ * </p>
+ * <p>
+ * Each connection is served by its own thread, a virtual thread when the
+ * JVM supports them and a platform thread otherwise. That thread reads the
+ * pipelined requests that have arrived with one call, rejects malformed
+ * lines itself, and queues the rest as one batch on a shared
+ * {@code BoundedQueue}. A single evaluator thread drains the queue, taking
+ * the batches of every connection that are waiting, up to 4096 lines a
+ * round, and evaluates them together before handing each batch back to its
+ * connection, which sends all its responses with one write. Requests from
+ * many clients are therefore coalesced into one round of evaluation, and a
+ * busy client costs one system call per batch rather than per expression.
+ * The queue holds at most 1024 batches; when it is full, connections wait
+ * for room instead of queueing without limit. Expressions are compiled
+ * through a shared {@code ExpressionCache}, so a formula sent repeatedly,
+ * by any client, is parsed once.
+ * </p>
+ *
+ * <p>
+ * Example:
+ * </p>
+ *
+ * <pre>{@code
+ * try (EvaluationServer server = new EvaluationServer(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0))) {
+ *     server.start();
+ *     SocketChannel client = SocketChannel.open(server.localAddress());
+ *     // send "3 + 4\n", receive "7\n"
+ * }
+ * }</pre>
+ */
+public class EvaluationServer implements AutoCloseable {
+
+    /**
+     * Size of the per-connection read and write buffers, which is also the
+     * longest request line accepted.
+     */
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    /**
+     * Default number of compiled expressions kept by the cache.
+     */
+    private static final int DEFAULT_CACHE_SIZE = 4096;
+
+    /**
+     * Number of batches the queue to the evaluator thread holds.
+     */
+    private static final int QUEUE_CAPACITY = 1024;
+
+    /**
+     * Number of lines after which the evaluator thread stops taking batches
+     * for the current round.
+     */
+    private static final int MAX_ROUND_LINES = 4096;
+
+    /**
+     * How long a connection thread parks between checks while it waits for
+     * its batch or for room in the queue.
+     */
+    private static final long WAIT_NANOS = 10_000_000L;
+
+    /**
+     * Response prefix for a request that could not be evaluated.
+     */
+    private static final byte[] ERROR = "ERROR ".getBytes(StandardCharsets.US_ASCII);
+
+    /**
+     * Reason given for a request longer than the read buffer.
+     */
+    private static final String TOO_LONG = "Line too long";
+
+    /**
+     * The address to listen on.
+     */
+    private final SocketAddress address;
+
+    /**
+     * The cache that compiles the expressions of every connection.
+     */
+    private final ExpressionCache cache;
+
+    /**
+     * The connections currently open, so they can be closed with the server.
+     */
+    private final Set<SocketChannel> connections = ConcurrentHashMap.newKeySet();
+
+    /**
+     * Number of requests answered.
+     */
+    private final LongAdder requests = new LongAdder();
+
+    /**
+     * Number of rounds the evaluator thread has run.
+     */
+    private final LongAdder batches = new LongAdder();
+
+    /**
+     * Batches of lines waiting for the evaluator thread.
+     */
+    private final BoundedQueue<Batch> pending = new BoundedQueue<>(QUEUE_CAPACITY);
+
+    /**
+     * Whether the server has been closed.
+     */
+    private volatile boolean closed;
+
+    /**
+     * The thread that evaluates the queued batches, or {@code null} before
+     * {@link #start()}.
+     */
+    private Thread evaluator;
+
+    /**
+     * The listening channel, or {@code null} before {@link #start()}.
+     */
+    private volatile ServerSocketChannel server;
+
+    /**
+     * Runs one task per connection.
+     */
+    private ExecutorService connectionThreads;
+
+    /**
+     * Constructs a server for the given address with a cache of 4096
+     * compiled expressions. Use port 0 to listen on any free port.
+     *
+     * <p>
+     * Example:
+     * </p>
+     *
+     * <pre>{@code
+     * EvaluationServer tcp = new EvaluationServer(new InetSocketAddress(InetAddress.getLoopbackAddress(), 7000));
+     * EvaluationServer unix = new EvaluationServer(UnixDomainSocketAddress.of("/tmp/eval.sock"));
+     * }</pre>
+     *
+     * @param address an {@code InetSocketAddress} or a
+     *                {@code UnixDomainSocketAddress}
+     */
+    public EvaluationServer(SocketAddress address) {
+        this(address, new ExpressionCache(DEFAULT_CACHE_SIZE));
+    }
+
+    /**
+     * Constructs a server for the given address that compiles expressions
+     * through the given cache.
+     *
+     * @param address an {@code InetSocketAddress} or a
+     *                {@code UnixDomainSocketAddress}
+     * @param cache   the cache of compiled expressions
+     */
+    public EvaluationServer(SocketAddress address, ExpressionCache cache) {
+        this.address = address;
+        this.cache = cache;
+    }
+
+    /**
+     * Binds the address and starts accepting connections on a background
+     * thread.
+     *
+     * @throws IOException           if the address cannot be bound
+     * @throws IllegalStateException if the server was already started
+     */
+    public synchronized void start() throws IOException {
+        if (server != null) {
+            throw new IllegalStateException("Server already started");
+        }
+        ServerSocketChannel channel = address instanceof UnixDomainSocketAddress
+                ? ServerSocketChannel.open(StandardProtocolFamily.UNIX)
+                : ServerSocketChannel.open();
+        channel.bind(address);
+        server = channel;
+        connectionThreads = newThreadPerTaskExecutor("evaluation-connection");
+
+        evaluator = new Thread(this::evaluateLoop, "evaluation-server-evaluator");
+        evaluator.setDaemon(true);
+        evaluator.start();
+
+        Thread acceptor = new Thread(this::acceptLoop, "evaluation-server-acceptor");
+        acceptor.setDaemon(true);
+        acceptor.start();
+    }
+
+    /**
+     * Returns the address the server is listening on, which tells the port
+     * chosen when the server was created with port 0.
+     *
+     * @return the bound address
+     * @throws IOException           if the address cannot be read
+     * @throws IllegalStateException if the server has not been started
+     */
+    public SocketAddress localAddress() throws IOException {
+        ServerSocketChannel channel = server;
+        if (channel == null) {
+            throw new IllegalStateException("Server not started");
+        }
+        return channel.getLocalAddress();
+    }
+
+    /**
+     * Returns the number of requests answered so far.
+     *
+     * @return the number of requests
+     */
+    public long requestCount() {
+        return requests.sum();
+    }
+
+    /**
+     * Returns the number of rounds the requests were evaluated in, where a
+     * round is the lines every connection had queued at once. Well below
+     * {@link #requestCount()} when clients pipeline their requests or many
+     * clients send at the same time.
+     *
+     * @return the number of batches
+     */
+    public long batchCount() {
+        return batches.sum();
+    }
+
+    /**
+     * Stops accepting connections and closes every open connection. For a
+     * Unix domain socket, the socket file is deleted.
+     *
+     * @throws IOException if the listening channel cannot be closed
+     */
+    @Override
+    public synchronized void close() throws IOException {
+        ServerSocketChannel channel = server;
+        if (channel == null) {
+            return;
+        }
+        channel.close();
+        closed = true;
+        LockSupport.unpark(evaluator);
+        for (SocketChannel connection : connections) {
+            connection.close();
+        }
+        connectionThreads.shutdown();
+        if (address instanceof UnixDomainSocketAddress) {
+            Files.deleteIfExists(((UnixDomainSocketAddress) address).getPath());
+        }
+    }
+
+    /**
+     * Accepts connections until the listening channel is closed, handing
+     * each to its own thread.
+     */
+    private void acceptLoop() {
+        try {
+            while (true) {
+                SocketChannel connection = server.accept();
+                connections.add(connection);
+                connectionThreads.execute(() -> serve(connection));
+            }
+        } catch (ClosedChannelException e) {
+            // the server was closed
+        } catch (IOException e) {
+            System.err.println("Evaluation server stopped accepting: " + e);
+        }
+    }
+
+    /**
+     * Answers the requests of one connection until the client closes it.
+     *
+     * @param connection the client connection
+     */
+    private void serve(SocketChannel connection) {
+        ByteBuffer in = ByteBuffer.allocate(BUFFER_SIZE);
+        ByteBuffer out = ByteBuffer.allocate(BUFFER_SIZE);
+        ExpressionValidator validator = new ExpressionValidator();
+        Batch batch = new Batch(Thread.currentThread());
+        boolean discarding = false;
+
+        try (connection) {
+            while (connection.read(in) >= 0) {
+                in.flip();
+                batch.clear();
+
+                // queue every complete line that has arrived
+                int lineStart = 0;
+                for (int i = 0; i < in.limit(); i++) {
+                    if (in.get(i) != '\n') {
+                        continue;
+                    }
+                    if (discarding) {
+                        discarding = false;
+                    } else {
+                        addLine(in, lineStart, i, batch, validator);
+                    }
+                    lineStart = i + 1;
+                }
+                in.position(lineStart);
+                in.compact();
+
+                // a full buffer without a newline is a request that is too long
+                if (!in.hasRemaining()) {
+                    if (!discarding) {
+                        batch.add(null, TOO_LONG);
+                        discarding = true;
+                    }
+                    in.clear();
+                }
+
+                if (batch.count > 0) {
+                    if (batch.queued > 0) {
+                        submit(batch);
+                    }
+                    respond(batch, out, connection);
+                    requests.add(batch.count);
+                }
+            }
+        } catch (IOException e) {
+            // the client went away or the server is closing
+        } finally {
+            connections.remove(connection);
+        }
+    }
+
+    /**
+     * Adds one request line to the batch, rejecting it straight away if it
+     * is malformed.
+     *
+     * @param in        the buffer holding the line
+     * @param start     index of the first byte of the line
+     * @param end       index of the newline ending it
+     * @param batch     the connection's batch
+     * @param validator the connection's validator, which rejects malformed
+     *                  requests before they reach the cache
+     */
+    private static void addLine(ByteBuffer in, int start, int end, Batch batch, ExpressionValidator validator) {
+        if (end > start && in.get(end - 1) == '\r') {
+            end--;
+        }
+        String expression = new String(in.array(), start, end - start, StandardCharsets.ISO_8859_1);
+
+        if (expression.isBlank()) {
+            batch.add(null, null);
+        } else if (!validator.isValid(expression)) {
+            // malformed input is answered without building an exception
+            batch.add(null, validator.failure().message());
+        } else {
+            batch.add(expression.strip(), null);
+        }
+    }
+
+    /**
+     * Queues a batch for the evaluator thread and waits until it has been
+     * evaluated.
+     *
+     * @param batch the batch
+     * @throws ClosedChannelException if the server is closed while waiting
+     */
+    private void submit(Batch batch) throws ClosedChannelException {
+        batch.done = false;
+        while (!pending.offer(batch)) {
+            // the evaluator is behind; wait for room rather than queue without limit
+            waitUnlessClosed();
+        }
+        LockSupport.unpark(evaluator);
+        while (!batch.done) {
+            waitUnlessClosed();
+        }
+    }
+
+    /**
+     * Parks the calling thread briefly, until it is unparked or the wait
+     * times out.
+     *
+     * @throws ClosedChannelException if the server has been closed
+     */
+    private void waitUnlessClosed() throws ClosedChannelException {
+        if (closed) {
+            throw new ClosedChannelException();
+        }
+        LockSupport.parkNanos(this, WAIT_NANOS);
+    }
+
+    /**
+     * Evaluates queued batches until the server is closed. Each round takes
+     * every batch waiting, up to {@link #MAX_ROUND_LINES} lines, and hands
+     * each batch back to its connection as soon as it is evaluated.
+     */
+    private void evaluateLoop() {
+        while (!closed) {
+            Batch batch = pending.poll();
+            if (batch == null) {
+                LockSupport.park(this);
+                continue;
+            }
+
+            int lines = 0;
+            do {
+                evaluate(batch);
+                lines += batch.count;
+                batch.done = true;
+                LockSupport.unpark(batch.owner);
+            } while (lines < MAX_ROUND_LINES && (batch = pending.poll()) != null);
+            batches.increment();
+        }
+    }
+
+    /**
+     * Evaluates the queued lines of a batch in checked arithmetic.
+     *
+     * @param batch the batch
+     */
+    private void evaluate(Batch batch) {
+        for (int i = 0; i < batch.count; i++) {
+            String expression = batch.expressions[i];
+            if (expression == null) {
+                continue;
+            }
+            try {
+                batch.values[i] = cache.get(expression).evaluateChecked();
+            } catch (ArithmeticException e) {
+                batch.errors[i] = String.valueOf(e.getMessage()).replace('\n', ' ');
+            }
+        }
+    }
+
+    /**
+     * Writes the responses of an evaluated batch, in order, and flushes them.
+     *
+     * @param batch      the batch
+     * @param out        the buffer of pending responses
+     * @param connection the connection to write to
+     * @throws IOException if writing fails
+     */
+    private static void respond(Batch batch, ByteBuffer out, SocketChannel connection) throws IOException {
+        for (int i = 0; i < batch.count; i++) {
+            if (batch.errors[i] != null) {
+                put(out, ERROR, connection);
+                put(out, batch.errors[i].getBytes(StandardCharsets.ISO_8859_1), connection);
+            } else if (batch.expressions[i] != null) {
+                if (out.remaining() < 11) {
+                    flush(out, connection);
+                }
+                writeInt(out, batch.values[i]);
+            }
+            if (!out.hasRemaining()) {
+                flush(out, connection);
+            }
+            out.put((byte) '\n');
+        }
+        flush(out, connection);
+    }
+
+    /**
+     * Adds bytes to the output buffer, flushing it first if they do not fit.
+     *
+     * @param out        the buffer of pending responses
+     * @param bytes      the bytes to add
+     * @param connection the connection to flush to
+     * @throws IOException if flushing fails
+     */
+    private static void put(ByteBuffer out, byte[] bytes, SocketChannel connection) throws IOException {
+        if (out.remaining() < bytes.length) {
+            flush(out, connection);
+        }
+        if (bytes.length > out.capacity()) {
+            ByteBuffer large = ByteBuffer.wrap(bytes);
+            while (large.hasRemaining()) {
+                connection.write(large);
+            }
+        } else {
+            out.put(bytes);
+        }
+    }
+
+    /**
+     * Writes all pending responses to the connection.
+     *
+     * @param out        the buffer of pending responses
+     * @param connection the connection to write to
+     * @throws IOException if writing fails
+     */
+    private static void flush(ByteBuffer out, SocketChannel connection) throws IOException {
+        out.flip();
+        while (out.hasRemaining()) {
+            connection.write(out);
+        }
+        out.clear();
+    }
+
+    /**
+     * Writes the decimal digits of an int into a buffer without creating a
+     * String.
+     *
+     * @param out   the buffer to write to
+     * @param value the value to write
+     */
+    private static void writeInt(ByteBuffer out, int value) {
+        long v = value;
+        if (v < 0) {
+            out.put((byte) '-');
+            v = -v;
+        }
+
+        int digits = 1;
+        for (long p = 10; p <= v; p *= 10) {
+            digits++;
+        }
+
+        int end = out.position() + digits;
+        for (int i = end - 1; i >= out.position(); i--) {
+            out.put(i, (byte) ('0' + v % 10));
+            v /= 10;
+        }
+        out.position(end);
+    }
+
+    /**
+     * Returns an executor that runs each task on a new virtual thread if the
+     * JVM has them (Java 21 and later), or else on a pooled platform daemon
+     * thread.
+     *
+     * @param name the name prefix of platform threads
+     * @return an executor with one thread per running task
+     */
+    static ExecutorService newThreadPerTaskExecutor(String name) {
+        try {
+            return (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+        } catch (ReflectiveOperationException e) {
+            AtomicInteger count = new AtomicInteger();
+            return Executors.newCachedThreadPool(task -> {
+                Thread thread = new Thread(task, name + "-" + count.incrementAndGet());
+                thread.setDaemon(true);
+                return thread;
+            });
+        }
+    }
+
+    /**
+     * Parses a listening address from the command line: {@code --unix path}
+     * or {@code --port n} for TCP on loopback.
+     *
+     * @param args the command line arguments
+     * @return the address, or {@code null} if the arguments are invalid
+     */
+    static SocketAddress parseAddress(String[] args) {
+        if (args.length < 2) {
+            return null;
+        }
+        if (args[0].equals("--unix")) {
+            return UnixDomainSocketAddress.of(Paths.get(args[1]));
+        }
+        if (args[0].equals("--port")) {
+            return new InetSocketAddress(InetAddress.getLoopbackAddress(), Integer.parseInt(args[1]));
+        }
+        return null;
+    }
+
+    /**
+     * Runs a server until the process is stopped.
+     *
+     * <p>
+     * Example:
+     * </p>
+     *
+     * <pre>{@code
+     * java EvaluationServer --port 7000
+     * java EvaluationServer --unix /tmp/eval.sock
+     * }</pre>
+     *
+     * @param args {@code --port n} or {@code --unix path}
+     * @throws IOException          if the address cannot be bound
+     * @throws InterruptedException if interrupted while serving
+     */
+    public static void main(String[] args) throws IOException, InterruptedException {
+        SocketAddress address = parseAddress(args);
+        if (address == null || args.length != 2) {
+            System.err.println("Usage: java EvaluationServer (--port n | --unix path)");
+            System.exit(2);
+        }
+
+        EvaluationServer server = new EvaluationServer(address);
+        server.start();
+        Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+            try {
+                server.close();
+            } catch (IOException e) {
+                System.err.println("Error closing server: " + e);
+            }
+        }));
+        System.out.println("Listening on " + server.localAddress());
+        Thread.currentThread().join();
+    }
+
+    /**
+     * The request lines one connection read at once, and their results. Each
+     * connection reuses a single batch, which is either being filled by the
+     * connection's thread or queued for the evaluator thread, never both.
+     */
+    private static final class Batch {
+
+        /**
+         * The connection thread to unpark once the batch is evaluated.
+         */
+        final Thread owner;
+
+        /**
+         * The expression of each line, or {@code null} for a line that is
+         * blank or already answered with an error.
+         */
+        String[] expressions = new String[16];
+
+        /**
+         * The reason each line failed, or {@code null}.
+         */
+        String[] errors = new String[16];
+
+        /**
+         * The value of each evaluated line.
+         */
+        int[] values = new int[16];
+
+        /**
+         * Number of lines in the batch.
+         */
+        int count;
+
+        /**
+         * Number of lines that need the evaluator thread.
+         */
+        int queued;
+
+        /**
+         * Set by the evaluator thread once every line has been evaluated.
+         */
+        volatile boolean done;
+
+        /**
+         * Creates an empty batch.
+         *
+         * @param owner the connection thread
+         */
+        Batch(Thread owner) {
+            this.owner = owner;
+        }
+
+        /**
+         * Adds a line.
+         *
+         * @param expression the expression to evaluate, or {@code null}
+         * @param error      the reason the line was rejected, or {@code null}
+         */
+        void add(String expression, String error) {
+            if (count == expressions.length) {
+                expressions = Arrays.copyOf(expressions, count * 2);
+                errors = Arrays.copyOf(errors, count * 2);
+                values = Arrays.copyOf(values, count * 2);
+            }
+            expressions[count] = expression;
+            errors[count] = error;
+            count++;
+            if (expression != null) {
+                queued++;
+            }
+        }
+
+        /**
+         * Empties the batch for the next read.
+         */
+        void clear() {
+            Arrays.fill(expressions, 0, count, null);
+            Arrays.fill(errors, 0, count, null);
+            count = 0;
+            queued = 0;
+        }
+    }
+}
@@ -0,0 +1,330 @@
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A bounded cache that maps expression source text to its
+ * {@code CompiledExpression}, so an expression that is evaluated many times
+ * is only parsed once.
+ * <p>
+ * When the cache is full, the least recently used entry is evicted. Hits,
+ * misses and evictions are counted. All methods are safe to call from
+ * several threads at once; compiling a missing expression happens outside
+ * the lock, so a slow compile does not block other lookups.
+ * </p>
+ * <p>
+ * A cache can be backed by an {@code ExpressionStore}. It is then filled
+ * from the store when it is created, a miss looks in the store before
+ * compiling, every newly compiled expression is added to the store and every
+ * evicted one is removed from it, so the store holds what the cache held
+ * and the next process starts warm. Store writes happen outside the cache's
+ * lock, so file I/O never blocks a hit. Because of that, an expression
+ * evicted and re-added at the same moment by two threads can miss the store,
+ * which only costs one compile on the next warm start.
+ * </p>
+ *
+ * <p>
+ * Example:
+ * </p>
+ *
+ * <pre>{@code
+ * ExpressionCache cache = new ExpressionCache(1000);
+ * int a = cache.evaluate("3 + 4"); // compiles, returns 7
+ * int b = cache.evaluate("3 + 4"); // reuses the compiled form, returns 7
+ * System.out.println(cache.hitCount()); // prints 1
+ * }</pre>
+ */
+public class ExpressionCache {
+
+    /**
+     * The largest number of entries the cache holds.
+     */
+    private final int maximumSize;
+
+    /**
+     * Entries in access order, least recently used first.
+     */
+    private final LinkedHashMap<String, CompiledExpression> entries;
+
+    /**
+     * The store that mirrors the cache, or {@code null}.
+     */
+    private final ExpressionStore store;
+
+    /**
+     * Evicted sources whose tombstones have not been written to the store
+     * yet, guarded by the lock on {@link #entries}.
+     */
+    private final List<String> evicted = new ArrayList<>();
+
+    /**
+     * Number of lookups that found an entry.
+     */
+    private long hits;
+
+    /**
+     * Number of lookups that had to compile the expression.
+     */
+    private long misses;
+
+    /**
+     * Number of entries removed to make room for new ones.
+     */
+    private long evictions;
+
+    /**
+     * Constructs an empty cache that holds at most {@code maximumSize}
+     * compiled expressions.
+     *
+     * <p>
+     * Example:
+     * </p>
+     *
+     * <pre>{@code
+     * ExpressionCache cache = new ExpressionCache(4096);
+     * }</pre>
+     *
+     * @param maximumSize the largest number of entries to keep
+     * @throws IllegalArgumentException if {@code maximumSize < 1}
+     */
+    public ExpressionCache(int maximumSize) {
+        this(maximumSize, null);
+    }
+
+    /**
+     * Constructs a cache that holds at most {@code maximumSize} compiled
+     * expressions, backed by a store. The cache starts with the most recently
+     * stored expressions.
+     *
+     * <p>
+     * Example:
+     * </p>
+     *
+     * <pre>{@code
+     * ExpressionCache cache = new ExpressionCache(4096, new ExpressionStore(Paths.get("expressions.store")));
+     * }</pre>
+     *
+     * @param maximumSize the largest number of entries to keep
+     * @param store       the store to load from and write to, or
+     *                    {@code null} for none
+     * @throws IllegalArgumentException if {@code maximumSize < 1}
+     */
+    public ExpressionCache(int maximumSize, ExpressionStore store) {
+        if (maximumSize < 1) {
+            throw new IllegalArgumentException("maximumSize must be at least 1: " + maximumSize);
+        }
+        this.maximumSize = maximumSize;
+        this.store = store;
+        this.entries = new LinkedHashMap<String, CompiledExpression>(16, 0.75f, true) {
+            private static final long serialVersionUID = 1L;
+
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, CompiledExpression> eldest) {
+                if (size() > ExpressionCache.this.maximumSize) {
+                    evictions++;
+                    if (ExpressionCache.this.store != null) {
+                        // written by removeEvicted once the lock is released
+                        evicted.add(eldest.getKey());
+                    }
+                    return true;
+                }
+                return false;
+            }
+        };
+        if (store != null) {
+            store.warm(this);
+        }
+    }
+
+    /**
+     * Returns the compiled form of an infix expression, compiling and caching
+     * it if it is not already cached.
+     *
+     * <p>
+     * Example:
+     * </p>
+     *
+     * <pre>{@code
+     * CompiledExpression expr = cache.get("10 * ( 2 + 3 )");
+     * }</pre>
+     *
+     * @param source the infix expression
+     * @return the compiled expression
+     * @throws IllegalArgumentException if the expression is malformed
+     * @throws UncheckedIOException     if the backing store cannot be
+     *                                  written
+     */
+    public CompiledExpression get(String source) {
+        long started = ExpressionMetrics.start();
+        try {
+            return lookup(source);
+        } finally {
+            ExpressionMetrics.stop(ExpressionMetrics.Stage.CACHE_LOOKUP, started, source.length());
+        }
+    }
+
+    /**
+     * Does the work of {@link #get}, which times the call.
+     *
+     * @param source the infix expression
+     * @return the compiled expression
+     */
+    private CompiledExpression lookup(String source) {
+        synchronized (entries) {
+            CompiledExpression cached = entries.get(source);
+            if (cached != null) {
+                hits++;
+                return cached;
+            }
+            misses++;
+        }
+
+        CompiledExpression compiled = store != null ? store.get(source) : null;
+        if (compiled == null) {
+            compiled = CompiledExpression.compile(source);
+            if (store != null) {
+                try {
+                    store.put(source, compiled);
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            }
+        }
+
+        CompiledExpression result;
+        synchronized (entries) {
+            // another thread may have compiled the same expression meanwhile
+            CompiledExpression raced = entries.putIfAbsent(source, compiled);
+            result = raced != null ? raced : compiled;
+        }
+        removeEvicted();
+        return result;
+    }
+
+    /**
+     * Removes the expressions evicted so far from the backing store. Called
+     * without holding the lock, so the file I/O does not block lookups.
+     *
+     * @throws UncheckedIOException if the store cannot be written
+     */
+    private void removeEvicted() {
+        if (store == null) {
+            return;
+        }
+        String[] sources;
+        synchronized (entries) {
+            if (evicted.isEmpty()) {
+                return;
+            }
+            sources = evicted.toArray(new String[0]);
+            evicted.clear();
+        }
+        try {
+            for (String source : sources) {
+                store.remove(source);
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * Evaluates an infix expression using its cached compiled form.
+     *
+     * <p>
+     * Example:
+     * </p>
+     *
+     * <pre>{@code
+     * int value = cache.evaluate("( 5 + 3 ) * ( 12 / 4 )"); // returns 24
+     * }</pre>
+     *
+     * @param source the infix expression
+     * @return the integer value resulting from evaluating the expression
+     * @throws IllegalArgumentException if the expression is malformed
+     */
+    public int evaluate(String source) {
+        return get(source).evaluate();
+    }
+
+    /**
+     * Stores an already compiled expression under the given source text,
+     * replacing any existing entry.
+     *
+     * @param source   the infix expression
+     * @param compiled its compiled form
+     * @throws UncheckedIOException if an evicted expression cannot be
+     *                              removed from the backing store
+     */
+    public void put(String source, CompiledExpression compiled) {
+        synchronized (entries) {
+            entries.put(source, compiled);
+        }
+        removeEvicted();
+    }
+
+    /**
+     * Removes all entries. The counters are not reset.
+     */
+    public void clear() {
+        synchronized (entries) {
+            entries.clear();
+        }
+    }
+
+    /**
+     * Returns the number of entries currently cached.
+     *
+     * @return the number of cached entries
+     */
+    public int size() {
+        synchronized (entries) {
+            return entries.size();
+        }
+    }
+
+    /**
+     * Returns the largest number of entries the cache holds.
+     *
+     * @return the maximum size of the cache
+     */
+    public int maximumSize() {
+        return maximumSize;
+    }
+
+    /**
+     * Returns the number of lookups that found a cached entry.
+     *
+     * @return the hit count
+     */
+    public long hitCount() {
+        synchronized (entries) {
+            return hits;
+        }
+    }
+
+    /**
+     * Returns the number of lookups that had to compile the expression.
+     *
+     * @return the miss count
+     */
+    public long missCount() {
+        synchronized (entries) {
+            return misses;
+        }
+    }
+
+    /**
+     * Returns the number of entries evicted to make room for new ones.
+     *
+     * @return the eviction count
+     */
+    public long evictionCount() {
+        synchronized (entries) {
+            return evictions;
+        }
+    }
+}
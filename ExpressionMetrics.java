@@ -0,0 +1,440 @@
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.Locale;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+import javax.management.JMException;
+import javax.management.ObjectName;
+
+/**
+ * Latency and expression-size histograms for each stage of handling an
+ * expression, exposed through JMX and as a plain text file.
+ * <p>
+ * Each {@link Stage} has a {@code Histogram} of how long it took, in
+ * nanoseconds, and one of how long the expressions it handled were, in
+ * characters. Recording is lock-free, into buckets striped by processor
+ * that are merged only when the metrics are read.
+ * </p>
+ * <p>
+ * The evaluators record into one global instance, which is off unless the
+ * JVM is started with {@code -Dexpression.metrics.enabled=true}. When off,
+ * the timing calls compile away to nothing. When on, the global instance is
+ * registered as the MBean {@code ExpressionEvaluator:type=Metrics}, and if
+ * {@code -Dexpression.metrics.file=path} is also given, a snapshot in the
+ * text format is written to that file every
+ * {@code expression.metrics.periodMillis} milliseconds (default 10000).
+ * </p>
+ * <p>
+ * Tokenizing happens inside each consumer's own loop rather than as a pass
+ * of its own, so the {@link Stage#TOKENIZE} stage times the one place where
+ * it runs alone: the validation scan of {@code ExpressionValidator}.
+ * </p>
+ *
+ * <p>
+ * Example:
+ * </p>
+ *
+ * <pre>{@code
+ * // java -Dexpression.metrics.enabled=true -Dexpression.metrics.file=metrics.txt ...
+ * ExpressionMetrics metrics = ExpressionMetrics.global();
+ * long p99 = metrics.latency(ExpressionMetrics.Stage.CONVERT).percentile(99);
+ * }</pre>
+ */
+public class ExpressionMetrics implements ExpressionMetricsMBean {
+
+    /**
+     * The stages that are measured.
+     */
+    public enum Stage {
+
+        /**
+         * Scanning an expression's tokens to validate it.
+         */
+        TOKENIZE,
+
+        /**
+         * Converting infix to postfix with {@code InfixConverter}.
+         */
+        CONVERT,
+
+        /**
+         * Evaluating postfix with {@code PostfixEvaluator}.
+         */
+        EVALUATE,
+
+        /**
+         * Looking up a compiled expression in an {@code ExpressionCache},
+         * including compiling it on a miss.
+         */
+        CACHE_LOOKUP
+    }
+
+    /**
+     * Name the global instance is registered under.
+     */
+    public static final String OBJECT_NAME = "ExpressionEvaluator:type=Metrics";
+
+    /**
+     * Whether the evaluators record into the global instance. Read once at
+     * startup from the {@code expression.metrics.enabled} system property.
+     */
+    private static final boolean ENABLED = Boolean.getBoolean("expression.metrics.enabled");
+
+    /**
+     * Percentiles written to the text format.
+     */
+    private static final double[] QUANTILES = {0.5, 0.9, 0.99, 0.999};
+
+    /**
+     * Longest latency tracked precisely: one minute.
+     */
+    private static final long HIGHEST_LATENCY = TimeUnit.MINUTES.toNanos(1);
+
+    /**
+     * Longest expression tracked precisely, in characters.
+     */
+    private static final long HIGHEST_SIZE = 1 << 24;
+
+    /**
+     * The instance the evaluators record into, or {@code null} when
+     * disabled.
+     */
+    private static final ExpressionMetrics GLOBAL = ENABLED ? startGlobal() : null;
+
+    /**
+     * Latency of each stage, in nanoseconds.
+     */
+    private final Histogram[] latencies;
+
+    /**
+     * Size of the expressions each stage handled, in characters.
+     */
+    private final Histogram[] sizes;
+
+    /**
+     * Constructs empty metrics. The evaluators record only into the
+     * {@link #global()} instance; others are filled with {@link #record}.
+     *
+     * <p>
+     * Example:
+     * </p>
+     *
+     * <pre>{@code
+     * ExpressionMetrics metrics = new ExpressionMetrics();
+     * }</pre>
+     */
+    public ExpressionMetrics() {
+        int stages = Stage.values().length;
+        latencies = new Histogram[stages];
+        sizes = new Histogram[stages];
+        for (int i = 0; i < stages; i++) {
+            latencies[i] = new Histogram(HIGHEST_LATENCY);
+            sizes[i] = new Histogram(HIGHEST_SIZE);
+        }
+    }
+
+    /**
+     * Creates the global instance, registers it and starts exporting it if
+     * a file was given.
+     *
+     * @return the global instance
+     */
+    private static ExpressionMetrics startGlobal() {
+        ExpressionMetrics metrics = new ExpressionMetrics();
+        try {
+            metrics.register(OBJECT_NAME);
+        } catch (JMException e) {
+            throw new IllegalStateException("Cannot register " + OBJECT_NAME, e);
+        }
+        String file = System.getProperty("expression.metrics.file");
+        if (file != null) {
+            metrics.exportEvery(Path.of(file), Long.getLong("expression.metrics.periodMillis", 10_000));
+        }
+        return metrics;
+    }
+
+    /**
+     * Returns the instance the evaluators record into.
+     *
+     * @return the global metrics, or {@code null} unless the JVM was started
+     *         with {@code -Dexpression.metrics.enabled=true}
+     */
+    public static ExpressionMetrics global() {
+        return GLOBAL;
+    }
+
+    /**
+     * Returns the time to pass to {@link #stop} at the end of a stage.
+     *
+     * @return the current time in nanoseconds, or 0 when disabled
+     */
+    static long start() {
+        return ENABLED ? System.nanoTime() : 0;
+    }
+
+    /**
+     * Records a stage that began at {@code start} into the global instance,
+     * if enabled.
+     *
+     * @param stage the stage that ran
+     * @param start the value {@link #start} returned
+     * @param size  the length of the expression, in characters
+     */
+    static void stop(Stage stage, long start, int size) {
+        if (ENABLED) {
+            GLOBAL.record(stage, System.nanoTime() - start, size);
+        }
+    }
+
+    /**
+     * Records one run of a stage.
+     *
+     * @param stage the stage that ran
+     * @param nanos how long it took
+     * @param size  the length of the expression, in characters
+     */
+    public void record(Stage stage, long nanos, int size) {
+        latencies[stage.ordinal()].record(nanos);
+        sizes[stage.ordinal()].record(size);
+    }
+
+    /**
+     * Returns the latencies of a stage so far.
+     *
+     * @param stage the stage
+     * @return the merged latency histogram, in nanoseconds
+     */
+    public Histogram.Snapshot latency(Stage stage) {
+        return latencies[stage.ordinal()].snapshot();
+    }
+
+    /**
+     * Returns the sizes of the expressions a stage handled so far.
+     *
+     * @param stage the stage
+     * @return the merged size histogram, in characters
+     */
+    public Histogram.Snapshot size(Stage stage) {
+        return sizes[stage.ordinal()].snapshot();
+    }
+
+    /**
+     * Registers these metrics with the platform MBean server.
+     *
+     * <p>
+     * Example:
+     * </p>
+     *
+     * <pre>{@code
+     * metrics.register("ExpressionEvaluator:type=Metrics,name=batch");
+     * }</pre>
+     *
+     * @param name the object name to register under
+     * @return the registered name
+     * @throws JMException if the name is malformed or already registered
+     */
+    public ObjectName register(String name) throws JMException {
+        ObjectName objectName = new ObjectName(name);
+        ManagementFactory.getPlatformMBeanServer().registerMBean(this, objectName);
+        return objectName;
+    }
+
+    /**
+     * Writes a snapshot to a file now and then every {@code periodMillis}
+     * milliseconds, on a daemon thread. Each snapshot replaces the file
+     * atomically, so a reader never sees half of one. A failed write, for
+     * any reason, is retried at the next period.
+     *
+     * <p>
+     * Example:
+     * </p>
+     *
+     * <pre>{@code
+     * ScheduledFuture<?> export = metrics.exportEvery(Path.of("metrics.txt"), 5000);
+     * export.cancel(false); // stop exporting
+     * }</pre>
+     *
+     * @param file         the file to write
+     * @param periodMillis milliseconds between snapshots
+     * @return the scheduled export, which can be cancelled
+     * @throws IllegalArgumentException if {@code periodMillis} is not
+     *                                  positive
+     */
+    public ScheduledFuture<?> exportEvery(Path file, long periodMillis) {
+        if (periodMillis <= 0) {
+            throw new IllegalArgumentException("periodMillis must be positive: " + periodMillis);
+        }
+        return Exporter.SCHEDULER.scheduleAtFixedRate(() -> {
+            try {
+                export(file);
+            } catch (IOException | RuntimeException e) {
+                // try again next period; a task that throws is never run again
+            }
+        }, 0, periodMillis, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Writes a snapshot in the text format to a file, replacing it
+     * atomically.
+     *
+     * @param file the file to write
+     * @throws IOException if the file cannot be written
+     */
+    public void export(Path file) throws IOException {
+        Path temporary = file.resolveSibling(file.getFileName() + ".tmp");
+        Files.writeString(temporary, getText(), StandardCharsets.UTF_8);
+        Files.move(temporary, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    /**
+     * Returns every histogram in the plain text exposition format read by
+     * Prometheus and similar collectors: one summary of latencies and one
+     * of sizes, each with a series per stage.
+     *
+     * <p>
+     * Example:
+     * </p>
+     *
+     * <pre>{@code
+     * # TYPE expression_stage_latency_nanoseconds summary
+     * expression_stage_latency_nanoseconds{stage="convert",quantile="0.5"} 812
+     * ...
+     * expression_stage_latency_nanoseconds_sum{stage="convert"} 81200
+     * expression_stage_latency_nanoseconds_count{stage="convert"} 100
+     * }</pre>
+     *
+     * @return the metrics as text
+     */
+    @Override
+    public String getText() {
+        StringBuilder text = new StringBuilder();
+        appendSummary(text, "expression_stage_latency_nanoseconds", "Time spent in each stage.", latencies);
+        appendSummary(text, "expression_size_characters", "Length of the expressions each stage handled.", sizes);
+        return text.toString();
+    }
+
+    /**
+     * Appends one summary with a series per stage.
+     *
+     * @param text       the text to append to
+     * @param name       the metric name
+     * @param help       the description of the metric
+     * @param histograms the histogram of each stage
+     */
+    private static void appendSummary(StringBuilder text, String name, String help, Histogram[] histograms) {
+        text.append("# HELP ").append(name).append(' ').append(help).append('\n');
+        text.append("# TYPE ").append(name).append(" summary\n");
+        for (Stage stage : Stage.values()) {
+            Histogram.Snapshot snapshot = histograms[stage.ordinal()].snapshot();
+            String label = "stage=\"" + stage.name().toLowerCase(Locale.ROOT) + "\"";
+            for (double quantile : QUANTILES) {
+                text.append(name).append('{').append(label).append(",quantile=\"").append(quantile).append("\"} ")
+                        .append(snapshot.percentile(quantile * 100)).append('\n');
+            }
+            text.append(name).append("_max{").append(label).append("} ").append(snapshot.max()).append('\n');
+            text.append(name).append("_sum{").append(label).append("} ").append(snapshot.sum()).append('\n');
+            text.append(name).append("_count{").append(label).append("} ").append(snapshot.count()).append('\n');
+        }
+    }
+
+    /**
+     * Returns the names of the measured stages.
+     *
+     * @return the stage names
+     */
+    @Override
+    public String[] getStages() {
+        Stage[] stages = Stage.values();
+        String[] names = new String[stages.length];
+        for (int i = 0; i < stages.length; i++) {
+            names[i] = stages[i].name();
+        }
+        return names;
+    }
+
+    /**
+     * Returns how many times a stage has run.
+     *
+     * @param stage the stage name
+     * @return the count
+     * @throws IllegalArgumentException if there is no such stage
+     */
+    @Override
+    public long count(String stage) {
+        return latency(stage(stage)).count();
+    }
+
+    /**
+     * Returns the mean latency of a stage.
+     *
+     * @param stage the stage name
+     * @return the mean in nanoseconds
+     * @throws IllegalArgumentException if there is no such stage
+     */
+    @Override
+    public double meanNanos(String stage) {
+        return latency(stage(stage)).mean();
+    }
+
+    /**
+     * Returns a latency percentile of a stage.
+     *
+     * @param stage      the stage name
+     * @param percentile the percentage, from 0 to 100
+     * @return the latency in nanoseconds
+     * @throws IllegalArgumentException if there is no such stage or the
+     *                                  percentile is outside 0 to 100
+     */
+    @Override
+    public long percentileNanos(String stage, double percentile) {
+        return latency(stage(stage)).percentile(percentile);
+    }
+
+    /**
+     * Returns a percentile of the sizes of the expressions a stage handled.
+     *
+     * @param stage      the stage name
+     * @param percentile the percentage, from 0 to 100
+     * @return the size in characters
+     * @throws IllegalArgumentException if there is no such stage or the
+     *                                  percentile is outside 0 to 100
+     */
+    @Override
+    public long percentileSize(String stage, double percentile) {
+        return size(stage(stage)).percentile(percentile);
+    }
+
+    /**
+     * Looks up a stage by name, ignoring case.
+     *
+     * @param name the stage name
+     * @return the stage
+     * @throws IllegalArgumentException if there is no such stage
+     */
+    private static Stage stage(String name) {
+        return Stage.valueOf(String.valueOf(name).toUpperCase(Locale.ROOT));
+    }
+
+    /**
+     * Holds the export thread, created the first time a periodic export is
+     * started.
+     */
+    private static final class Exporter {
+
+        /**
+         * Single daemon thread writing every periodic export.
+         */
+        static final ScheduledExecutorService SCHEDULER = Executors.newSingleThreadScheduledExecutor(task -> {
+            Thread thread = new Thread(task, "expression-metrics-export");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+}
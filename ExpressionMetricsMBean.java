@@ -0,0 +1,64 @@
+/**
+ * Management interface of {@code ExpressionMetrics}, as seen through JMX
+ * by tools such as JConsole and VisualVM.
+ * <p>
+ * Stages are named as in {@code ExpressionMetrics.Stage}, for example
+ * {@code "CONVERT"}. Latencies are in nanoseconds and sizes in characters.
+ * </p>
+ */
+public interface ExpressionMetricsMBean {
+
+    /**
+     * Returns the names of the measured stages.
+     *
+     * @return the stage names
+     */
+    String[] getStages();
+
+    /**
+     * Returns every histogram in the plain text exposition format.
+     *
+     * @return the metrics as text
+     */
+    String getText();
+
+    /**
+     * Returns how many times a stage has run.
+     *
+     * @param stage the stage name
+     * @return the count
+     * @throws IllegalArgumentException if there is no such stage
+     */
+    long count(String stage);
+
+    /**
+     * Returns the mean latency of a stage.
+     *
+     * @param stage the stage name
+     * @return the mean in nanoseconds
+     * @throws IllegalArgumentException if there is no such stage
+     */
+    double meanNanos(String stage);
+
+    /**
+     * Returns a latency percentile of a stage.
+     *
+     * @param stage      the stage name
+     * @param percentile the percentage, from 0 to 100
+     * @return the latency in nanoseconds
+     * @throws IllegalArgumentException if there is no such stage or the
+     *                                  percentile is outside 0 to 100
+     */
+    long percentileNanos(String stage, double percentile);
+
+    /**
+     * Returns a percentile of the sizes of the expressions a stage handled.
+     *
+     * @param stage      the stage name
+     * @param percentile the percentage, from 0 to 100
+     * @return the size in characters
+     * @throws IllegalArgumentException if there is no such stage or the
+     *                                  percentile is outside 0 to 100
+     */
+    long percentileSize(String stage, double percentile);
+}
@@ -0,0 +1,495 @@
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Rewrites a compiled expression into a shorter program that computes the
+ * same result.
+ * <p>
+ * The program is first turned into a DAG of nodes. Nodes are hash-consed:
+ * an operation whose operator and operands match an existing node reuses
+ * that node, so every distinct subexpression exists once. While the DAG is
+ * built, operations on constants are folded and the identities
+ * {@code x + 0}, {@code 0 + x}, {@code x - 0}, {@code x * 1},
+ * {@code 1 * x} and {@code x / 1} are removed. The DAG is then written back
+ * as a program in which a subexpression used more than once is computed the
+ * first time, saved to a temporary, and reloaded at every later use.
+ * </p>
+ * <p>
+ * The result is the same as evaluating the original program, with either
+ * {@code evaluate} or {@code evaluateLong}: a constant operation is only
+ * folded when int and long arithmetic agree on its value, and division by a
+ * zero constant is left in place so it still throws.
+ * </p>
+ *
+ * <p>
+ * Example:
+ * </p>
+ *
+ * <pre>{@code
+ * CompiledExpression expr = CompiledExpression.compile("( a + b ) * ( a + b ) + 2 * 3 * 1");
+ * CompiledExpression fast = ExpressionOptimizer.optimize(expr);
+ * // a + b is computed once and "2 * 3 * 1" becomes the constant 6
+ * fast.evaluate(new int[] {1, 2}); // returns 15
+ * }</pre>
+ */
+public final class ExpressionOptimizer {
+
+    /**
+     * Not instantiable; use {@link #optimize(CompiledExpression)}.
+     */
+    private ExpressionOptimizer() {
+    }
+
+    /**
+     * Returns an optimized program equivalent to the given expression. The
+     * variables keep their slots, so the same bindings can be used with both.
+     *
+     * <p>
+     * Example:
+     * </p>
+     *
+     * <pre>{@code
+     * CompiledExpression fast = ExpressionOptimizer.optimize(CompiledExpression.compile("x * 1 + 0"));
+     * System.out.println(fast); // prints "x"
+     * }</pre>
+     *
+     * @param expression the expression to optimize
+     * @return the optimized expression
+     */
+    public static CompiledExpression optimize(CompiledExpression expression) {
+        Map<Node, Node> nodes = new HashMap<>();
+        Node[] stack = new Node[expression.maxDepth];
+        Node[] temps = new Node[expression.temps];
+        int[] code = expression.code;
+        int sp = 0;
+
+        // run the program symbolically, building nodes instead of values
+        for (int pc = 0; pc < code.length; pc++) {
+            switch (code[pc]) {
+                case CompiledExpression.CONST:
+                    stack[sp++] = intern(nodes, new Node(CompiledExpression.CONST, expression.constants[code[++pc]], null, null));
+                    break;
+                case CompiledExpression.LOAD:
+                    stack[sp++] = intern(nodes, new Node(CompiledExpression.LOAD, code[++pc], null, null));
+                    break;
+                case CompiledExpression.TEE:
+                    temps[code[++pc]] = stack[sp - 1];
+                    break;
+                case CompiledExpression.LOAD_TEMP:
+                    stack[sp++] = temps[code[++pc]];
+                    break;
+                default:
+                    sp--;
+                    stack[sp - 1] = combine(nodes, code[pc], stack[sp - 1], stack[sp]);
+                    break;
+            }
+        }
+
+        Node root = stack[0];
+        Node[] byId = new Node[nodes.size() + 1];
+        for (Node node : nodes.values()) {
+            byId[node.id] = node;
+        }
+        countUses(root, byId);
+        Emitter emitter = new Emitter(byId);
+        emitter.emitTree(root);
+        return emitter.build(expression.variables);
+    }
+
+    /**
+     * Returns the node for an arithmetic operation, folding it to a constant
+     * or dropping it by an identity when possible.
+     *
+     * @param nodes  the nodes created so far
+     * @param opcode the arithmetic opcode
+     * @param left   the left operand
+     * @param right  the right operand
+     * @return the node computing the operation
+     */
+    private static Node combine(Map<Node, Node> nodes, int opcode, Node left, Node right) {
+        if (left.isConstant() && right.isConstant()) {
+            long a = left.value;
+            long b = right.value;
+            if (a == (int) a && b == (int) b && !(opcode == CompiledExpression.DIV && b == 0)) {
+                // int operands cannot overflow a long, so the long result is exact
+                long result = fold(opcode, a, b);
+                if (result == (int) result) {
+                    return intern(nodes, new Node(CompiledExpression.CONST, result, null, null));
+                }
+            }
+        }
+
+        switch (opcode) {
+            case CompiledExpression.ADD:
+                if (right.isConstant(0)) {
+                    return left;
+                }
+                if (left.isConstant(0)) {
+                    return right;
+                }
+                break;
+            case CompiledExpression.SUB:
+            case CompiledExpression.DIV:
+                if (right.isConstant(opcode == CompiledExpression.SUB ? 0 : 1)) {
+                    return left;
+                }
+                break;
+            case CompiledExpression.MUL:
+                if (right.isConstant(1)) {
+                    return left;
+                }
+                if (left.isConstant(1)) {
+                    return right;
+                }
+                break;
+            default:
+                throw new IllegalStateException("Bad opcode " + opcode);
+        }
+
+        // put the operands of + and * in a fixed order so a + b and b + a share a node
+        if ((opcode == CompiledExpression.ADD || opcode == CompiledExpression.MUL) && left.id > right.id) {
+            Node swap = left;
+            left = right;
+            right = swap;
+        }
+        return intern(nodes, new Node(opcode, 0, left, right));
+    }
+
+    /**
+     * Applies an arithmetic opcode to two constants.
+     *
+     * @param opcode the arithmetic opcode
+     * @param a      the left operand
+     * @param b      the right operand, not zero for division
+     * @return the result
+     */
+    private static long fold(int opcode, long a, long b) {
+        switch (opcode) {
+            case CompiledExpression.ADD:
+                return a + b;
+            case CompiledExpression.SUB:
+                return a - b;
+            case CompiledExpression.MUL:
+                return a * b;
+            case CompiledExpression.DIV:
+                return a / b;
+            default:
+                throw new IllegalStateException("Bad opcode " + opcode);
+        }
+    }
+
+    /**
+     * Returns the existing node equal to {@code node}, or registers
+     * {@code node} if there is none.
+     *
+     * @param nodes the nodes created so far
+     * @param node  the candidate node
+     * @return the unique node equal to {@code node}
+     */
+    private static Node intern(Map<Node, Node> nodes, Node node) {
+        Node existing = nodes.putIfAbsent(node, node);
+        if (existing != null) {
+            return existing;
+        }
+        node.id = nodes.size();
+        return node;
+    }
+
+    /**
+     * Counts how many times each node is used as an operand, visiting the
+     * operands of a node only the first time it is reached. Uses a work
+     * stack of node ids rather than recursion, so a formula of any length
+     * fits.
+     *
+     * @param root the node computing the whole expression
+     * @param byId every node, indexed by id
+     */
+    private static void countUses(Node root, Node[] byId) {
+        IntStack work = new IntStack();
+        work.push(root.id);
+        while (!work.isEmpty()) {
+            Node node = byId[work.pop()];
+            if (node.uses++ == 0 && node.left != null) {
+                work.push(node.right.id);
+                work.push(node.left.id);
+            }
+        }
+    }
+
+    /**
+     * One distinct value of the expression: a constant, a variable, or an
+     * operation on two other nodes. Equality compares the operand nodes by
+     * identity, which is enough because they have already been interned.
+     */
+    private static final class Node {
+
+        /**
+         * {@code CONST}, {@code LOAD} or an arithmetic opcode.
+         */
+        final int opcode;
+
+        /**
+         * The constant value, or the variable slot.
+         */
+        final long value;
+
+        /**
+         * The left operand of an operation.
+         */
+        final Node left;
+
+        /**
+         * The right operand of an operation.
+         */
+        final Node right;
+
+        /**
+         * Creation order, used to order the operands of + and *.
+         */
+        int id;
+
+        /**
+         * The number of times the node is used as an operand.
+         */
+        int uses;
+
+        /**
+         * The index of the constant or temporary the node was written to,
+         * or -1 if it has not been written yet.
+         */
+        int index = -1;
+
+        /**
+         * Creates a node.
+         *
+         * @param opcode the kind of node
+         * @param value  the constant value or variable slot
+         * @param left   the left operand, or {@code null}
+         * @param right  the right operand, or {@code null}
+         */
+        Node(int opcode, long value, Node left, Node right) {
+            this.opcode = opcode;
+            this.value = value;
+            this.left = left;
+            this.right = right;
+        }
+
+        /**
+         * Returns whether the node is a constant.
+         *
+         * @return {@code true} for a constant
+         */
+        boolean isConstant() {
+            return opcode == CompiledExpression.CONST;
+        }
+
+        /**
+         * Returns whether the node is the given constant.
+         *
+         * @param constant the value to compare with
+         * @return {@code true} if the node is that constant
+         */
+        boolean isConstant(long constant) {
+            return isConstant() && value == constant;
+        }
+
+        /**
+         * Returns whether another node computes the same value.
+         *
+         * @param other the object to compare with
+         * @return {@code true} if the nodes are the same operation on the
+         *         same operands
+         */
+        @Override
+        public boolean equals(Object other) {
+            if (!(other instanceof Node)) {
+                return false;
+            }
+            Node node = (Node) other;
+            return opcode == node.opcode && value == node.value && left == node.left && right == node.right;
+        }
+
+        /**
+         * Returns a hash code consistent with {@link #equals(Object)}.
+         *
+         * @return the hash code of the node
+         */
+        @Override
+        public int hashCode() {
+            int hash = opcode * 31 + Long.hashCode(value);
+            hash = hash * 31 + System.identityHashCode(left);
+            return hash * 31 + System.identityHashCode(right);
+        }
+    }
+
+    /**
+     * Writes a DAG back out as a program, tracking the stack depth.
+     */
+    private static final class Emitter {
+
+        /**
+         * The opcodes and inline operands emitted so far.
+         */
+        private int[] code = new int[16];
+
+        /**
+         * The number of entries of {@code code} in use.
+         */
+        private int length;
+
+        /**
+         * The constants emitted so far.
+         */
+        private long[] constants = new long[8];
+
+        /**
+         * The number of entries of {@code constants} in use.
+         */
+        private int constantCount;
+
+        /**
+         * The number of temporaries used so far.
+         */
+        private int temps;
+
+        /**
+         * The stack depth after the instructions emitted so far.
+         */
+        private int depth;
+
+        /**
+         * The largest stack depth reached so far.
+         */
+        private int maxDepth;
+
+        /**
+         * Every node, indexed by id.
+         */
+        private final Node[] byId;
+
+        /**
+         * Creates an emitter for the given nodes.
+         *
+         * @param byId every node, indexed by id
+         */
+        Emitter(Node[] byId) {
+            this.byId = byId;
+        }
+
+        /**
+         * Emits the instructions that push the value of a node, operands
+         * first. The tree is walked with a work stack rather than recursion,
+         * so a formula of any length fits. Each entry is a node id shifted
+         * left by one, with the low bit set once the node's operands have
+         * been emitted and only its operator is left.
+         *
+         * @param root the node to push
+         */
+        void emitTree(Node root) {
+            IntStack work = new IntStack();
+            work.push(root.id << 1);
+            while (!work.isEmpty()) {
+                int entry = work.pop();
+                Node node = byId[entry >>> 1];
+                if ((entry & 1) != 0) {
+                    emitOperator(node);
+                } else if (node.left == null || node.index >= 0) {
+                    emitNode(node);
+                } else {
+                    // decided when popped, so a node shared with the left
+                    // operand is already in a temporary when the right is reached
+                    work.push(entry | 1);
+                    work.push(node.right.id << 1);
+                    work.push(node.left.id << 1);
+                }
+            }
+        }
+
+        /**
+         * Emits an operation whose operands are already on the stack. An
+         * operation used more than once is saved to a temporary so later
+         * uses can reload it.
+         *
+         * @param node the operation
+         */
+        private void emitOperator(Node node) {
+            emit(node.opcode);
+            depth--;
+            if (node.uses > 1) {
+                node.index = temps++;
+                emit(CompiledExpression.TEE, node.index);
+            }
+        }
+
+        /**
+         * Emits the instruction that pushes a constant, a variable or an
+         * operation already saved to a temporary.
+         *
+         * @param node the node to push
+         */
+        private void emitNode(Node node) {
+            if (node.opcode == CompiledExpression.CONST) {
+                if (node.index < 0) {
+                    if (constantCount == constants.length) {
+                        constants = Arrays.copyOf(constants, constantCount * 2);
+                    }
+                    constants[constantCount] = node.value;
+                    node.index = constantCount++;
+                }
+                emit(CompiledExpression.CONST, node.index);
+                push();
+            } else if (node.opcode == CompiledExpression.LOAD) {
+                emit(CompiledExpression.LOAD, (int) node.value);
+                push();
+            } else {
+                emit(CompiledExpression.LOAD_TEMP, node.index);
+                push();
+            }
+        }
+
+        /**
+         * Records one more value on the stack.
+         */
+        private void push() {
+            depth++;
+            if (depth > maxDepth) {
+                maxDepth = depth;
+            }
+        }
+
+        /**
+         * Appends an opcode and its operand to the program.
+         *
+         * @param opcode  the opcode to append
+         * @param operand the operand to append
+         */
+        private void emit(int opcode, int operand) {
+            emit(opcode);
+            emit(operand);
+        }
+
+        /**
+         * Appends one entry to the program.
+         *
+         * @param value the opcode or operand to append
+         */
+        private void emit(int value) {
+            if (length == code.length) {
+                code = Arrays.copyOf(code, length * 2);
+            }
+            code[length++] = value;
+        }
+
+        /**
+         * Finishes the program.
+         *
+         * @param variables the variable names of the original expression
+         * @return the optimized expression
+         */
+        CompiledExpression build(String[] variables) {
+            return new CompiledExpression(Arrays.copyOf(code, length),
+                    Arrays.copyOf(constants, constantCount), maxDepth, variables, temps);
+        }
+    }
+}
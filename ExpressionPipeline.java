@@ -0,0 +1,745 @@
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+import java.util.function.Consumer;
+
+/**
+ * Evaluates a stream of infix expressions in four stages that run at the
+ * same time: read, convert to postfix, evaluate and sink.
+ * <p>
+ * The stages are connected by {@code BoundedQueue}s. One thread reads
+ * expressions from the source, a configurable number of threads convert them
+ * with {@code InfixConverter}, a configurable number evaluate the postfix
+ * with {@code PostfixEvaluator}, and one thread hands each result to the
+ * sink. Every stage thread has its own converter or evaluator. Threads are
+ * virtual when the JVM supports them and platform threads otherwise.
+ * </p>
+ * <p>
+ * A stage whose output queue is full waits, spinning briefly and then
+ * parking, until the next stage makes room. A slow sink therefore fills the
+ * queues behind it and stops the reader, so memory stays bounded however
+ * large the source is. Expressions that cannot be converted or evaluated
+ * reach the sink with an error instead of a value. With one convert and one
+ * evaluate thread, results reach the sink in source order; otherwise they
+ * may be reordered, and {@link Item#index()} gives each result's position in
+ * the source.
+ * </p>
+ * <p>
+ * While a run is in progress, {@link #processedCount} and
+ * {@link #queueDepth} show how far each stage has got and where work is
+ * piling up; {@link #run} returns the same figures as {@code Stats} at the
+ * end.
+ * </p>
+ *
+ * <p>
+ * Example:
+ * </p>
+ *
+ * <pre>{@code
+ * ExpressionPipeline pipeline = new ExpressionPipeline(2, 2, 1024);
+ * ExpressionPipeline.Stats stats = pipeline.run(Files.lines(path).iterator(),
+ *         item -> out.println(item.index() + ": " + (item.error() == null ? item.value() : item.error())));
+ * System.out.println(stats);
+ * }</pre>
+ */
+public class ExpressionPipeline {
+
+    /**
+     * The stages of the pipeline, in the order items pass through them.
+     */
+    public enum Stage {
+        /**
+         * Takes expressions from the source.
+         */
+        READ,
+        /**
+         * Converts infix expressions to postfix.
+         */
+        CONVERT,
+        /**
+         * Evaluates postfix expressions.
+         */
+        EVALUATE,
+        /**
+         * Hands results to the sink.
+         */
+        SINK
+    }
+
+    /**
+     * Number of times a waiting stage spins before it starts yielding.
+     */
+    private static final int SPINS = 64;
+
+    /**
+     * Number of times a waiting stage yields before it starts parking.
+     */
+    private static final int YIELDS = 64;
+
+    /**
+     * How long a waiting stage parks between checks of its queue.
+     */
+    private static final long PARK_NANOS = 50_000;
+
+    /**
+     * Marks the end of the source in a queue.
+     */
+    private static final Item END = new Item(-1, null);
+
+    /**
+     * Number of converting threads.
+     */
+    private final int convertThreads;
+
+    /**
+     * Number of evaluating threads.
+     */
+    private final int evaluateThreads;
+
+    /**
+     * Capacity of each queue between stages.
+     */
+    private final int queueCapacity;
+
+    /**
+     * The run in progress, or the last one.
+     */
+    private volatile Run current;
+
+    /**
+     * Constructs a pipeline with the given parallelism and queue capacity.
+     *
+     * <p>
+     * Example:
+     * </p>
+     *
+     * <pre>{@code
+     * // conversion is the expensive stage, so give it more threads
+     * ExpressionPipeline pipeline = new ExpressionPipeline(4, 2, 4096);
+     * }</pre>
+     *
+     * @param convertThreads  the number of threads converting to postfix
+     * @param evaluateThreads the number of threads evaluating postfix
+     * @param queueCapacity   the number of items each queue holds, rounded
+     *                        up to a power of two
+     * @throws IllegalArgumentException if a thread count or the capacity is
+     *                                  less than 1
+     */
+    public ExpressionPipeline(int convertThreads, int evaluateThreads, int queueCapacity) {
+        if (convertThreads < 1 || evaluateThreads < 1) {
+            throw new IllegalArgumentException("Each stage needs at least 1 thread: convert " + convertThreads
+                    + ", evaluate " + evaluateThreads);
+        }
+        if (queueCapacity < 1) {
+            throw new IllegalArgumentException("queueCapacity must be at least 1: " + queueCapacity);
+        }
+        this.convertThreads = convertThreads;
+        this.evaluateThreads = evaluateThreads;
+        this.queueCapacity = queueCapacity;
+    }
+
+    /**
+     * Sends every expression from the source through the pipeline and
+     * returns once the sink has received all the results. A second call
+     * made while a run is in progress waits for it to finish.
+     *
+     * <p>
+     * Example:
+     * </p>
+     *
+     * <pre>{@code
+     * int[] results = new int[expressions.size()];
+     * pipeline.run(expressions.iterator(), item -> results[(int) item.index()] = item.value());
+     * }</pre>
+     *
+     * @param source the infix expressions, read by a single thread
+     * @param sink   receives each result, called by a single thread
+     * @return the number of items each stage handled, and queue depths
+     * @throws RuntimeException      whatever the source or the sink threw,
+     *                               after stopping the other stages
+     * @throws IllegalStateException if the calling thread was interrupted
+     */
+    public synchronized Stats run(Iterator<String> source, Consumer<Item> sink) {
+        Run run = new Run(queueCapacity, convertThreads, evaluateThreads);
+        current = run;
+        ExecutorService threads = EvaluationServer.newThreadPerTaskExecutor("expression-pipeline");
+
+        try {
+            List<Future<?>> tasks = new ArrayList<>();
+            tasks.add(threads.submit(() -> guard(run, () -> read(run, source))));
+            for (int i = 0; i < convertThreads; i++) {
+                tasks.add(threads.submit(() -> guard(run, () -> convert(run))));
+            }
+            for (int i = 0; i < evaluateThreads; i++) {
+                tasks.add(threads.submit(() -> guard(run, () -> evaluate(run))));
+            }
+            tasks.add(threads.submit(() -> guard(run, () -> sink(run, sink))));
+
+            await(run, tasks);
+            run.elapsedNanos = System.nanoTime() - run.startNanos;
+            return new Stats(run);
+        } finally {
+            threads.shutdownNow();
+        }
+    }
+
+    /**
+     * Read stage: numbers each expression and queues it for conversion, then
+     * queues one end marker per converting thread.
+     *
+     * @param run    the run
+     * @param source the expressions
+     */
+    private void read(Run run, Iterator<String> source) {
+        long index = 0;
+        while (source.hasNext()) {
+            put(run, run.toConvert, new Item(index++, source.next()));
+            run.processed[Stage.READ.ordinal()].increment();
+        }
+        for (int i = 0; i < convertThreads; i++) {
+            put(run, run.toConvert, END);
+        }
+    }
+
+    /**
+     * Convert stage: converts each expression to postfix. The last
+     * converting thread to finish queues one end marker per evaluating
+     * thread.
+     *
+     * @param run the run
+     */
+    private void convert(Run run) {
+        InfixConverter converter = new InfixConverter(new ArrayBasedStack());
+        LongAdder processed = run.processed[Stage.CONVERT.ordinal()];
+
+        Item item;
+        while ((item = take(run, run.toConvert)) != END) {
+            try {
+                item.postfix = converter.toPostfix(item.expression);
+            } catch (RuntimeException e) {
+                item.error = describe(e);
+                // start the next item from a clean converter, whatever this one left behind
+                converter = new InfixConverter(new ArrayBasedStack());
+            }
+            put(run, run.toEvaluate, item);
+            processed.increment();
+        }
+
+        if (run.converting.decrementAndGet() == 0) {
+            for (int i = 0; i < evaluateThreads; i++) {
+                put(run, run.toEvaluate, END);
+            }
+        }
+    }
+
+    /**
+     * Evaluate stage: evaluates each converted expression. The last
+     * evaluating thread to finish queues the end marker for the sink.
+     *
+     * @param run the run
+     */
+    private void evaluate(Run run) {
+        PostfixEvaluator evaluator = new PostfixEvaluator(new ArrayBasedStack());
+        LongAdder processed = run.processed[Stage.EVALUATE.ordinal()];
+
+        Item item;
+        while ((item = take(run, run.toEvaluate)) != END) {
+            if (item.error == null) {
+                try {
+                    item.value = evaluator.evaluatePrimitive(item.postfix);
+                } catch (RuntimeException e) {
+                    item.error = describe(e);
+                }
+            }
+            put(run, run.toSink, item);
+            processed.increment();
+        }
+
+        if (run.evaluating.decrementAndGet() == 0) {
+            put(run, run.toSink, END);
+        }
+    }
+
+    /**
+     * Sink stage: hands each result to the sink.
+     *
+     * @param run  the run
+     * @param sink the sink
+     */
+    private void sink(Run run, Consumer<Item> sink) {
+        LongAdder processed = run.processed[Stage.SINK.ordinal()];
+        Item item;
+        while ((item = take(run, run.toSink)) != END) {
+            sink.accept(item);
+            processed.increment();
+        }
+    }
+
+    /**
+     * Runs a stage, and if it fails, tells the other stages to stop so none
+     * of them waits forever on a queue the failed stage no longer serves.
+     *
+     * @param run   the run
+     * @param stage the stage's work
+     */
+    private static void guard(Run run, Runnable stage) {
+        try {
+            stage.run();
+        } catch (RuntimeException | Error e) {
+            run.failed = true;
+            throw e;
+        }
+    }
+
+    /**
+     * Adds an item to a queue, waiting while the queue is full.
+     *
+     * @param run   the run
+     * @param queue the queue
+     * @param item  the item
+     * @throws CancellationException if another stage failed meanwhile
+     */
+    private static void put(Run run, BoundedQueue<Item> queue, Item item) {
+        for (int attempt = 0; !queue.offer(item); attempt++) {
+            idle(run, attempt);
+        }
+        run.recordDepth(queue);
+    }
+
+    /**
+     * Removes an item from a queue, waiting while the queue is empty.
+     *
+     * @param run   the run
+     * @param queue the queue
+     * @return the item
+     * @throws CancellationException if another stage failed meanwhile
+     */
+    private static Item take(Run run, BoundedQueue<Item> queue) {
+        Item item;
+        for (int attempt = 0; (item = queue.poll()) == null; attempt++) {
+            idle(run, attempt);
+        }
+        return item;
+    }
+
+    /**
+     * Waits a little before a stage checks its queue again: spinning at
+     * first, then yielding, then parking, so a short wait costs no system
+     * call and a long one costs no CPU.
+     *
+     * @param run     the run
+     * @param attempt how many times the stage has already waited
+     * @throws CancellationException if another stage failed
+     */
+    private static void idle(Run run, int attempt) {
+        if (run.failed) {
+            throw new CancellationException("Pipeline stopped");
+        }
+        if (attempt < SPINS) {
+            Thread.onSpinWait();
+        } else if (attempt < SPINS + YIELDS) {
+            Thread.yield();
+        } else {
+            LockSupport.parkNanos(PARK_NANOS);
+        }
+    }
+
+    /**
+     * Waits for every stage to finish. When one fails, the others are
+     * stopped and its exception is rethrown.
+     *
+     * @param run   the run
+     * @param tasks the stage tasks
+     */
+    private static void await(Run run, List<Future<?>> tasks) {
+        RuntimeException failure = null;
+        for (Future<?> task : tasks) {
+            try {
+                task.get();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                run.failed = true;
+                throw new IllegalStateException("Interrupted while running pipeline", e);
+            } catch (ExecutionException e) {
+                run.failed = true;
+                Throwable cause = e.getCause();
+                // stages stopped because of another failure are not the cause
+                if (failure == null && !(cause instanceof CancellationException)) {
+                    failure = cause instanceof RuntimeException
+                            ? (RuntimeException) cause
+                            : new IllegalStateException(cause);
+                }
+            }
+        }
+        if (failure != null) {
+            throw failure;
+        }
+    }
+
+    /**
+     * Returns the error text for an expression that could not be converted
+     * or evaluated.
+     *
+     * @param e the exception
+     * @return its message, or its type if it has none
+     */
+    private static String describe(RuntimeException e) {
+        return e.getMessage() != null ? e.getMessage() : e.getClass().getSimpleName();
+    }
+
+    /**
+     * Returns the number of items a stage has finished in the current or
+     * last run.
+     *
+     * <p>
+     * Example:
+     * </p>
+     *
+     * <pre>{@code
+     * long converted = pipeline.processedCount(ExpressionPipeline.Stage.CONVERT);
+     * }</pre>
+     *
+     * @param stage the stage
+     * @return the number of items, or 0 before the first run
+     */
+    public long processedCount(Stage stage) {
+        Run run = current;
+        return run == null ? 0 : run.processed[stage.ordinal()].sum();
+    }
+
+    /**
+     * Returns the number of items waiting in front of a stage in the current
+     * run. A deep queue in front of a stage means that stage is the
+     * bottleneck.
+     *
+     * @param stage the stage
+     * @return the number of waiting items, always 0 for {@code READ}
+     */
+    public int queueDepth(Stage stage) {
+        Run run = current;
+        BoundedQueue<Item> queue = run == null ? null : run.queueBefore(stage);
+        return queue == null ? 0 : queue.size();
+    }
+
+    /**
+     * One expression on its way through the pipeline, and its result once it
+     * reaches the sink.
+     */
+    public static final class Item {
+
+        /**
+         * Position of the expression in the source.
+         */
+        private final long index;
+
+        /**
+         * The infix expression.
+         */
+        private final String expression;
+
+        /**
+         * The postfix form, set by the convert stage.
+         */
+        private String postfix;
+
+        /**
+         * The value, set by the evaluate stage.
+         */
+        private int value;
+
+        /**
+         * Why the expression could not be converted or evaluated, or
+         * {@code null}.
+         */
+        private String error;
+
+        /**
+         * Creates an item for an expression read from the source.
+         *
+         * @param index      the position in the source
+         * @param expression the infix expression
+         */
+        Item(long index, String expression) {
+            this.index = index;
+            this.expression = expression;
+        }
+
+        /**
+         * Returns the position of the expression in the source, from 0.
+         *
+         * @return the index
+         */
+        public long index() {
+            return index;
+        }
+
+        /**
+         * Returns the infix expression.
+         *
+         * @return the expression
+         */
+        public String expression() {
+            return expression;
+        }
+
+        /**
+         * Returns the postfix form of the expression.
+         *
+         * @return the postfix expression, or {@code null} if it could not be
+         *         converted
+         */
+        public String postfix() {
+            return postfix;
+        }
+
+        /**
+         * Returns the value of the expression. Only meaningful when
+         * {@link #error()} is {@code null}.
+         *
+         * @return the value
+         */
+        public int value() {
+            return value;
+        }
+
+        /**
+         * Returns why the expression could not be converted or evaluated.
+         *
+         * @return the error message, or {@code null} if it was evaluated
+         */
+        public String error() {
+            return error;
+        }
+    }
+
+    /**
+     * Figures for a finished run.
+     */
+    public static final class Stats {
+
+        /**
+         * Items finished by each stage.
+         */
+        private final long[] processed;
+
+        /**
+         * Deepest each stage's input queue got.
+         */
+        private final int[] peakDepth;
+
+        /**
+         * Duration of the run in nanoseconds.
+         */
+        private final long elapsedNanos;
+
+        /**
+         * Copies the figures of a finished run.
+         *
+         * @param run the run
+         */
+        Stats(Run run) {
+            Stage[] stages = Stage.values();
+            processed = new long[stages.length];
+            peakDepth = new int[stages.length];
+            for (Stage stage : stages) {
+                processed[stage.ordinal()] = run.processed[stage.ordinal()].sum();
+                BoundedQueue<Item> queue = run.queueBefore(stage);
+                peakDepth[stage.ordinal()] = queue == null ? 0 : run.peakDepth(queue);
+            }
+            elapsedNanos = run.elapsedNanos;
+        }
+
+        /**
+         * Returns the number of items a stage finished.
+         *
+         * @param stage the stage
+         * @return the number of items
+         */
+        public long processed(Stage stage) {
+            return processed[stage.ordinal()];
+        }
+
+        /**
+         * Returns the number of items a stage finished per second, averaged
+         * over the whole run.
+         *
+         * @param stage the stage
+         * @return the throughput
+         */
+        public double throughput(Stage stage) {
+            return elapsedNanos == 0 ? 0 : processed[stage.ordinal()] * 1e9 / elapsedNanos;
+        }
+
+        /**
+         * Returns the most items that were waiting in front of a stage at
+         * once. A queue that was often full points at a slow stage after it.
+         *
+         * @param stage the stage
+         * @return the peak queue depth, always 0 for {@code READ}
+         */
+        public int peakQueueDepth(Stage stage) {
+            return peakDepth[stage.ordinal()];
+        }
+
+        /**
+         * Returns the duration of the run.
+         *
+         * @return the elapsed time in nanoseconds
+         */
+        public long elapsedNanos() {
+            return elapsedNanos;
+        }
+
+        /**
+         * Returns one line per stage with its count, throughput and peak
+         * queue depth.
+         *
+         * @return the figures
+         */
+        @Override
+        public String toString() {
+            StringBuilder text = new StringBuilder();
+            for (Stage stage : Stage.values()) {
+                text.append(String.format("%-8s %10d items %12.0f items/s  peak queue %d%n", stage,
+                        processed(stage), throughput(stage), peakQueueDepth(stage)));
+            }
+            return text.toString();
+        }
+    }
+
+    /**
+     * The queues and counters of one run.
+     */
+    private static final class Run {
+
+        /**
+         * Expressions waiting to be converted.
+         */
+        final BoundedQueue<Item> toConvert;
+
+        /**
+         * Expressions waiting to be evaluated.
+         */
+        final BoundedQueue<Item> toEvaluate;
+
+        /**
+         * Results waiting for the sink.
+         */
+        final BoundedQueue<Item> toSink;
+
+        /**
+         * Deepest each queue got, in the order of the queues above.
+         */
+        final AtomicInteger[] peaks = {new AtomicInteger(), new AtomicInteger(), new AtomicInteger()};
+
+        /**
+         * Items finished by each stage.
+         */
+        final LongAdder[] processed = new LongAdder[Stage.values().length];
+
+        /**
+         * Number of converting threads still running.
+         */
+        final AtomicInteger converting;
+
+        /**
+         * Number of evaluating threads still running.
+         */
+        final AtomicInteger evaluating;
+
+        /**
+         * When the run started.
+         */
+        final long startNanos = System.nanoTime();
+
+        /**
+         * Duration of the run, set when it ends.
+         */
+        long elapsedNanos;
+
+        /**
+         * Set when a stage fails, to stop the others.
+         */
+        volatile boolean failed;
+
+        /**
+         * Creates the queues and counters for a run.
+         *
+         * @param capacity   the capacity of each queue
+         * @param converters the number of converting threads
+         * @param evaluators the number of evaluating threads
+         */
+        Run(int capacity, int converters, int evaluators) {
+            toConvert = new BoundedQueue<>(capacity);
+            toEvaluate = new BoundedQueue<>(capacity);
+            toSink = new BoundedQueue<>(capacity);
+            for (int i = 0; i < processed.length; i++) {
+                processed[i] = new LongAdder();
+            }
+            converting = new AtomicInteger(converters);
+            evaluating = new AtomicInteger(evaluators);
+        }
+
+        /**
+         * Returns the queue a stage takes its items from.
+         *
+         * @param stage the stage
+         * @return the queue, or {@code null} for {@code READ}
+         */
+        BoundedQueue<Item> queueBefore(Stage stage) {
+            switch (stage) {
+                case CONVERT:
+                    return toConvert;
+                case EVALUATE:
+                    return toEvaluate;
+                case SINK:
+                    return toSink;
+                default:
+                    return null;
+            }
+        }
+
+        /**
+         * Returns the peak counter of a queue.
+         *
+         * @param queue one of the run's queues
+         * @return its peak counter
+         */
+        private AtomicInteger peakOf(BoundedQueue<Item> queue) {
+            return queue == toConvert ? peaks[0] : queue == toEvaluate ? peaks[1] : peaks[2];
+        }
+
+        /**
+         * Notes the depth of a queue after an item was added. The counter
+         * is only written when the depth is a new peak, so this is usually
+         * just two reads.
+         *
+         * @param queue one of the run's queues
+         */
+        void recordDepth(BoundedQueue<Item> queue) {
+            AtomicInteger peak = peakOf(queue);
+            int depth = queue.size();
+            int seen;
+            while (depth > (seen = peak.get()) && !peak.compareAndSet(seen, depth)) {
+                // another producer raised the peak; check again
+            }
+        }
+
+        /**
+         * Returns the deepest a queue got.
+         *
+         * @param queue one of the run's queues
+         * @return the peak depth
+         */
+        int peakDepth(BoundedQueue<Item> queue) {
+            return peakOf(queue).get();
+        }
+    }
+}
@@ -0,0 +1,581 @@
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.CRC32C;
+
+/**
+ * Keeps compiled expressions in a file, so a restarted process can reuse
+ * them instead of parsing its whole expression corpus again.
+ * <p>
+ * The file is an append-only log. It starts with a magic number and a format
+ * version, followed by records. Each record holds an expression's source
+ * text and, for a store, its compiled form in the {@code PostfixEncoder}
+ * format, or marks the expression as removed (a tombstone). Every record is
+ * prefixed with its length and a CRC32C checksum of its contents.
+ * </p>
+ * <p>
+ * Opening a store memory-maps the file and scans the records once to build
+ * an index from source text to the position of the compiled form. Checking
+ * a record's checksum reads all of its bytes, but only the source text is
+ * decoded; compiled forms are decoded straight from the mapped bytes when
+ * they are asked for, which is much cheaper than compiling them. The scan stops at the first record that is
+ * cut short or fails its checksum, as happens when the process dies in the
+ * middle of an append, and the file is truncated there.
+ * </p>
+ * <p>
+ * Replaced and removed expressions leave dead records behind.
+ * {@link #compact} rewrites the file with only the live records. Appends are
+ * not forced to disk one by one; call {@link #flush} or {@link #close} to
+ * make them durable. A store must not be opened by more than one process at
+ * a time, and the file can be at most 2 GB. All methods are safe to call from
+ * several threads at once.
+ * </p>
+ *
+ * <p>
+ * Example:
+ * </p>
+ *
+ * <pre>{@code
+ * try (ExpressionStore store = new ExpressionStore(Paths.get("expressions.store"))) {
+ *     ExpressionCache cache = new ExpressionCache(4096, store); // warm from the last run
+ *     cache.evaluate("( 4 + 5 ) * ( 6 + 7 ) - 8"); // compiled once, ever
+ * }
+ * }</pre>
+ */
+public class ExpressionStore implements AutoCloseable {
+
+    /**
+     * First four bytes of every store file, "EXPS".
+     */
+    private static final int MAGIC = 0x45585053;
+
+    /**
+     * Version of the file format written by this class.
+     */
+    static final int VERSION = 1;
+
+    /**
+     * Size of the file header: the magic number and the version.
+     */
+    private static final int HEADER_SIZE = 8;
+
+    /**
+     * Size of the length and checksum that prefix every record.
+     */
+    private static final int RECORD_HEADER_SIZE = 8;
+
+    /**
+     * Record type that stores an expression.
+     */
+    private static final byte PUT = 1;
+
+    /**
+     * Record type that removes an expression.
+     */
+    private static final byte REMOVE = 2;
+
+    /**
+     * The store file.
+     */
+    private final Path path;
+
+    /**
+     * Location of the live record of each expression, in the order they were
+     * stored.
+     */
+    private final LinkedHashMap<String, Location> index = new LinkedHashMap<>();
+
+    /**
+     * The open store file.
+     */
+    private FileChannel channel;
+
+    /**
+     * The mapped file. Records appended since it was mapped lie beyond its
+     * limit until it is mapped again.
+     */
+    private MappedByteBuffer mapped;
+
+    /**
+     * Size of the file, where the next record is appended.
+     */
+    private long end;
+
+    /**
+     * Total size of the live records.
+     */
+    private long liveBytes;
+
+    /**
+     * Opens the store in the given file, creating it if it does not exist.
+     *
+     * <p>
+     * Example:
+     * </p>
+     *
+     * <pre>{@code
+     * ExpressionStore store = new ExpressionStore(Paths.get("expressions.store"));
+     * }</pre>
+     *
+     * @param path the store file
+     * @throws IOException if the file cannot be read or written, is not a
+     *                     store file or was written by an unsupported
+     *                     version
+     */
+    public ExpressionStore(Path path) throws IOException {
+        this.path = path;
+        this.channel = FileChannel.open(path, StandardOpenOption.READ, StandardOpenOption.WRITE,
+                StandardOpenOption.CREATE);
+        try {
+            load();
+        } catch (IOException | RuntimeException e) {
+            channel.close();
+            throw e;
+        }
+    }
+
+    /**
+     * Maps the file and rebuilds the index from its records, or writes the
+     * header if the file is new.
+     *
+     * @throws IOException if the file cannot be read or written or has a bad
+     *                     header
+     */
+    private void load() throws IOException {
+        long size = channel.size();
+        if (size > Integer.MAX_VALUE) {
+            throw new IOException("Expression store larger than 2 GB: " + path);
+        }
+
+        if (size == 0) {
+            ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE).putInt(MAGIC).putInt(VERSION).flip();
+            while (header.hasRemaining()) {
+                channel.write(header, header.position());
+            }
+            size = HEADER_SIZE;
+        }
+
+        mapped = channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+        if (size < HEADER_SIZE || mapped.getInt(0) != MAGIC) {
+            throw new IOException("Not an expression store: " + path);
+        }
+        if (mapped.getInt(4) != VERSION) {
+            throw new IOException("Unsupported expression store version " + mapped.getInt(4) + ": " + path);
+        }
+
+        int position = HEADER_SIZE;
+        int length;
+        while ((length = validRecordLength(position)) >= 0) {
+            apply(position, length);
+            position += RECORD_HEADER_SIZE + length;
+        }
+
+        end = position;
+        if (end < size) {
+            // drop a torn or corrupt tail so new records follow valid ones
+            channel.truncate(end);
+            mapped = channel.map(FileChannel.MapMode.READ_ONLY, 0, end);
+        }
+    }
+
+    /**
+     * Returns the length of the record at {@code position} if it is complete
+     * and its checksum matches.
+     *
+     * @param position where the record starts in the mapped file
+     * @return the length of the record's contents, or -1 if there is no
+     *         valid record there
+     */
+    private int validRecordLength(int position) {
+        int limit = mapped.limit();
+        if (limit - position < RECORD_HEADER_SIZE) {
+            return -1;
+        }
+        int length = mapped.getInt(position);
+        int contents = position + RECORD_HEADER_SIZE;
+        // the smallest record is a type and a key length
+        if (length < 5 || length > limit - contents) {
+            return -1;
+        }
+        return checksum(mapped, contents, length) == mapped.getInt(position + 4) ? length : -1;
+    }
+
+    /**
+     * Applies a valid record to the index.
+     *
+     * @param position where the record starts in the mapped file
+     * @param length   the length of the record's contents
+     */
+    private void apply(int position, int length) {
+        int contents = position + RECORD_HEADER_SIZE;
+        byte type = mapped.get(contents);
+        int keyLength = mapped.getInt(contents + 1);
+        byte[] key = new byte[Math.max(0, Math.min(keyLength, length - 5))];
+        mapped.get(contents + 5, key);
+        String source = new String(key, StandardCharsets.UTF_8);
+
+        unlink(source);
+        if (type == PUT) {
+            link(source, new Location(position, RECORD_HEADER_SIZE + length, contents + 5 + key.length));
+        }
+    }
+
+    /**
+     * Returns the compiled form of an expression, or {@code null} if the
+     * store does not have it.
+     *
+     * <p>
+     * Example:
+     * </p>
+     *
+     * <pre>{@code
+     * CompiledExpression expr = store.get("10 * ( 2 + 3 )");
+     * }</pre>
+     *
+     * @param source the infix expression
+     * @return the compiled expression, or {@code null}
+     * @throws UncheckedIOException if newly appended records cannot
+     *                                      be mapped
+     */
+    public synchronized CompiledExpression get(String source) {
+        Location location = index.get(source);
+        if (location == null) {
+            return null;
+        }
+        ByteBuffer view = mapping(location).duplicate();
+        view.position(location.expression);
+        return PostfixDecoder.decode(view);
+    }
+
+    /**
+     * Returns {@code true} if the store has the given expression.
+     *
+     * @param source the infix expression
+     * @return whether the expression is stored
+     */
+    public synchronized boolean contains(String source) {
+        return index.containsKey(source);
+    }
+
+    /**
+     * Stores the compiled form of an expression, replacing any earlier one.
+     *
+     * <p>
+     * Example:
+     * </p>
+     *
+     * <pre>{@code
+     * store.put("a * 2", CompiledExpression.compile("a * 2"));
+     * }</pre>
+     *
+     * @param source   the infix expression
+     * @param compiled its compiled form
+     * @throws IOException if the record cannot be appended
+     */
+    public synchronized void put(String source, CompiledExpression compiled) throws IOException {
+        byte[] encoded = PostfixEncoder.encode(compiled);
+        Location location = append(PUT, source, encoded);
+        unlink(source);
+        link(source, location);
+    }
+
+    /**
+     * Removes an expression by appending a tombstone. Nothing is written if
+     * the expression is not stored.
+     *
+     * @param source the infix expression
+     * @return {@code true} if the expression was stored
+     * @throws IOException if the record cannot be appended
+     */
+    public synchronized boolean remove(String source) throws IOException {
+        if (!index.containsKey(source)) {
+            return false;
+        }
+        append(REMOVE, source, new byte[0]);
+        unlink(source);
+        return true;
+    }
+
+    /**
+     * Appends a record to the file.
+     *
+     * @param type       the record type
+     * @param source     the expression's source text
+     * @param expression the encoded expression, empty for a tombstone
+     * @return where the record was written
+     * @throws IOException if the record cannot be written
+     */
+    private Location append(byte type, String source, byte[] expression) throws IOException {
+        byte[] key = source.getBytes(StandardCharsets.UTF_8);
+        int length = 5 + key.length + expression.length;
+        if (end + RECORD_HEADER_SIZE + length > Integer.MAX_VALUE) {
+            throw new IOException("Expression store full: " + path);
+        }
+
+        ByteBuffer record = ByteBuffer.allocate(RECORD_HEADER_SIZE + length);
+        record.putInt(length).putInt(0).put(type).putInt(key.length).put(key).put(expression);
+        record.putInt(4, checksum(record, RECORD_HEADER_SIZE, length));
+        record.flip();
+
+        int position = (int) end;
+        while (record.hasRemaining()) {
+            channel.write(record, position + record.position());
+        }
+        end += record.limit();
+        return new Location(position, record.limit(), position + RECORD_HEADER_SIZE + 5 + key.length);
+    }
+
+    /**
+     * Puts the most recently stored expressions into a cache, as many as it
+     * holds.
+     *
+     * <p>
+     * Example:
+     * </p>
+     *
+     * <pre>{@code
+     * int warmed = store.warm(new ExpressionCache(4096));
+     * }</pre>
+     *
+     * @param cache the cache to fill
+     * @return the number of expressions put into the cache
+     * @throws UncheckedIOException if newly appended records cannot
+     *                                      be mapped
+     */
+    public int warm(ExpressionCache cache) {
+        List<String> sources;
+        synchronized (this) {
+            sources = new ArrayList<>(index.keySet());
+        }
+
+        int count = 0;
+        for (int i = Math.max(0, sources.size() - cache.maximumSize()); i < sources.size(); i++) {
+            CompiledExpression compiled = get(sources.get(i));
+            if (compiled != null) {
+                cache.put(sources.get(i), compiled);
+                count++;
+            }
+        }
+        return count;
+    }
+
+    /**
+     * Rewrites the file with only the live records, dropping replaced and
+     * removed expressions. The new file is written next to the old one,
+     * opened and mapped, and only then moved over it. If anything fails
+     * before the move, the new file is deleted and the store keeps using
+     * the old one, so neither a crash nor an error during compaction leaves
+     * the store unusable.
+     *
+     * @throws IOException if the file cannot be rewritten
+     */
+    public synchronized void compact() throws IOException {
+        Path compacted = path.resolveSibling(path.getFileName() + ".compact");
+        LinkedHashMap<String, Location> moved = new LinkedHashMap<>();
+        FileChannel replacement = null;
+        MappedByteBuffer remapped;
+
+        try (FileChannel out = FileChannel.open(compacted, StandardOpenOption.WRITE, StandardOpenOption.CREATE,
+                StandardOpenOption.TRUNCATE_EXISTING)) {
+            ByteBuffer source = mapping(null).duplicate();
+            source.limit(HEADER_SIZE).position(0);
+            while (source.hasRemaining()) {
+                out.write(source);
+            }
+
+            int position = HEADER_SIZE;
+            for (Map.Entry<String, Location> entry : index.entrySet()) {
+                Location location = entry.getValue();
+                source.limit(location.position + location.length).position(location.position);
+                while (source.hasRemaining()) {
+                    out.write(source);
+                }
+                moved.put(entry.getKey(), new Location(position, location.length,
+                        position + location.expression - location.position));
+                position += location.length;
+            }
+            out.force(true);
+        } catch (IOException | RuntimeException e) {
+            Files.deleteIfExists(compacted);
+            throw e;
+        }
+
+        try {
+            // the open channel follows the file when it is renamed
+            replacement = FileChannel.open(compacted, StandardOpenOption.READ, StandardOpenOption.WRITE);
+            remapped = replacement.map(FileChannel.MapMode.READ_ONLY, 0, replacement.size());
+            Files.move(compacted, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException | RuntimeException e) {
+            if (replacement != null) {
+                replacement.close();
+            }
+            Files.deleteIfExists(compacted);
+            throw e;
+        }
+
+        FileChannel old = channel;
+        channel = replacement;
+        end = remapped.limit();
+        mapped = remapped;
+        index.clear();
+        index.putAll(moved);
+        old.close();
+    }
+
+    /**
+     * Returns the mapping that covers a record, mapping the file again if
+     * the record was appended after the current mapping was made.
+     *
+     * @param location the record, or {@code null} for all records
+     * @return a mapping that covers the record
+     * @throws UncheckedIOException if the file cannot be mapped
+     */
+    private MappedByteBuffer mapping(Location location) {
+        long needed = location == null ? end : location.position + location.length;
+        if (needed > mapped.limit()) {
+            try {
+                mapped = channel.map(FileChannel.MapMode.READ_ONLY, 0, end);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+        return mapped;
+    }
+
+    /**
+     * Adds an expression's live record to the index.
+     *
+     * @param source   the infix expression
+     * @param location its record
+     */
+    private void link(String source, Location location) {
+        index.put(source, location);
+        liveBytes += location.length;
+    }
+
+    /**
+     * Removes an expression from the index, if present.
+     *
+     * @param source the infix expression
+     */
+    private void unlink(String source) {
+        Location old = index.remove(source);
+        if (old != null) {
+            liveBytes -= old.length;
+        }
+    }
+
+    /**
+     * Returns the number of expressions stored.
+     *
+     * @return the number of live expressions
+     */
+    public synchronized int size() {
+        return index.size();
+    }
+
+    /**
+     * Returns the size of the file in bytes.
+     *
+     * @return the file size
+     */
+    public synchronized long fileSize() {
+        return end;
+    }
+
+    /**
+     * Returns the number of bytes taken by replaced and removed expressions
+     * and tombstones, which {@link #compact} would reclaim.
+     *
+     * @return the number of dead bytes
+     */
+    public synchronized long garbageBytes() {
+        return end - HEADER_SIZE - liveBytes;
+    }
+
+    /**
+     * Forces every appended record to disk.
+     *
+     * @throws IOException if the file cannot be synced
+     */
+    public synchronized void flush() throws IOException {
+        channel.force(false);
+    }
+
+    /**
+     * Forces every appended record to disk and closes the file.
+     *
+     * @throws IOException if the file cannot be synced or closed
+     */
+    @Override
+    public synchronized void close() throws IOException {
+        if (channel.isOpen()) {
+            try {
+                channel.force(false);
+            } finally {
+                channel.close();
+            }
+        }
+    }
+
+    /**
+     * Computes the CRC32C checksum of a range of bytes.
+     *
+     * @param bytes  the buffer holding the bytes
+     * @param offset index of the first byte
+     * @param length number of bytes
+     * @return the checksum
+     */
+    private static int checksum(ByteBuffer bytes, int offset, int length) {
+        ByteBuffer range = bytes.duplicate();
+        range.limit(offset + length).position(offset);
+        CRC32C crc = new CRC32C();
+        crc.update(range);
+        return (int) crc.getValue();
+    }
+
+    /**
+     * Where a live record lies in the file.
+     */
+    private static final class Location {
+
+        /**
+         * Offset of the record's header.
+         */
+        final int position;
+
+        /**
+         * Size of the whole record, header included.
+         */
+        final int length;
+
+        /**
+         * Offset of the encoded expression within the record.
+         */
+        final int expression;
+
+        /**
+         * Creates a location.
+         *
+         * @param position   offset of the record
+         * @param length     size of the record
+         * @param expression offset of the encoded expression
+         */
+        Location(int position, int length, int expression) {
+            this.position = position;
+            this.length = length;
+            this.expression = expression;
+        }
+    }
+}
@@ -0,0 +1,295 @@
+/**
+ * Checks that an expression is well formed without evaluating it and without
+ * throwing.
+ * <p>
+ * The validator scans the tokens once with a reusable {@code Lexer}, keeping
+ * only whether the next token must be an operand and where each open
+ * parenthesis started. When the input is malformed, {@link #isValid} returns
+ * {@code false} and the reason and position are read from the validator
+ * itself, the same way token details are read from a lexer, so rejecting
+ * an expression creates no objects at all. Evaluators run this pass first so
+ * the evaluation that follows can only fail on arithmetic.
+ * </p>
+ * <p>
+ * A validator is not thread-safe; each thread should use its own.
+ * </p>
+ *
+ * <p>
+ * Example:
+ * </p>
+ *
+ * <pre>{@code
+ * ExpressionValidator validator = new ExpressionValidator();
+ * if (!validator.isValid("( 3 + 4")) {
+ *     validator.error(); // ErrorCode.UNBALANCED_PARENTHESES
+ *     validator.errorPosition(); // 0, the unmatched "("
+ * }
+ * }</pre>
+ */
+public class ExpressionValidator {
+
+    /**
+     * Lexer reused to scan each expression.
+     */
+    private final Lexer lexer;
+
+    /**
+     * Positions of the left parentheses not yet closed.
+     */
+    private final IntStack openParens;
+
+    /**
+     * Why the last expression was rejected, or {@code null}.
+     */
+    private ErrorCode error;
+
+    /**
+     * Where the last expression was rejected, or -1.
+     */
+    private int errorPosition;
+
+    /**
+     * Constructs a validator.
+     *
+     * <p>
+     * Example:
+     * </p>
+     *
+     * <pre>{@code
+     * ExpressionValidator validator = new ExpressionValidator();
+     * }</pre>
+     */
+    public ExpressionValidator() {
+        this.lexer = new Lexer();
+        this.openParens = new IntStack();
+        this.errorPosition = -1;
+    }
+
+    /**
+     * Returns whether an infix expression is well formed: numbers that fit
+     * in an {@code int}, joined by binary operators, with balanced
+     * parentheses.
+     *
+     * <p>
+     * Example:
+     * </p>
+     *
+     * <pre>{@code
+     * validator.isValid("100 * ( 2 + 12 )"); // true
+     * validator.isValid("3 4"); // false, MISSING_OPERATOR at 2
+     * }</pre>
+     *
+     * @param infix the infix expression to check
+     * @return {@code true} if the expression can be evaluated
+     */
+    public boolean isValid(CharSequence infix) {
+        return isValid(infix, 0, infix.length());
+    }
+
+    /**
+     * Returns whether the infix expression made up of the characters of
+     * {@code input} from index {@code start} (inclusive) to {@code end}
+     * (exclusive) is well formed. Error positions are counted from
+     * {@code start}.
+     *
+     * @param input the characters holding the expression
+     * @param start index of the first character of the expression
+     * @param end   index one past the last character of the expression
+     * @return {@code true} if the expression can be evaluated
+     */
+    public boolean isValid(CharSequence input, int start, int end) {
+        long started = ExpressionMetrics.start();
+        try {
+            lexer.reset(input, start, end);
+            openParens.clear();
+
+            boolean expectOperand = true;
+            int lastOperator = -1;
+            int type;
+            while ((type = lexer.next()) != Lexer.END) {
+                int position = lexer.start() - start;
+                if (type == Lexer.NUMBER) {
+                    if (!expectOperand) {
+                        return reject(ErrorCode.MISSING_OPERATOR, position);
+                    }
+                    if (lexer.value() > Integer.MAX_VALUE) {
+                        return reject(ErrorCode.OVERFLOW, position);
+                    }
+                    expectOperand = false;
+                } else if (type == Lexer.LEFT_PAREN) {
+                    if (!expectOperand) {
+                        return reject(ErrorCode.MISSING_OPERATOR, position);
+                    }
+                    openParens.push(position);
+                } else if (type == Lexer.RIGHT_PAREN) {
+                    if (expectOperand) {
+                        return reject(ErrorCode.MISSING_OPERAND, position);
+                    }
+                    if (openParens.isEmpty()) {
+                        return reject(ErrorCode.UNBALANCED_PARENTHESES, position);
+                    }
+                    openParens.pop();
+                } else if (type == Lexer.OPERATOR) {
+                    if (expectOperand) {
+                        return reject(ErrorCode.MISSING_OPERAND, position);
+                    }
+                    lastOperator = position;
+                    expectOperand = true;
+                } else {
+                    return reject(unexpected(input), position);
+                }
+            }
+
+            if (expectOperand) {
+                if (lastOperator < 0 && openParens.isEmpty()) {
+                    return reject(ErrorCode.EMPTY_EXPRESSION, 0);
+                }
+                // blame whichever was opened last: the operator or the "("
+                if (openParens.isEmpty() || lastOperator > openParens.peek()) {
+                    return reject(ErrorCode.MISSING_OPERAND, lastOperator);
+                }
+            }
+            if (!openParens.isEmpty()) {
+                return reject(ErrorCode.UNBALANCED_PARENTHESES, openParens.peek());
+            }
+            return accept();
+        } finally {
+            ExpressionMetrics.stop(ExpressionMetrics.Stage.TOKENIZE, started, end - start);
+        }
+    }
+
+    /**
+     * Returns whether a postfix expression is well formed: every operator
+     * has two operands before it and exactly one value is left at the end.
+     *
+     * <p>
+     * Example:
+     * </p>
+     *
+     * <pre>{@code
+     * validator.isValidPostfix("3 4 + 2 *"); // true
+     * validator.isValidPostfix("3 +"); // false, MISSING_OPERAND at 2
+     * }</pre>
+     *
+     * @param postfix the postfix expression to check
+     * @return {@code true} if the expression can be evaluated
+     */
+    public boolean isValidPostfix(CharSequence postfix) {
+        return isValidPostfix(postfix, 0, postfix.length());
+    }
+
+    /**
+     * Returns whether the postfix expression made up of the characters of
+     * {@code input} from index {@code start} (inclusive) to {@code end}
+     * (exclusive) is well formed. Error positions are counted from
+     * {@code start}.
+     *
+     * @param input the characters holding the expression
+     * @param start index of the first character of the expression
+     * @param end   index one past the last character of the expression
+     * @return {@code true} if the expression can be evaluated
+     */
+    public boolean isValidPostfix(CharSequence input, int start, int end) {
+        long started = ExpressionMetrics.start();
+        try {
+            lexer.reset(input, start, end);
+
+            int depth = 0;
+            int type;
+            while ((type = lexer.next()) != Lexer.END) {
+                int position = lexer.start() - start;
+                if (type == Lexer.NUMBER) {
+                    if (lexer.value() > Integer.MAX_VALUE) {
+                        return reject(ErrorCode.OVERFLOW, position);
+                    }
+                    depth++;
+                } else if (type == Lexer.OPERATOR) {
+                    if (depth < 2) {
+                        return reject(ErrorCode.MISSING_OPERAND, position);
+                    }
+                    depth--;
+                } else {
+                    return reject(unexpected(input), position);
+                }
+            }
+
+            if (depth == 0) {
+                return reject(ErrorCode.EMPTY_EXPRESSION, 0);
+            }
+            if (depth > 1) {
+                return reject(ErrorCode.MISSING_OPERATOR, end - start);
+            }
+            return accept();
+        } finally {
+            ExpressionMetrics.stop(ExpressionMetrics.Stage.TOKENIZE, started, end - start);
+        }
+    }
+
+    /**
+     * Returns why the last expression checked was rejected.
+     *
+     * @return the error, or {@code null} if it was valid
+     */
+    public ErrorCode error() {
+        return error;
+    }
+
+    /**
+     * Returns where in the last expression checked the error was found.
+     *
+     * @return the index of the offending token, or -1 if it was valid
+     */
+    public int errorPosition() {
+        return errorPosition;
+    }
+
+    /**
+     * Returns the error of the last expression checked as a result, so it
+     * can be returned from a {@code tryEvaluate} method.
+     *
+     * @return the failed result
+     * @throws IllegalStateException if the last expression was valid
+     */
+    public EvaluationResult failure() {
+        if (error == null) {
+            throw new IllegalStateException("The last expression was valid");
+        }
+        return EvaluationResult.failure(error, errorPosition);
+    }
+
+    /**
+     * Classifies a token the lexer could not use: a run of digits too long
+     * for a {@code long} is an overflow, anything else unexpected input.
+     *
+     * @param input the characters being scanned
+     * @return the error code
+     */
+    private ErrorCode unexpected(CharSequence input) {
+        char c = input.charAt(lexer.start());
+        return c >= '0' && c <= '9' ? ErrorCode.OVERFLOW : ErrorCode.UNEXPECTED_INPUT;
+    }
+
+    /**
+     * Records an error.
+     *
+     * @param code     why the expression was rejected
+     * @param position where the error was found
+     * @return {@code false}
+     */
+    private boolean reject(ErrorCode code, int position) {
+        error = code;
+        errorPosition = position;
+        return false;
+    }
+
+    /**
+     * Clears the last error.
+     *
+     * @return {@code true}
+     */
+    private boolean accept() {
+        error = null;
+        errorPosition = -1;
+        return true;
+    }
+}
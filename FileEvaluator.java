@@ -0,0 +1,490 @@
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Evaluates a file of postfix expressions, one per line, and writes one
+ * result per line to an output file. Files of infix expressions can be
+ * evaluated too, by choosing {@link Notation#INFIX}.
+ * <p>
+ * The input is memory-mapped with {@code FileChannel.map} and split at line
+ * boundaries into chunks that are evaluated in parallel. Expressions are
+ * tokenized straight from the mapped bytes, so no String is created per line.
+ * Postfix lines are evaluated by {@code PostfixEvaluator.tryEvaluate} and
+ * infix lines by {@code InfixEvaluator.tryEvaluate}, one evaluator per
+ * worker thread.
+ * Each chunk's results are formatted into a byte buffer and written to the
+ * output channel in input order. A line that cannot be evaluated, because it
+ * is malformed, divides by zero or overflows an {@code int}, produces the
+ * line {@code ERROR} without throwing, and a blank line produces a blank
+ * line, so output line {@code n} always belongs to input line {@code n}.
+ * Input is read as ASCII.
+ * </p>
+ *
+ * <p>
+ * Example:
+ * </p>
+ *
+ * <pre>{@code
+ * FileEvaluator files = new FileEvaluator(8);
+ * long lines = files.evaluate(Paths.get("in.txt"), Paths.get("out.txt"));
+ * }</pre>
+ *
+ * <p>
+ * From the command line:
+ * </p>
+ *
+ * <pre>{@code
+ * java FileEvaluator in.txt out.txt [threads] [--infix]
+ * }</pre>
+ */
+public class FileEvaluator {
+
+    /**
+     * Default number of input bytes evaluated by one task.
+     */
+    private static final int DEFAULT_CHUNK_SIZE = 8 * 1024 * 1024;
+
+    /**
+     * Text written for a line that cannot be evaluated.
+     */
+    private static final byte[] ERROR = {'E', 'R', 'R', 'O', 'R'};
+
+    /**
+     * How the expressions in an input file are written.
+     */
+    public enum Notation {
+
+        /**
+         * Postfix, such as {@code 3 4 + 2 *}, the default.
+         */
+        POSTFIX,
+
+        /**
+         * Infix, such as {@code ( 3 + 4 ) * 2}.
+         */
+        INFIX
+    }
+
+    /**
+     * Evaluates one line of a chunk in place.
+     */
+    private interface LineEvaluator {
+
+        /**
+         * Evaluates the expression between two indexes.
+         *
+         * @param input the characters holding the expression
+         * @param start index of the first character of the expression
+         * @param end   index one past the last character of the expression
+         * @return the value, or the error and its position
+         */
+        EvaluationResult tryEvaluate(CharSequence input, int start, int end);
+    }
+
+    /**
+     * Number of worker threads.
+     */
+    private final int threads;
+
+    /**
+     * Target number of input bytes per chunk. Chunks are extended to the
+     * next line break.
+     */
+    private final int chunkSize;
+
+    /**
+     * How the input expressions are written.
+     */
+    private final Notation notation;
+
+    /**
+     * Constructs a postfix file evaluator that uses the given number of
+     * worker threads.
+     *
+     * <p>
+     * Example:
+     * </p>
+     *
+     * <pre>{@code
+     * FileEvaluator files = new FileEvaluator(Runtime.getRuntime().availableProcessors());
+     * }</pre>
+     *
+     * @param threads the number of worker threads
+     * @throws IllegalArgumentException if {@code threads < 1}
+     */
+    public FileEvaluator(int threads) {
+        this(threads, DEFAULT_CHUNK_SIZE);
+    }
+
+    /**
+     * Constructs a postfix file evaluator with the given number of worker
+     * threads and target chunk size.
+     *
+     * @param threads   the number of worker threads
+     * @param chunkSize the target number of input bytes per chunk
+     * @throws IllegalArgumentException if {@code threads < 1} or
+     *                                  {@code chunkSize < 1}
+     */
+    public FileEvaluator(int threads, int chunkSize) {
+        this(threads, chunkSize, Notation.POSTFIX);
+    }
+
+    /**
+     * Constructs a file evaluator for expressions in the given notation.
+     *
+     * <p>
+     * Example:
+     * </p>
+     *
+     * <pre>{@code
+     * FileEvaluator infix = new FileEvaluator(8, 8 << 20, FileEvaluator.Notation.INFIX);
+     * }</pre>
+     *
+     * @param threads   the number of worker threads
+     * @param chunkSize the target number of input bytes per chunk
+     * @param notation  how the input expressions are written
+     * @throws IllegalArgumentException if {@code threads < 1},
+     *                                  {@code chunkSize < 1} or
+     *                                  {@code notation} is {@code null}
+     */
+    public FileEvaluator(int threads, int chunkSize, Notation notation) {
+        if (notation == null) {
+            throw new IllegalArgumentException("notation must not be null");
+        }
+        if (threads < 1) {
+            throw new IllegalArgumentException("threads must be at least 1: " + threads);
+        }
+        if (chunkSize < 1) {
+            throw new IllegalArgumentException("chunkSize must be at least 1: " + chunkSize);
+        }
+        this.threads = threads;
+        this.chunkSize = chunkSize;
+        this.notation = notation;
+    }
+
+    /**
+     * Evaluates every line of {@code input} and writes the results to
+     * {@code output}, replacing it if it exists.
+     *
+     * <p>
+     * Example:
+     * </p>
+     *
+     * <pre>{@code
+     * long lines = files.evaluate(Paths.get("in.txt"), Paths.get("out.txt"));
+     * }</pre>
+     *
+     * @param input  the file of expressions, one per line
+     * @param output the file to write the results to
+     * @return the number of lines evaluated
+     * @throws IOException if a file cannot be read or written
+     */
+    public long evaluate(Path input, Path output) throws IOException {
+        ExecutorService pool = Executors.newFixedThreadPool(threads);
+        ThreadLocal<LineEvaluator> evaluators = ThreadLocal.withInitial(() -> notation == Notation.POSTFIX
+                ? new PostfixEvaluator(new ArrayBasedStack())::tryEvaluate
+                : new InfixEvaluator()::tryEvaluate);
+
+        try (FileChannel in = FileChannel.open(input, StandardOpenOption.READ);
+                FileChannel out = FileChannel.open(output, StandardOpenOption.WRITE,
+                        StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            long size = in.size();
+            long lines = 0;
+            // keep a bounded number of chunks in flight so memory stays flat
+            ArrayDeque<Future<Chunk>> pending = new ArrayDeque<>();
+            long start = 0;
+
+            while (start < size || !pending.isEmpty()) {
+                while (start < size && pending.size() < threads * 2) {
+                    long end = nextLineBreak(in, Math.min(size, start + chunkSize), size);
+                    MappedByteBuffer mapped = in.map(FileChannel.MapMode.READ_ONLY, start, end - start);
+                    pending.add(pool.submit(() -> evaluateChunk(mapped, evaluators.get())));
+                    start = end;
+                }
+
+                Chunk done = await(pending.remove());
+                lines += done.lines;
+                ByteBuffer results = done.results;
+                while (results.hasRemaining()) {
+                    out.write(results);
+                }
+            }
+
+            return lines;
+        } finally {
+            pool.shutdownNow();
+        }
+    }
+
+    /**
+     * Returns the position just after the first line break at or after
+     * {@code position}, or {@code size} if there is none.
+     *
+     * @param in       the input channel
+     * @param position where to start looking
+     * @param size     the size of the input
+     * @return the end of the chunk that contains {@code position}
+     * @throws IOException if the input cannot be read
+     */
+    private static long nextLineBreak(FileChannel in, long position, long size) throws IOException {
+        ByteBuffer window = ByteBuffer.allocate(4096);
+
+        while (position < size) {
+            window.clear();
+            int read = in.read(window, position);
+            if (read <= 0) {
+                break;
+            }
+            for (int i = 0; i < read; i++) {
+                if (window.get(i) == '\n') {
+                    return position + i + 1;
+                }
+            }
+            position += read;
+        }
+
+        return size;
+    }
+
+    /**
+     * Evaluates every line of one chunk and formats the results.
+     *
+     * @param mapped    the mapped bytes of the chunk, ending at a line break
+     *                  or at the end of the file
+     * @param evaluator the calling worker's evaluator
+     * @return the formatted results and the number of lines
+     */
+    private static Chunk evaluateChunk(MappedByteBuffer mapped, LineEvaluator evaluator) {
+        ByteSequence text = new ByteSequence(mapped);
+        int limit = mapped.limit();
+        ByteBuffer results = ByteBuffer.allocate(Math.max(64, limit / 2));
+        long lines = 0;
+        int lineStart = 0;
+
+        while (lineStart < limit) {
+            int lineEnd = lineStart;
+            while (lineEnd < limit && mapped.get(lineEnd) != '\n') {
+                lineEnd++;
+            }
+
+            results = ensureRoom(results, 16);
+            if (!isBlank(mapped, lineStart, lineEnd)) {
+                EvaluationResult result = evaluator.tryEvaluate(text, lineStart, lineEnd);
+                if (result.isSuccess()) {
+                    writeInt(results, result.value());
+                } else {
+                    results.put(ERROR);
+                }
+            }
+            results.put((byte) '\n');
+
+            lines++;
+            lineStart = lineEnd + 1;
+        }
+
+        results.flip();
+        return new Chunk(results, lines);
+    }
+
+    /**
+     * Returns {@code true} if the bytes from {@code start} to {@code end} are
+     * all whitespace.
+     *
+     * @param bytes the buffer to check
+     * @param start index of the first byte
+     * @param end   index one past the last byte
+     * @return whether the range is blank
+     */
+    private static boolean isBlank(ByteBuffer bytes, int start, int end) {
+        for (int i = start; i < end; i++) {
+            if (!Character.isWhitespace((char) (bytes.get(i) & 0xFF))) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Returns a buffer with room for at least {@code needed} more bytes,
+     * growing (and copying) {@code buffer} if it is too small.
+     *
+     * @param buffer the buffer being filled
+     * @param needed the number of bytes about to be written
+     * @return a buffer with enough room
+     */
+    private static ByteBuffer ensureRoom(ByteBuffer buffer, int needed) {
+        if (buffer.remaining() >= needed) {
+            return buffer;
+        }
+        ByteBuffer bigger = ByteBuffer.allocate(Math.max(buffer.capacity() * 2, buffer.position() + needed));
+        buffer.flip();
+        bigger.put(buffer);
+        return bigger;
+    }
+
+    /**
+     * Writes the decimal digits of {@code value} without creating a String.
+     *
+     * @param out   the buffer to write to, with room for at least 11 bytes
+     * @param value the value to write
+     */
+    private static void writeInt(ByteBuffer out, int value) {
+        long v = value;
+        if (v < 0) {
+            out.put((byte) '-');
+            v = -v;
+        }
+
+        int digits = 1;
+        for (long p = 10; p <= v; p *= 10) {
+            digits++;
+        }
+
+        int end = out.position() + digits;
+        for (int i = end - 1; i >= out.position(); i--) {
+            out.put(i, (byte) ('0' + v % 10));
+            v /= 10;
+        }
+        out.position(end);
+    }
+
+    /**
+     * Waits for a chunk to finish and rethrows anything it threw.
+     *
+     * @param task the chunk's task
+     * @return the finished chunk
+     * @throws IOException if the chunk failed with an I/O error
+     */
+    private static Chunk await(Future<Chunk> task) throws IOException {
+        try {
+            return task.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while evaluating file", e);
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            }
+            if (cause instanceof Error) {
+                throw (Error) cause;
+            }
+            throw new IOException(cause);
+        }
+    }
+
+    /**
+     * The formatted results of one chunk.
+     */
+    private static final class Chunk {
+
+        /**
+         * The results, one line per input line, ready to be written.
+         */
+        final ByteBuffer results;
+
+        /**
+         * The number of input lines in the chunk.
+         */
+        final long lines;
+
+        /**
+         * Creates a finished chunk.
+         *
+         * @param results the formatted results
+         * @param lines   the number of input lines
+         */
+        Chunk(ByteBuffer results, long lines) {
+            this.results = results;
+            this.lines = lines;
+        }
+    }
+
+    /**
+     * Presents the bytes of a buffer as characters, one byte per character,
+     * so the {@code Lexer} can scan them in place.
+     */
+    private static final class ByteSequence implements CharSequence {
+
+        /**
+         * The bytes being presented.
+         */
+        private final ByteBuffer bytes;
+
+        /**
+         * Wraps a buffer. Indexes are absolute positions in the buffer.
+         *
+         * @param bytes the bytes to present
+         */
+        ByteSequence(ByteBuffer bytes) {
+            this.bytes = bytes;
+        }
+
+        @Override
+        public int length() {
+            return bytes.limit();
+        }
+
+        @Override
+        public char charAt(int index) {
+            return (char) (bytes.get(index) & 0xFF);
+        }
+
+        @Override
+        public CharSequence subSequence(int start, int end) {
+            StringBuilder copy = new StringBuilder(end - start);
+            for (int i = start; i < end; i++) {
+                copy.append(charAt(i));
+            }
+            return copy;
+        }
+
+        @Override
+        public String toString() {
+            return subSequence(0, length()).toString();
+        }
+    }
+
+    /**
+     * Command line entry point.
+     *
+     * <pre>{@code
+     * java FileEvaluator in.txt out.txt [threads] [--infix]
+     * }</pre>
+     *
+     * @param args the input file, the output file, optionally the number of
+     *             worker threads, and optionally {@code --infix} for a file
+     *             of infix expressions
+     * @throws IOException if a file cannot be read or written
+     */
+    public static void main(String[] args) throws IOException {
+        Notation notation = Notation.POSTFIX;
+        int count = args.length;
+        if (count > 0 && args[count - 1].equals("--infix")) {
+            notation = Notation.INFIX;
+            count--;
+        }
+        if (count < 2 || count > 3) {
+            System.err.println("Usage: java FileEvaluator <input> <output> [threads] [--infix]");
+            System.exit(2);
+        }
+
+        int threads = count == 3 ? Integer.parseInt(args[2]) : Runtime.getRuntime().availableProcessors();
+        long startTime = System.nanoTime();
+        long lines = new FileEvaluator(threads, DEFAULT_CHUNK_SIZE, notation)
+                .evaluate(Paths.get(args[0]), Paths.get(args[1]));
+        long millis = (System.nanoTime() - startTime) / 1_000_000;
+
+        System.out.println("Evaluated " + lines + " lines in " + millis + " ms");
+    }
+}
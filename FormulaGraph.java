@@ -0,0 +1,543 @@
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+
+/**
+ * A set of named cells, each holding either an input value or a formula over
+ * other cells, kept up to date incrementally like a spreadsheet.
+ * <p>
+ * Each formula is compiled once, when it is defined. Its variables are the
+ * names of the cells it reads, and the graph keeps an edge from each of those
+ * cells to the formula. Defining a formula that would read its own result,
+ * directly or through other formulas, is rejected. A name that is read but
+ * never defined is an input with the value 0, as a blank spreadsheet cell is.
+ * </p>
+ * <p>
+ * Changing an input only marks the formulas downstream of it as dirty.
+ * {@link #recalculate()}, or the next {@link #get(String)}, recomputes just
+ * those formulas, level by level: a formula's level is one more than the
+ * highest level among the cells it reads, so every cell of a level only
+ * depends on cells that are already up to date. The cells of one level are
+ * independent of each other, so when the graph has an executor, a level with
+ * many dirty cells is split between its threads.
+ * </p>
+ * <p>
+ * A formula that divides by zero holds an error instead of a value, and so
+ * does every formula that reads it. The graph itself is not thread-safe.
+ * </p>
+ *
+ * <p>
+ * Example:
+ * </p>
+ *
+ * <pre>{@code
+ * FormulaGraph sheet = new FormulaGraph();
+ * sheet.setInput("price", 20);
+ * sheet.setInput("qty", 3);
+ * sheet.define("subtotal", "price * qty");
+ * sheet.define("total", "subtotal + subtotal / 10");
+ * sheet.get("total"); // returns 66
+ * sheet.setInput("qty", 5);
+ * sheet.get("total"); // returns 110, recomputing only subtotal and total
+ * }</pre>
+ */
+public class FormulaGraph {
+
+    /**
+     * Smallest number of dirty cells in a level worth splitting between
+     * threads.
+     */
+    private static final int MIN_CHUNK_SIZE = 256;
+
+    /**
+     * The cells, by name.
+     */
+    private final Map<String, Cell> cells = new HashMap<>();
+
+    /**
+     * The dirty cells, by level. A cell may appear in a bucket it has since
+     * left, after its level changed; it is skipped there.
+     */
+    private final List<List<Cell>> dirty = new ArrayList<>();
+
+    /**
+     * Whether any cell is dirty.
+     */
+    private boolean pending;
+
+    /**
+     * The executor for recomputing wide levels, or {@code null} to always
+     * recompute on the calling thread.
+     */
+    private final ExecutorService executor;
+
+    /**
+     * Constructs an empty graph that recomputes on the calling thread.
+     *
+     * <p>
+     * Example:
+     * </p>
+     *
+     * <pre>{@code
+     * FormulaGraph sheet = new FormulaGraph();
+     * }</pre>
+     */
+    public FormulaGraph() {
+        this(null);
+    }
+
+    /**
+     * Constructs an empty graph that splits the recomputation of levels with
+     * many dirty cells between the threads of the given executor.
+     *
+     * <p>
+     * Example:
+     * </p>
+     *
+     * <pre>{@code
+     * FormulaGraph sheet = new FormulaGraph(ForkJoinPool.commonPool());
+     * }</pre>
+     *
+     * @param executor the executor for independent cells, or {@code null}
+     */
+    public FormulaGraph(ExecutorService executor) {
+        this.executor = executor;
+    }
+
+    /**
+     * Sets a cell to an input value. If the cell held a formula, the formula
+     * is replaced. Formulas that read the cell become dirty.
+     *
+     * <p>
+     * Example:
+     * </p>
+     *
+     * <pre>{@code
+     * sheet.setInput("rate", 7);
+     * }</pre>
+     *
+     * @param name  the cell name
+     * @param value the new value
+     */
+    public void setInput(String name, int value) {
+        Cell cell = cell(name);
+        if (cell.formula != null) {
+            link(cell, null, new Cell[0]);
+            cell.dirty = false;
+        } else if (cell.value == value && cell.error == null) {
+            return;
+        }
+        cell.value = value;
+        cell.error = null;
+        markDependentsDirty(cell);
+    }
+
+    /**
+     * Defines a cell as a formula over other cells, replacing any previous
+     * value or formula of that cell.
+     *
+     * <p>
+     * Example:
+     * </p>
+     *
+     * <pre>{@code
+     * sheet.define("area", "width * height");
+     * }</pre>
+     *
+     * @param name    the cell name
+     * @param formula the infix formula, whose variables name other cells
+     * @throws IllegalArgumentException if the formula is malformed or would
+     *                                  make the cell depend on itself
+     * @throws NumberFormatException    if a constant does not fit in an
+     *                                  {@code int}
+     */
+    public void define(String name, String formula) {
+        CompiledExpression expression = ExpressionOptimizer.optimize(CompiledExpression.compile(formula));
+        String[] names = expression.variableNames();
+
+        // check for a cycle before changing anything
+        Cell existing = cells.get(name);
+        for (String input : names) {
+            Cell from = cells.get(input);
+            if (input.equals(name) || (existing != null && from != null && reads(from, existing))) {
+                throw new IllegalArgumentException("Cycle: " + name + " depends on itself through " + input);
+            }
+        }
+
+        Cell cell = cell(name);
+        Cell[] inputs = new Cell[names.length];
+        for (int slot = 0; slot < names.length; slot++) {
+            inputs[slot] = cell(names[slot]);
+        }
+        link(cell, expression, inputs);
+        markDirty(cell);
+    }
+
+    /**
+     * Returns the current value of a cell, first recomputing any dirty
+     * formulas.
+     *
+     * <p>
+     * Example:
+     * </p>
+     *
+     * <pre>{@code
+     * int total = sheet.get("total");
+     * }</pre>
+     *
+     * @param name the cell name
+     * @return the value of the cell
+     * @throws IllegalArgumentException if there is no cell of that name
+     * @throws ArithmeticException      if the cell's formula, or one it
+     *                                  reads, divides by zero
+     */
+    public int get(String name) {
+        Cell cell = cells.get(name);
+        if (cell == null) {
+            throw new IllegalArgumentException("No cell named '" + name + "'");
+        }
+        recalculate();
+        if (cell.error != null) {
+            throw new ArithmeticException(name + ": " + cell.error.getMessage());
+        }
+        return cell.value;
+    }
+
+    /**
+     * Returns whether a cell of the given name exists.
+     *
+     * @param name the cell name
+     * @return {@code true} if the cell has been set, defined or read
+     */
+    public boolean contains(String name) {
+        return cells.containsKey(name);
+    }
+
+    /**
+     * Returns the number of cells.
+     *
+     * @return the number of cells
+     */
+    public int size() {
+        return cells.size();
+    }
+
+    /**
+     * Recomputes every dirty formula, in order of level.
+     *
+     * <p>
+     * Example:
+     * </p>
+     *
+     * <pre>{@code
+     * sheet.setInput("a", 1);
+     * sheet.setInput("b", 2);
+     * int recomputed = sheet.recalculate(); // formulas reading a or b, once each
+     * }</pre>
+     *
+     * @return the number of formulas recomputed
+     */
+    public int recalculate() {
+        if (!pending) {
+            return 0;
+        }
+        int recomputed = 0;
+
+        for (int level = 0; level < dirty.size(); level++) {
+            List<Cell> bucket = dirty.get(level);
+            if (bucket.isEmpty()) {
+                continue;
+            }
+            // drop cells that moved to another level or were already recomputed
+            List<Cell> work = new ArrayList<>(bucket.size());
+            for (Cell cell : bucket) {
+                if (cell.dirty && cell.level == level) {
+                    cell.dirty = false;
+                    work.add(cell);
+                }
+            }
+            bucket.clear();
+
+            if (executor == null || work.size() < 2 * MIN_CHUNK_SIZE) {
+                computeRange(work, 0, work.size());
+            } else {
+                computeParallel(work);
+            }
+            recomputed += work.size();
+        }
+
+        pending = false;
+        return recomputed;
+    }
+
+    /**
+     * Recomputes the cells of one level, split into chunks run by the
+     * executor.
+     *
+     * @param work the cells to recompute, all independent of each other
+     */
+    private void computeParallel(List<Cell> work) {
+        List<Future<?>> tasks = new ArrayList<>();
+        for (int start = 0; start < work.size(); start += MIN_CHUNK_SIZE) {
+            int from = start;
+            int to = Math.min(work.size(), start + MIN_CHUNK_SIZE);
+            tasks.add(executor.submit(() -> computeRange(work, from, to)));
+        }
+
+        try {
+            for (Future<?> task : tasks) {
+                task.get();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            for (Future<?> task : tasks) {
+                task.cancel(false);
+            }
+            throw new IllegalStateException("Interrupted while recalculating", e);
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            }
+            if (cause instanceof Error) {
+                throw (Error) cause;
+            }
+            throw new IllegalStateException(cause);
+        }
+    }
+
+    /**
+     * Recomputes a range of cells of one level.
+     *
+     * @param work the cells of the level
+     * @param from index of the first cell to recompute
+     * @param to   index one past the last cell to recompute
+     */
+    private static void computeRange(List<Cell> work, int from, int to) {
+        for (int i = from; i < to; i++) {
+            work.get(i).compute();
+        }
+    }
+
+    /**
+     * Returns the cell of the given name, creating it as an input with the
+     * value 0 if it does not exist.
+     *
+     * @param name the cell name
+     * @return the cell
+     */
+    private Cell cell(String name) {
+        return cells.computeIfAbsent(name, Cell::new);
+    }
+
+    /**
+     * Returns whether {@code cell} reads {@code target}, directly or
+     * through other formulas.
+     *
+     * @param cell   the cell whose inputs are followed
+     * @param target the cell being looked for
+     * @return {@code true} if {@code cell} depends on {@code target}
+     */
+    private static boolean reads(Cell cell, Cell target) {
+        Set<Cell> visited = new HashSet<>();
+        ArrayDeque<Cell> work = new ArrayDeque<>();
+        work.push(cell);
+        while (!work.isEmpty()) {
+            Cell next = work.pop();
+            if (next == target) {
+                return true;
+            }
+            if (visited.add(next)) {
+                for (Cell input : next.inputs) {
+                    work.push(input);
+                }
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Replaces the formula and inputs of a cell, updating the edges and the
+     * levels of the cell and everything downstream of it.
+     *
+     * @param cell    the cell to change
+     * @param formula the new formula, or {@code null} for an input
+     * @param inputs  the cells the formula reads, by slot
+     */
+    private void link(Cell cell, CompiledExpression formula, Cell[] inputs) {
+        for (Cell input : cell.inputs) {
+            input.dependents.remove(cell);
+        }
+        cell.formula = formula;
+        cell.inputs = inputs;
+        cell.bindings = new int[inputs.length];
+        for (Cell input : inputs) {
+            input.dependents.add(cell);
+        }
+        updateLevel(cell);
+    }
+
+    /**
+     * Recomputes the level of a cell from its inputs and, if it changed, the
+     * levels of the cells that read it. A dirty cell is filed again under its
+     * new level.
+     *
+     * @param cell the cell whose inputs changed
+     */
+    private void updateLevel(Cell cell) {
+        // a worklist rather than recursion, as chains of formulas can be long
+        ArrayDeque<Cell> work = new ArrayDeque<>();
+        work.push(cell);
+        while (!work.isEmpty()) {
+            Cell next = work.pop();
+            int level = 0;
+            for (Cell input : next.inputs) {
+                level = Math.max(level, input.level + 1);
+            }
+            if (level == next.level) {
+                continue;
+            }
+            next.level = level;
+            if (next.dirty) {
+                bucket(level).add(next);
+            }
+            for (Cell dependent : next.dependents) {
+                work.push(dependent);
+            }
+        }
+    }
+
+    /**
+     * Marks a formula and everything downstream of it as dirty.
+     *
+     * @param cell the formula whose result is out of date
+     */
+    private void markDirty(Cell cell) {
+        ArrayDeque<Cell> work = new ArrayDeque<>();
+        work.push(cell);
+        while (!work.isEmpty()) {
+            Cell next = work.pop();
+            if (!next.dirty) {
+                next.dirty = true;
+                pending = true;
+                bucket(next.level).add(next);
+                for (Cell dependent : next.dependents) {
+                    work.push(dependent);
+                }
+            }
+        }
+    }
+
+    /**
+     * Marks everything downstream of a cell as dirty.
+     *
+     * @param cell the cell whose value changed
+     */
+    private void markDependentsDirty(Cell cell) {
+        for (Cell dependent : cell.dependents) {
+            markDirty(dependent);
+        }
+    }
+
+    /**
+     * Returns the list of dirty cells for a level, creating it if needed.
+     *
+     * @param level the level
+     * @return the dirty cells of that level
+     */
+    private List<Cell> bucket(int level) {
+        while (dirty.size() <= level) {
+            dirty.add(new ArrayList<>());
+        }
+        return dirty.get(level);
+    }
+
+    /**
+     * One named cell of the graph.
+     */
+    private static final class Cell {
+
+        /**
+         * The name of the cell.
+         */
+        final String name;
+
+        /**
+         * The compiled formula, or {@code null} for an input.
+         */
+        CompiledExpression formula;
+
+        /**
+         * The cells the formula reads, indexed by variable slot.
+         */
+        Cell[] inputs = new Cell[0];
+
+        /**
+         * Reused array of input values passed to the formula.
+         */
+        int[] bindings = new int[0];
+
+        /**
+         * The formulas that read this cell, in the order they were linked.
+         * A set, so relinking a cell with many dependents is not O(n).
+         */
+        final Set<Cell> dependents = new LinkedHashSet<>();
+
+        /**
+         * 0 for an input, otherwise one more than the highest level among
+         * the inputs.
+         */
+        int level;
+
+        /**
+         * Whether the value is out of date.
+         */
+        boolean dirty;
+
+        /**
+         * The current value.
+         */
+        int value;
+
+        /**
+         * The error of the formula or of one it reads, or {@code null}.
+         */
+        ArithmeticException error;
+
+        /**
+         * Creates an input cell with the value 0.
+         *
+         * @param name the name of the cell
+         */
+        Cell(String name) {
+            this.name = name;
+        }
+
+        /**
+         * Evaluates the formula from the current values of its inputs.
+         */
+        void compute() {
+            for (int slot = 0; slot < inputs.length; slot++) {
+                if (inputs[slot].error != null) {
+                    error = inputs[slot].error;
+                    return;
+                }
+                bindings[slot] = inputs[slot].value;
+            }
+            try {
+                value = formula.evaluate(bindings);
+                error = null;
+            } catch (ArithmeticException e) {
+                error = new ArithmeticException(e.getMessage() + " in " + name);
+            }
+        }
+    }
+}
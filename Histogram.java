@@ -0,0 +1,353 @@
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Concurrent histogram of non-negative {@code long} values, such as
+ * latencies in nanoseconds, with about 1% precision over its whole range.
+ * <p>
+ * Buckets are laid out like HdrHistogram's: values below 128 get a bucket
+ * each, and above that every power of two is split into 64 buckets, so a
+ * bucket is never wider than 1/64 of the values it holds. Values above the
+ * highest trackable value are counted in the top bucket; the exact maximum
+ * is kept separately.
+ * </p>
+ * <p>
+ * The buckets are striped: there is one set per available processor,
+ * rounded up to a power of two, and each thread records into the set picked
+ * by its id. Threads on different processors therefore rarely write the
+ * same counters, and {@link #record} is a few atomic adds that are almost
+ * never contended. The number of sets is fixed when the histogram is
+ * created, so any number of threads, even short-lived ones like one per
+ * connection, can record without the histogram growing or having to track
+ * them. {@link #snapshot()} merges every set into one {@link Snapshot}.
+ * </p>
+ *
+ * <p>
+ * Example:
+ * </p>
+ *
+ * <pre>{@code
+ * Histogram latencies = new Histogram(60_000_000_000L); // up to one minute
+ * long start = System.nanoTime();
+ * evaluator.evaluate(expression);
+ * latencies.record(System.nanoTime() - start);
+ * long p99 = latencies.snapshot().percentile(99);
+ * }</pre>
+ */
+public class Histogram {
+
+    /**
+     * Bits of a value kept exactly; the rest only select the power of two.
+     */
+    private static final int SUB_BUCKET_BITS = 7;
+
+    /**
+     * Number of values with a bucket each.
+     */
+    private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+
+    /**
+     * Number of buckets per power of two above {@link #SUB_BUCKETS}.
+     */
+    private static final int HALF = SUB_BUCKETS / 2;
+
+    /**
+     * The largest value counted in its own bucket.
+     */
+    private final long highestTrackableValue;
+
+    /**
+     * Number of buckets.
+     */
+    private final int bucketCount;
+
+    /**
+     * The sets of buckets; their number is a power of two.
+     */
+    private final Recorder[] stripes;
+
+    /**
+     * Constructs an empty histogram.
+     *
+     * <p>
+     * Example:
+     * </p>
+     *
+     * <pre>{@code
+     * Histogram sizes = new Histogram(1 << 20); // expressions up to 1 MB
+     * }</pre>
+     *
+     * @param highestTrackableValue the largest value to track precisely
+     * @throws IllegalArgumentException if {@code highestTrackableValue} is
+     *                                  less than 1
+     */
+    public Histogram(long highestTrackableValue) {
+        if (highestTrackableValue < 1) {
+            throw new IllegalArgumentException("highestTrackableValue must be at least 1: " + highestTrackableValue);
+        }
+        this.highestTrackableValue = highestTrackableValue;
+        this.bucketCount = bucketIndex(highestTrackableValue) + 1;
+        int processors = Runtime.getRuntime().availableProcessors();
+        this.stripes = new Recorder[Integer.highestOneBit(Math.max(1, processors * 2 - 1))];
+        for (int i = 0; i < stripes.length; i++) {
+            stripes[i] = new Recorder(bucketCount);
+        }
+    }
+
+    /**
+     * Records one value. Negative values are recorded as zero.
+     *
+     * @param value the value to record
+     */
+    public void record(long value) {
+        // thread ids are handed out in sequence, so consecutive threads get different stripes
+        Recorder stripe = stripes[(int) Thread.currentThread().getId() & (stripes.length - 1)];
+        stripe.record(Math.max(0, value), bucketIndex(Math.min(Math.max(0, value), highestTrackableValue)));
+    }
+
+    /**
+     * Returns the merged counts of every stripe.
+     * <p>
+     * Values being recorded while the snapshot is taken may or may not be
+     * included, and a value's bucket may be counted before its sum is, but
+     * every value recorded before this call started is included.
+     * </p>
+     *
+     * @return the snapshot
+     */
+    public Snapshot snapshot() {
+        long[] counts = new long[bucketCount];
+        long[] totals = new long[2];
+        long max = 0;
+        for (Recorder stripe : stripes) {
+            max = stripe.mergeInto(counts, totals, max);
+        }
+        return new Snapshot(counts, totals[0], totals[1], max);
+    }
+
+    /**
+     * Returns the number of sets of buckets.
+     *
+     * @return the number of stripes
+     */
+    int stripeCount() {
+        return stripes.length;
+    }
+
+    /**
+     * Returns the bucket of a value between 0 and the highest trackable
+     * value.
+     *
+     * @param value the value
+     * @return the bucket index
+     */
+    static int bucketIndex(long value) {
+        if (value < SUB_BUCKETS) {
+            return (int) value;
+        }
+        int shift = 64 - Long.numberOfLeadingZeros(value) - SUB_BUCKET_BITS;
+        return shift * HALF + (int) (value >>> shift);
+    }
+
+    /**
+     * Returns the largest value that falls in a bucket.
+     *
+     * @param index the bucket index
+     * @return the bucket's highest value
+     */
+    static long highestValue(int index) {
+        if (index < SUB_BUCKETS) {
+            return index;
+        }
+        int shift = index / HALF - 1;
+        long mantissa = index - (long) shift * HALF;
+        return ((mantissa + 1) << shift) - 1;
+    }
+
+    /**
+     * One stripe of buckets, written by every thread that maps to it.
+     */
+    private static final class Recorder {
+
+        /**
+         * Count of each bucket.
+         */
+        final AtomicLongArray counts;
+
+        /**
+         * Number of values, their sum, and the largest value.
+         */
+        final AtomicLongArray totals = new AtomicLongArray(3);
+
+        /**
+         * Creates empty buckets.
+         *
+         * @param buckets the number of buckets
+         */
+        Recorder(int buckets) {
+            this.counts = new AtomicLongArray(buckets);
+        }
+
+        /**
+         * Counts a value.
+         *
+         * @param value the value
+         * @param index its bucket
+         */
+        void record(long value, int index) {
+            counts.getAndIncrement(index);
+            totals.getAndIncrement(0);
+            totals.getAndAdd(1, value);
+            long max;
+            while (value > (max = totals.get(2)) && !totals.compareAndSet(2, max, value)) {
+                // another thread raised the maximum; check again
+            }
+        }
+
+        /**
+         * Adds these counts to the merged arrays.
+         *
+         * @param merged       the merged bucket counts
+         * @param mergedTotals the merged count and sum
+         * @param max          the largest value so far
+         * @return the largest value including these counts
+         */
+        long mergeInto(long[] merged, long[] mergedTotals, long max) {
+            for (int i = 0; i < merged.length; i++) {
+                merged[i] += counts.getAcquire(i);
+            }
+            mergedTotals[0] += totals.getAcquire(0);
+            mergedTotals[1] += totals.getAcquire(1);
+            return Math.max(max, totals.getAcquire(2));
+        }
+    }
+
+    /**
+     * Immutable merged view of a histogram at one moment.
+     */
+    public static final class Snapshot {
+
+        /**
+         * Count of each bucket.
+         */
+        private final long[] counts;
+
+        /**
+         * Number of values.
+         */
+        private final long count;
+
+        /**
+         * Sum of the values.
+         */
+        private final long sum;
+
+        /**
+         * The largest value.
+         */
+        private final long max;
+
+        /**
+         * Creates a snapshot.
+         *
+         * @param counts count of each bucket
+         * @param count  number of values
+         * @param sum    sum of the values
+         * @param max    the largest value
+         */
+        Snapshot(long[] counts, long count, long sum, long max) {
+            this.counts = counts;
+            this.count = count;
+            this.sum = sum;
+            this.max = max;
+        }
+
+        /**
+         * Returns the number of values recorded.
+         *
+         * @return the count
+         */
+        public long count() {
+            return count;
+        }
+
+        /**
+         * Returns the sum of the values recorded.
+         *
+         * @return the sum
+         */
+        public long sum() {
+            return sum;
+        }
+
+        /**
+         * Returns the largest value recorded, exactly.
+         *
+         * @return the maximum, or 0 if nothing was recorded
+         */
+        public long max() {
+            return max;
+        }
+
+        /**
+         * Returns the mean of the values recorded.
+         *
+         * @return the mean, or 0 if nothing was recorded
+         */
+        public double mean() {
+            return count == 0 ? 0 : (double) sum / count;
+        }
+
+        /**
+         * Returns the value at or below which the given percentage of values
+         * fall, to within the width of its bucket.
+         *
+         * <p>
+         * Example:
+         * </p>
+         *
+         * <pre>{@code
+         * long median = snapshot.percentile(50);
+         * long tail = snapshot.percentile(99.9);
+         * }</pre>
+         *
+         * @param percentile the percentage, from 0 to 100
+         * @return the value, or 0 if nothing was recorded
+         * @throws IllegalArgumentException if {@code percentile} is outside
+         *                                  0 to 100
+         */
+        public long percentile(double percentile) {
+            if (!(percentile >= 0 && percentile <= 100)) {
+                throw new IllegalArgumentException("percentile must be between 0 and 100: " + percentile);
+            }
+            long total = 0;
+            for (long bucket : counts) {
+                total += bucket;
+            }
+            if (total == 0) {
+                return 0;
+            }
+
+            long rank = Math.max(1, (long) Math.ceil(percentile / 100 * total));
+            long seen = 0;
+            for (int i = 0; i < counts.length; i++) {
+                seen += counts[i];
+                if (seen >= rank) {
+                    // the top bucket also holds every value beyond the trackable range
+                    return i == counts.length - 1 ? max : Math.min(highestValue(i), max);
+                }
+            }
+            return max;
+        }
+
+        /**
+         * Returns the count, mean, median, 99th percentile and maximum.
+         *
+         * @return the summary
+         */
+        @Override
+        public String toString() {
+            return String.format("count=%d mean=%.1f p50=%d p99=%d max=%d",
+                    count, mean(), percentile(50), percentile(99), max);
+        }
+    }
+}
@@ -1,8 +1,8 @@
 /**
  * Converts an infix expression into postfix notation using a stack.
  * <p>
- * Tokens in the expression must be separated by spaces (e.g.,
- * {@code "3 + 4 * 2"}).
+ * Tokens in the expression may be separated by any whitespace, or by none
+ * at all (e.g., {@code "3 + 4 * 2"} or {@code "3+4*2"}).
  * </p>
  * 
  * <p>
@@ -12,7 +12,7 @@
  * <pre>{@code
  * StackADT stack = new LinkedListBasedStack();
  * InfixConverter converter = new InfixConverter(stack);
- * String post = converter.convert("3 + 4 * 2");
+ * String post = converter.toPostfix("3 + 4 * 2");
  * // post is "3 4 2 * +"
  * }</pre>
  * 
@@ -26,6 +26,11 @@ public class InfixConverter {
      */
     private StackADT stack;
 
+    /**
+     * Lexer reused to scan each expression passed to {@link #toPostfix}.
+     */
+    private Lexer lexer;
+
     /**
      * Constructs the converter using the given stack for operators.
      * 
@@ -42,11 +47,11 @@ public class InfixConverter {
      */
     public InfixConverter(StackADT stack) {
         this.stack = stack;
+        this.lexer = new Lexer();
     }
 
     /**
-     * Converts an infix expression (tokens separated by spaces) into postfix
-     * notation.
+     * Converts an infix expression into postfix notation.
      * 
      * <p>
      * Example:
@@ -55,68 +60,83 @@ public class InfixConverter {
      * <pre>{@code
      * String post = converter.toPostfix("10 * ( 2 + 3 )");
      * // post is "10 2 3 + *"
+     * String same = converter.toPostfix("10*(2+3)");
+     * // same is "10 2 3 + *"
+     * String vars = converter.toPostfix("rate * ( hours + 2 )");
+     * // vars is "rate hours 2 + *"
      * }</pre>
      *
      * @param infix the infix expression to convert
-     * @return the converted postfix expression
+     * @return the converted postfix expression, with tokens separated by
+     *         single spaces
+     * @throws IllegalArgumentException if the expression contains a character
+     *                                  that is not part of any token
      */
-    public String toPostfix(String infix) {
-        StringBuilder postfix = new StringBuilder();
-        String[] tokens = infix.split(" ");
+    public String toPostfix(CharSequence infix) {
+        long started = ExpressionMetrics.start();
+        try {
+            return convert(infix);
+        } finally {
+            ExpressionMetrics.stop(ExpressionMetrics.Stage.CONVERT, started, infix.length());
+        }
+    }
 
-        for (String token : tokens) {
-            // If the token is a number, append it directly to postfix output
-            if (isNumber(token)) {
-                postfix.append(token).append(" ");
+    /**
+     * Does the work of {@link #toPostfix}, which times the call.
+     *
+     * @param infix the infix expression to convert
+     * @return the postfix expression
+     */
+    private String convert(CharSequence infix) {
+        StringBuilder postfix = new StringBuilder(infix.length() + 8);
+        lexer.reset(infix);
+        // drop operators left behind by an expression that threw
+        stack.clear();
+
+        int type;
+        while ((type = lexer.next()) != Lexer.END) {
+            // If the token is a number or a variable, copy it directly to postfix output
+            if (type == Lexer.NUMBER || type == Lexer.IDENTIFIER) {
+                postfix.append(infix, lexer.start(), lexer.end()).append(' ');
             }
             // Left parenthesis, push onto stack
-            else if (token.equals("(")) {
-                stack.push(token);
+            else if (type == Lexer.LEFT_PAREN) {
+                stack.push("(");
             }
             // Right parenthesis, pop until matching "("
-            else if (token.equals(")")) {
+            else if (type == Lexer.RIGHT_PAREN) {
                 // pop until left parenthesis
                 while (!stack.isEmpty() && !stack.peek().equals("(")) {
-                    postfix.append(stack.pop()).append(" ");
+                    postfix.append(stack.pop()).append(' ');
                 }
                 stack.pop(); // remove "("
             }
             // Pop operators of higher or equal precedence, then push current
-            else if (isOperator(token)) {
+            else if (type == Lexer.OPERATOR) {
+                String token = Lexer.operatorText(lexer.operator());
                 // pop operators with >= precedence
                 while (!stack.isEmpty()
                         && isOperator(stack.peek())
                         && precedence(stack.peek()) >= precedence(token)) {
-                    postfix.append(stack.pop()).append(" ");
+                    postfix.append(stack.pop()).append(' ');
                 }
                 stack.push(token);
             }
+            else {
+                throw new IllegalArgumentException("Unexpected input at position " + lexer.start() + ": " + infix);
+            }
         }
 
         // pop remaining operators
         while (!stack.isEmpty()) {
-            postfix.append(stack.pop()).append(" ");
+            postfix.append(stack.pop()).append(' ');
         }
 
-        return postfix.toString().trim();
-    }
-
-    /**
-     * Returns {@code true} if the token is a number (operand).
-     * 
-     * <p>
-     * Example:
-     * </p>
-     * 
-     * <pre>{@code
-     * isNumber("12"); // true
-     * isNumber("+"); // false
-     * }</pre>
-     * 
-     * @param s the token that is checked to be an operand
-     */
-    private boolean isNumber(String s) {
-        return Character.isDigit(s.charAt(0));
+        // drop the trailing space
+        if (postfix.length() > 0) {
+            postfix.setLength(postfix.length() - 1);
+        }
+        return postfix.toString();
     }
 
     /**
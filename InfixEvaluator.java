@@ -0,0 +1,360 @@
+/**
+ * Evaluates an infix expression directly in a single pass, without building
+ * its postfix form first.
+ * <p>
+ * This is the shunting-yard algorithm used by {@code InfixConverter}, but
+ * instead of appending each popped operator to a postfix String, the operator
+ * is applied straight away to the top two values of a value stack. Both
+ * stacks hold primitive {@code int} values, so evaluating an expression does
+ * not create any Strings.
+ * </p>
+ *
+ * <p>
+ * Example:
+ * </p>
+ *
+ * <pre>{@code
+ * InfixEvaluator evaluator = new InfixEvaluator();
+ * int result = evaluator.evaluate("100 * ( 2 + 12 )"); // returns 1400
+ * int same = evaluator.evaluate("100*(2+12)"); // returns 1400
+ * }</pre>
+ */
+public class InfixEvaluator {
+
+    /**
+     * Operator code pushed onto the operator stack for a left parenthesis.
+     */
+    private static final int LEFT_PAREN = '(';
+
+    /**
+     * Stack of operands and intermediate results.
+     */
+    private IntStack values;
+
+    /**
+     * Stack of pending operator codes and left parentheses.
+     */
+    private IntStack operators;
+
+    /**
+     * Lexer reused to scan each expression passed to {@link #evaluate}.
+     */
+    private Lexer lexer;
+
+    /**
+     * Positions of the entries on {@link #operators}, kept only by
+     * {@link #tryEvaluate} so errors can say where they happened.
+     */
+    private IntStack positions;
+
+    /**
+     * Validator run by {@link #tryEvaluate} before evaluating.
+     */
+    private ExpressionValidator validator;
+
+    /**
+     * The error found by {@link #reduceExact}, or {@code null}.
+     */
+    private ErrorCode failure;
+
+    /**
+     * Constructs an infix evaluator with its own value and operator stacks.
+     *
+     * <p>
+     * Example:
+     * </p>
+     *
+     * <pre>{@code
+     * InfixEvaluator evaluator = new InfixEvaluator();
+     * }</pre>
+     */
+    public InfixEvaluator() {
+        this.values = new IntStack();
+        this.operators = new IntStack();
+        this.lexer = new Lexer();
+        this.positions = new IntStack();
+        this.validator = new ExpressionValidator();
+    }
+
+    /**
+     * Evaluates an infix expression and returns its integer result.
+     * <p>
+     * Gives the same result as converting the expression with
+     * {@code InfixConverter.toPostfix} and evaluating that with
+     * {@code PostfixEvaluator.evaluate}.
+     * </p>
+     *
+     * <p>
+     * Example:
+     * </p>
+     *
+     * <pre>{@code
+     * int value = evaluator.evaluate("( 5 + 3 ) * ( 12 / 4 )"); // returns 24
+     * }</pre>
+     *
+     * @param infix the infix expression to evaluate
+     * @return the integer value resulting from evaluating the expression
+     * @throws java.util.EmptyStackException if an operator is missing an
+     *                                       operand
+     * @throws IllegalArgumentException      if the parentheses are
+     *                                       unbalanced or the expression
+     *                                       contains a character that is not
+     *                                       part of any token
+     */
+    public int evaluate(CharSequence infix) {
+        return evaluate(infix, 0, infix.length());
+    }
+
+    /**
+     * Evaluates the infix expression made up of the characters of
+     * {@code input} from index {@code start} (inclusive) to {@code end}
+     * (exclusive). This lets one line of a larger buffer be evaluated without
+     * copying it into its own String.
+     *
+     * <p>
+     * Example:
+     * </p>
+     *
+     * <pre>{@code
+     * int value = evaluator.evaluate("3 + 4\n5 * 6", 6, 11); // returns 30
+     * }</pre>
+     *
+     * @param input the characters holding the expression
+     * @param start index of the first character of the expression
+     * @param end   index one past the last character of the expression
+     * @return the integer value resulting from evaluating the expression
+     * @throws java.util.EmptyStackException if an operator is missing an
+     *                                       operand
+     * @throws IllegalArgumentException      if the parentheses are
+     *                                       unbalanced or the expression
+     *                                       contains a character that is not
+     *                                       part of any token
+     */
+    public int evaluate(CharSequence input, int start, int end) {
+        lexer.reset(input, start, end);
+        values.clear();
+        operators.clear();
+
+        int type;
+        while ((type = lexer.next()) != Lexer.END) {
+            // Operands go straight onto the value stack
+            if (type == Lexer.NUMBER) {
+                values.push(lexer.intValue());
+            }
+            // Left parenthesis, push onto operator stack
+            else if (type == Lexer.LEFT_PAREN) {
+                operators.push(LEFT_PAREN);
+            }
+            // Right parenthesis, reduce until matching "("
+            else if (type == Lexer.RIGHT_PAREN) {
+                while (!operators.isEmpty() && operators.peek() != LEFT_PAREN) {
+                    reduce();
+                }
+                if (operators.isEmpty()) {
+                    throw new IllegalArgumentException("Unbalanced parentheses at position " + (lexer.start() - start) + ": " + input.subSequence(start, end));
+                }
+                operators.pop(); // remove "("
+            }
+            // Reduce operators of higher or equal precedence, then push current
+            else if (type == Lexer.OPERATOR) {
+                int op = lexer.operator();
+                while (!operators.isEmpty()
+                        && operators.peek() != LEFT_PAREN
+                        && precedence(operators.peek()) >= precedence(op)) {
+                    reduce();
+                }
+                operators.push(op);
+            }
+            else {
+                throw new IllegalArgumentException("Unexpected input at position " + (lexer.start() - start) + ": " + input.subSequence(start, end));
+            }
+        }
+
+        // reduce remaining operators; a "(" left among them was never closed
+        while (!operators.isEmpty()) {
+            if (operators.peek() == LEFT_PAREN) {
+                throw new IllegalArgumentException("Unbalanced parentheses: " + input.subSequence(start, end));
+            }
+            reduce();
+        }
+
+        return values.pop();
+    }
+
+    /**
+     * Evaluates an infix expression without throwing, returning either its
+     * value or why and where it failed.
+     * <p>
+     * The expression is first checked by an {@code ExpressionValidator}, so
+     * a malformed one is rejected before anything is evaluated and without
+     * creating an exception. Unlike {@link #evaluate}, arithmetic is checked
+     * too: dividing by zero, or a result that does not fit in an
+     * {@code int}, is reported at the operator that caused it instead of
+     * throwing or wrapping around.
+     * </p>
+     *
+     * <p>
+     * Example:
+     * </p>
+     *
+     * <pre>{@code
+     * evaluator.tryEvaluate("( 5 + 3 ) * 3").value(); // 24
+     * evaluator.tryEvaluate("3 + * 4").message(); // "Missing operand at position 4"
+     * evaluator.tryEvaluate("1 / ( 2 - 2 )").message(); // "Division by zero at position 2"
+     * }</pre>
+     *
+     * @param infix the infix expression to evaluate
+     * @return the value, or the error and its position
+     */
+    public EvaluationResult tryEvaluate(CharSequence infix) {
+        return tryEvaluate(infix, 0, infix.length());
+    }
+
+    /**
+     * Evaluates the infix expression made up of the characters of
+     * {@code input} from index {@code start} (inclusive) to {@code end}
+     * (exclusive) without throwing. Error positions are counted from
+     * {@code start}.
+     *
+     * @param input the characters holding the expression
+     * @param start index of the first character of the expression
+     * @param end   index one past the last character of the expression
+     * @return the value, or the error and its position
+     * @see #tryEvaluate(CharSequence)
+     */
+    public EvaluationResult tryEvaluate(CharSequence input, int start, int end) {
+        if (!validator.isValid(input, start, end)) {
+            return validator.failure();
+        }
+
+        lexer.reset(input, start, end);
+        values.clear();
+        operators.clear();
+        positions.clear();
+
+        // the validator guarantees every pop below has something to pop
+        int type;
+        while ((type = lexer.next()) != Lexer.END) {
+            if (type == Lexer.NUMBER) {
+                values.push((int) lexer.value());
+            } else if (type == Lexer.LEFT_PAREN) {
+                operators.push(LEFT_PAREN);
+                positions.push(lexer.start() - start);
+            } else if (type == Lexer.RIGHT_PAREN) {
+                while (operators.peek() != LEFT_PAREN) {
+                    if (!reduceExact()) {
+                        return EvaluationResult.failure(failure, positions.peek());
+                    }
+                }
+                operators.pop();
+                positions.pop();
+            } else {
+                int op = lexer.operator();
+                while (!operators.isEmpty()
+                        && operators.peek() != LEFT_PAREN
+                        && precedence(operators.peek()) >= precedence(op)) {
+                    if (!reduceExact()) {
+                        return EvaluationResult.failure(failure, positions.peek());
+                    }
+                }
+                operators.push(op);
+                positions.push(lexer.start() - start);
+            }
+        }
+
+        while (!operators.isEmpty()) {
+            if (!reduceExact()) {
+                return EvaluationResult.failure(failure, positions.peek());
+            }
+        }
+
+        return EvaluationResult.success(values.pop());
+    }
+
+    /**
+     * Like {@link #reduce}, but checks the arithmetic. On failure the right
+     * operand has already been popped from {@link #values}, but the operator
+     * and its position are left alone, so the failing operator's position is
+     * still on top of {@link #positions}. The caller abandons the expression,
+     * and the next call clears the stacks.
+     *
+     * @return {@code true} if the operator was applied, {@code false} if it
+     *         failed and {@link #failure} says why
+     */
+    private boolean reduceExact() {
+        int op = operators.peek();
+        int b = values.pop();
+        int a = values.peek();
+        long result;
+        if (op == '/') {
+            if (b == 0) {
+                failure = ErrorCode.DIVISION_BY_ZERO;
+                return false;
+            }
+            result = (long) a / b;
+        } else if (op == '*') {
+            result = (long) a * b;
+        } else if (op == '+') {
+            result = (long) a + b;
+        } else {
+            result = (long) a - b;
+        }
+        if (result != (int) result) {
+            failure = ErrorCode.OVERFLOW;
+            return false;
+        }
+
+        operators.pop();
+        positions.pop();
+        values.pop();
+        values.push((int) result);
+        return true;
+    }
+
+    /**
+     * Pops one operator and its two operands, and pushes the result of
+     * applying it.
+     */
+    private void reduce() {
+        int op = operators.pop();
+        int b = values.pop();
+        int a = values.pop();
+        values.push(apply(a, b, op));
+    }
+
+    /**
+     * Used to check the operator precedence
+     * Operator precedence: * and / = 2, + and - = 1.
+     *
+     * @param op the operator code that is checked for precedence
+     * @return the precedence of the operator
+     */
+    private int precedence(int op) {
+        if (op == '*' || op == '/')
+            return 2;
+        return 1;
+    }
+
+    /**
+     * Applies the given operator to two integer operands.
+     *
+     * @param a  the first operand (left-hand side)
+     * @param b  the second operand (right-hand side)
+     * @param op the operator code to apply, one of (+ - * /)
+     * @return the result of applying the operator to the operands
+     * @throws IllegalArgumentException if {@code op} is not an operator
+     */
+    private int apply(int a, int b, int op) {
+        switch (op) {
+            case '+':
+                return a + b;
+            case '-':
+                return a - b;
+            case '*':
+                return a * b;
+            case '/':
+                return a / b;
+        }
+        throw new IllegalArgumentException("Unknown operator: " + (char) op);
+    }
+}
@@ -0,0 +1,169 @@
+import java.util.Arrays;
+import java.util.EmptyStackException;
+
+/**
+ * Array based stack of primitive {@code int} values.
+ * Unlike {@code StackADT}, values are stored unboxed so pushing and popping
+ * never creates a String or wrapper object.
+ *
+ * <p>
+ * Example:
+ * </p>
+ *
+ * <pre>{@code
+ * IntStack stack = new IntStack();
+ * stack.push(3);
+ * stack.push(4);
+ * System.out.println(stack.pop()); // prints 4
+ * System.out.println(stack.peek()); // prints 3
+ * }</pre>
+ */
+public class IntStack {
+
+    /**
+     * The array that stores the stack elements.
+     * Automatically resizes when full.
+     */
+    private int[] data;
+
+    /**
+     * Index of the top element of the stack.
+     * When stack is empty, {@code top == -1}.
+     */
+    private int top;
+
+    /**
+     * Constructs a new empty stack with a starting capacity of 10.
+     *
+     * <p>
+     * Example:
+     * </p>
+     *
+     * <pre>{@code
+     * IntStack stack = new IntStack();
+     * System.out.println(stack.isEmpty()); // true
+     * }</pre>
+     */
+    public IntStack() {
+        this(10);
+    }
+
+    /**
+     * Constructs a new empty stack with the given starting capacity.
+     *
+     * <p>
+     * Example:
+     * </p>
+     *
+     * <pre>{@code
+     * IntStack stack = new IntStack(64);
+     * }</pre>
+     *
+     * @param initialCapacity the number of elements the stack can hold before
+     *                        it has to resize
+     * @throws IllegalArgumentException if {@code initialCapacity < 1}
+     */
+    public IntStack(int initialCapacity) {
+        if (initialCapacity < 1) {
+            throw new IllegalArgumentException("initialCapacity must be at least 1: " + initialCapacity);
+        }
+        data = new int[initialCapacity];
+        top = -1;
+    }
+
+    /**
+     * Adds a value to the top of the stack.
+     * If the array is full, the array is resized to double its current capacity.
+     *
+     * <p>
+     * Example:
+     * </p>
+     *
+     * <pre>{@code
+     * stack.push(42);
+     * }</pre>
+     *
+     * @param value the value to push onto the stack
+     */
+    public void push(int value) {
+        if (top == data.length - 1) {
+            data = Arrays.copyOf(data, data.length * 2);
+        }
+
+        top++;
+        data[top] = value;
+    }
+
+    /**
+     * Removes and returns the top value of the stack.
+     *
+     * <p>
+     * Example:
+     * </p>
+     *
+     * <pre>{@code
+     * stack.push(1);
+     * stack.push(2);
+     * int popped = stack.pop(); // 2
+     * }</pre>
+     *
+     * @return the value at the top of the stack
+     * @throws java.util.EmptyStackException if the stack is empty
+     */
+    public int pop() {
+        if (isEmpty()) {
+            throw new EmptyStackException();
+        }
+
+        return data[top--];
+    }
+
+    /**
+     * Returns, but does not remove, the top value of the stack.
+     *
+     * <p>
+     * Example:
+     * </p>
+     *
+     * <pre>{@code
+     * stack.push(7);
+     * int top = stack.peek(); // 7
+     * }</pre>
+     *
+     * @return the value at the top of the stack
+     * @throws java.util.EmptyStackException if the stack is empty
+     */
+    public int peek() {
+        if (isEmpty()) {
+            throw new EmptyStackException();
+        }
+
+        return data[top];
+    }
+
+    /**
+     * Returns whether the stack contains no values.
+     *
+     * @return {@code true} if stack has no elements
+     */
+    public boolean isEmpty() {
+        return top == -1;
+    }
+
+    /**
+     * Returns the number of values on the stack.
+     *
+     * @return the number of values on the stack
+     */
+    public int size() {
+        return top + 1;
+    }
+
+    /**
+     * Removes all values from the stack. The underlying array is kept so the
+     * stack can be reused without reallocating.
+     */
+    public void clear() {
+        top = -1;
+    }
+}
@@ -0,0 +1,365 @@
+/**
+ * Splits an arithmetic expression into tokens by scanning its characters in
+ * place.
+ * <p>
+ * The lexer does not create a String or any other object per token. Each call
+ * to {@link #next()} returns the type of the next token, and the details of
+ * that token (its number value, operator code or position) are read from the
+ * lexer itself. Tokens may be separated by any amount of whitespace, or none
+ * at all, so {@code "(3+4)*2"} and {@code "( 3 + 4 ) * 2"} produce the same
+ * tokens.
+ * </p>
+ *
+ * <p>
+ * Example:
+ * </p>
+ *
+ * <pre>{@code
+ * Lexer lexer = new Lexer("12*(3+4)");
+ * int type;
+ * while ((type = lexer.next()) != Lexer.END) {
+ *     if (type == Lexer.NUMBER) {
+ *         System.out.println(lexer.value()); // prints 12, 3, 4
+ *     }
+ * }
+ * }</pre>
+ */
+public class Lexer {
+
+    /**
+     * Token type returned when the end of the input is reached.
+     */
+    public static final int END = 0;
+
+    /**
+     * Token type of a non-negative integer literal. Its value is available
+     * from {@link #value()}.
+     */
+    public static final int NUMBER = 1;
+
+    /**
+     * Token type of a binary operator (+ - * /). Its code is available from
+     * {@link #operator()}.
+     */
+    public static final int OPERATOR = 2;
+
+    /**
+     * Token type of a left parenthesis.
+     */
+    public static final int LEFT_PAREN = 3;
+
+    /**
+     * Token type of a right parenthesis.
+     */
+    public static final int RIGHT_PAREN = 4;
+
+    /**
+     * Token type of a character that cannot start any token, or of a number
+     * too large to fit in a {@code long}.
+     */
+    public static final int ERROR = 5;
+
+    /**
+     * Token type of a variable name: a letter or underscore followed by any
+     * letters, digits or underscores. Its text is the input from
+     * {@link #start()} to {@link #end()}.
+     */
+    public static final int IDENTIFIER = 6;
+
+    /**
+     * The characters being scanned.
+     */
+    private CharSequence input;
+
+    /**
+     * Index of the next character to scan.
+     */
+    private int position;
+
+    /**
+     * Index one past the last character to scan.
+     */
+    private int limit;
+
+    /**
+     * Index of the first character of the current token.
+     */
+    private int tokenStart;
+
+    /**
+     * Value of the current token when it is a {@link #NUMBER}.
+     */
+    private long value;
+
+    /**
+     * Operator code of the current token when it is an {@link #OPERATOR}.
+     */
+    private int operator;
+
+    /**
+     * Constructs a lexer with no input. {@link #reset(CharSequence)} must be
+     * called before scanning.
+     *
+     * <p>
+     * Example:
+     * </p>
+     *
+     * <pre>{@code
+     * Lexer lexer = new Lexer();
+     * lexer.reset("3 + 4");
+     * }</pre>
+     */
+    public Lexer() {
+        this("");
+    }
+
+    /**
+     * Constructs a lexer that scans the whole of the given input.
+     *
+     * <p>
+     * Example:
+     * </p>
+     *
+     * <pre>{@code
+     * Lexer lexer = new Lexer("3 + 4");
+     * }</pre>
+     *
+     * @param input the expression to scan
+     */
+    public Lexer(CharSequence input) {
+        reset(input);
+    }
+
+    /**
+     * Restarts scanning at the beginning of the given input. A single lexer
+     * can be reused for many expressions this way.
+     *
+     * @param input the expression to scan
+     */
+    public void reset(CharSequence input) {
+        reset(input, 0, input.length());
+    }
+
+    /**
+     * Restarts scanning over the characters of {@code input} from index
+     * {@code start} (inclusive) to {@code end} (exclusive).
+     *
+     * <p>
+     * Example:
+     * </p>
+     *
+     * <pre>{@code
+     * lexer.reset("3+4\n5*6", 4, 7); // scans only "5*6"
+     * }</pre>
+     *
+     * @param input the characters to scan
+     * @param start index of the first character to scan
+     * @param end   index one past the last character to scan
+     * @throws IndexOutOfBoundsException if the range is not within the input
+     */
+    public void reset(CharSequence input, int start, int end) {
+        if (start < 0 || end > input.length() || start > end) {
+            throw new IndexOutOfBoundsException("range [" + start + ", " + end + ") of length " + input.length());
+        }
+        this.input = input;
+        this.position = start;
+        this.limit = end;
+        this.tokenStart = start;
+    }
+
+    /**
+     * Scans the next token and returns its type.
+     *
+     * @return one of {@link #END}, {@link #NUMBER}, {@link #IDENTIFIER},
+     *         {@link #OPERATOR}, {@link #LEFT_PAREN}, {@link #RIGHT_PAREN} or
+     *         {@link #ERROR}
+     */
+    public int next() {
+        // skip whitespace between tokens
+        while (position < limit && Character.isWhitespace(input.charAt(position))) {
+            position++;
+        }
+
+        tokenStart = position;
+        if (position == limit) {
+            return END;
+        }
+
+        char c = input.charAt(position++);
+        switch (c) {
+            case '(':
+                return LEFT_PAREN;
+            case ')':
+                return RIGHT_PAREN;
+            case '+':
+            case '-':
+            case '*':
+            case '/':
+                operator = c;
+                return OPERATOR;
+            default:
+                if (c >= '0' && c <= '9') {
+                    return scanNumber(c - '0');
+                }
+                if (Character.isLetter(c) || c == '_') {
+                    return scanIdentifier();
+                }
+                return ERROR;
+        }
+    }
+
+    /**
+     * Reads the remaining digits of a number whose first digit has already
+     * been consumed.
+     *
+     * @param firstDigit the value of the first digit
+     * @return {@link #NUMBER}, or {@link #ERROR} if the number overflows a
+     *         {@code long}
+     */
+    private int scanNumber(int firstDigit) {
+        long result = firstDigit;
+        boolean overflow = false;
+
+        while (position < limit) {
+            char c = input.charAt(position);
+            if (c < '0' || c > '9') {
+                break;
+            }
+            int digit = c - '0';
+            if (result > (Long.MAX_VALUE - digit) / 10) {
+                overflow = true;
+            } else {
+                result = result * 10 + digit;
+            }
+            position++;
+        }
+
+        value = result;
+        return overflow ? ERROR : NUMBER;
+    }
+
+    /**
+     * Reads the remaining characters of an identifier whose first character
+     * has already been consumed.
+     *
+     * @return {@link #IDENTIFIER}
+     */
+    private int scanIdentifier() {
+        while (position < limit) {
+            char c = input.charAt(position);
+            if (!Character.isLetterOrDigit(c) && c != '_') {
+                break;
+            }
+            position++;
+        }
+
+        return IDENTIFIER;
+    }
+
+    /**
+     * Returns {@code true} if the current token's text equals {@code name}.
+     * Lets an {@link #IDENTIFIER} be compared with a known name without
+     * creating a String for it.
+     *
+     * @param name the text to compare with
+     * @return whether the current token is exactly {@code name}
+     */
+    public boolean tokenEquals(CharSequence name) {
+        int length = position - tokenStart;
+        if (length != name.length()) {
+            return false;
+        }
+        for (int i = 0; i < length; i++) {
+            if (input.charAt(tokenStart + i) != name.charAt(i)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Returns the value of the current {@link #NUMBER} token.
+     *
+     * @return the value of the current number token
+     */
+    public long value() {
+        return value;
+    }
+
+    /**
+     * Returns the value of the current {@link #NUMBER} token as an
+     * {@code int}.
+     *
+     * @return the value of the current number token
+     * @throws NumberFormatException if the value does not fit in an
+     *                               {@code int}
+     */
+    public int intValue() {
+        if (value > Integer.MAX_VALUE) {
+            throw new NumberFormatException("For input string: \"" + input.subSequence(tokenStart, position) + "\"");
+        }
+        return (int) value;
+    }
+
+    /**
+     * Returns the operator code of the current {@link #OPERATOR} token, which
+     * is the operator character itself ({@code '+'}, {@code '-'}, {@code '*'}
+     * or {@code '/'}).
+     *
+     * @return the operator code of the current token
+     */
+    public int operator() {
+        return operator;
+    }
+
+    /**
+     * Returns the index in the input of the first character of the current
+     * token.
+     *
+     * @return the start index of the current token
+     */
+    public int start() {
+        return tokenStart;
+    }
+
+    /**
+     * Returns the index in the input one past the last character of the
+     * current token.
+     *
+     * @return the end index of the current token
+     */
+    public int end() {
+        return position;
+    }
+
+    /**
+     * Returns the shared String for an operator code, so callers that need
+     * operators as text do not have to create a new String per token.
+     *
+     * <p>
+     * Example:
+     * </p>
+     *
+     * <pre>{@code
+     * Lexer.operatorText('*'); // "*"
+     * }</pre>
+     *
+     * @param op the operator code
+     * @return the operator as a String
+     * @throws IllegalArgumentException if {@code op} is not an operator code
+     */
+    public static String operatorText(int op) {
+        switch (op) {
+            case '+':
+                return "+";
+            case '-':
+                return "-";
+            case '*':
+                return "*";
+            case '/':
+                return "/";
+            default:
+                throw new IllegalArgumentException("Unknown operator: " + (char) op);
+        }
+    }
+}
@@ -26,6 +26,11 @@ public class LinkedListBasedStack implements StackADT {
      */
     private Node top;
 
+    /**
+     * Number of nodes on the stack.
+     */
+    private int size;
+
     /**
      * Constructs an empty linked list based stack.
      * 
@@ -61,6 +66,7 @@ public class LinkedListBasedStack implements StackADT {
         Node newNode = new Node(item);
         newNode.next = top;
         top = newNode;
+        size++;
     }
 
     /**
@@ -87,6 +93,7 @@ public class LinkedListBasedStack implements StackADT {
 
         String value = top.value;
         top = top.next; // remove the node
+        size--;
         return value;
     }
 
@@ -133,4 +140,24 @@ public class LinkedListBasedStack implements StackADT {
     public boolean isEmpty() {
         return top == null;
     }
+
+    /**
+     * Returns the number of elements on the stack.
+     *
+     * @return the number of elements on the stack
+     */
+    @Override
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Removes all elements from the stack by dropping the whole chain of
+     * nodes at once.
+     */
+    @Override
+    public void clear() {
+        top = null;
+        size = 0;
+    }
 }
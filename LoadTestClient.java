@@ -0,0 +1,346 @@
+import java.io.IOException;
+import java.net.SocketAddress;
+import java.net.StandardProtocolFamily;
+import java.net.UnixDomainSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+
+/**
+ * Load generator for {@code EvaluationServer} that measures request latency.
+ * <p>
+ * Each connection keeps up to {@code window} requests in flight: it sends
+ * requests until the window is full, then sends one more for every response
+ * it reads. The latency of a request is the time from its send to the
+ * arrival of its response, so it includes queueing behind earlier requests
+ * on the same connection. All latencies of all connections are sorted at
+ * the end to report percentiles.
+ * </p>
+ *
+ * <p>
+ * Example:
+ * </p>
+ *
+ * <pre>{@code
+ * LoadTestClient.Result result = new LoadTestClient(server.localAddress(), 8, 100_000, 32)
+ *         .run("( 7 + 3 ) * ( 5 + 2 ) / ( 2 + 1 )");
+ * System.out.println(result); // requests, throughput, p50/p99/p999
+ * }</pre>
+ */
+public class LoadTestClient {
+
+    /**
+     * The server address.
+     */
+    private final SocketAddress address;
+
+    /**
+     * Number of concurrent connections.
+     */
+    private final int connections;
+
+    /**
+     * Number of requests sent on each connection.
+     */
+    private final int requestsPerConnection;
+
+    /**
+     * Largest number of requests in flight on one connection.
+     */
+    private final int window;
+
+    /**
+     * Constructs a client for the given load.
+     *
+     * <p>
+     * Example:
+     * </p>
+     *
+     * <pre>{@code
+     * LoadTestClient client = new LoadTestClient(UnixDomainSocketAddress.of("/tmp/eval.sock"), 4, 10_000, 16);
+     * }</pre>
+     *
+     * @param address               the server address
+     * @param connections           the number of concurrent connections
+     * @param requestsPerConnection the number of requests per connection
+     * @param window                the most requests in flight per connection
+     * @throws IllegalArgumentException if any count is not positive
+     */
+    public LoadTestClient(SocketAddress address, int connections, int requestsPerConnection, int window) {
+        if (connections <= 0 || requestsPerConnection <= 0 || window <= 0) {
+            throw new IllegalArgumentException("Invalid load: " + connections + " connections, "
+                    + requestsPerConnection + " requests, window " + window);
+        }
+        this.address = address;
+        this.connections = connections;
+        this.requestsPerConnection = requestsPerConnection;
+        this.window = window;
+    }
+
+    /**
+     * Sends the same expression as every request and waits for all
+     * responses.
+     *
+     * @param expression the infix expression to send
+     * @return the measured latencies
+     * @throws IOException if a connection fails
+     */
+    public Result run(String expression) throws IOException {
+        byte[] request = (expression + "\n").getBytes(StandardCharsets.ISO_8859_1);
+        ExecutorService threads = EvaluationServer.newThreadPerTaskExecutor("load-test-client");
+        long start = System.nanoTime();
+
+        try {
+            List<Future<long[]>> tasks = new ArrayList<>();
+            for (int i = 0; i < connections; i++) {
+                tasks.add(threads.submit(() -> runConnection(request)));
+            }
+
+            long[] latencies = new long[connections * requestsPerConnection];
+            int errors = 0;
+            for (int i = 0; i < connections; i++) {
+                long[] connectionLatencies = await(tasks.get(i));
+                for (int j = 0; j < requestsPerConnection; j++) {
+                    // errors are recorded as negative latencies
+                    if (connectionLatencies[j] < 0) {
+                        errors++;
+                        connectionLatencies[j] = -connectionLatencies[j];
+                    }
+                }
+                System.arraycopy(connectionLatencies, 0, latencies, i * requestsPerConnection, requestsPerConnection);
+            }
+            return new Result(latencies, errors, System.nanoTime() - start);
+        } finally {
+            threads.shutdown();
+        }
+    }
+
+    /**
+     * Sends all requests of one connection, keeping the window full.
+     *
+     * @param request the bytes of one request line
+     * @return the latency of each request in nanoseconds, negated for error
+     *         responses
+     * @throws IOException if the connection fails
+     */
+    private long[] runConnection(byte[] request) throws IOException {
+        long[] sentAt = new long[requestsPerConnection];
+        long[] latencies = new long[requestsPerConnection];
+        ByteBuffer out = ByteBuffer.allocate(request.length * window);
+        ByteBuffer in = ByteBuffer.allocate(64 * 1024);
+        int sent = 0;
+        int received = 0;
+        boolean lineStart = true;
+        boolean error = false;
+
+        try (SocketChannel channel = open(address)) {
+            while (received < requestsPerConnection) {
+                // top the window up
+                long now = System.nanoTime();
+                while (sent < requestsPerConnection && sent - received < window) {
+                    out.put(request);
+                    sentAt[sent++] = now;
+                }
+                out.flip();
+                while (out.hasRemaining()) {
+                    channel.write(out);
+                }
+                out.clear();
+
+                if (channel.read(in) < 0) {
+                    throw new IOException("Server closed the connection after " + received + " responses");
+                }
+                now = System.nanoTime();
+                in.flip();
+                while (in.hasRemaining()) {
+                    byte b = in.get();
+                    if (lineStart) {
+                        error = b == 'E';
+                        lineStart = false;
+                    }
+                    if (b == '\n') {
+                        long latency = now - sentAt[received];
+                        latencies[received++] = error ? -latency : latency;
+                        lineStart = true;
+                    }
+                }
+                in.clear();
+            }
+        }
+        return latencies;
+    }
+
+    /**
+     * Opens a blocking connection to a TCP or Unix domain socket address.
+     *
+     * @param address the server address
+     * @return the connected channel
+     * @throws IOException if the connection fails
+     */
+    private static SocketChannel open(SocketAddress address) throws IOException {
+        SocketChannel channel = address instanceof UnixDomainSocketAddress
+                ? SocketChannel.open(StandardProtocolFamily.UNIX)
+                : SocketChannel.open();
+        channel.connect(address);
+        return channel;
+    }
+
+    /**
+     * Waits for a connection task, rethrowing its failure.
+     *
+     * @param task the task
+     * @return the latencies it measured
+     * @throws IOException if the connection failed
+     */
+    private static long[] await(Future<long[]> task) throws IOException {
+        try {
+            return task.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while waiting for responses", e);
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof IOException) {
+                throw (IOException) cause;
+            }
+            if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            }
+            throw new IllegalStateException(cause);
+        }
+    }
+
+    /**
+     * The latencies measured by one run.
+     */
+    public static final class Result {
+
+        /**
+         * Every latency in nanoseconds, sorted.
+         */
+        private final long[] latencies;
+
+        /**
+         * Number of error responses.
+         */
+        private final int errors;
+
+        /**
+         * Wall-clock time of the whole run in nanoseconds.
+         */
+        private final long elapsedNanos;
+
+        /**
+         * Creates a result, sorting the latencies.
+         *
+         * @param latencies    every latency in nanoseconds
+         * @param errors       the number of error responses
+         * @param elapsedNanos the duration of the run
+         */
+        Result(long[] latencies, int errors, long elapsedNanos) {
+            this.latencies = latencies;
+            this.errors = errors;
+            this.elapsedNanos = elapsedNanos;
+            Arrays.sort(latencies);
+        }
+
+        /**
+         * Returns the number of responses received.
+         *
+         * @return the number of requests
+         */
+        public int requests() {
+            return latencies.length;
+        }
+
+        /**
+         * Returns the number of {@code ERROR} responses.
+         *
+         * @return the number of errors
+         */
+        public int errors() {
+            return errors;
+        }
+
+        /**
+         * Returns the number of requests answered per second.
+         *
+         * @return the throughput
+         */
+        public double throughput() {
+            return latencies.length * 1e9 / elapsedNanos;
+        }
+
+        /**
+         * Returns the latency that the given fraction of requests did not
+         * exceed.
+         *
+         * <p>
+         * Example:
+         * </p>
+         *
+         * <pre>{@code
+         * long p99 = result.percentile(0.99);
+         * }</pre>
+         *
+         * @param fraction the fraction, from 0 to 1
+         * @return the latency in nanoseconds
+         * @throws IllegalArgumentException if {@code fraction} is outside
+         *                                  [0, 1]
+         */
+        public long percentile(double fraction) {
+            if (fraction < 0 || fraction > 1) {
+                throw new IllegalArgumentException("Invalid fraction: " + fraction);
+            }
+            int index = (int) Math.ceil(fraction * latencies.length) - 1;
+            return latencies[Math.max(0, index)];
+        }
+
+        /**
+         * Returns a one-line summary with the p50, p99 and p999 latencies in
+         * microseconds.
+         *
+         * @return the summary
+         */
+        @Override
+        public String toString() {
+            return String.format("%d requests, %d errors, %.0f req/s, p50 %.1f us, p99 %.1f us, p999 %.1f us",
+                    requests(), errors, throughput(), percentile(0.5) / 1e3, percentile(0.99) / 1e3,
+                    percentile(0.999) / 1e3);
+        }
+    }
+
+    /**
+     * Runs a load test against a running server and prints the result.
+     *
+     * <p>
+     * Example:
+     * </p>
+     *
+     * <pre>{@code
+     * java LoadTestClient --port 7000 8 100000 32 "( 4 + 5 ) * ( 6 + 7 ) - 8"
+     * }</pre>
+     *
+     * @param args {@code --port n} or {@code --unix path}, then the number of
+     *             connections, requests per connection, window and the
+     *             expression
+     * @throws IOException if a connection fails
+     */
+    public static void main(String[] args) throws IOException {
+        SocketAddress address = EvaluationServer.parseAddress(args);
+        if (address == null || args.length != 6) {
+            System.err.println("Usage: java LoadTestClient (--port n | --unix path) connections requests window expression");
+            System.exit(2);
+        }
+
+        LoadTestClient client = new LoadTestClient(address, Integer.parseInt(args[2]), Integer.parseInt(args[3]),
+                Integer.parseInt(args[4]));
+        System.out.println(client.run(args[5]));
+    }
+}
@@ -0,0 +1,599 @@
+import java.util.EmptyStackException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+/**
+ * Decorator that records what a {@code StackADT} is doing, so stacks can be
+ * observed in production.
+ * <p>
+ * Every call is forwarded to the wrapped stack. Along the way it counts
+ * pushes, pops and peeks, tracks the current and deepest depth, counts pops
+ * and peeks that failed on an empty stack and, when the wrapped stack is an
+ * {@code ArrayBasedStack}, counts resizes of its array. The counters can be
+ * read at any time with {@link #snapshot()}. Resizes and empty-stack failures
+ * are also emitted as JDK Flight Recorder events, which cost nothing unless a
+ * recording has enabled them.
+ * </p>
+ * <p>
+ * Counters are updated with {@code LongAdder}, so a metered thread-safe
+ * stack stays thread-safe and a push or pop costs one uncontended increment.
+ * Depth is not kept in a field of its own; it is worked out from the push,
+ * pop and clear counts, so the wrapped stack should only be used through the
+ * decorator. Every push compares the depth with the high-water mark, which is
+ * only written when the depth goes above it, so the peak is exact for a
+ * stack used by one thread. Under concurrent use the counters are read one
+ * after another, so a peak can be under-reported by the operations that
+ * raced with it, but never over-reported. Running with
+ * {@code -Dstack.metrics.disabled=true} makes {@link #wrap} return the stack
+ * unwrapped, which removes the overhead entirely.
+ * </p>
+ *
+ * <p>
+ * Example:
+ * </p>
+ *
+ * <pre>{@code
+ * StackADT stack = MeteredStack.wrap(new ArrayBasedStack());
+ * stack.push("A");
+ * stack.pop();
+ * if (stack instanceof MeteredStack) {
+ *     System.out.println(((MeteredStack) stack).snapshot());
+ * }
+ * }</pre>
+ */
+public class MeteredStack implements StackADT {
+
+    /**
+     * Whether {@link #wrap} adds metering. Read once at startup from the
+     * {@code stack.metrics.disabled} system property.
+     */
+    private static final boolean ENABLED = !Boolean.getBoolean("stack.metrics.disabled");
+
+    /**
+     * The stack every call is forwarded to.
+     */
+    private final StackADT stack;
+
+    /**
+     * The wrapped stack if it is an {@code ArrayBasedStack}, otherwise
+     * {@code null}.
+     */
+    private final ArrayBasedStack arrayStack;
+
+    /**
+     * Number of successful pushes, counting each item of a bulk push.
+     */
+    private final LongAdder pushes = new LongAdder();
+
+    /**
+     * Number of successful pops, counting each item of a bulk pop.
+     */
+    private final LongAdder pops = new LongAdder();
+
+    /**
+     * Number of successful peeks.
+     */
+    private final LongAdder peeks = new LongAdder();
+
+    /**
+     * Number of pops and peeks that failed because the stack was empty.
+     */
+    private final LongAdder emptyFailures = new LongAdder();
+
+    /**
+     * Number of times the wrapped array was resized.
+     */
+    private final LongAdder resizes = new LongAdder();
+
+    /**
+     * Number of elements removed by {@link #clear()}.
+     */
+    private final LongAdder cleared = new LongAdder();
+
+    /**
+     * Number of elements the wrapped stack held when it was wrapped.
+     */
+    private final long initialDepth;
+
+    /**
+     * Largest number of elements seen at once.
+     */
+    private final AtomicLong highWaterDepth = new AtomicLong();
+
+    /**
+     * Capacity of the wrapped array after the last resize that was counted.
+     * Only the thread whose compare-and-set moves it counts the resize.
+     */
+    private final AtomicInteger lastCapacity = new AtomicInteger();
+
+    /**
+     * Wraps a stack in a {@code MeteredStack}, or returns it unchanged if
+     * metering is disabled with {@code -Dstack.metrics.disabled=true}.
+     *
+     * <p>
+     * Example:
+     * </p>
+     *
+     * <pre>{@code
+     * StackADT stack = MeteredStack.wrap(new LinkedListBasedStack());
+     * }</pre>
+     *
+     * @param stack the stack to meter
+     * @return the metered stack, or {@code stack} itself when disabled
+     */
+    public static StackADT wrap(StackADT stack) {
+        return ENABLED ? new MeteredStack(stack) : stack;
+    }
+
+    /**
+     * Constructs a metered view of the given stack, whatever the
+     * {@code stack.metrics.disabled} setting.
+     *
+     * <p>
+     * Example:
+     * </p>
+     *
+     * <pre>{@code
+     * MeteredStack stack = new MeteredStack(new ArrayBasedStack());
+     * }</pre>
+     *
+     * @param stack the stack to meter
+     */
+    public MeteredStack(StackADT stack) {
+        this.stack = stack;
+        this.arrayStack = stack instanceof ArrayBasedStack ? (ArrayBasedStack) stack : null;
+        this.lastCapacity.set(arrayStack != null ? arrayStack.capacity() : 0);
+        this.initialDepth = stack.size();
+        highWaterDepth.set(initialDepth);
+    }
+
+    /**
+     * Pushes an item onto the wrapped stack and counts it.
+     *
+     * @param item the string value to push onto the stack
+     */
+    @Override
+    public void push(String item) {
+        stack.push(item);
+        pushes.increment();
+        checkResize();
+        raiseHighWater();
+    }
+
+    /**
+     * Pops an item from the wrapped stack and counts it.
+     *
+     * @return the string at the top of the stack
+     * @throws java.util.EmptyStackException if the stack is empty
+     */
+    @Override
+    public String pop() {
+        String value;
+        try {
+            value = stack.pop();
+        } catch (EmptyStackException e) {
+            failedOnEmpty("pop");
+            throw e;
+        }
+        pops.increment();
+        checkResize();
+        return value;
+    }
+
+    /**
+     * Peeks at the wrapped stack and counts it.
+     *
+     * @return the string at the top of the stack
+     * @throws java.util.EmptyStackException if the stack is empty
+     */
+    @Override
+    public String peek() {
+        String value;
+        try {
+            value = stack.peek();
+        } catch (EmptyStackException e) {
+            failedOnEmpty("peek");
+            throw e;
+        }
+        peeks.increment();
+        return value;
+    }
+
+    /**
+     * Returns whether the wrapped stack contains no elements.
+     *
+     * @return {@code true} if the stack is empty
+     */
+    @Override
+    public boolean isEmpty() {
+        return stack.isEmpty();
+    }
+
+    /**
+     * Returns the number of elements on the wrapped stack.
+     *
+     * @return the number of elements on the stack
+     */
+    @Override
+    public int size() {
+        return stack.size();
+    }
+
+    /**
+     * Removes all elements from the wrapped stack.
+     */
+    @Override
+    public void clear() {
+        // the largest depth is the one just before clearing
+        cleared.add(raiseHighWater());
+        stack.clear();
+        checkResize();
+    }
+
+    /**
+     * Pushes every item onto the wrapped stack and counts each one.
+     *
+     * @param items the string values to push onto the stack
+     */
+    @Override
+    public void pushAll(String[] items) {
+        stack.pushAll(items);
+        pushes.add(items.length);
+        checkResize();
+        raiseHighWater();
+    }
+
+    /**
+     * Pops the top {@code n} elements of the wrapped stack and counts each
+     * one.
+     *
+     * @param dest the array that receives the popped elements
+     * @param n    the number of elements to pop
+     * @throws java.util.EmptyStackException if the stack has fewer than
+     *                                       {@code n} elements
+     */
+    @Override
+    public void popN(String[] dest, int n) {
+        try {
+            stack.popN(dest, n);
+        } catch (EmptyStackException e) {
+            failedOnEmpty("popN");
+            throw e;
+        }
+        pops.add(n);
+        checkResize();
+    }
+
+    /**
+     * Returns the current values of all counters.
+     *
+     * <p>
+     * Example:
+     * </p>
+     *
+     * <pre>{@code
+     * MeteredStack.Snapshot s = stack.snapshot();
+     * System.out.println(s.highWaterDepth());
+     * }</pre>
+     *
+     * Counters are read one after another while other threads may still be
+     * changing them, so under concurrent use they need not add up exactly.
+     *
+     * @return a snapshot of the counters
+     */
+    public Snapshot snapshot() {
+        long depth = raiseHighWater();
+        return new Snapshot(pushes.sum(), pops.sum(), peeks.sum(), emptyFailures.sum(),
+                resizes.sum(), depth, highWaterDepth.get());
+    }
+
+    /**
+     * Emits the current counters as a {@code stack.Statistics} Flight
+     * Recorder event, for example from a scheduled task.
+     */
+    public void commitStatisticsEvent() {
+        StatisticsEvent event = new StatisticsEvent();
+        if (event.isEnabled()) {
+            Snapshot s = snapshot();
+            event.stackType = stack.getClass().getSimpleName();
+            event.pushes = s.pushes();
+            event.pops = s.pops();
+            event.peeks = s.peeks();
+            event.emptyFailures = s.emptyFailures();
+            event.resizes = s.resizes();
+            event.highWaterDepth = s.highWaterDepth();
+            event.commit();
+        }
+    }
+
+    /**
+     * Works out the current depth from the counters and raises the
+     * high-water mark if needed.
+     *
+     * @return the current depth
+     */
+    private long raiseHighWater() {
+        // pushes first, so a racing pop can only make the depth look lower
+        long now = initialDepth + pushes.sum() - pops.sum() - cleared.sum();
+        long high;
+        while (now > (high = highWaterDepth.get())) {
+            if (highWaterDepth.compareAndSet(high, now)) {
+                break;
+            }
+        }
+        return now;
+    }
+
+    /**
+     * Counts and reports a pop or peek on an empty stack.
+     *
+     * @param operation the name of the failed operation
+     */
+    private void failedOnEmpty(String operation) {
+        emptyFailures.increment();
+        EmptyStackEvent event = new EmptyStackEvent();
+        if (event.isEnabled()) {
+            event.stackType = stack.getClass().getSimpleName();
+            event.operation = operation;
+            event.commit();
+        }
+    }
+
+    /**
+     * Counts and reports a resize if the wrapped array changed capacity.
+     */
+    private void checkResize() {
+        if (arrayStack == null) {
+            return;
+        }
+
+        int capacity = arrayStack.capacity();
+        int previous = lastCapacity.get();
+        if (capacity != previous && lastCapacity.compareAndSet(previous, capacity)) {
+            resizes.increment();
+            ResizeEvent event = new ResizeEvent();
+            if (event.isEnabled()) {
+                event.oldCapacity = previous;
+                event.newCapacity = capacity;
+                event.commit();
+            }
+        }
+    }
+
+    /**
+     * A point-in-time copy of a {@code MeteredStack}'s counters.
+     */
+    public static final class Snapshot {
+
+        /**
+         * Number of successful pushes.
+         */
+        private final long pushes;
+
+        /**
+         * Number of successful pops.
+         */
+        private final long pops;
+
+        /**
+         * Number of successful peeks.
+         */
+        private final long peeks;
+
+        /**
+         * Number of pops and peeks that failed on an empty stack.
+         */
+        private final long emptyFailures;
+
+        /**
+         * Number of resizes of the wrapped array.
+         */
+        private final long resizes;
+
+        /**
+         * Number of elements when the snapshot was taken.
+         */
+        private final long depth;
+
+        /**
+         * Largest number of elements seen at once.
+         */
+        private final long highWaterDepth;
+
+        /**
+         * Creates a snapshot.
+         *
+         * @param pushes         number of successful pushes
+         * @param pops           number of successful pops
+         * @param peeks          number of successful peeks
+         * @param emptyFailures  number of failed pops and peeks
+         * @param resizes        number of array resizes
+         * @param depth          current number of elements
+         * @param highWaterDepth largest number of elements seen
+         */
+        Snapshot(long pushes, long pops, long peeks, long emptyFailures, long resizes, long depth,
+                long highWaterDepth) {
+            this.pushes = pushes;
+            this.pops = pops;
+            this.peeks = peeks;
+            this.emptyFailures = emptyFailures;
+            this.resizes = resizes;
+            this.depth = depth;
+            this.highWaterDepth = highWaterDepth;
+        }
+
+        /**
+         * Returns the number of successful pushes.
+         *
+         * @return the push count
+         */
+        public long pushes() {
+            return pushes;
+        }
+
+        /**
+         * Returns the number of successful pops.
+         *
+         * @return the pop count
+         */
+        public long pops() {
+            return pops;
+        }
+
+        /**
+         * Returns the number of successful peeks.
+         *
+         * @return the peek count
+         */
+        public long peeks() {
+            return peeks;
+        }
+
+        /**
+         * Returns the number of pops and peeks that failed on an empty stack.
+         *
+         * @return the empty-stack failure count
+         */
+        public long emptyFailures() {
+            return emptyFailures;
+        }
+
+        /**
+         * Returns the number of times the wrapped array was resized. Always
+         * 0 for stacks that are not an {@code ArrayBasedStack}.
+         *
+         * @return the resize count
+         */
+        public long resizes() {
+            return resizes;
+        }
+
+        /**
+         * Returns the number of elements when the snapshot was taken.
+         *
+         * @return the current depth
+         */
+        public long depth() {
+            return depth;
+        }
+
+        /**
+         * Returns the largest number of elements seen at once.
+         *
+         * @return the high-water depth
+         */
+        public long highWaterDepth() {
+            return highWaterDepth;
+        }
+
+        @Override
+        public String toString() {
+            return "pushes=" + pushes + ", pops=" + pops + ", peeks=" + peeks
+                    + ", emptyFailures=" + emptyFailures + ", resizes=" + resizes
+                    + ", depth=" + depth + ", highWaterDepth=" + highWaterDepth;
+        }
+    }
+
+    /**
+     * Flight Recorder event for a resize of an {@code ArrayBasedStack}.
+     */
+    @Name("stack.Resize")
+    @Label("Stack Resize")
+    @Category("Stacks")
+    @Description("The array behind an ArrayBasedStack was grown or shrunk")
+    static final class ResizeEvent extends Event {
+
+        /**
+         * Capacity before the resize.
+         */
+        @Label("Old Capacity")
+        int oldCapacity;
+
+        /**
+         * Capacity after the resize.
+         */
+        @Label("New Capacity")
+        int newCapacity;
+    }
+
+    /**
+     * Flight Recorder event for a pop or peek on an empty stack.
+     */
+    @Name("stack.EmptyStack")
+    @Label("Empty Stack Access")
+    @Category("Stacks")
+    @Description("A pop or peek failed because the stack was empty")
+    static final class EmptyStackEvent extends Event {
+
+        /**
+         * Class name of the wrapped stack.
+         */
+        @Label("Stack Type")
+        String stackType;
+
+        /**
+         * The operation that failed.
+         */
+        @Label("Operation")
+        String operation;
+    }
+
+    /**
+     * Flight Recorder event carrying a snapshot of the counters.
+     */
+    @Name("stack.Statistics")
+    @Label("Stack Statistics")
+    @Category("Stacks")
+    @Description("Counters of a MeteredStack")
+    static final class StatisticsEvent extends Event {
+
+        /**
+         * Class name of the wrapped stack.
+         */
+        @Label("Stack Type")
+        String stackType;
+
+        /**
+         * Number of successful pushes.
+         */
+        @Label("Pushes")
+        long pushes;
+
+        /**
+         * Number of successful pops.
+         */
+        @Label("Pops")
+        long pops;
+
+        /**
+         * Number of successful peeks.
+         */
+        @Label("Peeks")
+        long peeks;
+
+        /**
+         * Number of pops and peeks that failed on an empty stack.
+         */
+        @Label("Empty Failures")
+        long emptyFailures;
+
+        /**
+         * Number of resizes of the wrapped array.
+         */
+        @Label("Resizes")
+        long resizes;
+
+        /**
+         * Largest number of elements seen at once.
+         */
+        @Label("High-Water Depth")
+        long highWaterDepth;
+    }
+}
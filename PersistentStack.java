@@ -0,0 +1,166 @@
+import java.util.EmptyStackException;
+
+/**
+ * Immutable stack of strings where every change returns a new version that
+ * shares structure with the old one.
+ * <p>
+ * A stack is a chain of nodes linked from the top, like the nodes of
+ * {@code LinkedListBasedStack}, except that each node is itself a stack and
+ * can never change. {@link #push} makes one node whose tail is the current
+ * stack, and {@link #pop} returns the tail, so both are O(1) and every
+ * earlier version stays valid. Keeping a version costs nothing, which makes
+ * it cheap to roll back to, and a version can be read from any thread
+ * without locking while other threads build newer ones.
+ * </p>
+ *
+ * <p>
+ * Example:
+ * </p>
+ *
+ * <pre>{@code
+ * PersistentStack base = PersistentStack.empty().push("A").push("B");
+ * PersistentStack tried = base.push("C"); // base is unchanged
+ * base.peek(); // "B"
+ * tried.pop() == base; // true, the tail is shared
+ * }</pre>
+ */
+public final class PersistentStack {
+
+    /**
+     * The empty stack, shared by all users.
+     */
+    private static final PersistentStack EMPTY = new PersistentStack(null, null, 0);
+
+    /**
+     * The value on top, or {@code null} for the empty stack.
+     */
+    private final String value;
+
+    /**
+     * The stack below the top, or {@code null} for the empty stack.
+     */
+    private final PersistentStack next;
+
+    /**
+     * Number of values on the stack.
+     */
+    private final int size;
+
+    /**
+     * Creates a node.
+     *
+     * @param value the value on top
+     * @param next  the stack below
+     * @param size  the number of values including the top
+     */
+    private PersistentStack(String value, PersistentStack next, int size) {
+        this.value = value;
+        this.next = next;
+        this.size = size;
+    }
+
+    /**
+     * Returns the empty stack.
+     *
+     * <p>
+     * Example:
+     * </p>
+     *
+     * <pre>{@code
+     * PersistentStack stack = PersistentStack.empty();
+     * }</pre>
+     *
+     * @return the empty stack
+     */
+    public static PersistentStack empty() {
+        return EMPTY;
+    }
+
+    /**
+     * Returns a stack with {@code item} on top of this one.
+     *
+     * <p>
+     * Example:
+     * </p>
+     *
+     * <pre>{@code
+     * PersistentStack one = PersistentStack.empty().push("A");
+     * PersistentStack two = one.push("B"); // one still holds only "A"
+     * }</pre>
+     *
+     * @param item the string value to push
+     * @return the new stack
+     */
+    public PersistentStack push(String item) {
+        return new PersistentStack(item, this, size + 1);
+    }
+
+    /**
+     * Returns this stack without its top value.
+     *
+     * <p>
+     * Example:
+     * </p>
+     *
+     * <pre>{@code
+     * PersistentStack rest = stack.pop(); // stack itself is unchanged
+     * }</pre>
+     *
+     * @return the stack below the top
+     * @throws EmptyStackException if the stack is empty
+     */
+    public PersistentStack pop() {
+        if (isEmpty()) {
+            throw new EmptyStackException();
+        }
+        return next;
+    }
+
+    /**
+     * Returns the value on top of the stack.
+     *
+     * @return the string at the top of the stack
+     * @throws EmptyStackException if the stack is empty
+     */
+    public String peek() {
+        if (isEmpty()) {
+            throw new EmptyStackException();
+        }
+        return value;
+    }
+
+    /**
+     * Returns whether the stack contains no values.
+     *
+     * @return {@code true} if the stack is empty
+     */
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    /**
+     * Returns the number of values on the stack.
+     *
+     * @return the number of values
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Returns the values from the top down, like {@code "[C, B, A]"}.
+     *
+     * @return the values of the stack
+     */
+    @Override
+    public String toString() {
+        StringBuilder text = new StringBuilder("[");
+        for (PersistentStack node = this; node.size > 0; node = node.next) {
+            if (node != this) {
+                text.append(", ");
+            }
+            text.append(node.value);
+        }
+        return text.append(']').toString();
+    }
+}
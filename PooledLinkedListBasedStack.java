@@ -0,0 +1,214 @@
+import java.util.EmptyStackException;
+
+/**
+ * Linked list based stack that recycles its Node objects instead of
+ * allocating a new one on every push.
+ * <p>
+ * Popped nodes are kept on a free list and handed out again by later pushes,
+ * so a stack that repeatedly grows and shrinks, such as the operator stack of
+ * {@code InfixConverter}, stops producing short-lived garbage once it has
+ * reached its working depth. Nodes can also be preallocated up front. At most
+ * {@code maxPooled} free nodes are kept, so a single very deep expression does
+ * not pin its nodes forever. Otherwise it behaves exactly like
+ * {@code LinkedListBasedStack}.
+ * </p>
+ *
+ * <p>
+ * Example:
+ * </p>
+ *
+ * <pre>{@code
+ * StackADT stack = new PooledLinkedListBasedStack();
+ * stack.push("A");
+ * stack.pop(); // the node is kept for reuse
+ * stack.push("B"); // reuses the node, no allocation
+ * }</pre>
+ */
+public class PooledLinkedListBasedStack implements StackADT {
+
+    /**
+     * Default largest number of free nodes kept for reuse.
+     */
+    private static final int DEFAULT_MAX_POOLED = 1024;
+
+    /**
+     * Reference to the top node of the stack.
+     * When the stack is empty, {@code top == null}.
+     */
+    private Node top;
+
+    /**
+     * Number of nodes on the stack.
+     */
+    private int size;
+
+    /**
+     * Head of the list of free nodes, linked through {@code next}.
+     */
+    private Node free;
+
+    /**
+     * Number of nodes on the free list.
+     */
+    private int freeCount;
+
+    /**
+     * Largest number of free nodes kept for reuse.
+     */
+    private final int maxPooled;
+
+    /**
+     * Constructs an empty stack with no preallocated nodes that keeps up to
+     * 1024 free nodes.
+     *
+     * <p>
+     * Example:
+     * </p>
+     *
+     * <pre>{@code
+     * StackADT stack = new PooledLinkedListBasedStack();
+     * }</pre>
+     */
+    public PooledLinkedListBasedStack() {
+        this(0, DEFAULT_MAX_POOLED);
+    }
+
+    /**
+     * Constructs an empty stack with {@code preallocated} nodes ready for use
+     * that keeps up to {@code maxPooled} free nodes.
+     *
+     * <p>
+     * Example:
+     * </p>
+     *
+     * <pre>{@code
+     * // no allocation at all for expressions up to 64 operators deep
+     * StackADT stack = new PooledLinkedListBasedStack(64, 64);
+     * }</pre>
+     *
+     * @param preallocated the number of nodes to create up front
+     * @param maxPooled    the largest number of free nodes to keep
+     * @throws IllegalArgumentException if either argument is negative or
+     *                                  {@code preallocated > maxPooled}
+     */
+    public PooledLinkedListBasedStack(int preallocated, int maxPooled) {
+        if (preallocated < 0 || maxPooled < 0 || preallocated > maxPooled) {
+            throw new IllegalArgumentException("Invalid pool sizes: " + preallocated + ", " + maxPooled);
+        }
+        this.top = null;
+        this.maxPooled = maxPooled;
+        for (int i = 0; i < preallocated; i++) {
+            release(new Node(null));
+        }
+    }
+
+    /**
+     * Adds a new element onto the top of the stack, reusing a free node if
+     * one is available.
+     *
+     * @param item the string value to push onto the stack
+     */
+    @Override
+    public void push(String item) {
+        Node newNode = free;
+        if (newNode != null) {
+            free = newNode.next;
+            freeCount--;
+            newNode.value = item;
+        } else {
+            newNode = new Node(item);
+        }
+
+        newNode.next = top;
+        top = newNode;
+        size++;
+    }
+
+    /**
+     * Removes and returns the top element of the stack. The removed node is
+     * kept for reuse.
+     *
+     * @return the string at the top of the stack
+     * @throws java.util.EmptyStackException if the stack is empty
+     */
+    @Override
+    public String pop() {
+        if (isEmpty()) {
+            throw new EmptyStackException();
+        }
+
+        Node oldTop = top;
+        String value = oldTop.value;
+        top = oldTop.next; // remove the node
+        size--;
+        release(oldTop);
+        return value;
+    }
+
+    /**
+     * Returns, but does not remove, the top element of the stack.
+     *
+     * @return the string at the top of the stack
+     * @throws java.util.EmptyStackException if the stack is empty
+     */
+    @Override
+    public String peek() {
+        if (isEmpty()) {
+            throw new EmptyStackException();
+        }
+
+        return top.value;
+    }
+
+    /**
+     * Returns whether the stack contains no elements.
+     *
+     * @return {@code true} if the stack is empty
+     */
+    @Override
+    public boolean isEmpty() {
+        return top == null;
+    }
+
+    /**
+     * Returns the number of elements on the stack.
+     *
+     * @return the number of elements on the stack
+     */
+    @Override
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Removes all elements from the stack, keeping as many of the nodes for
+     * reuse as the pool allows.
+     */
+    @Override
+    public void clear() {
+        while (top != null && freeCount < maxPooled) {
+            Node oldTop = top;
+            top = oldTop.next;
+            release(oldTop);
+        }
+        top = null;
+        size = 0;
+    }
+
+    /**
+     * Puts a node on the free list, unless the list is full. The node's value
+     * is cleared so the pool does not keep popped Strings alive.
+     *
+     * @param node the node that is no longer on the stack
+     */
+    private void release(Node node) {
+        node.value = null;
+        if (freeCount < maxPooled) {
+            node.next = free;
+            free = node;
+            freeCount++;
+        } else {
+            node.next = null;
+        }
+    }
+}
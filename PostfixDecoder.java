@@ -0,0 +1,238 @@
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * Reads expressions written by {@code PostfixEncoder} back into compiled
+ * expressions.
+ * <p>
+ * Decoding checks the whole record: the length prefix must fit in the
+ * buffer, every opcode and slot must be valid and the program must leave
+ * exactly one value on the stack. An expression that only needs to be
+ * evaluated once does not need decoding at all;
+ * {@code PostfixEvaluator.evaluate(ByteBuffer)} runs the bytes directly.
+ * </p>
+ *
+ * <p>
+ * Example:
+ * </p>
+ *
+ * <pre>{@code
+ * ByteBuffer buffer = ByteBuffer.wrap(PostfixEncoder.encode("x 2 *"));
+ * CompiledExpression expr = PostfixDecoder.decode(buffer);
+ * expr.evaluate(new int[] {21}); // returns 42
+ * }</pre>
+ */
+public final class PostfixDecoder {
+
+    /**
+     * Not instantiable; use the static methods.
+     */
+    private PostfixDecoder() {
+    }
+
+    /**
+     * Decodes the expression that starts at the buffer's position and moves
+     * the position past it, so consecutive expressions can be read in turn.
+     *
+     * <p>
+     * Example:
+     * </p>
+     *
+     * <pre>{@code
+     * while (buffer.hasRemaining()) {
+     *     CompiledExpression expr = PostfixDecoder.decode(buffer);
+     * }
+     * }</pre>
+     *
+     * @param buffer the buffer holding the encoded expression
+     * @return the decoded expression
+     * @throws IllegalArgumentException if the bytes are not a valid encoded
+     *                                  expression
+     */
+    public static CompiledExpression decode(ByteBuffer buffer) {
+        Reader reader = new Reader(buffer, buffer.position());
+        int end = reader.end();
+
+        String[] variables = new String[reader.count(end)];
+        for (int slot = 0; slot < variables.length; slot++) {
+            int length = reader.length(end);
+            byte[] name = new byte[length];
+            buffer.get(reader.position, name);
+            reader.position += length;
+            variables[slot] = new String(name, StandardCharsets.UTF_8);
+        }
+
+        int[] code = new int[16];
+        long[] constants = new long[8];
+        int length = 0;
+        int constantCount = 0;
+        int depth = 0;
+        int maxDepth = 0;
+
+        while (reader.position < end) {
+            int opcode = buffer.get(reader.position++);
+            if (length + 2 > code.length) {
+                code = Arrays.copyOf(code, code.length * 2);
+            }
+            code[length++] = opcode;
+
+            if (opcode == CompiledExpression.CONST) {
+                if (constantCount == constants.length) {
+                    constants = Arrays.copyOf(constants, constantCount * 2);
+                }
+                int at = reader.position - 1;
+                long value = unzigzag(reader.varint(end));
+                if (value != (int) value) {
+                    // the compiler only ever writes int constants
+                    throw new IllegalArgumentException("Constant " + value + " does not fit in an int at byte " + at);
+                }
+                constants[constantCount] = value;
+                code[length++] = constantCount++;
+                maxDepth = Math.max(maxDepth, ++depth);
+            } else if (opcode == CompiledExpression.LOAD) {
+                int slot = reader.count(end);
+                if (slot >= variables.length) {
+                    throw new IllegalArgumentException("Bad variable slot " + slot + " at byte " + reader.position);
+                }
+                code[length++] = slot;
+                maxDepth = Math.max(maxDepth, ++depth);
+            } else if (opcode >= CompiledExpression.ADD && opcode <= CompiledExpression.DIV) {
+                if (depth < 2) {
+                    throw new IllegalArgumentException("Missing operand at byte " + (reader.position - 1));
+                }
+                depth--;
+            } else {
+                throw new IllegalArgumentException("Bad opcode " + opcode + " at byte " + (reader.position - 1));
+            }
+        }
+
+        if (depth != 1) {
+            throw new IllegalArgumentException(depth == 0 ? "Empty expression" : "Missing operator");
+        }
+        buffer.position(end);
+        return new CompiledExpression(Arrays.copyOf(code, length), Arrays.copyOf(constants, constantCount),
+                maxDepth, variables, 0);
+    }
+
+    /**
+     * Reverses {@code PostfixEncoder.zigzag}.
+     *
+     * @param value the zigzag-encoded value
+     * @return the signed value
+     */
+    static long unzigzag(long value) {
+        return (value >>> 1) ^ -(value & 1);
+    }
+
+    /**
+     * Reads varints from a buffer with absolute gets, leaving the buffer's
+     * own position alone.
+     */
+    static final class Reader {
+
+        /**
+         * The buffer being read.
+         */
+        private ByteBuffer buffer;
+
+        /**
+         * Index of the next byte to read.
+         */
+        int position;
+
+        /**
+         * Creates a reader starting at the given index.
+         *
+         * @param buffer   the buffer to read
+         * @param position the index of the first byte to read
+         */
+        Reader(ByteBuffer buffer, int position) {
+            reset(buffer, position);
+        }
+
+        /**
+         * Starts reading another buffer, so one reader can be reused.
+         *
+         * @param buffer   the buffer to read
+         * @param position the index of the first byte to read
+         */
+        void reset(ByteBuffer buffer, int position) {
+            this.buffer = buffer;
+            this.position = position;
+        }
+
+        /**
+         * Reads the length prefix of an expression.
+         *
+         * @return the index one past the end of the expression
+         * @throws IllegalArgumentException if the expression is longer than
+         *                                  the rest of the buffer
+         */
+        int end() {
+            int length = count(buffer.limit());
+            if (length > buffer.limit() - position) {
+                throw new IllegalArgumentException("Truncated expression: " + length + " bytes expected, "
+                        + (buffer.limit() - position) + " available");
+            }
+            return position + length;
+        }
+
+        /**
+         * Reads the length of a run of bytes that follows it, such as a
+         * variable name.
+         *
+         * @param end the index the run must end before
+         * @return the length of the run
+         * @throws IllegalArgumentException if the run goes past {@code end}
+         */
+        int length(int end) {
+            int length = count(end);
+            if (length > end - position) {
+                throw new IllegalArgumentException("Truncated name at byte " + position);
+            }
+            return length;
+        }
+
+        /**
+         * Reads a varint that must be a count or index no larger than an
+         * {@code int}.
+         *
+         * @param end the index the varint must end before
+         * @return the value
+         * @throws IllegalArgumentException if the varint is malformed or too
+         *                                  large
+         */
+        int count(int end) {
+            long value = varint(end);
+            if (value < 0 || value > Integer.MAX_VALUE) {
+                throw new IllegalArgumentException("Bad count " + value + " at byte " + position);
+            }
+            return (int) value;
+        }
+
+        /**
+         * Reads an unsigned varint.
+         *
+         * @param end the index the varint must end before
+         * @return the value
+         * @throws IllegalArgumentException if the varint runs past
+         *                                  {@code end} or is longer than ten
+         *                                  bytes
+         */
+        long varint(int end) {
+            long value = 0;
+            for (int shift = 0; shift < 64; shift += 7) {
+                if (position >= end) {
+                    throw new IllegalArgumentException("Truncated varint at byte " + position);
+                }
+                byte b = buffer.get(position++);
+                value |= (long) (b & 0x7F) << shift;
+                if (b >= 0) {
+                    return value;
+                }
+            }
+            throw new IllegalArgumentException("Varint too long at byte " + position);
+        }
+    }
+}
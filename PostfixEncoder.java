@@ -0,0 +1,176 @@
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * Writes expressions in a compact binary postfix format, so they can be
+ * stored or sent and later evaluated without tokenizing text.
+ * <p>
+ * An encoded expression is laid out as follows, where every count and
+ * operand is a varint (7 bits per byte, low bits first, the high bit set on
+ * every byte but the last):
+ * </p>
+ * <ol>
+ * <li>the length in bytes of everything after this field</li>
+ * <li>the number of variables, then each variable name as its length in
+ * bytes followed by its UTF-8 bytes, in slot order</li>
+ * <li>the program: one byte per instruction, using the opcodes of
+ * {@code CompiledExpression}. {@code CONST} is followed by its value,
+ * zigzag-encoded so small negative numbers stay short, and {@code LOAD} by
+ * the variable slot. The arithmetic opcodes have no operand.</li>
+ * </ol>
+ * <p>
+ * The length prefix lets a reader skip an expression, or frame many of them
+ * in one stream. Subexpressions that an optimized expression shares through
+ * temporaries are written out at each use, so the program only ever needs a
+ * value stack. {@code "10 2 6 * +"} takes 10 bytes, as many as its text, but
+ * nothing has to be split or parsed to run it.
+ * </p>
+ *
+ * <p>
+ * Example:
+ * </p>
+ *
+ * <pre>{@code
+ * byte[] encoded = PostfixEncoder.encode("10 2 6 * +");
+ * int value = new PostfixEvaluator(new ArrayBasedStack()).evaluate(ByteBuffer.wrap(encoded)); // 22
+ * }</pre>
+ */
+public final class PostfixEncoder {
+
+    /**
+     * Not instantiable; use the static methods.
+     */
+    private PostfixEncoder() {
+    }
+
+    /**
+     * Encodes a postfix expression, such as the output of
+     * {@code InfixConverter.toPostfix}. Variables are given slots in the
+     * order they first appear.
+     *
+     * <p>
+     * Example:
+     * </p>
+     *
+     * <pre>{@code
+     * byte[] encoded = PostfixEncoder.encode("x 2 *");
+     * }</pre>
+     *
+     * @param postfix the postfix expression to encode
+     * @return the encoded expression
+     * @throws IllegalArgumentException if the expression is malformed
+     * @throws NumberFormatException    if an operand does not fit in an
+     *                                  {@code int}
+     */
+    public static byte[] encode(CharSequence postfix) {
+        return encode(CompiledExpression.fromPostfix(postfix));
+    }
+
+    /**
+     * Encodes a compiled expression, keeping the slots of its variables.
+     *
+     * <p>
+     * Example:
+     * </p>
+     *
+     * <pre>{@code
+     * byte[] encoded = PostfixEncoder.encode(CompiledExpression.compile("( a + b ) * 2"));
+     * }</pre>
+     *
+     * @param expression the expression to encode
+     * @return the encoded expression
+     */
+    public static byte[] encode(CompiledExpression expression) {
+        Output body = new Output();
+
+        writeVarint(body, expression.variables.length);
+        for (String name : expression.variables) {
+            byte[] bytes = name.getBytes(StandardCharsets.UTF_8);
+            writeVarint(body, bytes.length);
+            body.write(bytes, 0, bytes.length);
+        }
+
+        // the start in the output of the code of each value on the stack
+        int[] starts = new int[expression.maxDepth];
+        byte[][] temps = new byte[expression.temps][];
+        int[] code = expression.code;
+        int sp = 0;
+
+        for (int pc = 0; pc < code.length; pc++) {
+            int start = body.size();
+            switch (code[pc]) {
+                case CompiledExpression.CONST:
+                    body.write(CompiledExpression.CONST);
+                    writeVarint(body, zigzag(expression.constants[code[++pc]]));
+                    starts[sp++] = start;
+                    break;
+                case CompiledExpression.LOAD:
+                    body.write(CompiledExpression.LOAD);
+                    writeVarint(body, code[++pc]);
+                    starts[sp++] = start;
+                    break;
+                case CompiledExpression.TEE:
+                    // remember the code of the value on top, to repeat it at each use
+                    temps[code[++pc]] = body.copyFrom(starts[sp - 1]);
+                    break;
+                case CompiledExpression.LOAD_TEMP:
+                    byte[] temp = temps[code[++pc]];
+                    body.write(temp, 0, temp.length);
+                    starts[sp++] = start;
+                    break;
+                default:
+                    // the result's code starts where its left operand's code does
+                    body.write(code[pc]);
+                    sp--;
+                    break;
+            }
+        }
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream(body.size() + 5);
+        writeVarint(out, body.size());
+        out.writeBytes(body.toByteArray());
+        return out.toByteArray();
+    }
+
+    /**
+     * Maps a signed value to an unsigned one so that numbers near zero, of
+     * either sign, get short varints: 0, -1, 1, -2, ... become 0, 1, 2, 3.
+     *
+     * @param value the signed value
+     * @return the zigzag-encoded value
+     */
+    static long zigzag(long value) {
+        return (value << 1) ^ (value >> 63);
+    }
+
+    /**
+     * Writes an unsigned varint.
+     *
+     * @param out   the stream to write to
+     * @param value the value, treated as unsigned
+     */
+    private static void writeVarint(ByteArrayOutputStream out, long value) {
+        while ((value & ~0x7FL) != 0) {
+            out.write((int) (value & 0x7F) | 0x80);
+            value >>>= 7;
+        }
+        out.write((int) value);
+    }
+
+    /**
+     * Output that can copy its tail without copying everything written.
+     */
+    private static final class Output extends ByteArrayOutputStream {
+
+        /**
+         * Returns a copy of the bytes written from {@code start} on.
+         *
+         * @param start the index of the first byte to copy
+         * @return the bytes from {@code start} to the end
+         */
+        byte[] copyFrom(int start) {
+            return Arrays.copyOfRange(buf, start, count);
+        }
+    }
+}
@@ -1,7 +1,12 @@
+import java.math.BigInteger;
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+import java.util.EmptyStackException;
+
 /**
  * Evaluates a postfix expression using a stack.
  * <p>
- * Tokens in the postfix expression must be separated by spaces.
+ * Tokens in the postfix expression may be separated by any whitespace.
  * </p>
  * 
  * <p>
@@ -19,11 +24,41 @@
  */
 public class PostfixEvaluator {
 
+    /**
+     * Bindings for encoded expressions that have no variables.
+     */
+    private static final int[] NO_BINDINGS = new int[0];
+
     /**
      * Stack used to store operands during evaluation.
      */
     private StackADT stack;
 
+    /**
+     * Primitive stack used to store operands by {@link #evaluatePrimitive}.
+     */
+    private IntStack operands;
+
+    /**
+     * Primitive stack used to store operands by {@link #evaluateLong}.
+     */
+    private LongStack longOperands;
+
+    /**
+     * Lexer reused to scan each expression passed to the evaluate methods.
+     */
+    private Lexer lexer;
+
+    /**
+     * Reader reused to decode each buffer passed to the evaluate methods.
+     */
+    private PostfixDecoder.Reader reader;
+
+    /**
+     * Validator run by {@link #tryEvaluate} before evaluating.
+     */
+    private ExpressionValidator validator;
+
     /**
      * Constructs a postfix evaluator using the given stack for operands.
      * 
@@ -40,12 +75,17 @@ public class PostfixEvaluator {
      */
     public PostfixEvaluator(StackADT stack) {
         this.stack = stack;
+        this.operands = new IntStack();
+        this.longOperands = new LongStack();
+        this.lexer = new Lexer();
+        this.validator = new ExpressionValidator();
+        this.reader = new PostfixDecoder.Reader(null, 0);
     }
 
     /**
      * Evaluates a postfix expression and returns its integer result.
      * <p>
-     * The expression must be valid and tokens must be separated by spaces.
+     * The expression must be valid and tokens must be separated by whitespace.
      * </p>
      * 
      * <p>
@@ -59,61 +99,459 @@ public class PostfixEvaluator {
      *
      * @param postfix the postfix expression to evaluate
      * @return the integer value resulting from evaluating the expression
+     * @throws IllegalArgumentException if the expression contains a token
+     *                                  that is not a number or an operator
+     */
+    public int evaluate(CharSequence postfix) {
+        long started = ExpressionMetrics.start();
+        try {
+            return evaluateStrings(postfix);
+        } finally {
+            ExpressionMetrics.stop(ExpressionMetrics.Stage.EVALUATE, started, postfix.length());
+        }
+    }
+
+    /**
+     * Does the work of {@link #evaluate(CharSequence)}, which times the call.
+     *
+     * @param postfix the postfix expression to evaluate
+     * @return the integer value resulting from evaluating the expression
      */
-    public int evaluate(String postfix) {
-        String[] tokens = postfix.split(" ");
+    private int evaluateStrings(CharSequence postfix) {
+        lexer.reset(postfix);
+        // drop operands left behind by an expression that threw
+        stack.clear();
 
-        for (String t : tokens) {
+        int type;
+        while ((type = lexer.next()) != Lexer.END) {
 
-            if (isNumber(t)) {
-                stack.push(t);
+            if (type == Lexer.NUMBER) {
+                stack.push(postfix.subSequence(lexer.start(), lexer.end()).toString());
             }
 
-            else if (isOperator(t)) {
+            else if (type == Lexer.OPERATOR) {
                 int b = Integer.parseInt(stack.pop());
                 int a = Integer.parseInt(stack.pop());
-                int result = apply(a, b, t);
+                int result = apply(a, b, lexer.operator());
                 stack.push(Integer.toString(result));
             }
+
+            else {
+                throw unexpected(postfix);
+            }
         }
 
         return Integer.parseInt(stack.pop());
     }
 
     /**
-     * Returns {@code true} if the token is a number (operand).
-     * 
+     * Evaluates a postfix expression using a primitive {@code int} stack.
+     * <p>
+     * Each operand is parsed once when its token is read, and intermediate
+     * results stay as {@code int} values, so no String is created per
+     * operator. The result is the same as {@link #evaluate(CharSequence)}.
+     * </p>
+     *
      * <p>
      * Example:
      * </p>
-     * 
+     *
      * <pre>{@code
-     * isNumber("5"); // true
-     * isNumber("+"); // false
+     * PostfixEvaluator eval = new PostfixEvaluator(new ArrayBasedStack());
+     * int value = eval.evaluatePrimitive("10 2 6 * +"); // returns 22
      * }</pre>
-     * 
-     * @param s the token that is checked to be an operand
+     *
+     * @param postfix the postfix expression to evaluate
+     * @return the integer value resulting from evaluating the expression
+     * @throws java.util.EmptyStackException if an operator is missing an operand
+     * @throws IllegalArgumentException      if the expression contains a token
+     *                                       that is not a number or an operator
      */
-    private boolean isNumber(String s) {
-        return Character.isDigit(s.charAt(0));
+    public int evaluatePrimitive(CharSequence postfix) {
+        long started = ExpressionMetrics.start();
+        try {
+            return evaluateInts(postfix);
+        } finally {
+            ExpressionMetrics.stop(ExpressionMetrics.Stage.EVALUATE, started, postfix.length());
+        }
     }
 
     /**
-     * Returns {@code true} if the token is an operator (+ - * /).
-     * 
+     * Does the work of {@link #evaluatePrimitive}, which times the call.
+     *
+     * @param postfix the postfix expression to evaluate
+     * @return the integer value resulting from evaluating the expression
+     */
+    private int evaluateInts(CharSequence postfix) {
+        lexer.reset(postfix);
+        operands.clear();
+
+        int type;
+        while ((type = lexer.next()) != Lexer.END) {
+
+            if (type == Lexer.NUMBER) {
+                operands.push(lexer.intValue());
+            }
+
+            else if (type == Lexer.OPERATOR) {
+                int b = operands.pop();
+                int a = operands.pop();
+                operands.push(apply(a, b, lexer.operator()));
+            }
+
+            else {
+                throw unexpected(postfix);
+            }
+        }
+
+        return operands.pop();
+    }
+
+    /**
+     * Evaluates a postfix expression without throwing, returning either its
+     * value or why and where it failed.
+     * <p>
+     * The expression is checked by {@code ExpressionValidator.isValidPostfix}
+     * first, so a malformed one is rejected without creating an exception.
+     * Division by zero and results that do not fit in an {@code int} are
+     * reported at the operator that caused them.
+     * </p>
+     *
      * <p>
      * Example:
      * </p>
-     * 
+     *
      * <pre>{@code
-     * isOperator("*"); // true
-     * isOperator("12"); // false
+     * eval.tryEvaluate("10 2 6 * +").value(); // 22
+     * eval.tryEvaluate("3 +").message(); // "Missing operand at position 2"
+     * eval.tryEvaluate("1 0 /").message(); // "Division by zero at position 4"
      * }</pre>
-     * 
-     * @param s the token that is checked to be an operator
+     *
+     * @param postfix the postfix expression to evaluate
+     * @return the value, or the error and its position
+     */
+    public EvaluationResult tryEvaluate(CharSequence postfix) {
+        return tryEvaluate(postfix, 0, postfix.length());
+    }
+
+    /**
+     * Evaluates the postfix expression made up of the characters of
+     * {@code input} from index {@code start} (inclusive) to {@code end}
+     * (exclusive) without throwing, so a line of a larger text can be
+     * evaluated in place. Error positions are counted from {@code start}.
+     *
+     * <p>
+     * Example:
+     * </p>
+     *
+     * <pre>{@code
+     * eval.tryEvaluate("x = 3 4 +", 4, 9).value(); // 7
+     * }</pre>
+     *
+     * @param input the characters holding the expression
+     * @param start index of the first character of the expression
+     * @param end   index one past the last character of the expression
+     * @return the value, or the error and its position
+     * @see #tryEvaluate(CharSequence)
+     */
+    public EvaluationResult tryEvaluate(CharSequence input, int start, int end) {
+        if (!validator.isValidPostfix(input, start, end)) {
+            return validator.failure();
+        }
+
+        lexer.reset(input, start, end);
+        operands.clear();
+
+        // the validator guarantees only numbers and operators, with enough operands
+        int type;
+        while ((type = lexer.next()) != Lexer.END) {
+            if (type == Lexer.NUMBER) {
+                operands.push((int) lexer.value());
+                continue;
+            }
+
+            int op = lexer.operator();
+            int b = operands.pop();
+            int a = operands.pop();
+            if (op == '/' && b == 0) {
+                return EvaluationResult.failure(ErrorCode.DIVISION_BY_ZERO, lexer.start() - start);
+            }
+            long result = op == '+' ? (long) a + b
+                    : op == '-' ? (long) a - b
+                    : op == '*' ? (long) a * b
+                    : (long) a / b;
+            if (result != (int) result) {
+                return EvaluationResult.failure(ErrorCode.OVERFLOW, lexer.start() - start);
+            }
+            operands.push((int) result);
+        }
+
+        return EvaluationResult.success(operands.pop());
+    }
+
+    /**
+     * Evaluates an expression in the binary format written by
+     * {@code PostfixEncoder}, straight from the buffer.
+     *
+     * <p>
+     * Example:
+     * </p>
+     *
+     * <pre>{@code
+     * ByteBuffer buffer = ByteBuffer.wrap(PostfixEncoder.encode("10 2 6 * +"));
+     * int value = eval.evaluate(buffer); // returns 22
+     * }</pre>
+     *
+     * @param encoded the buffer holding the encoded expression at its
+     *                position
+     * @return the integer value resulting from evaluating the expression
+     * @throws IllegalArgumentException if the bytes are not a valid encoded
+     *                                  expression, or the expression has
+     *                                  variables
      */
-    private boolean isOperator(String s) {
-        return "+-*/".contains(s);
+    public int evaluate(ByteBuffer encoded) {
+        return evaluate(encoded, NO_BINDINGS);
+    }
+
+    /**
+     * Evaluates an expression in the binary format written by
+     * {@code PostfixEncoder}, straight from the buffer, with the given
+     * values for its variables.
+     * <p>
+     * The bytes are read with absolute gets, so the buffer's position is left
+     * where it was and the same buffer, heap or direct, can be evaluated
+     * again or by other evaluators reading their own duplicates. Nothing is
+     * allocated: the evaluator reuses one reader, and numbers are decoded
+     * into the primitive operand stack as they are read.
+     * </p>
+     *
+     * <p>
+     * Example:
+     * </p>
+     *
+     * <pre>{@code
+     * ByteBuffer buffer = ByteBuffer.allocateDirect(64).put(PostfixEncoder.encode("x 2 *")).flip();
+     * int value = eval.evaluate(buffer, new int[] {21}); // returns 42
+     * }</pre>
+     *
+     * @param encoded  the buffer holding the encoded expression at its
+     *                 position
+     * @param bindings the value of each variable, by slot
+     * @return the integer value resulting from evaluating the expression
+     * @throws IllegalArgumentException if the bytes are not a valid encoded
+     *                                  expression, a constant does not fit
+     *                                  in an {@code int}, or
+     *                                  {@code bindings} has fewer values than
+     *                                  the expression has variables
+     */
+    public int evaluate(ByteBuffer encoded, int[] bindings) {
+        PostfixDecoder.Reader reader = this.reader;
+        reader.reset(encoded, encoded.position());
+        int end = reader.end();
+
+        int variables = reader.count(end);
+        if (bindings.length < variables) {
+            throw new IllegalArgumentException("Expected " + variables + " variable values, got " + bindings.length);
+        }
+        for (int i = 0; i < variables; i++) {
+            int length = reader.length(end);
+            reader.position += length;
+        }
+
+        operands.clear();
+        try {
+            while (reader.position < end) {
+                int opcode = encoded.get(reader.position++);
+
+                if (opcode == CompiledExpression.CONST) {
+                    int at = reader.position - 1;
+                    long value = PostfixDecoder.unzigzag(reader.varint(end));
+                    if (value != (int) value) {
+                        throw new IllegalArgumentException("Constant " + value + " does not fit in an int at byte " + at);
+                    }
+                    operands.push((int) value);
+                }
+
+                else if (opcode == CompiledExpression.LOAD) {
+                    int slot = reader.count(end);
+                    if (slot >= variables) {
+                        throw new IllegalArgumentException("Bad variable slot " + slot + " at byte " + reader.position);
+                    }
+                    operands.push(bindings[slot]);
+                }
+
+                else if (opcode >= CompiledExpression.ADD && opcode <= CompiledExpression.DIV) {
+                    int b = operands.pop();
+                    int a = operands.pop();
+                    operands.push(apply(a, b, CompiledExpression.operatorCode(opcode)));
+                }
+
+                else {
+                    throw new IllegalArgumentException("Bad opcode " + opcode + " at byte " + (reader.position - 1));
+                }
+            }
+        } catch (EmptyStackException e) {
+            throw new IllegalArgumentException("Missing operand at byte " + (reader.position - 1));
+        }
+
+        if (operands.isEmpty()) {
+            throw new IllegalArgumentException("Empty expression");
+        }
+        int result = operands.pop();
+        if (!operands.isEmpty()) {
+            throw new IllegalArgumentException("Missing operator");
+        }
+        return result;
+    }
+
+    /**
+     * Evaluates a postfix expression using 64-bit {@code long} arithmetic
+     * that checks for overflow.
+     * <p>
+     * Operations use {@code Math.addExact} and friends on primitives, so the
+     * cost is the same as plain arithmetic, but a result that does not fit in
+     * a {@code long} throws instead of silently wrapping around.
+     * </p>
+     *
+     * <p>
+     * Example:
+     * </p>
+     *
+     * <pre>{@code
+     * long big = eval.evaluateLong("3000000000 3 *"); // returns 9000000000
+     * eval.evaluateLong("9223372036854775807 1 +"); // throws ArithmeticException
+     * }</pre>
+     *
+     * @param postfix the postfix expression to evaluate
+     * @return the value resulting from evaluating the expression
+     * @throws ArithmeticException           if the expression divides by zero,
+     *                                       or an operand or result does not
+     *                                       fit in a {@code long}
+     * @throws java.util.EmptyStackException if an operator is missing an operand
+     * @throws IllegalArgumentException      if the expression contains a token
+     *                                       that is not a number or an operator
+     */
+    public long evaluateLong(CharSequence postfix) {
+        lexer.reset(postfix);
+        longOperands.clear();
+
+        int type;
+        while ((type = lexer.next()) != Lexer.END) {
+
+            if (type == Lexer.NUMBER) {
+                longOperands.push(lexer.value());
+            }
+
+            else if (type == Lexer.OPERATOR) {
+                long b = longOperands.pop();
+                long a = longOperands.pop();
+                longOperands.push(applyExact(a, b, lexer.operator()));
+            }
+
+            else if (isNumberTooLarge(postfix)) {
+                throw new ArithmeticException("long overflow");
+            }
+
+            else {
+                throw unexpected(postfix);
+            }
+        }
+
+        return longOperands.pop();
+    }
+
+    /**
+     * Evaluates a postfix expression exactly, however large the result.
+     * <p>
+     * The expression is first evaluated with {@link #evaluateLong}. Only if
+     * that overflows is it evaluated again with {@code BigInteger}, so
+     * expressions whose results fit in a {@code long} pay nothing extra.
+     * </p>
+     *
+     * <p>
+     * Example:
+     * </p>
+     *
+     * <pre>{@code
+     * Number a = eval.evaluateExact("3 4 +"); // Long 7
+     * Number b = eval.evaluateExact("9223372036854775807 1 +"); // BigInteger 9223372036854775808
+     * }</pre>
+     *
+     * @param postfix the postfix expression to evaluate
+     * @return a {@code Long} if the result fits in a {@code long}, otherwise a
+     *         {@code BigInteger}
+     * @throws ArithmeticException           if the expression divides by zero
+     * @throws java.util.EmptyStackException if an operator is missing an operand
+     * @throws IllegalArgumentException      if the expression contains a token
+     *                                       that is not a number or an operator
+     */
+    public Number evaluateExact(CharSequence postfix) {
+        try {
+            return evaluateLong(postfix);
+        } catch (ArithmeticException overflowOrDivideByZero) {
+            BigInteger result = evaluateBig(postfix);
+            return result.bitLength() < Long.SIZE ? (Number) result.longValue() : result;
+        }
+    }
+
+    /**
+     * The slow path of {@link #evaluateExact}: evaluates a postfix expression
+     * with {@code BigInteger} arithmetic.
+     *
+     * @param postfix the postfix expression to evaluate
+     * @return the exact value of the expression
+     * @throws ArithmeticException if the expression divides by zero
+     */
+    private BigInteger evaluateBig(CharSequence postfix) {
+        ArrayDeque<BigInteger> values = new ArrayDeque<>();
+        lexer.reset(postfix);
+
+        int type;
+        while ((type = lexer.next()) != Lexer.END) {
+
+            if (type == Lexer.NUMBER || isNumberTooLarge(postfix)) {
+                values.push(new BigInteger(postfix.subSequence(lexer.start(), lexer.end()).toString()));
+            }
+
+            else if (type == Lexer.OPERATOR) {
+                if (values.size() < 2) {
+                    throw new EmptyStackException();
+                }
+                BigInteger b = values.pop();
+                BigInteger a = values.pop();
+                values.push(applyBig(a, b, lexer.operator()));
+            }
+
+            else {
+                throw unexpected(postfix);
+            }
+        }
+
+        if (values.isEmpty()) {
+            throw new EmptyStackException();
+        }
+        return values.pop();
+    }
+
+    /**
+     * Returns {@code true} if the current token is a number that the
+     * {@code Lexer} rejected because it does not fit in a {@code long}.
+     *
+     * @param postfix the expression being evaluated
+     */
+    private boolean isNumberTooLarge(CharSequence postfix) {
+        return Character.isDigit(postfix.charAt(lexer.start()));
+    }
+
+    /**
+     * Builds the exception thrown when the current token cannot appear in a
+     * postfix expression.
+     *
+     * @param postfix the expression being evaluated
+     * @return the exception describing the bad token
+     */
+    private IllegalArgumentException unexpected(CharSequence postfix) {
+        return new IllegalArgumentException("Unexpected input at position " + lexer.start() + ": " + postfix);
     }
 
     /**
@@ -124,26 +562,81 @@ public class PostfixEvaluator {
      * </p>
      * 
      * <pre>{@code
-     * apply(3, 4, "*"); // returns 12
-     * apply(8, 2, "-"); // returns 6
+     * apply(3, 4, '*'); // returns 12
+     * apply(8, 2, '-'); // returns 6
      * }</pre>
      *
      * @param a  the first operand (left-hand side)
      * @param b  the second operand (right-hand side)
-     * @param op the operator to apply, one of (+ - * /)
+     * @param op the operator code to apply, one of (+ - * /)
      * @return the result of applying the operator to the operands
+     * @throws IllegalArgumentException if {@code op} is not an operator
      */
-    private int apply(int a, int b, String op) {
+    private int apply(int a, int b, int op) {
         switch (op) {
-            case "+":
+            case '+':
                 return a + b;
-            case "-":
+            case '-':
                 return a - b;
-            case "*":
+            case '*':
                 return a * b;
-            case "/":
+            case '/':
                 return a / b;
         }
-        return 0;
+        throw new IllegalArgumentException("Unknown operator: " + (char) op);
+    }
+
+    /**
+     * Applies the given operator to two {@code long} operands, throwing
+     * instead of overflowing.
+     *
+     * @param a  the first operand (left-hand side)
+     * @param b  the second operand (right-hand side)
+     * @param op the operator code to apply, one of (+ - * /)
+     * @return the result of applying the operator to the operands
+     * @throws ArithmeticException      if the result overflows or {@code b}
+     *                                  is zero for division
+     * @throws IllegalArgumentException if {@code op} is not an operator
+     */
+    private long applyExact(long a, long b, int op) {
+        switch (op) {
+            case '+':
+                return Math.addExact(a, b);
+            case '-':
+                return Math.subtractExact(a, b);
+            case '*':
+                return Math.multiplyExact(a, b);
+            case '/':
+                // the only long division that overflows
+                if (a == Long.MIN_VALUE && b == -1) {
+                    throw new ArithmeticException("long overflow");
+                }
+                return a / b;
+        }
+        throw new IllegalArgumentException("Unknown operator: " + (char) op);
+    }
+
+    /**
+     * Applies the given operator to two {@code BigInteger} operands.
+     *
+     * @param a  the first operand (left-hand side)
+     * @param b  the second operand (right-hand side)
+     * @param op the operator code to apply, one of (+ - * /)
+     * @return the result of applying the operator to the operands
+     * @throws ArithmeticException      if {@code b} is zero for division
+     * @throws IllegalArgumentException if {@code op} is not an operator
+     */
+    private BigInteger applyBig(BigInteger a, BigInteger b, int op) {
+        switch (op) {
+            case '+':
+                return a.add(b);
+            case '-':
+                return a.subtract(b);
+            case '*':
+                return a.multiply(b);
+            case '/':
+                return a.divide(b);
+        }
+        throw new IllegalArgumentException("Unknown operator: " + (char) op);
     }
 }
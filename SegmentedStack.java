@@ -0,0 +1,324 @@
+import java.util.Arrays;
+import java.util.EmptyStackException;
+
+/**
+ * Stack stored as a chain of fixed-size array chunks, linked from the top.
+ * <p>
+ * When the top chunk is full, a new chunk is linked on top of it instead of
+ * copying everything into a bigger array, so every push is O(1) in the worst
+ * case and a deep stack never needs one huge contiguous array. Each element
+ * costs one array slot, plus one small chunk object per
+ * {@code chunkSize} elements, rather than a whole node as in
+ * {@code LinkedListBasedStack}.
+ * </p>
+ * <p>
+ * When popping empties the top chunk, the chunk is kept as a spare rather
+ * than dropped, and the next push that needs a chunk reuses it. A stack
+ * that moves back and forth across a chunk boundary therefore allocates
+ * nothing. At most one spare is kept, so a stack that has shrunk holds on
+ * to at most one unused chunk.
+ * </p>
+ *
+ * <p>
+ * Example:
+ * </p>
+ *
+ * <pre>{@code
+ * StackADT stack = new SegmentedStack();
+ * for (int i = 0; i < 10_000_000; i++) {
+ *     stack.push("("); // never copies the elements already pushed
+ * }
+ * }</pre>
+ */
+public class SegmentedStack implements StackADT {
+
+    /**
+     * Number of elements per chunk unless another size is given.
+     */
+    private static final int DEFAULT_CHUNK_SIZE = 1024;
+
+    /**
+     * Number of elements each chunk holds.
+     */
+    private final int chunkSize;
+
+    /**
+     * The chunk holding the top element. It is empty only when the whole
+     * stack is, so the stack is empty exactly when {@link #index} is zero.
+     */
+    private Chunk top;
+
+    /**
+     * The elements of the top chunk, kept here to save a load on every push
+     * and pop.
+     */
+    private String[] items;
+
+    /**
+     * Number of elements in the top chunk.
+     */
+    private int index;
+
+    /**
+     * Number of full chunks below the top one.
+     */
+    private int below;
+
+    /**
+     * An empty chunk kept for the next push that needs one, or {@code null}.
+     */
+    private Chunk spare;
+
+    /**
+     * Constructs an empty stack with chunks of 1024 elements.
+     *
+     * <p>
+     * Example:
+     * </p>
+     *
+     * <pre>{@code
+     * StackADT stack = new SegmentedStack();
+     * }</pre>
+     */
+    public SegmentedStack() {
+        this(DEFAULT_CHUNK_SIZE);
+    }
+
+    /**
+     * Constructs an empty stack with chunks of the given size.
+     *
+     * <p>
+     * Example:
+     * </p>
+     *
+     * <pre>{@code
+     * StackADT stack = new SegmentedStack(64); // small chunks for shallow stacks
+     * }</pre>
+     *
+     * @param chunkSize the number of elements each chunk holds
+     * @throws IllegalArgumentException if {@code chunkSize < 1}
+     */
+    public SegmentedStack(int chunkSize) {
+        if (chunkSize < 1) {
+            throw new IllegalArgumentException("chunkSize must be at least 1: " + chunkSize);
+        }
+        this.chunkSize = chunkSize;
+        this.top = new Chunk(chunkSize, null);
+        this.items = top.items;
+    }
+
+    /**
+     * Adds an element to the top of the stack, linking a new chunk if the
+     * top one is full.
+     *
+     * <p>
+     * Example:
+     * </p>
+     *
+     * <pre>{@code
+     * stack.push("A");
+     * }</pre>
+     *
+     * @param item the string value to push onto the stack
+     */
+    @Override
+    public void push(String item) {
+        if (index == items.length) {
+            linkChunk();
+        }
+
+        items[index++] = item;
+    }
+
+    /**
+     * Makes the spare, or a new chunk if there is none, the top chunk.
+     */
+    private void linkChunk() {
+        Chunk next = spare;
+        if (next == null) {
+            next = new Chunk(chunkSize, top);
+        } else {
+            next.previous = top;
+            spare = null;
+        }
+        top = next;
+        items = next.items;
+        index = 0;
+        below++;
+    }
+
+    /**
+     * Removes and returns the top element of the stack. If that empties the
+     * top chunk, the chunk below becomes the top and the empty one is kept
+     * as the spare.
+     *
+     * <p>
+     * Example:
+     * </p>
+     *
+     * <pre>{@code
+     * stack.push("A");
+     * stack.push("B");
+     * String x = stack.pop(); // x = "B"
+     * }</pre>
+     *
+     * @return the string at the top of the stack
+     * @throws java.util.EmptyStackException if the stack is empty
+     */
+    @Override
+    public String pop() {
+        int i = index - 1;
+        if (i < 0) {
+            throw new EmptyStackException();
+        }
+
+        String value = items[i];
+        items[i] = null;
+        index = i;
+
+        if (i == 0 && below > 0) {
+            unlinkChunk();
+        }
+        return value;
+    }
+
+    /**
+     * Makes the chunk below the top one, and the emptied top chunk the
+     * spare.
+     */
+    private void unlinkChunk() {
+        Chunk empty = top;
+        top = empty.previous;
+        empty.previous = null;
+        spare = empty;
+        items = top.items;
+        index = chunkSize;
+        below--;
+    }
+
+    /**
+     * Returns, but does not remove, the top element of the stack.
+     *
+     * <p>
+     * Example:
+     * </p>
+     *
+     * <pre>{@code
+     * stack.push("A");
+     * String x = stack.peek(); // x = "A" (stack unchanged)
+     * }</pre>
+     *
+     * @return the string at the top of the stack
+     * @throws java.util.EmptyStackException if the stack is empty
+     */
+    @Override
+    public String peek() {
+        if (index == 0) {
+            throw new EmptyStackException();
+        }
+
+        return items[index - 1];
+    }
+
+    /**
+     * Returns whether the stack contains no elements.
+     *
+     * @return {@code true} if the stack is empty
+     */
+    @Override
+    public boolean isEmpty() {
+        return index == 0;
+    }
+
+    /**
+     * Returns the number of elements on the stack.
+     *
+     * @return the number of elements on the stack
+     */
+    @Override
+    public int size() {
+        return below * chunkSize + index;
+    }
+
+    /**
+     * Removes all elements. The bottom chunk is kept and its slots cleared,
+     * the top chunk becomes the spare and any chunks between are dropped, so
+     * clearing allocates nothing. Clearing an empty stack does nothing.
+     */
+    @Override
+    public void clear() {
+        if (index == 0) {
+            return;
+        }
+        Arrays.fill(items, 0, index, null);
+        if (below > 0) {
+            Chunk bottom = top.previous;
+            while (bottom.previous != null) {
+                bottom = bottom.previous;
+            }
+            top.previous = null;
+            spare = top;
+            top = bottom;
+            items = bottom.items;
+            // every chunk below the top is full
+            Arrays.fill(items, null);
+            below = 0;
+        }
+        index = 0;
+    }
+
+    /**
+     * Pushes every element of the array, copying a chunk's worth at a time.
+     *
+     * <p>
+     * Example:
+     * </p>
+     *
+     * <pre>{@code
+     * stack.pushAll(new String[] {"A", "B", "C"});
+     * String top = stack.peek(); // "C"
+     * }</pre>
+     *
+     * @param items the string values to push onto the stack
+     */
+    @Override
+    public void pushAll(String[] items) {
+        int copied = 0;
+        while (copied < items.length) {
+            if (index == chunkSize) {
+                linkChunk();
+            }
+            int count = Math.min(chunkSize - index, items.length - copied);
+            System.arraycopy(items, copied, this.items, index, count);
+            index += count;
+            copied += count;
+        }
+    }
+
+    /**
+     * One chunk of the stack.
+     */
+    private static final class Chunk {
+
+        /**
+         * The elements in this chunk, bottom first.
+         */
+        final String[] items;
+
+        /**
+         * The chunk below, or {@code null} for the bottom chunk.
+         */
+        Chunk previous;
+
+        /**
+         * Creates an empty chunk.
+         *
+         * @param size     the number of elements the chunk holds
+         * @param previous the chunk below
+         */
+        Chunk(int size, Chunk previous) {
+            this.items = new String[size];
+            this.previous = previous;
+        }
+    }
+}
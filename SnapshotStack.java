@@ -0,0 +1,168 @@
+/**
+ * Mutable {@code StackADT} over a {@code PersistentStack}, with O(1)
+ * snapshots.
+ * <p>
+ * Every push and pop replaces the current version of the stack, so taking a
+ * snapshot is just keeping a reference to it: nothing is copied, however
+ * deep the stack. Restoring a snapshot makes it the current version again,
+ * which undoes everything since, as a backtracking parser needs. A snapshot
+ * never changes, so it can be handed to other threads and read while the
+ * owner keeps pushing and popping. The stack itself is not thread-safe: the
+ * owner takes the snapshot and hands it over. Because every field of a
+ * {@code PersistentStack} is final, the receiving thread sees it complete
+ * however it was handed over.
+ * </p>
+ *
+ * <p>
+ * Example:
+ * </p>
+ *
+ * <pre>{@code
+ * SnapshotStack stack = new SnapshotStack();
+ * stack.push("(");
+ * PersistentStack mark = stack.snapshot();
+ * stack.push("+");
+ * stack.push("*"); // speculative
+ * stack.restore(mark); // back to ["("]
+ * }</pre>
+ */
+public class SnapshotStack implements StackADT {
+
+    /**
+     * The current version of the stack.
+     */
+    private PersistentStack current;
+
+    /**
+     * Constructs an empty stack.
+     *
+     * <p>
+     * Example:
+     * </p>
+     *
+     * <pre>{@code
+     * StackADT stack = new SnapshotStack();
+     * }</pre>
+     */
+    public SnapshotStack() {
+        this(PersistentStack.empty());
+    }
+
+    /**
+     * Constructs a stack that starts as the given version.
+     *
+     * @param initial the starting contents
+     * @throws IllegalArgumentException if {@code initial} is {@code null}
+     */
+    public SnapshotStack(PersistentStack initial) {
+        restore(initial);
+    }
+
+    /**
+     * Pushes an item onto the top of the stack.
+     *
+     * @param item the string value to push onto the stack
+     */
+    @Override
+    public void push(String item) {
+        current = current.push(item);
+    }
+
+    /**
+     * Removes and returns the top element of the stack.
+     *
+     * @return the string at the top of the stack
+     * @throws java.util.EmptyStackException if the stack is empty
+     */
+    @Override
+    public String pop() {
+        PersistentStack top = current;
+        String value = top.peek();
+        current = top.pop();
+        return value;
+    }
+
+    /**
+     * Returns, but does not remove, the top element of the stack.
+     *
+     * @return the string at the top of the stack
+     * @throws java.util.EmptyStackException if the stack is empty
+     */
+    @Override
+    public String peek() {
+        return current.peek();
+    }
+
+    /**
+     * Returns whether the stack contains no elements.
+     *
+     * @return {@code true} if the stack is empty
+     */
+    @Override
+    public boolean isEmpty() {
+        return current.isEmpty();
+    }
+
+    /**
+     * Returns the number of elements on the stack.
+     *
+     * @return the number of elements on the stack
+     */
+    @Override
+    public int size() {
+        return current.size();
+    }
+
+    /**
+     * Removes all elements from the stack. Snapshots taken earlier keep
+     * their contents.
+     */
+    @Override
+    public void clear() {
+        current = PersistentStack.empty();
+    }
+
+    /**
+     * Returns the current contents as an immutable stack, in O(1).
+     *
+     * <p>
+     * Example:
+     * </p>
+     *
+     * <pre>{@code
+     * PersistentStack view = stack.snapshot(); // can be read on another thread
+     * }</pre>
+     *
+     * @return the current version of the stack
+     */
+    public PersistentStack snapshot() {
+        return current;
+    }
+
+    /**
+     * Makes a snapshot the current contents, in O(1), discarding every change
+     * made since it was taken.
+     *
+     * <p>
+     * Example:
+     * </p>
+     *
+     * <pre>{@code
+     * PersistentStack mark = stack.snapshot();
+     * try {
+     *     parseAlternative(stack);
+     * } catch (IllegalArgumentException e) {
+     *     stack.restore(mark); // roll back and try something else
+     * }
+     * }</pre>
+     *
+     * @param snapshot the contents to return to
+     * @throws IllegalArgumentException if {@code snapshot} is {@code null}
+     */
+    public void restore(PersistentStack snapshot) {
+        if (snapshot == null) {
+            throw new IllegalArgumentException("snapshot must not be null");
+        }
+        current = snapshot;
+    }
+}
@@ -36,4 +36,57 @@ public interface StackADT {
      * @return true if the stack is empty, false otherwise
      */
     public abstract boolean isEmpty();
+
+
+    /**
+     * Returns the number of items on the stack.
+     *
+     * @return the number of items on the stack
+     */
+    public abstract int size();
+
+
+    /**
+     * Removes all items from the stack.
+     */
+    public abstract void clear();
+
+
+    /**
+     * Pushes every item of the array onto the stack, in array order, so the
+     * last item ends up on top.
+     *
+     * @param items the String items to be pushed onto the stack
+     */
+    public default void pushAll(String[] items) {
+        for (String item : items) {
+            push(item);
+        }
+    }
+
+
+    /**
+     * Removes the top {@code n} items and stores them in {@code dest} in the
+     * order they are popped, so {@code dest[0]} receives the old top. Nothing
+     * is removed if the stack holds fewer than {@code n} items.
+     *
+     * @param dest the array that receives the popped items
+     * @param n    the number of items to pop
+     * @throws java.util.EmptyStackException if the stack has fewer than
+     *                                       {@code n} items
+     * @throws IndexOutOfBoundsException     if {@code n} is negative or
+     *                                       larger than {@code dest.length}
+     */
+    public default void popN(String[] dest, int n) {
+        if (n < 0 || n > dest.length) {
+            throw new IndexOutOfBoundsException("n = " + n + ", dest.length = " + dest.length);
+        }
+        if (size() < n) {
+            throw new java.util.EmptyStackException();
+        }
+
+        for (int i = 0; i < n; i++) {
+            dest[i] = pop();
+        }
+    }
 }
@@ -0,0 +1,126 @@
+/**
+ * Thread-safe wrapper that makes any {@code StackADT} safe to share by
+ * guarding every call with the wrapper's monitor.
+ * <p>
+ * This is the simple blocking alternative to {@code ConcurrentLinkedStack}.
+ * All access must go through the wrapper; the wrapped stack should not be
+ * used directly afterwards.
+ * </p>
+ *
+ * <p>
+ * Example:
+ * </p>
+ *
+ * <pre>{@code
+ * StackADT stack = new SynchronizedStack(new ArrayBasedStack());
+ * stack.push("A"); // may be called from any thread
+ * }</pre>
+ */
+public class SynchronizedStack implements StackADT {
+
+    /**
+     * The stack every call is forwarded to.
+     */
+    private final StackADT stack;
+
+    /**
+     * Constructs a synchronized view of the given stack.
+     *
+     * <p>
+     * Example:
+     * </p>
+     *
+     * <pre>{@code
+     * StackADT stack = new SynchronizedStack(new LinkedListBasedStack());
+     * }</pre>
+     *
+     * @param stack the stack to guard
+     */
+    public SynchronizedStack(StackADT stack) {
+        this.stack = stack;
+    }
+
+    /**
+     * Pushes an item onto the top of the wrapped stack.
+     *
+     * @param item the string value to push onto the stack
+     */
+    @Override
+    public synchronized void push(String item) {
+        stack.push(item);
+    }
+
+    /**
+     * Removes and returns the top element of the wrapped stack.
+     *
+     * @return the string at the top of the stack
+     * @throws java.util.EmptyStackException if the stack is empty
+     */
+    @Override
+    public synchronized String pop() {
+        return stack.pop();
+    }
+
+    /**
+     * Returns, but does not remove, the top element of the wrapped stack.
+     *
+     * @return the string at the top of the stack
+     * @throws java.util.EmptyStackException if the stack is empty
+     */
+    @Override
+    public synchronized String peek() {
+        return stack.peek();
+    }
+
+    /**
+     * Returns whether the wrapped stack contains no elements.
+     *
+     * @return {@code true} if the stack is empty
+     */
+    @Override
+    public synchronized boolean isEmpty() {
+        return stack.isEmpty();
+    }
+
+    /**
+     * Returns the number of elements on the wrapped stack.
+     *
+     * @return the number of elements on the stack
+     */
+    @Override
+    public synchronized int size() {
+        return stack.size();
+    }
+
+    /**
+     * Removes all elements from the wrapped stack.
+     */
+    @Override
+    public synchronized void clear() {
+        stack.clear();
+    }
+
+    /**
+     * Pushes every item onto the wrapped stack as one atomic step.
+     *
+     * @param items the string values to push onto the stack
+     */
+    @Override
+    public synchronized void pushAll(String[] items) {
+        stack.pushAll(items);
+    }
+
+    /**
+     * Pops the top {@code n} elements of the wrapped stack as one atomic
+     * step.
+     *
+     * @param dest the array that receives the popped elements
+     * @param n    the number of elements to pop
+     * @throws java.util.EmptyStackException if the stack has fewer than
+     *                                       {@code n} elements
+     */
+    @Override
+    public synchronized void popN(String[] dest, int n) {
+        stack.popN(dest, n);
+    }
+}
@@ -0,0 +1,787 @@
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * A compiled expression that is interpreted at first and turned into JVM
+ * bytecode once it has been evaluated often enough.
+ * <p>
+ * Until the call count reaches the threshold, every call runs the
+ * {@code CompiledExpression} interpreter loop. On the call that reaches it,
+ * the expression is optimized with {@code ExpressionOptimizer} and written
+ * out as a class whose methods compute the result with plain arithmetic
+ * instructions on local variables: no opcode dispatch, no value stack array
+ * and no allocation. The class is defined as a hidden class, so the JIT can
+ * inline it into the caller like any other small method, and it can be
+ * unloaded as soon as this object is no longer reachable.
+ * </p>
+ * <p>
+ * Instances may be shared between threads. The call count is not kept
+ * exactly under contention, so the switch may happen a little late, but
+ * results are the same before and after it.
+ * </p>
+ *
+ * <p>
+ * Example:
+ * </p>
+ *
+ * <pre>{@code
+ * TieredExpression expr = new TieredExpression(CompiledExpression.compile("x * x + 1"));
+ * for (int x = 0; x < 1_000_000; x++) {
+ *     total += expr.evaluate(new int[] {x}); // bytecode after the first 10000 calls
+ * }
+ * }</pre>
+ */
+public final class TieredExpression {
+
+    /**
+     * Default number of interpreted calls before the expression is compiled
+     * to bytecode.
+     */
+    private static final int DEFAULT_THRESHOLD = 10_000;
+
+    /**
+     * The bindings used when evaluating without an array.
+     */
+    private static final int[] NO_BINDINGS = new int[0];
+
+    /**
+     * The long bindings used when evaluating without an array.
+     */
+    private static final long[] NO_LONG_BINDINGS = new long[0];
+
+    /**
+     * The expression interpreted until the threshold is reached.
+     */
+    private final CompiledExpression expression;
+
+    /**
+     * Number of interpreted calls before compiling.
+     */
+    private final int threshold;
+
+    /**
+     * Number of interpreted calls so far.
+     */
+    private int calls;
+
+    /**
+     * Whether bytecode generation failed, so the expression stays
+     * interpreted.
+     */
+    private volatile boolean interpretOnly;
+
+    /**
+     * The generated program, or {@code null} while interpreting.
+     */
+    volatile Program program;
+
+    /**
+     * Methods implemented by the generated hidden classes.
+     */
+    interface Program {
+
+        /**
+         * Evaluates the expression with wrapping int arithmetic.
+         *
+         * @param bindings the variable values, indexed by slot
+         * @return the result
+         */
+        int evaluate(int[] bindings);
+
+        /**
+         * Evaluates the expression with overflow-checked long arithmetic.
+         *
+         * @param bindings the variable values, indexed by slot
+         * @return the result
+         */
+        long evaluateLong(long[] bindings);
+    }
+
+    /**
+     * Constructs a tiered expression that compiles to bytecode after 10000
+     * calls.
+     *
+     * <p>
+     * Example:
+     * </p>
+     *
+     * <pre>{@code
+     * TieredExpression expr = new TieredExpression(CompiledExpression.compile("a + b"));
+     * }</pre>
+     *
+     * @param expression the expression to evaluate
+     */
+    public TieredExpression(CompiledExpression expression) {
+        this(expression, DEFAULT_THRESHOLD);
+    }
+
+    /**
+     * Constructs a tiered expression that compiles to bytecode after the
+     * given number of calls. A threshold of 0 compiles on the first call.
+     *
+     * <p>
+     * Example:
+     * </p>
+     *
+     * <pre>{@code
+     * TieredExpression expr = new TieredExpression(CompiledExpression.compile("a + b"), 100);
+     * }</pre>
+     *
+     * @param expression the expression to evaluate
+     * @param threshold  the number of interpreted calls before compiling
+     * @throws IllegalArgumentException if {@code threshold} is negative
+     */
+    public TieredExpression(CompiledExpression expression, int threshold) {
+        if (threshold < 0) {
+            throw new IllegalArgumentException("Invalid threshold: " + threshold);
+        }
+        this.expression = expression;
+        this.threshold = threshold;
+    }
+
+    /**
+     * Evaluates an expression without variables, as
+     * {@code CompiledExpression.evaluate()} does.
+     *
+     * @return the integer value resulting from evaluating the expression
+     * @throws ArithmeticException      if the expression divides by zero
+     * @throws IllegalArgumentException if the expression has variables
+     */
+    public int evaluate() {
+        return evaluate(NO_BINDINGS);
+    }
+
+    /**
+     * Evaluates the expression with each variable taking the value at its
+     * slot in {@code bindings}, as {@code CompiledExpression.evaluate(int[])}
+     * does.
+     *
+     * <p>
+     * Example:
+     * </p>
+     *
+     * <pre>{@code
+     * int value = expr.evaluate(new int[] {3, 4});
+     * }</pre>
+     *
+     * @param bindings the variable values, indexed by slot
+     * @return the integer value resulting from evaluating the expression
+     * @throws ArithmeticException      if the expression divides by zero
+     * @throws IllegalArgumentException if {@code bindings} has fewer entries
+     *                                  than the expression has variables
+     */
+    public int evaluate(int[] bindings) {
+        Program compiled = program;
+        if (compiled == null) {
+            compiled = count();
+            if (compiled == null) {
+                return expression.evaluate(bindings);
+            }
+        }
+        expression.checkBindings(bindings.length);
+        return compiled.evaluate(bindings);
+    }
+
+    /**
+     * Evaluates an expression without variables in {@code long} arithmetic,
+     * as {@code CompiledExpression.evaluateLong()} does.
+     *
+     * @return the value resulting from evaluating the expression
+     * @throws ArithmeticException      if the expression divides by zero or
+     *                                  a result overflows a {@code long}
+     * @throws IllegalArgumentException if the expression has variables
+     */
+    public long evaluateLong() {
+        return evaluateLong(NO_LONG_BINDINGS);
+    }
+
+    /**
+     * Evaluates the expression in {@code long} arithmetic with each variable
+     * taking the value at its slot in {@code bindings}, as
+     * {@code CompiledExpression.evaluateLong(long[])} does.
+     *
+     * @param bindings the variable values, indexed by slot
+     * @return the value resulting from evaluating the expression
+     * @throws ArithmeticException      if the expression divides by zero or
+     *                                  a result overflows a {@code long}
+     * @throws IllegalArgumentException if {@code bindings} has fewer entries
+     *                                  than the expression has variables
+     */
+    public long evaluateLong(long[] bindings) {
+        Program compiled = program;
+        if (compiled == null) {
+            compiled = count();
+            if (compiled == null) {
+                return expression.evaluateLong(bindings);
+            }
+        }
+        expression.checkBindings(bindings.length);
+        return compiled.evaluateLong(bindings);
+    }
+
+    /**
+     * Returns whether the expression has been compiled to bytecode.
+     *
+     * @return {@code true} once the expression runs as bytecode
+     */
+    public boolean isCompiled() {
+        return program != null;
+    }
+
+    /**
+     * Returns the expression as postfix text.
+     *
+     * @return the postfix form of this expression
+     */
+    @Override
+    public String toString() {
+        return expression.toString();
+    }
+
+    /**
+     * Counts an interpreted call and compiles the expression if this call
+     * reaches the threshold.
+     *
+     * @return the generated program, or {@code null} to keep interpreting
+     */
+    private Program count() {
+        if (calls++ < threshold || interpretOnly) {
+            return null;
+        }
+        return tierUp();
+    }
+
+    /**
+     * Generates and loads the program, unless another thread already has.
+     *
+     * @return the generated program, or {@code null} if generation failed
+     */
+    private synchronized Program tierUp() {
+        if (program == null && !interpretOnly) {
+            try {
+                program = define(new ClassWriter(ExpressionOptimizer.optimize(expression)).toByteArray());
+            } catch (RuntimeException | LinkageError | StackOverflowError e) {
+                // too large for a single method, or the generated class was
+                // rejected: the interpreter still works, so never try again
+                interpretOnly = true;
+            }
+        }
+        return program;
+    }
+
+    /**
+     * Defines a class file as a hidden class in this package and creates an
+     * instance of it. The class is not strongly held by the class loader, so
+     * it is unloaded once the instance is unreachable.
+     *
+     * @param classFile the bytes of a class implementing {@code Program}
+     * @return a new instance of the class
+     */
+    private static Program define(byte[] classFile) {
+        try {
+            MethodHandles.Lookup lookup = MethodHandles.lookup().defineHiddenClass(classFile, true);
+            return (Program) lookup.findConstructor(lookup.lookupClass(), MethodType.methodType(void.class)).invoke();
+        } catch (RuntimeException | Error e) {
+            throw e;
+        } catch (Throwable e) {
+            throw new IllegalStateException("Cannot load generated expression", e);
+        }
+    }
+
+    /**
+     * Divides two longs, throwing instead of overflowing. Called by the
+     * generated {@code evaluateLong} method.
+     *
+     * @param a the dividend
+     * @param b the divisor
+     * @return {@code a / b}
+     * @throws ArithmeticException if {@code b} is zero or the quotient
+     *                             overflows a {@code long}
+     */
+    static long divideExact(long a, long b) {
+        // the only long division that overflows
+        if (a == Long.MIN_VALUE && b == -1) {
+            throw new ArithmeticException("long overflow");
+        }
+        return a / b;
+    }
+
+    /**
+     * Writes the class file of a {@code Program} for one expression.
+     * <p>
+     * Each variable is read from the bindings array once, into a local
+     * variable, and temporaries are locals too. The instructions of the
+     * expression then map one to one onto JVM instructions, which use the
+     * JVM operand stack as the value stack. The generated methods contain no
+     * branches, so the class file needs no stack map frames.
+     * </p>
+     */
+    private static final class ClassWriter {
+
+        /**
+         * Name of the generated class. A hidden class gets a unique suffix
+         * added to it, so the same name can be used for every expression.
+         */
+        private static final String CLASS_NAME = "GeneratedExpression";
+
+        /**
+         * Class file version of Java 17.
+         */
+        private static final int VERSION = 61;
+
+        /**
+         * The expression being written.
+         */
+        private final CompiledExpression expression;
+
+        /**
+         * The constant pool entries written so far.
+         */
+        private final ByteArrayOutputStream pool = new ByteArrayOutputStream();
+
+        /**
+         * Index of each constant pool entry written so far, by a key that
+         * describes it.
+         */
+        private final Map<String, Integer> poolIndex = new HashMap<>();
+
+        /**
+         * The next free constant pool index.
+         */
+        private int poolCount = 1;
+
+        /**
+         * Creates a writer for the given expression.
+         *
+         * @param expression the expression to write
+         */
+        ClassWriter(CompiledExpression expression) {
+            this.expression = expression;
+        }
+
+        /**
+         * Returns the class file.
+         *
+         * @return the bytes of the class file
+         * @throws IllegalArgumentException if the expression is too large for
+         *                                  a class file
+         */
+        byte[] toByteArray() {
+            int thisClass = classRef(CLASS_NAME);
+            int superClass = classRef("java/lang/Object");
+            int programInterface = classRef("TieredExpression$Program");
+            byte[] constructor = method("<init>", "()V", constructorCode(), 1, 1);
+            byte[] evaluate = method("evaluate", "([I)I", evaluateCode(false),
+                    Math.max(2, expression.maxDepth + 1), locals(false));
+            byte[] evaluateLong = method("evaluateLong", "([J)J", evaluateCode(true),
+                    Math.max(2, 2 * expression.maxDepth + 2), locals(true));
+            if (poolCount > 0xFFFF) {
+                throw new IllegalArgumentException("Too many constants: " + poolCount);
+            }
+
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            DataOutputStream out = new DataOutputStream(bytes);
+            try {
+                out.writeInt(0xCAFEBABE);
+                out.writeShort(0);
+                out.writeShort(VERSION);
+                out.writeShort(poolCount);
+                pool.writeTo(out);
+                out.writeShort(0x0010 | 0x0020); // ACC_FINAL | ACC_SUPER
+                out.writeShort(thisClass);
+                out.writeShort(superClass);
+                out.writeShort(1);
+                out.writeShort(programInterface);
+                out.writeShort(0); // fields
+                out.writeShort(3); // methods
+                out.write(constructor);
+                out.write(evaluate);
+                out.write(evaluateLong);
+                out.writeShort(0); // attributes
+            } catch (IOException e) {
+                throw new IllegalStateException(e);
+            }
+            return bytes.toByteArray();
+        }
+
+        /**
+         * Returns the number of local variable slots used by an evaluate
+         * method: {@code this}, the bindings, then one local per variable and
+         * per temporary.
+         *
+         * @param wide whether the locals are longs, which take two slots
+         * @return the number of local variable slots
+         */
+        private int locals(boolean wide) {
+            int count = 2 + (expression.variables.length + expression.temps) * (wide ? 2 : 1);
+            if (count > 0xFFFF) {
+                throw new IllegalArgumentException("Too many locals: " + count);
+            }
+            return count;
+        }
+
+        /**
+         * Returns the local variable slot of a variable or temporary.
+         *
+         * @param index the variable slot, or the number of variables plus the
+         *              temporary index
+         * @param wide  whether the locals are longs
+         * @return the local variable slot
+         */
+        private static int local(int index, boolean wide) {
+            return 2 + index * (wide ? 2 : 1);
+        }
+
+        /**
+         * Returns the code of the constructor, which only calls
+         * {@code Object()}.
+         *
+         * @return the bytecode
+         */
+        private byte[] constructorCode() {
+            int objectInit = methodRef("java/lang/Object", "<init>", "()V");
+            Code code = new Code();
+            code.op(0x2a); // aload_0
+            code.op(0xb7); // invokespecial
+            code.u2(objectInit);
+            code.op(0xb1); // return
+            return code.toByteArray();
+        }
+
+        /**
+         * Returns the code of {@code evaluate} or {@code evaluateLong}.
+         *
+         * @param wide {@code true} for {@code evaluateLong}
+         * @return the bytecode
+         */
+        private byte[] evaluateCode(boolean wide) {
+            int[] program = expression.code;
+            int variables = expression.variables.length;
+            Code code = new Code();
+
+            // copy each variable that is used from the bindings array into its local
+            boolean[] loaded = new boolean[variables];
+            for (int pc = 0; pc < program.length; pc++) {
+                int opcode = program[pc];
+                if (opcode < CompiledExpression.ADD || opcode > CompiledExpression.DIV) {
+                    int operand = program[++pc];
+                    if (opcode == CompiledExpression.LOAD && !loaded[operand]) {
+                        loaded[operand] = true;
+                        code.op(0x2b); // aload_1
+                        pushInt(code, operand);
+                        code.op(wide ? 0x2f : 0x2e); // laload / iaload
+                        code.local(wide ? 0x37 : 0x36, local(operand, wide)); // lstore / istore
+                    }
+                }
+            }
+
+            for (int pc = 0; pc < program.length; pc++) {
+                switch (program[pc]) {
+                    case CompiledExpression.CONST:
+                        pushConstant(code, expression.constants[program[++pc]], wide);
+                        break;
+                    case CompiledExpression.LOAD:
+                        code.local(wide ? 0x16 : 0x15, local(program[++pc], wide)); // lload / iload
+                        break;
+                    case CompiledExpression.TEE:
+                        code.op(wide ? 0x5c : 0x59); // dup2 / dup
+                        code.local(wide ? 0x37 : 0x36, local(variables + program[++pc], wide));
+                        break;
+                    case CompiledExpression.LOAD_TEMP:
+                        code.local(wide ? 0x16 : 0x15, local(variables + program[++pc], wide));
+                        break;
+                    case CompiledExpression.ADD:
+                        arithmetic(code, wide, 0x60, "addExact");
+                        break;
+                    case CompiledExpression.SUB:
+                        arithmetic(code, wide, 0x64, "subtractExact");
+                        break;
+                    case CompiledExpression.MUL:
+                        arithmetic(code, wide, 0x68, "multiplyExact");
+                        break;
+                    case CompiledExpression.DIV:
+                        if (wide) {
+                            code.op(0xb8); // invokestatic
+                            code.u2(methodRef("TieredExpression", "divideExact", "(JJ)J"));
+                        } else {
+                            code.op(0x6c); // idiv
+                        }
+                        break;
+                    default:
+                        throw new IllegalStateException("Bad opcode " + program[pc] + " at " + pc);
+                }
+            }
+
+            code.op(wide ? 0xad : 0xac); // lreturn / ireturn
+            return code.toByteArray();
+        }
+
+        /**
+         * Writes an arithmetic instruction: the int instruction itself, or a
+         * call to the overflow-checking {@code Math} method for longs.
+         *
+         * @param code      the code being written
+         * @param wide      whether the operands are longs
+         * @param intOpcode the JVM opcode of the int instruction
+         * @param exact     the name of the {@code Math} method for longs
+         */
+        private void arithmetic(Code code, boolean wide, int intOpcode, String exact) {
+            if (wide) {
+                code.op(0xb8); // invokestatic
+                code.u2(methodRef("java/lang/Math", exact, "(JJ)J"));
+            } else {
+                code.op(intOpcode);
+            }
+        }
+
+        /**
+         * Writes the instruction that pushes a constant, as an int or a long.
+         *
+         * @param code  the code being written
+         * @param value the constant
+         * @param wide  whether to push a long
+         */
+        private void pushConstant(Code code, long value, boolean wide) {
+            if (!wide) {
+                pushInt(code, (int) value);
+            } else if (value == 0 || value == 1) {
+                code.op(0x09 + (int) value); // lconst_0 / lconst_1
+            } else if (value == (short) value) {
+                pushInt(code, (int) value);
+                code.op(0x85); // i2l
+            } else {
+                code.op(0x14); // ldc2_w
+                code.u2(longConstant(value));
+            }
+        }
+
+        /**
+         * Writes the shortest instruction that pushes an int.
+         *
+         * @param code  the code being written
+         * @param value the int to push
+         */
+        private void pushInt(Code code, int value) {
+            if (value >= -1 && value <= 5) {
+                code.op(0x03 + value); // iconst_m1 .. iconst_5
+            } else if (value == (byte) value) {
+                code.op(0x10); // bipush
+                code.op(value & 0xFF);
+            } else if (value == (short) value) {
+                code.op(0x11); // sipush
+                code.u2(value & 0xFFFF);
+            } else {
+                code.op(0x13); // ldc_w
+                code.u2(intConstant(value));
+            }
+        }
+
+        /**
+         * Returns a complete {@code method_info} structure with a
+         * {@code Code} attribute.
+         *
+         * @param name      the method name
+         * @param type      the method descriptor
+         * @param code      the bytecode
+         * @param maxStack  the operand stack size
+         * @param maxLocals the number of local variable slots
+         * @return the bytes of the method
+         */
+        private byte[] method(String name, String type, byte[] code, int maxStack, int maxLocals) {
+            if (code.length > 0xFFFF || maxStack > 0xFFFF) {
+                throw new IllegalArgumentException("Expression too large for one method: " + code.length + " bytes");
+            }
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            DataOutputStream out = new DataOutputStream(bytes);
+            try {
+                out.writeShort(0x0001); // ACC_PUBLIC
+                out.writeShort(utf8(name));
+                out.writeShort(utf8(type));
+                out.writeShort(1); // attributes
+                out.writeShort(utf8("Code"));
+                out.writeInt(12 + code.length);
+                out.writeShort(maxStack);
+                out.writeShort(maxLocals);
+                out.writeInt(code.length);
+                out.write(code);
+                out.writeShort(0); // exception table
+                out.writeShort(0); // attributes
+            } catch (IOException e) {
+                throw new IllegalStateException(e);
+            }
+            return bytes.toByteArray();
+        }
+
+        /**
+         * Returns the index of a {@code CONSTANT_Utf8} entry.
+         *
+         * @param text the string
+         * @return its constant pool index
+         */
+        private int utf8(String text) {
+            Integer index = poolIndex.get("U" + text);
+            if (index != null) {
+                return index;
+            }
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            DataOutputStream out = new DataOutputStream(bytes);
+            try {
+                out.writeByte(1);
+                out.writeUTF(text);
+            } catch (IOException e) {
+                throw new IllegalStateException(e);
+            }
+            return add("U" + text, bytes.toByteArray(), 1);
+        }
+
+        /**
+         * Returns the index of a {@code CONSTANT_Class} entry.
+         *
+         * @param internalName the class name with slashes
+         * @return its constant pool index
+         */
+        private int classRef(String internalName) {
+            Integer index = poolIndex.get("C" + internalName);
+            if (index != null) {
+                return index;
+            }
+            int name = utf8(internalName);
+            return add("C" + internalName, new byte[] {7, (byte) (name >> 8), (byte) name}, 1);
+        }
+
+        /**
+         * Returns the index of a {@code CONSTANT_Methodref} entry.
+         *
+         * @param owner the internal name of the declaring class
+         * @param name  the method name
+         * @param type  the method descriptor
+         * @return its constant pool index
+         */
+        private int methodRef(String owner, String name, String type) {
+            String key = "M" + owner + "." + name + type;
+            Integer index = poolIndex.get(key);
+            if (index != null) {
+                return index;
+            }
+            int ownerIndex = classRef(owner);
+            int nameIndex = utf8(name);
+            int typeIndex = utf8(type);
+            int nameAndType = add("N" + name + type, new byte[] {12,
+                    (byte) (nameIndex >> 8), (byte) nameIndex, (byte) (typeIndex >> 8), (byte) typeIndex}, 1);
+            return add(key, new byte[] {10,
+                    (byte) (ownerIndex >> 8), (byte) ownerIndex, (byte) (nameAndType >> 8), (byte) nameAndType}, 1);
+        }
+
+        /**
+         * Returns the index of a {@code CONSTANT_Integer} entry.
+         *
+         * @param value the int
+         * @return its constant pool index
+         */
+        private int intConstant(int value) {
+            Integer index = poolIndex.get("I" + value);
+            if (index != null) {
+                return index;
+            }
+            return add("I" + value, new byte[] {3,
+                    (byte) (value >> 24), (byte) (value >> 16), (byte) (value >> 8), (byte) value}, 1);
+        }
+
+        /**
+         * Returns the index of a {@code CONSTANT_Long} entry.
+         *
+         * @param value the long
+         * @return its constant pool index
+         */
+        private int longConstant(long value) {
+            Integer index = poolIndex.get("J" + value);
+            if (index != null) {
+                return index;
+            }
+            byte[] entry = new byte[9];
+            entry[0] = 5;
+            for (int i = 0; i < 8; i++) {
+                entry[1 + i] = (byte) (value >> (56 - 8 * i));
+            }
+            return add("J" + value, entry, 2);
+        }
+
+        /**
+         * Appends an entry to the constant pool.
+         *
+         * @param key   the key describing the entry
+         * @param entry the bytes of the entry
+         * @param slots the number of pool indexes it takes (2 for longs)
+         * @return the index of the entry
+         */
+        private int add(String key, byte[] entry, int slots) {
+            int index = poolCount;
+            pool.write(entry, 0, entry.length);
+            poolIndex.put(key, index);
+            poolCount += slots;
+            return index;
+        }
+    }
+
+    /**
+     * A growable buffer of bytecode.
+     */
+    private static final class Code {
+
+        /**
+         * The bytecode written so far.
+         */
+        private final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+
+        /**
+         * Appends one byte.
+         *
+         * @param value the opcode or operand byte
+         */
+        void op(int value) {
+            bytes.write(value);
+        }
+
+        /**
+         * Appends a two-byte operand.
+         *
+         * @param value the operand
+         */
+        void u2(int value) {
+            bytes.write(value >> 8);
+            bytes.write(value);
+        }
+
+        /**
+         * Appends a load or store of a local variable, using the
+         * {@code wide} form for slots above 255.
+         *
+         * @param opcode the load or store opcode
+         * @param slot   the local variable slot
+         */
+        void local(int opcode, int slot) {
+            if (slot > 0xFF) {
+                op(0xc4); // wide
+                op(opcode);
+                u2(slot);
+            } else {
+                op(opcode);
+                op(slot);
+            }
+        }
+
+        /**
+         * Returns the bytecode.
+         *
+         * @return the bytes written
+         */
+        byte[] toByteArray() {
+            return bytes.toByteArray();
+        }
+    }
+}
@@ -0,0 +1,424 @@
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.EmptyStackException;
+import java.util.function.ToLongFunction;
+
+import benchmarks.Workload;
+
+/**
+ * Builds the workloads run by the JMH benchmarks in {@code jmh/benchmarks}.
+ * <p>
+ * The benchmark classes have to be in a named package, which cannot refer
+ * to the classes here in the unnamed one, so they load this class by name
+ * and only call the {@link Workload} it returns. Everything a workload needs
+ * is built here, before measurement starts.
+ * </p>
+ *
+ * <p>
+ * Example:
+ * </p>
+ *
+ * <pre>{@code
+ * Workload workload = new BenchmarkWorkloads().create("expression", "infixEvaluator.evaluate", 0);
+ * }</pre>
+ */
+public class BenchmarkWorkloads implements Workload.Factory {
+
+    /**
+     * Malformed expressions, one for each way an expression can be rejected.
+     */
+    private static final String[] MALFORMED = {"3 + * 4", "( 1 + 2", "1 2", "3 $ 4", "1 / 0", "( 3 + 4 ) )"};
+
+    /**
+     * Builds a workload. The benchmarks are:
+     * <ul>
+     * <li>{@code stack.pushPeekPop}, with a stack implementation and a
+     * depth;</li>
+     * <li>{@code concurrentStack.pushPop}, with a thread-safe stack
+     * implementation; the workload is shared by every benchmark thread;</li>
+     * <li>{@code expression.<corpus>}, with an operation, over the
+     * {@code small}, {@code medium} or {@code deep} corpus;</li>
+     * <li>{@code malformed}, with an operation;</li>
+     * <li>{@code column}, with an operation and a row count.</li>
+     * </ul>
+     *
+     * @param benchmark the benchmark name
+     * @param variant   the implementation or operation to run
+     * @param size      the depth or row count, or 0 if not used
+     * @return the workload
+     * @throws IllegalArgumentException if the benchmark or variant is unknown
+     */
+    @Override
+    public Workload create(String benchmark, String variant, int size) {
+        switch (benchmark) {
+            case "stack.pushPeekPop":
+                return pushPeekPop(stack(variant, size), size);
+            case "concurrentStack.pushPop":
+                return pushPop(concurrentStack(variant));
+            case "expression.small":
+                return expression(variant, new String[] {"3 + 4", "10 + 2 * 6", "8 / 2 - 1"});
+            case "expression.medium":
+                return expression(variant, new String[] {
+                        "( 8 + ( 2 * ( 3 + 1 ) ) ) * 2",
+                        "( 4 + 5 ) * ( 6 + 7 ) - 8",
+                        "( 7 + 3 ) * ( 5 + 2 ) / ( 2 + 1 )",
+                        "100 * ( 2 + 12 ) / 14"});
+            case "expression.deep":
+                return expression(variant, new String[] {nested(50), nested(500)});
+            case "malformed":
+                return malformed(variant);
+            case "column":
+                return column(variant, size);
+            default:
+                throw new IllegalArgumentException("Unknown benchmark: " + benchmark);
+        }
+    }
+
+    /**
+     * Creates a single-threaded stack. The {@code (presized)} variants are
+     * sized for {@code depth} up front, so they show the cost of the stack
+     * without the resizing or pool overflow of the default sizes.
+     *
+     * @param impl  the implementation name
+     * @param depth the deepest the stack will get
+     * @return the stack
+     */
+    private static StackADT stack(String impl, int depth) {
+        switch (impl) {
+            case "ArrayBasedStack":
+                return new ArrayBasedStack();
+            case "ArrayBasedStack(presized)":
+                return new ArrayBasedStack(depth);
+            case "LinkedListBasedStack":
+                return new LinkedListBasedStack();
+            case "PooledLinkedListBasedStack":
+                return new PooledLinkedListBasedStack();
+            case "PooledLinkedListBasedStack(presized)":
+                return new PooledLinkedListBasedStack(depth, depth);
+            case "SnapshotStack":
+                return new SnapshotStack();
+            case "SegmentedStack":
+                return new SegmentedStack();
+            default:
+                throw new IllegalArgumentException("Unknown stack: " + impl);
+        }
+    }
+
+    /**
+     * Creates a thread-safe stack.
+     *
+     * @param impl the implementation name
+     * @return the stack
+     */
+    private static StackADT concurrentStack(String impl) {
+        switch (impl) {
+            case "ConcurrentLinkedStack":
+                return new ConcurrentLinkedStack();
+            case "EliminationBackoffStack":
+                return new EliminationBackoffStack();
+            case "SynchronizedStack(ArrayBasedStack)":
+                return new SynchronizedStack(new ArrayBasedStack());
+            case "SynchronizedStack(LinkedListBasedStack)":
+                return new SynchronizedStack(new LinkedListBasedStack());
+            default:
+                throw new IllegalArgumentException("Unknown stack: " + impl);
+        }
+    }
+
+    /**
+     * Pushes {@code depth} items, peeks, then pops them all.
+     *
+     * @param stack the stack to exercise
+     * @param depth the number of items to push
+     * @return the workload
+     */
+    private static Workload pushPeekPop(StackADT stack, int depth) {
+        return () -> {
+            for (int i = 0; i < depth; i++) {
+                stack.push("x");
+            }
+            long last = stack.peek().length();
+            for (int i = 0; i < depth; i++) {
+                last += stack.pop().length();
+            }
+            return last;
+        };
+    }
+
+    /**
+     * Pushes then pops one item on a stack shared by every thread.
+     *
+     * @param stack the shared stack
+     * @return the workload
+     */
+    private static Workload pushPop(StackADT stack) {
+        return () -> {
+            stack.push("x");
+            try {
+                return stack.pop().length();
+            } catch (EmptyStackException e) {
+                // another thread took our item and its own
+                return 0;
+            }
+        };
+    }
+
+    /**
+     * Builds a workload that runs one operation over every expression of a
+     * corpus.
+     *
+     * @param operation the operation name
+     * @param infix     the corpus, in infix notation
+     * @return the workload
+     */
+    private static Workload expression(String operation, String[] infix) {
+        String[] postfix = new String[infix.length];
+        for (int i = 0; i < infix.length; i++) {
+            postfix[i] = new InfixConverter(new ArrayBasedStack()).toPostfix(infix[i]);
+        }
+
+        switch (operation) {
+            case "infixConverter.toPostfix": {
+                InfixConverter converter = new InfixConverter(new ArrayBasedStack());
+                return each(infix, e -> converter.toPostfix(e).length());
+            }
+            case "postfixEvaluator.evaluate": {
+                PostfixEvaluator evaluator = new PostfixEvaluator(new ArrayBasedStack());
+                return each(postfix, evaluator::evaluate);
+            }
+            case "postfixEvaluator.evaluatePrimitive": {
+                PostfixEvaluator evaluator = new PostfixEvaluator(new ArrayBasedStack());
+                return each(postfix, evaluator::evaluatePrimitive);
+            }
+            case "postfixEvaluator.evaluateBinary": {
+                PostfixEvaluator evaluator = new PostfixEvaluator(new ArrayBasedStack());
+                ByteBuffer[] encoded = new ByteBuffer[postfix.length];
+                for (int i = 0; i < postfix.length; i++) {
+                    byte[] bytes = PostfixEncoder.encode(postfix[i]);
+                    encoded[i] = ByteBuffer.allocateDirect(bytes.length).put(bytes).flip();
+                }
+                return () -> {
+                    long last = 0;
+                    for (ByteBuffer buffer : encoded) {
+                        last += evaluator.evaluate(buffer);
+                    }
+                    return last;
+                };
+            }
+            case "postfixEvaluator.evaluateLong": {
+                PostfixEvaluator evaluator = new PostfixEvaluator(new ArrayBasedStack());
+                return each(postfix, evaluator::evaluateLong);
+            }
+            case "postfixEvaluator.evaluateExact": {
+                PostfixEvaluator evaluator = new PostfixEvaluator(new ArrayBasedStack());
+                return each(postfix, e -> evaluator.evaluateExact(e).longValue());
+            }
+            case "convertThenEvaluate": {
+                InfixConverter converter = new InfixConverter(new ArrayBasedStack());
+                PostfixEvaluator evaluator = new PostfixEvaluator(new ArrayBasedStack());
+                return each(infix, e -> evaluator.evaluate(converter.toPostfix(e)));
+            }
+            case "infixEvaluator.evaluate": {
+                InfixEvaluator evaluator = new InfixEvaluator();
+                return each(infix, evaluator::evaluate);
+            }
+            case "infixEvaluator.tryEvaluate": {
+                InfixEvaluator evaluator = new InfixEvaluator();
+                return each(infix, e -> evaluator.tryEvaluate(e).value());
+            }
+            case "compiledExpression.evaluate":
+                return evaluateAll(compileAll(infix, false));
+            case "optimizedExpression.evaluate":
+                return evaluateAll(compileAll(infix, true));
+            case "expressionStore.get": {
+                ExpressionStore store;
+                try {
+                    Path file = Files.createTempFile("benchmark", ".store");
+                    file.toFile().deleteOnExit();
+                    store = new ExpressionStore(file);
+                    for (String expression : infix) {
+                        store.put(expression, CompiledExpression.compile(expression));
+                    }
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+                return each(infix, e -> store.get(e).code.length);
+            }
+            case "expressionCache.evaluate": {
+                ExpressionCache cache = new ExpressionCache(1024);
+                return each(infix, cache::evaluate);
+            }
+            default:
+                throw new IllegalArgumentException("Unknown operation: " + operation);
+        }
+    }
+
+    /**
+     * Builds a workload that rejects every malformed expression, either by
+     * throwing and catching or by returning an error.
+     *
+     * @param operation {@code infixEvaluator.evaluate} or
+     *                  {@code infixEvaluator.tryEvaluate}
+     * @return the workload
+     */
+    private static Workload malformed(String operation) {
+        InfixEvaluator evaluator = new InfixEvaluator();
+        switch (operation) {
+            case "infixEvaluator.evaluate":
+                return each(MALFORMED, e -> {
+                    try {
+                        return evaluator.evaluate(e);
+                    } catch (RuntimeException failure) {
+                        return -1;
+                    }
+                });
+            case "infixEvaluator.tryEvaluate":
+                return each(MALFORMED, e -> evaluator.tryEvaluate(e).position());
+            default:
+                throw new IllegalArgumentException("Unknown operation: " + operation);
+        }
+    }
+
+    /**
+     * Builds a workload that evaluates one formula over {@code rows} rows,
+     * row by row or block-wise over columns.
+     *
+     * @param operation the operation name
+     * @param rows      the number of rows
+     * @return the workload
+     */
+    private static Workload column(String operation, int rows) {
+        CompiledExpression expr = CompiledExpression.compile("( a + 3 ) * b - a / b + 7", "a", "b");
+        int[] a = new int[rows];
+        int[] b = new int[rows];
+        long[] longA = new long[rows];
+        long[] longB = new long[rows];
+        for (int i = 0; i < rows; i++) {
+            a[i] = i;
+            b[i] = i % 7 + 1;
+            longA[i] = a[i];
+            longB[i] = b[i];
+        }
+
+        switch (operation) {
+            case "compiledExpression.evaluateRows": {
+                int[] bindings = new int[2];
+                int[] result = new int[rows];
+                return () -> {
+                    for (int i = 0; i < rows; i++) {
+                        bindings[0] = a[i];
+                        bindings[1] = b[i];
+                        result[i] = expr.evaluate(bindings);
+                    }
+                    return result[rows - 1];
+                };
+            }
+            case "tieredExpression.evaluateRows": {
+                TieredExpression tiered = new TieredExpression(expr);
+                int[] bindings = new int[2];
+                int[] result = new int[rows];
+                return () -> {
+                    for (int i = 0; i < rows; i++) {
+                        bindings[0] = a[i];
+                        bindings[1] = b[i];
+                        result[i] = tiered.evaluate(bindings);
+                    }
+                    return result[rows - 1];
+                };
+            }
+            case "columnEvaluator.evaluate": {
+                ColumnEvaluator evaluator = new ColumnEvaluator();
+                int[][] columns = {a, b};
+                int[] result = new int[rows];
+                return () -> {
+                    evaluator.evaluate(expr, columns, result);
+                    return result[rows - 1];
+                };
+            }
+            case "columnEvaluator.evaluateLong": {
+                ColumnEvaluator evaluator = new ColumnEvaluator();
+                long[][] columns = {longA, longB};
+                long[] result = new long[rows];
+                return () -> {
+                    evaluator.evaluateLong(expr, columns, result);
+                    return result[rows - 1];
+                };
+            }
+            default:
+                throw new IllegalArgumentException("Unknown operation: " + operation);
+        }
+    }
+
+    /**
+     * Builds a workload that applies {@code operation} to every expression.
+     *
+     * @param expressions the expressions
+     * @param operation   the operation, returning a value to keep alive
+     * @return the workload
+     */
+    private static Workload each(String[] expressions, ToLongFunction<String> operation) {
+        return () -> {
+            long last = 0;
+            for (String expression : expressions) {
+                last += operation.applyAsLong(expression);
+            }
+            return last;
+        };
+    }
+
+    /**
+     * Compiles every expression, optionally optimizing it.
+     *
+     * @param infix    the expressions
+     * @param optimize whether to run the optimizer
+     * @return the compiled expressions
+     */
+    private static CompiledExpression[] compileAll(String[] infix, boolean optimize) {
+        CompiledExpression[] compiled = new CompiledExpression[infix.length];
+        for (int i = 0; i < infix.length; i++) {
+            compiled[i] = CompiledExpression.compile(infix[i]);
+            if (optimize) {
+                compiled[i] = ExpressionOptimizer.optimize(compiled[i]);
+            }
+        }
+        return compiled;
+    }
+
+    /**
+     * Builds a workload that evaluates every compiled expression.
+     *
+     * @param compiled the expressions
+     * @return the workload
+     */
+    private static Workload evaluateAll(CompiledExpression[] compiled) {
+        return () -> {
+            long last = 0;
+            for (CompiledExpression expression : compiled) {
+                last += expression.evaluate();
+            }
+            return last;
+        };
+    }
+
+    /**
+     * Builds an expression nested {@code depth} parentheses deep, such as
+     * {@code ( ( 1 + 2 ) - 3 )} for depth 2.
+     *
+     * @param depth the nesting depth
+     * @return the expression
+     */
+    private static String nested(int depth) {
+        StringBuilder expression = new StringBuilder();
+        for (int i = 0; i < depth; i++) {
+            expression.append("( ");
+        }
+        expression.append('1');
+        for (int i = 0; i < depth; i++) {
+            expression.append(i % 2 == 0 ? " + " : " - ").append(i % 9 + 1).append(" )");
+        }
+        return expression.toString();
+    }
+}
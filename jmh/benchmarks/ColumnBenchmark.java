@@ -0,0 +1,73 @@
+package benchmarks;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Evaluates one formula over a million rows, row by row or block-wise over
+ * columns. Each operation is one row.
+ *
+ * <p>
+ * Example:
+ * </p>
+ *
+ * <pre>{@code
+ * java -jar target/benchmarks.jar ColumnBenchmark -rf json
+ * }</pre>
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class ColumnBenchmark {
+
+    /**
+     * Number of rows evaluated per invocation.
+     */
+    private static final int ROWS = 1_000_000;
+
+    /**
+     * How the rows are evaluated.
+     */
+    @Param({"compiledExpression.evaluateRows", "tieredExpression.evaluateRows", "columnEvaluator.evaluate",
+            "columnEvaluator.evaluateLong"})
+    public String operation;
+
+    /**
+     * The evaluation over every row.
+     */
+    private Workload workload;
+
+    /**
+     * Fills the columns.
+     */
+    @Setup
+    public void setUp() {
+        workload = Workload.create("column", operation, ROWS);
+    }
+
+    /**
+     * Evaluates every row.
+     *
+     * @return the result for the last row
+     */
+    @Benchmark
+    @OperationsPerInvocation(ROWS)
+    public long run() {
+        return workload.run();
+    }
+}
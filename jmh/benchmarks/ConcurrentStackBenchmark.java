@@ -0,0 +1,68 @@
+package benchmarks;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Pushes then pops one item on a thread-safe stack shared by every benchmark
+ * thread. One operation is the push and the pop.
+ *
+ * <p>
+ * Example:
+ * </p>
+ *
+ * <pre>{@code
+ * java -jar target/benchmarks.jar ConcurrentStackBenchmark -t 8 -rf json
+ * }</pre>
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@Threads(4)
+@State(Scope.Benchmark)
+public class ConcurrentStackBenchmark {
+
+    /**
+     * The stack implementation.
+     */
+    @Param({"ConcurrentLinkedStack", "EliminationBackoffStack", "SynchronizedStack(ArrayBasedStack)",
+            "SynchronizedStack(LinkedListBasedStack)"})
+    public String impl;
+
+    /**
+     * The push and pop on the shared stack.
+     */
+    private Workload workload;
+
+    /**
+     * Creates the shared stack.
+     */
+    @Setup
+    public void setUp() {
+        workload = Workload.create("concurrentStack.pushPop", impl, 0);
+    }
+
+    /**
+     * Pushes and pops one item.
+     *
+     * @return the length of the popped item, or 0 if another thread took it
+     */
+    @Benchmark
+    public long pushPop() {
+        return workload.run();
+    }
+}
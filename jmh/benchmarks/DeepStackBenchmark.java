@@ -0,0 +1,71 @@
+package benchmarks;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Like {@link StackBenchmark}, but with stacks millions of items deep, where
+ * resize copies and per-node overhead dominate.
+ *
+ * <p>
+ * Example:
+ * </p>
+ *
+ * <pre>{@code
+ * java -jar target/benchmarks.jar DeepStackBenchmark -prof gc -rf json
+ * }</pre>
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class DeepStackBenchmark {
+
+    /**
+     * The stack implementation.
+     */
+    @Param({"ArrayBasedStack", "LinkedListBasedStack", "SegmentedStack"})
+    public String impl;
+
+    /**
+     * The number of items pushed each round.
+     */
+    @Param({"1000000", "10000000"})
+    public int depth;
+
+    /**
+     * The round trip.
+     */
+    private Workload workload;
+
+    /**
+     * Creates the stack.
+     */
+    @Setup
+    public void setUp() {
+        workload = Workload.create("stack.pushPeekPop", impl, depth);
+    }
+
+    /**
+     * Runs one round trip.
+     *
+     * @return a value derived from the popped items
+     */
+    @Benchmark
+    public long pushPeekPop() {
+        return workload.run();
+    }
+}
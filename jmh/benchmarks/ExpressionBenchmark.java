@@ -0,0 +1,75 @@
+package benchmarks;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Converts or evaluates every expression of a corpus of small, medium or
+ * deeply nested expressions. One operation is the whole corpus.
+ *
+ * <p>
+ * Example:
+ * </p>
+ *
+ * <pre>{@code
+ * java -jar target/benchmarks.jar ExpressionBenchmark -p corpus=deep -rf json
+ * }</pre>
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class ExpressionBenchmark {
+
+    /**
+     * The corpus.
+     */
+    @Param({"small", "medium", "deep"})
+    public String corpus;
+
+    /**
+     * What is done to each expression.
+     */
+    @Param({"infixConverter.toPostfix", "postfixEvaluator.evaluate", "postfixEvaluator.evaluatePrimitive",
+            "postfixEvaluator.evaluateBinary", "postfixEvaluator.evaluateLong", "postfixEvaluator.evaluateExact",
+            "convertThenEvaluate", "infixEvaluator.evaluate", "infixEvaluator.tryEvaluate",
+            "compiledExpression.evaluate", "optimizedExpression.evaluate", "expressionStore.get",
+            "expressionCache.evaluate"})
+    public String operation;
+
+    /**
+     * The operation over the corpus.
+     */
+    private Workload workload;
+
+    /**
+     * Prepares the corpus.
+     */
+    @Setup
+    public void setUp() {
+        workload = Workload.create("expression." + corpus, operation, 0);
+    }
+
+    /**
+     * Runs the operation over the corpus.
+     *
+     * @return a value derived from the results
+     */
+    @Benchmark
+    public long run() {
+        return workload.run();
+    }
+}
@@ -0,0 +1,65 @@
+package benchmarks;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Rejects a corpus of malformed expressions, by throwing and catching or by
+ * returning an error. One operation is the whole corpus.
+ *
+ * <p>
+ * Example:
+ * </p>
+ *
+ * <pre>{@code
+ * java -jar target/benchmarks.jar MalformedExpressionBenchmark -prof gc -rf json
+ * }</pre>
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class MalformedExpressionBenchmark {
+
+    /**
+     * How the expressions are rejected.
+     */
+    @Param({"infixEvaluator.evaluate", "infixEvaluator.tryEvaluate"})
+    public String operation;
+
+    /**
+     * The operation over the corpus.
+     */
+    private Workload workload;
+
+    /**
+     * Prepares the evaluator.
+     */
+    @Setup
+    public void setUp() {
+        workload = Workload.create("malformed", operation, 0);
+    }
+
+    /**
+     * Rejects every expression of the corpus.
+     *
+     * @return a value derived from the results
+     */
+    @Benchmark
+    public long run() {
+        return workload.run();
+    }
+}
@@ -0,0 +1,80 @@
+package benchmarks;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Pushes {@code depth} items onto a single-threaded stack, peeks, then pops
+ * them all. One operation is the whole round trip.
+ * <p>
+ * With the default sizes, {@code ArrayBasedStack} shrinks as it is popped and
+ * grows again on the next round, and {@code PooledLinkedListBasedStack} keeps
+ * only 1024 free nodes, so deeper rounds allocate; run with {@code -prof gc}
+ * to see it. The {@code (presized)} variants are sized for {@code depth} and
+ * show the stacks without that cost.
+ * </p>
+ *
+ * <p>
+ * Example:
+ * </p>
+ *
+ * <pre>{@code
+ * java -jar target/benchmarks.jar benchmarks.StackBenchmark -p depth=1000 -prof gc -rf json
+ * }</pre>
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class StackBenchmark {
+
+    /**
+     * The stack implementation.
+     */
+    @Param({"ArrayBasedStack", "ArrayBasedStack(presized)", "LinkedListBasedStack",
+            "PooledLinkedListBasedStack", "PooledLinkedListBasedStack(presized)", "SnapshotStack",
+            "SegmentedStack"})
+    public String impl;
+
+    /**
+     * The number of items pushed each round.
+     */
+    @Param({"10", "1000", "100000"})
+    public int depth;
+
+    /**
+     * The round trip.
+     */
+    private Workload workload;
+
+    /**
+     * Creates the stack.
+     */
+    @Setup
+    public void setUp() {
+        workload = Workload.create("stack.pushPeekPop", impl, depth);
+    }
+
+    /**
+     * Runs one round trip.
+     *
+     * @return a value derived from the popped items
+     */
+    @Benchmark
+    public long pushPeekPop() {
+        return workload.run();
+    }
+}
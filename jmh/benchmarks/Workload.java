@@ -0,0 +1,74 @@
+package benchmarks;
+
+/**
+ * A unit of benchmarked work.
+ * <p>
+ * JMH only generates benchmarks for classes in a named package, and a class
+ * in a named package cannot refer to the project classes in the unnamed one.
+ * The benchmarks therefore only see this interface; the workloads themselves
+ * are built by {@code BenchmarkWorkloads} in the unnamed package, which is
+ * loaded once per trial. Each fork runs a single workload, so the call
+ * through this interface stays monomorphic and is inlined like a direct
+ * call.
+ * </p>
+ *
+ * <p>
+ * Example:
+ * </p>
+ *
+ * <pre>{@code
+ * Workload workload = Workload.create("stack.pushPeekPop", "ArrayBasedStack", 1000);
+ * long result = workload.run();
+ * }</pre>
+ */
+public interface Workload {
+
+    /**
+     * Runs the work once.
+     *
+     * @return a value derived from the work, for the benchmark to return so
+     *         JMH consumes it and the work cannot be removed as dead code
+     */
+    long run();
+
+    /**
+     * Builds workloads. Implemented by {@code BenchmarkWorkloads}.
+     */
+    interface Factory {
+
+        /**
+         * Builds a workload.
+         *
+         * @param benchmark the benchmark name, such as
+         *                  {@code "stack.pushPeekPop"}
+         * @param variant   the implementation, corpus or operation to run
+         * @param size      the depth or row count, or 0 if not used
+         * @return the workload
+         * @throws IllegalArgumentException if the benchmark or variant is
+         *                                  unknown
+         */
+        Workload create(String benchmark, String variant, int size);
+    }
+
+    /**
+     * Builds a workload with {@code BenchmarkWorkloads}.
+     *
+     * @param benchmark the benchmark name
+     * @param variant   the implementation, corpus or operation to run
+     * @param size      the depth or row count, or 0 if not used
+     * @return the workload
+     * @throws IllegalStateException    if {@code BenchmarkWorkloads} cannot be
+     *                                  loaded
+     * @throws IllegalArgumentException if the benchmark or variant is
+     *                                  unknown
+     */
+    static Workload create(String benchmark, String variant, int size) {
+        Factory factory;
+        try {
+            factory = (Factory) Class.forName("BenchmarkWorkloads").getDeclaredConstructor().newInstance();
+        } catch (ReflectiveOperationException e) {
+            throw new IllegalStateException("Cannot load BenchmarkWorkloads", e);
+        }
+        return factory.create(benchmark, variant, size);
+    }
+}